@@ -21,6 +21,8 @@ public class ResponseCodes {
 
   public static final int RESPONSE_OK = 200;
 
+  public static final int RESPONSE_NOT_MODIFIED = 304;
+
   public static final int RESPONSE_INVALID_ARGUMENT = 400;
 
   public static final int RESPONSE_UNAUTHORIZED = 401;
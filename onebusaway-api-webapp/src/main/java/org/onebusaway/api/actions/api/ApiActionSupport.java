@@ -115,6 +115,16 @@ public class ApiActionSupport extends OneBusAwayApiActionSupport implements
     return new DefaultHttpHeaders();
   }
 
+  /**
+   * A response with no data, for a client that already has the current
+   * content, so that nothing is serialized.
+   */
+  protected DefaultHttpHeaders setNotModifiedResponse() {
+    _response = new ResponseBean(getReturnVersion(),
+        ResponseCodes.RESPONSE_NOT_MODIFIED, "not modified", null);
+    return new DefaultHttpHeaders().withStatus(_response.getCode());
+  }
+
   protected DefaultHttpHeaders setValidationErrorsResponse() {
     ValidationErrorBean bean = new ValidationErrorBean(new ArrayList<String>(
         getActionErrors()), getFieldErrors());
@@ -16,10 +16,16 @@
 package org.onebusaway.api.actions.api.gtfs_realtime;
 
 import java.util.Date;
+import java.util.Enumeration;
 
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.struts2.ServletActionContext;
 import org.apache.struts2.rest.DefaultHttpHeaders;
 import org.onebusaway.api.actions.api.ApiActionSupport;
 import org.onebusaway.api.services.AgencyAndIdModificationStrategy;
+import org.onebusaway.api.services.GtfsRealtimeFeedSnapshot;
+import org.onebusaway.api.services.GtfsRealtimeFeedSnapshotService;
 import org.onebusaway.exceptions.ServiceException;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data.services.TransitDataService;
@@ -44,6 +50,9 @@ public abstract class GtfsRealtimeActionSupport extends ApiActionSupport {
   @Autowired(required = false)
   protected AgencyAndIdModificationStrategy _stopIdModificationStrategy;
 
+  @Autowired(required = false)
+  protected GtfsRealtimeFeedSnapshotService _snapshotService;
+
   private String _agencyId;
 
   private long _time;
@@ -58,6 +67,10 @@ public abstract class GtfsRealtimeActionSupport extends ApiActionSupport {
     _service = service;
   }
 
+  public void setFeedSnapshotService(GtfsRealtimeFeedSnapshotService snapshotService) {
+    _snapshotService = snapshotService;
+  }
+
   @RequiredFieldValidator
   public void setId(String id) {
     _agencyId = id;
@@ -83,20 +96,87 @@ public abstract class GtfsRealtimeActionSupport extends ApiActionSupport {
     if (hasErrors())
       return setValidationErrorsResponse();
 
+    /**
+     * Requests for the current feed are served from a shared snapshot, so the
+     * feed is only rebuilt once per refresh interval regardless of the number
+     * of clients polling it. Requests for a specific time are always built
+     * directly.
+     */
+    if (_time == 0 && _snapshotService != null) {
+      String key = getClass().getName() + "|" + _agencyId + "|"
+          + _removeAgencyIds;
+      GtfsRealtimeFeedSnapshot snapshot = _snapshotService.getSnapshot(key,
+          new GtfsRealtimeFeedSnapshotService.FeedFactory() {
+            @Override
+            public FeedMessage buildFeed(long time) {
+              return buildFeedMessage(time);
+            }
+          });
+      return setSnapshotResponse(snapshot);
+    }
+
     long time = SystemTime.currentTimeMillis();
     if (_time != 0)
       time = _time;
 
+    return setOkResponse(buildFeedMessage(time));
+  }
+
+  protected abstract void fillFeedMessage(FeedMessage.Builder feed,
+      String agencyId, long timestamp);
+
+  private FeedMessage buildFeedMessage(long time) {
     FeedMessage.Builder feed = FeedMessage.newBuilder();
     FeedHeader.Builder header = feed.getHeaderBuilder();
     header.setGtfsRealtimeVersion(GtfsRealtimeConstants.VERSION);
     header.setTimestamp(time / 1000);
     fillFeedMessage(feed, _agencyId, time);
-    return setOkResponse(feed.build());
+    return feed.build();
   }
 
-  protected abstract void fillFeedMessage(FeedMessage.Builder feed,
-      String agencyId, long timestamp);
+  private DefaultHttpHeaders setSnapshotResponse(
+      GtfsRealtimeFeedSnapshot snapshot) {
+    HttpServletRequest request = ServletActionContext.getRequest();
+    if (request != null && isNotModified(request, snapshot)) {
+      /**
+       * The client already has this feed, so we return before the feed is
+       * attached to the response and serialized
+       */
+      DefaultHttpHeaders headers = setNotModifiedResponse();
+      headers.withETag(snapshot.getETag());
+      headers.lastModified(new Date(snapshot.getLastModified()));
+      return headers;
+    }
+
+    DefaultHttpHeaders headers = setOkResponse(snapshot.getFeedMessage());
+    headers.withETag(snapshot.getETag());
+    headers.lastModified(new Date(snapshot.getLastModified()));
+    if (request != null)
+      request.setAttribute(GtfsRealtimeFeedSnapshot.REQUEST_ATTRIBUTE, snapshot);
+    return headers;
+  }
+
+  private boolean isNotModified(HttpServletRequest request,
+      GtfsRealtimeFeedSnapshot snapshot) {
+    /**
+     * If-None-Match may be sent as several headers, which together form a
+     * single list
+     */
+    String ifNoneMatch = null;
+    Enumeration<?> values = request.getHeaders("If-None-Match");
+    while (values != null && values.hasMoreElements()) {
+      String value = values.nextElement().toString();
+      ifNoneMatch = ifNoneMatch == null ? value : ifNoneMatch + "," + value;
+    }
+
+    long ifModifiedSince = -1;
+    try {
+      ifModifiedSince = request.getDateHeader("If-Modified-Since");
+    } catch (IllegalArgumentException ex) {
+      // an unparseable date is treated as if the header were absent
+    }
+    return snapshot.isNotModified(ifNoneMatch, ifModifiedSince);
+  }
 
   protected String normalizeId(String id) {
     if (_removeAgencyIds) {
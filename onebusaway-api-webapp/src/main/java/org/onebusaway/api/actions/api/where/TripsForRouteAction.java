@@ -16,10 +16,16 @@
 package org.onebusaway.api.actions.api.where;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
+import org.apache.struts2.ServletActionContext;
 import org.apache.struts2.rest.DefaultHttpHeaders;
 import org.onebusaway.api.actions.api.ApiActionSupport;
+import org.onebusaway.api.actions.siri.MonitoringActionBase;
+import org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot;
+import org.onebusaway.api.actions.siri.service.VehicleStatusSnapshotService;
 import org.onebusaway.api.impl.MaxCountSupport;
 import org.onebusaway.api.model.transit.BeanFactoryV2;
 import org.onebusaway.api.model.transit.TripDetailsV2Bean;
@@ -45,6 +51,9 @@ public class TripsForRouteAction extends ApiActionSupport {
   @Autowired
   private TransitDataService _service;
 
+  @Autowired
+  private VehicleStatusSnapshotService _vehicleStatusSnapshotService;
+
   private String _id;
 
   private long _time = 0;
@@ -116,10 +125,40 @@ public class TripsForRouteAction extends ApiActionSupport {
     BeanFactoryV2 factory = getBeanFactoryV2();
 
     try {
-      ListBean<TripDetailsBean> trips = _service.getTripsForRoute(query);
+      ListBean<TripDetailsBean> trips = getTripsFromSnapshot(time);
+      if (trips == null)
+        trips = _service.getTripsForRoute(query);
       return setOkResponse(factory.getTripDetailsResponse(trips));
     } catch (OutOfServiceAreaServiceException ex) {
       return setOkResponse(factory.getEmptyList(TripDetailsV2Bean.class, true));
     }
   }
+
+  /**
+   * The vehicle status snapshot holds the current trips and statuses for the
+   * route, as this query would return them, but no schedules.
+   * 
+   * @return the trips from the snapshot, or null if the request asks for
+   *         more than it holds or it is not current
+   */
+  private ListBean<TripDetailsBean> getTripsFromSnapshot(long time) {
+    if (_time != 0 || !_includeTrip || !_includeStatus || _includeSchedule)
+      return null;
+
+    VehicleStatusSnapshot snapshot = _vehicleStatusSnapshotService.getSnapshot(time);
+    if (snapshot == null)
+      return null;
+    List<VehicleStatusSnapshot.Entry> entries = snapshot.getEntriesQueriedForRoute(_id);
+    if (entries == null)
+      return null;
+
+    List<TripDetailsBean> trips = new ArrayList<TripDetailsBean>(entries.size());
+    for (VehicleStatusSnapshot.Entry entry : entries)
+      trips.add(entry.getTripDetails());
+
+    ServletActionContext.getResponse().setHeader(
+        MonitoringActionBase.VEHICLE_STATUS_SNAPSHOT_TIME_HEADER,
+        Long.toString(snapshot.getTime()));
+    return new ListBean<TripDetailsBean>(trips, false);
+  }
 }
@@ -19,7 +19,10 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.onebusaway.api.actions.api.ApiActionSupport;
+import org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot;
 import org.onebusaway.api.actions.siri.service.RealtimeServiceV2;
 import org.onebusaway.geospatial.model.CoordinateBounds;
 import org.onebusaway.geospatial.services.SphericalGeometryLibrary;
@@ -54,6 +57,13 @@ public class MonitoringActionBase  extends ApiActionSupport {
   public static final String MAX_STOP_VISITS = "MaximumStopVisits";
   public static final String MIN_STOP_VISITS = "MinimumStopVisitsPerLine";
 
+  /**
+   * Response header with the time (ms) of the vehicle status snapshot the
+   * response was built from. It is left out when the response was built from
+   * direct transit data service queries.
+   */
+  public static final String VEHICLE_STATUS_SNAPSHOT_TIME_HEADER = "X-OBA-Vehicle-Status-Snapshot-Time";
+
   // Errors
   public static final String ERROR_REQUIRED_PARAMS = "You must provide a valid Circle, BoundingBox or LineRef value. ";
   public static final String ERROR_NON_NUMERIC = "One or more coordinate values contain a non-numeric value. ";
@@ -68,6 +78,16 @@ public class MonitoringActionBase  extends ApiActionSupport {
     super(V3);
   }
   
+  /**
+   * @param snapshot the snapshot the response was built from, or null
+   */
+  protected void setVehicleStatusSnapshotTimeHeader(
+      HttpServletResponse response, VehicleStatusSnapshot snapshot) {
+    if (snapshot != null)
+      response.setHeader(VEHICLE_STATUS_SNAPSHOT_TIME_HEADER,
+          Long.toString(snapshot.getTime()));
+  }
+
   protected boolean isValidRoute(AgencyAndId routeId) {
     if (routeId != null
         && routeId.hasValues()
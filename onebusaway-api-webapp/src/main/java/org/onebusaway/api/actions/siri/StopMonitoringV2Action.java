@@ -16,6 +16,8 @@
 package org.onebusaway.api.actions.siri;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
@@ -34,9 +36,12 @@ import org.onebusaway.api.actions.siri.impl.ServiceAlertsHelperV2;
 import org.onebusaway.api.actions.siri.impl.SiriSupportV2;
 import org.onebusaway.api.actions.siri.impl.SiriSupportV2.Filters;
 import org.onebusaway.api.actions.siri.model.DetailLevel;
+import org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.presentation.impl.DateUtil;
 import org.onebusaway.util.impl.analytics.GoogleAnalyticsServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import uk.org.siri.siri_2.ErrorDescriptionStructure;
@@ -54,6 +59,8 @@ public class StopMonitoringV2Action  extends MonitoringActionBase
     implements ServletRequestAware, ServletResponseAware {
 
   private static final long serialVersionUID = 1L;
+
+  private static Logger _log = LoggerFactory.getLogger(StopMonitoringV2Action.class);
   
   @Autowired
   private GoogleAnalyticsServiceImpl _gaService;
@@ -87,6 +94,9 @@ public class StopMonitoringV2Action  extends MonitoringActionBase
     processGoogleAnalytics();
 
     _realtimeService.setTime(responseTimestamp);
+
+    // One snapshot for the whole response, also reported in its header
+    VehicleStatusSnapshot snapshot = _realtimeService.getVehicleStatusSnapshot(responseTimestamp);
     String detailLevelParam = _request.getParameter(STOP_MONITORING_DETAIL_LEVEL);
     
     //get the detail level parameter or set it to default if not specified
@@ -162,7 +172,8 @@ public class StopMonitoringV2Action  extends MonitoringActionBase
       // to stopIds.
       List<MonitoredStopVisitStructure> visitsForStop = _realtimeService
           .getMonitoredStopVisitsForStop(stopId.toString(),
-              maximumOnwardCalls, detailLevel, responseTimestamp, routeIds, filters);
+              maximumOnwardCalls, detailLevel, responseTimestamp, routeIds, filters,
+              snapshot);
       if (visitsForStop != null)
         visits.addAll(visitsForStop);
     }
@@ -178,8 +189,10 @@ public class StopMonitoringV2Action  extends MonitoringActionBase
     _response = generateSiriResponse(visits, stopIds, error,
         responseTimestamp);
 
+    setVehicleStatusSnapshotTimeHeader(_servletResponse, snapshot);
+
     try {
-      this._servletResponse.getWriter().write(getStopMonitoring());
+      writeStopMonitoringResponse();
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -239,19 +252,48 @@ public class StopMonitoringV2Action  extends MonitoringActionBase
   }
 
   public String getStopMonitoring() {
+    StringWriter output = new StringWriter();
     try {
-      if (_type.equals("xml")) {
-        this._servletResponse.setContentType("application/xml");
-        return _realtimeService.getSiriXmlSerializer()
-            .getXml(_response);
-      } else {
-        this._servletResponse.setContentType("application/json");
-        return _realtimeService.getSiriJsonSerializer().getJson(
-            _response, _request.getParameter("callback"));
-      }
+      writeStopMonitoring(output);
     } catch (Exception e) {
       return e.getMessage();
     }
+    return output.toString();
+  }
+
+  /**
+   * Serialize the response straight to the output rather than building the
+   * whole document as a string first. If serialization fails before the
+   * response is committed, whatever is sitting in the response buffer is
+   * discarded and an error status is sent instead of a partial document.
+   */
+  private void writeStopMonitoringResponse() throws IOException {
+    // The XML declaration written by SiriXmlSerializerV2 says UTF-8
+    _servletResponse.setCharacterEncoding("UTF-8");
+    try {
+      writeStopMonitoring(_servletResponse.getWriter());
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      _log.error("error serializing stop monitoring response", e);
+      if (!_servletResponse.isCommitted()) {
+        _servletResponse.resetBuffer();
+        _servletResponse.sendError(
+            HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+            String.valueOf(e.getMessage()));
+      }
+    }
+  }
+
+  private void writeStopMonitoring(Writer output) throws Exception {
+    if (_type.equals("xml")) {
+      this._servletResponse.setContentType("application/xml");
+      _realtimeService.getSiriXmlSerializer().writeXml(_response, output);
+    } else {
+      this._servletResponse.setContentType("application/json");
+      _realtimeService.getSiriJsonSerializer().writeJson(_response,
+          _request.getParameter("callback"), output);
+    }
   }
 
   @Override
@@ -16,6 +16,8 @@
 package org.onebusaway.api.actions.siri;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
@@ -32,6 +34,7 @@ import org.apache.struts2.rest.DefaultHttpHeaders;
 import org.onebusaway.api.actions.siri.impl.ServiceAlertsHelperV2;
 import org.onebusaway.api.actions.siri.impl.SiriSupportV2;
 import org.onebusaway.api.actions.siri.model.DetailLevel;
+import org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.presentation.impl.DateUtil;
 import org.onebusaway.presentation.services.cachecontrol.CacheService;
@@ -94,6 +97,9 @@ public class VehicleMonitoringV2Action extends MonitoringActionBase
     //_monitoringActionSupport.setupGoogleAnalytics(_request, _configurationService);
     
     _realtimeService.setTime(currentTimestamp);
+
+    // One snapshot for the whole response, also reported in its header
+    VehicleStatusSnapshot snapshot = _realtimeService.getVehicleStatusSnapshot(currentTimestamp);
     
     String detailLevelParam = _request.getParameter(VEHICLE_MONITORING_DETAIL_LEVEL);
   
@@ -149,7 +155,8 @@ public class VehicleMonitoringV2Action extends MonitoringActionBase
       try{
         for (AgencyAndId vehicleId : vehicleIds) {
           VehicleActivityStructure activity = _realtimeService.getVehicleActivityForVehicle(
-              vehicleId.toString(), maximumOnwardCalls, detailLevel, currentTimestamp);
+              vehicleId.toString(), maximumOnwardCalls, detailLevel, currentTimestamp,
+              snapshot);
   
           if (activity != null) {
             activities.add(activity);
@@ -173,7 +180,8 @@ public class VehicleMonitoringV2Action extends MonitoringActionBase
       for (AgencyAndId routeId : routeIds) {
         
         List<VehicleActivityStructure> activitiesForRoute = _realtimeService.getVehicleActivityForRoute(
-            routeId.toString(), directionId, maximumOnwardCalls, detailLevel, currentTimestamp);
+            routeId.toString(), directionId, maximumOnwardCalls, detailLevel, currentTimestamp,
+            snapshot);
         if (activitiesForRoute != null) {
           activities.addAll(activitiesForRoute);
         }
@@ -218,7 +226,8 @@ public class VehicleMonitoringV2Action extends MonitoringActionBase
 
           for (VehicleStatusBean v : vehicles.getList()) {
             VehicleActivityStructure activity = _realtimeService.getVehicleActivityForVehicle(
-                v.getVehicleId(), maximumOnwardCalls, detailLevel, currentTimestamp);
+                v.getVehicleId(), maximumOnwardCalls, detailLevel, currentTimestamp,
+                snapshot);
 
             if (activity != null) {
               activities.add(activity);
@@ -242,8 +251,10 @@ public class VehicleMonitoringV2Action extends MonitoringActionBase
     //  _monitoringActionSupport.reportToGoogleAnalytics(_request, "Vehicle Monitoring", gaLabel, _configurationService);
     //} 
     
+    setVehicleStatusSnapshotTimeHeader(_servletResponse, snapshot);
+
     try {
-      this._servletResponse.getWriter().write(getVehicleMonitoring());
+      writeVehicleMonitoringResponse();
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -298,23 +309,54 @@ public class VehicleMonitoringV2Action extends MonitoringActionBase
   }
 
   public String getVehicleMonitoring() {
-    if (_cachedResponse != null) {
-      // check the cache first
-      return _cachedResponse;
-    }
-    
+    StringWriter output = new StringWriter();
     try {
-      if (_type.equals("xml")) {
-        this._servletResponse.setContentType("application/xml");
-        return _realtimeService.getSiriXmlSerializer().getXml(_response);
-      } else {
-        this._servletResponse.setContentType("application/json");
-        return _realtimeService.getSiriJsonSerializer().getJson(_response,
-            _request.getParameter("callback"));
-      }
+      writeVehicleMonitoring(output);
     } catch (Exception e) {
       return e.getMessage();
     }
+    return output.toString();
+  }
+
+  /**
+   * Serialize the response straight to the output rather than building the
+   * whole document as a string first. If serialization fails before the
+   * response is committed, whatever is sitting in the response buffer is
+   * discarded and an error status is sent instead of a partial document.
+   */
+  private void writeVehicleMonitoringResponse() throws IOException {
+    // The XML declaration written by SiriXmlSerializerV2 says UTF-8
+    _servletResponse.setCharacterEncoding("UTF-8");
+    try {
+      writeVehicleMonitoring(_servletResponse.getWriter());
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      _log.error("error serializing vehicle monitoring response", e);
+      if (!_servletResponse.isCommitted()) {
+        _servletResponse.resetBuffer();
+        _servletResponse.sendError(
+            HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+            String.valueOf(e.getMessage()));
+      }
+    }
+  }
+
+  private void writeVehicleMonitoring(Writer output) throws Exception {
+    if (_cachedResponse != null) {
+      // check the cache first
+      output.write(_cachedResponse);
+      return;
+    }
+
+    if (_type.equals("xml")) {
+      this._servletResponse.setContentType("application/xml");
+      _realtimeService.getSiriXmlSerializer().writeXml(_response, output);
+    } else {
+      this._servletResponse.setContentType("application/json");
+      _realtimeService.getSiriJsonSerializer().writeJson(_response,
+          _request.getParameter("callback"), output);
+    }
   }
 
   @Override
@@ -32,7 +32,9 @@ import org.onebusaway.api.actions.siri.model.RouteForDirection;
 import org.onebusaway.api.actions.siri.model.RouteResult;
 import org.onebusaway.api.actions.siri.model.StopOnRoute;
 import org.onebusaway.api.actions.siri.model.StopRouteDirection;
+import org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot;
 import org.onebusaway.api.actions.siri.service.RealtimeServiceV2;
+import org.onebusaway.api.actions.siri.service.VehicleStatusSnapshotService;
 import org.onebusaway.geospatial.model.CoordinateBounds;
 import org.onebusaway.geospatial.model.EncodedPolylineBean;
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -55,6 +57,7 @@ import org.onebusaway.transit_data.model.StopGroupingBean;
 import org.onebusaway.transit_data.model.StopWithArrivalsAndDeparturesBean;
 import org.onebusaway.transit_data.model.StopsBean;
 import org.onebusaway.transit_data.model.StopsForRouteBean;
+import org.onebusaway.transit_data.model.blocks.BlockInstanceBean;
 import org.onebusaway.transit_data.model.service_alerts.ServiceAlertBean;
 import org.onebusaway.transit_data.model.service_alerts.SituationQueryBean;
 import org.onebusaway.transit_data.model.trips.TripBean;
@@ -76,6 +79,7 @@ import uk.org.siri.siri_2.AnnotatedLineStructure;
 import uk.org.siri.siri_2.AnnotatedStopPointStructure;
 import uk.org.siri.siri_2.MonitoredStopVisitStructure;
 import uk.org.siri.siri_2.MonitoredVehicleJourneyStructure;
+import uk.org.siri.siri_2.OnwardCallStructure;
 import uk.org.siri.siri_2.VehicleActivityStructure;
 import uk.org.siri.siri_2.VehicleActivityStructure.MonitoredVehicleJourney;
 
@@ -95,6 +99,8 @@ public class RealtimeServiceV2Impl implements RealtimeServiceV2 {
 
   private PresentationService _presentationService;
 
+  private VehicleStatusSnapshotService _vehicleStatusSnapshotService;
+
   private SiriXmlSerializerV2 _siriXmlSerializer = new SiriXmlSerializerV2();
 
   private SiriJsonSerializerV2 _siriJsonSerializer = new SiriJsonSerializerV2();
@@ -125,6 +131,12 @@ public class RealtimeServiceV2Impl implements RealtimeServiceV2 {
     _presentationService = presentationService;
   }
 
+  @Autowired
+  public void setVehicleStatusSnapshotService(
+      VehicleStatusSnapshotService vehicleStatusSnapshotService) {
+    _vehicleStatusSnapshotService = vehicleStatusSnapshotService;
+  }
+
   @Override
   public PresentationService getPresentationService() {
     return _presentationService;
@@ -140,6 +152,18 @@ public class RealtimeServiceV2Impl implements RealtimeServiceV2 {
     return _siriXmlSerializer;
   }
 
+  /**
+   * @param currentTime
+   * @return the shared vehicle status snapshot, or null if requests for this
+   *         time should query the transit data service directly
+   */
+  @Override
+  public VehicleStatusSnapshot getVehicleStatusSnapshot(long currentTime) {
+    if (_vehicleStatusSnapshotService == null)
+      return null;
+    return _vehicleStatusSnapshotService.getSnapshot(currentTime);
+  }
+
   /**
    * SIRI METHODS
    */
@@ -148,49 +172,58 @@ public class RealtimeServiceV2Impl implements RealtimeServiceV2 {
   public List<VehicleActivityStructure> getVehicleActivityForRoute(
       String routeId, String directionId, int maximumOnwardCalls, DetailLevel detailLevel,
       long currentTime) {
-    List<VehicleActivityStructure> output = new ArrayList<VehicleActivityStructure>();
+    return getVehicleActivityForRoute(routeId, directionId,
+        maximumOnwardCalls, detailLevel, currentTime,
+        getVehicleStatusSnapshot(currentTime));
+  }
 
-    ListBean<TripDetailsBean> trips = getAllTripsForRoute(routeId,
-        currentTime);
-    for (TripDetailsBean tripDetails : trips.getList()) {
-      if(tripDetails == null) continue;
-      // filter out interlined routes
-      if (routeId != null
-          && !tripDetails.getTrip().getRoute().getId()
-              .equals(routeId))
-        continue;
+  @Override
+  public List<VehicleActivityStructure> getVehicleActivityForRoute(
+      String routeId, String directionId, int maximumOnwardCalls,
+      DetailLevel detailLevel, long currentTime, VehicleStatusSnapshot snapshot) {
+    List<VehicleActivityStructure> output = new ArrayList<VehicleActivityStructure>();
 
-      // filtered out by user
-      if (directionId != null
-          && !tripDetails.getTrip().getDirectionId()
-              .equals(directionId))
-        continue;
+    List<VehicleStatusSnapshot.Entry> entries = null;
+    if (snapshot != null && routeId != null)
+      entries = snapshot.getEntriesForRoute(routeId, directionId);
 
-      if (!_presentationService.include(tripDetails.getStatus()))
-        continue;
+    if (entries != null) {
+      for (VehicleStatusSnapshot.Entry entry : entries) {
+        if (!_presentationService.include(entry.getStatus()))
+          continue;
 
-      VehicleActivityStructure activity = new VehicleActivityStructure();
-      activity.setRecordedAtTime(DateUtil
-          .toXmlGregorianCalendar(tripDetails.getStatus()
-              .getLastUpdateTime()));
+        output.add(getVehicleActivity(snapshot, entry, maximumOnwardCalls,
+            detailLevel, currentTime));
+      }
+    } else {
+      ListBean<TripDetailsBean> trips = getAllTripsForRoute(routeId,
+          currentTime);
+      for (TripDetailsBean tripDetails : trips.getList()) {
+        if(tripDetails == null) continue;
+        // filter out interlined routes
+        if (routeId != null
+            && !tripDetails.getTrip().getRoute().getId()
+                .equals(routeId))
+          continue;
 
-      List<TimepointPredictionRecord> timePredictionRecords = null;
-      timePredictionRecords = _transitDataService
-          .getPredictionRecordsForTrip(AgencyAndId
-              .convertFromString(routeId).getAgencyId(),
-                tripDetails.getStatus());
+        // filtered out by user
+        if (directionId != null
+            && !tripDetails.getTrip().getDirectionId()
+                .equals(directionId))
+          continue;
 
-      activity.setMonitoredVehicleJourney(new MonitoredVehicleJourney());
+        if (!_presentationService.include(tripDetails.getStatus()))
+          continue;
 
-      SiriSupportV2.fillMonitoredVehicleJourney(
-          activity.getMonitoredVehicleJourney(),
-          tripDetails.getTrip(), tripDetails.getStatus(), null,
-          OnwardCallsMode.VEHICLE_MONITORING, _presentationService,
-          _transitDataService, maximumOnwardCalls,
-          timePredictionRecords, tripDetails.getStatus().isPredicted(),
-          detailLevel, currentTime, null);
+        List<TimepointPredictionRecord> timePredictionRecords = null;
+        timePredictionRecords = _transitDataService
+            .getPredictionRecordsForTrip(AgencyAndId
+                .convertFromString(routeId).getAgencyId(),
+                  tripDetails.getStatus());
 
-      output.add(activity);
+        output.add(getVehicleActivity(tripDetails, timePredictionRecords,
+            null, null, maximumOnwardCalls, detailLevel, currentTime));
+      }
     }
 
     Collections.sort(output, new Comparator<VehicleActivityStructure>() {
@@ -221,6 +254,24 @@ public class RealtimeServiceV2Impl implements RealtimeServiceV2 {
   @Override
   public VehicleActivityStructure getVehicleActivityForVehicle(
       String vehicleId, int maximumOnwardCalls, DetailLevel detailLevel, long currentTime) {
+    return getVehicleActivityForVehicle(vehicleId, maximumOnwardCalls,
+        detailLevel, currentTime, getVehicleStatusSnapshot(currentTime));
+  }
+
+  @Override
+  public VehicleActivityStructure getVehicleActivityForVehicle(
+      String vehicleId, int maximumOnwardCalls, DetailLevel detailLevel,
+      long currentTime, VehicleStatusSnapshot snapshot) {
+
+    if (snapshot != null) {
+      VehicleStatusSnapshot.Entry entry = snapshot.getEntryForVehicle(vehicleId);
+      if (entry != null) {
+        if (!_presentationService.include(entry.getStatus()))
+          return null;
+        return getVehicleActivity(snapshot, entry, maximumOnwardCalls,
+            detailLevel, currentTime);
+      }
+    }
 
     TripForVehicleQueryBean query = new TripForVehicleQueryBean();
     query.setTime(new Date(currentTime));
@@ -238,28 +289,15 @@ public class RealtimeServiceV2Impl implements RealtimeServiceV2 {
           .getStatus()))
         return null;
 
-      VehicleActivityStructure output = new VehicleActivityStructure();
-      output.setRecordedAtTime(DateUtil
-          .toXmlGregorianCalendar(tripDetailsForCurrentTrip
-              .getStatus().getLastUpdateTime()));
-
       List<TimepointPredictionRecord> timePredictionRecords = null;
       timePredictionRecords = _transitDataService
           .getPredictionRecordsForTrip(AgencyAndId
               .convertFromString(vehicleId).getAgencyId(),
               tripDetailsForCurrentTrip.getStatus());
 
-      output.setMonitoredVehicleJourney(new MonitoredVehicleJourney());
-      SiriSupportV2.fillMonitoredVehicleJourney(
-          output.getMonitoredVehicleJourney(),
-          tripDetailsForCurrentTrip.getTrip(),
-          tripDetailsForCurrentTrip.getStatus(), null,
-          OnwardCallsMode.VEHICLE_MONITORING, _presentationService,
-          _transitDataService, maximumOnwardCalls,
-          timePredictionRecords, tripDetailsForCurrentTrip.getStatus().isPredicted(),
-          detailLevel,currentTime, null);
-
-      return output;
+      return getVehicleActivity(tripDetailsForCurrentTrip,
+          timePredictionRecords, null, null, maximumOnwardCalls, detailLevel,
+          currentTime);
     }
 
     return null;
@@ -269,6 +307,16 @@ public class RealtimeServiceV2Impl implements RealtimeServiceV2 {
   public List<MonitoredStopVisitStructure> getMonitoredStopVisitsForStop(
       String stopId, int maximumOnwardCalls, DetailLevel detailLevel, 
       long currentTime, List<AgencyAndId> routeIds, Map<Filters, String> filters) {
+    return getMonitoredStopVisitsForStop(stopId, maximumOnwardCalls,
+        detailLevel, currentTime, routeIds, filters,
+        getVehicleStatusSnapshot(currentTime));
+  }
+
+  @Override
+  public List<MonitoredStopVisitStructure> getMonitoredStopVisitsForStop(
+      String stopId, int maximumOnwardCalls, DetailLevel detailLevel,
+      long currentTime, List<AgencyAndId> routeIds,
+      Map<Filters, String> filters, VehicleStatusSnapshot snapshot) {
     List<MonitoredStopVisitStructure> output = new ArrayList<MonitoredStopVisitStructure>();
 
     String directionId = filters.get(Filters.DIRECTION_REF);
@@ -297,11 +345,25 @@ public class RealtimeServiceV2Impl implements RealtimeServiceV2 {
           .toXmlGregorianCalendar(statusBeanForCurrentTrip
               .getLastUpdateTime()));
 
+      // Reuse the snapshot's lookups when it has the vehicle on the same trip
+      VehicleStatusSnapshot.Entry entry = null;
+      if (snapshot != null && statusBeanForCurrentTrip.getVehicleId() != null) {
+        entry = snapshot.getEntryForVehicle(statusBeanForCurrentTrip.getVehicleId());
+        if (entry != null && !entry.isForActiveTrip(statusBeanForCurrentTrip))
+          entry = null;
+      }
+
       List<TimepointPredictionRecord> timePredictionRecords = null;
-      timePredictionRecords = _transitDataService
-          .getPredictionRecordsForTrip(AgencyAndId
-              .convertFromString(stopId).getAgencyId(),
-                statusBeanForCurrentTrip);
+      BlockInstanceBean blockInstance = null;
+      if (entry != null) {
+        timePredictionRecords = entry.getPredictionRecords();
+        blockInstance = entry.getBlockInstance();
+      } else {
+        timePredictionRecords = _transitDataService
+            .getPredictionRecordsForTrip(AgencyAndId
+                .convertFromString(stopId).getAgencyId(),
+                  statusBeanForCurrentTrip);
+      }
 
       MonitoredVehicleJourneyStructure mvjourney = new MonitoredVehicleJourneyStructure();
       stopVisit.setMonitoredVehicleJourney(mvjourney);
@@ -312,7 +374,7 @@ public class RealtimeServiceV2Impl implements RealtimeServiceV2 {
           OnwardCallsMode.STOP_MONITORING, _presentationService,
           _transitDataService, maximumOnwardCalls,
           timePredictionRecords, statusBeanForCurrentTrip.isPredicted(),
-          detailLevel, currentTime, filters);
+          detailLevel, currentTime, filters, blockInstance, null);
 
       // FILTERS
       AgencyAndId thisRouteId = AgencyAndIdLibrary
@@ -548,6 +610,19 @@ public class RealtimeServiceV2Impl implements RealtimeServiceV2 {
   @Override
   public boolean getVehiclesInServiceForRoute(String routeId,
       String directionId, long currentTime) {
+    VehicleStatusSnapshot snapshot = getVehicleStatusSnapshot(currentTime);
+    List<VehicleStatusSnapshot.Entry> entries = null;
+    if (snapshot != null && routeId != null)
+      entries = snapshot.getEntriesForRoute(routeId, directionId);
+
+    if (entries != null) {
+      for (VehicleStatusSnapshot.Entry entry : entries) {
+        if (_presentationService.include(entry.getStatus()))
+          return true;
+      }
+      return false;
+    }
+
     ListBean<TripDetailsBean> trips = getAllTripsForRoute(routeId,
         currentTime);
     for (TripDetailsBean tripDetails : trips.getList()) {
@@ -658,6 +733,53 @@ public class RealtimeServiceV2Impl implements RealtimeServiceV2 {
    * PRIVATE METHODS
    */
 
+  private VehicleActivityStructure getVehicleActivity(
+      VehicleStatusSnapshot snapshot, VehicleStatusSnapshot.Entry entry,
+      int maximumOnwardCalls, DetailLevel detailLevel, long currentTime) {
+
+    // Onward calls are built once per snapshot, against the snapshot time
+    List<OnwardCallStructure> onwardCalls = null;
+    if (detailLevel.equals(DetailLevel.CALLS)
+        && !_presentationService.isOnDetour(entry.getStatus())) {
+      onwardCalls = entry.getOnwardCalls();
+      if (onwardCalls == null) {
+        onwardCalls = SiriSupportV2.getOnwardCalls(entry.getBlockInstance(),
+            entry.getStatus(), _presentationService,
+            entry.getPredictionRecords(), snapshot.getTime());
+        entry.setOnwardCalls(onwardCalls);
+      }
+    }
+
+    return getVehicleActivity(entry.getTripDetails(),
+        entry.getPredictionRecords(), entry.getBlockInstance(), onwardCalls,
+        maximumOnwardCalls, detailLevel, currentTime);
+  }
+
+  private VehicleActivityStructure getVehicleActivity(
+      TripDetailsBean tripDetails,
+      List<TimepointPredictionRecord> timePredictionRecords,
+      BlockInstanceBean blockInstance,
+      List<OnwardCallStructure> onwardCalls, int maximumOnwardCalls,
+      DetailLevel detailLevel, long currentTime) {
+
+    VehicleActivityStructure activity = new VehicleActivityStructure();
+    activity.setRecordedAtTime(DateUtil
+        .toXmlGregorianCalendar(tripDetails.getStatus()
+            .getLastUpdateTime()));
+
+    activity.setMonitoredVehicleJourney(new MonitoredVehicleJourney());
+
+    SiriSupportV2.fillMonitoredVehicleJourney(
+        activity.getMonitoredVehicleJourney(),
+        tripDetails.getTrip(), tripDetails.getStatus(), null,
+        OnwardCallsMode.VEHICLE_MONITORING, _presentationService,
+        _transitDataService, maximumOnwardCalls,
+        timePredictionRecords, tripDetails.getStatus().isPredicted(),
+        detailLevel, currentTime, null, blockInstance, onwardCalls);
+
+    return activity;
+  }
+
   private ListBean<TripDetailsBean> getAllTripsForRoute(String routeId,
       long currentTime) {
     TripsForRouteQueryBean tripRouteQueryBean = new TripsForRouteQueryBean();
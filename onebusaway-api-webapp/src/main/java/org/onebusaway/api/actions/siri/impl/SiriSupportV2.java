@@ -117,10 +117,40 @@ public final class SiriSupportV2 {
       boolean hasRealtimeData,
       DetailLevel detailLevel,
       long responseTimestamp, Map<Filters, String> filters) {
-    BlockInstanceBean blockInstance = transitDataService
-        .getBlockInstance(currentVehicleTripStatus.getActiveTrip()
-            .getBlockId(), currentVehicleTripStatus
-            .getServiceDate());
+    fillMonitoredVehicleJourney(monitoredVehicleJourney,
+        framedJourneyTripBean, currentVehicleTripStatus,
+        monitoredCallStopBean, onwardCallsMode, presentationService,
+        transitDataService, maximumOnwardCalls, stopLevelPredictions,
+        hasRealtimeData, detailLevel, responseTimestamp, filters, null, null);
+  }
+
+  /**
+   * As above, with the block instance of the vehicle's active trip and its
+   * vehicle monitoring onward calls already in hand, e.g. from a
+   * {@link org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot}.
+   * 
+   * @param blockInstance the block instance, or null to look it up
+   * @param onwardCalls the calls from {@link #getOnwardCalls}, or null to
+   *          build them
+   */
+  public static void fillMonitoredVehicleJourney(
+      MonitoredVehicleJourneyStructure monitoredVehicleJourney,
+      TripBean framedJourneyTripBean,
+      TripStatusBean currentVehicleTripStatus,
+      StopBean monitoredCallStopBean, OnwardCallsMode onwardCallsMode,
+      PresentationService presentationService,
+      TransitDataService transitDataService,
+      int maximumOnwardCalls,
+      List<TimepointPredictionRecord> stopLevelPredictions,
+      boolean hasRealtimeData,
+      DetailLevel detailLevel,
+      long responseTimestamp, Map<Filters, String> filters,
+      BlockInstanceBean blockInstance, List<OnwardCallStructure> onwardCalls) {
+    if (blockInstance == null) {
+      blockInstance = transitDataService.getBlockInstance(
+          currentVehicleTripStatus.getActiveTrip().getBlockId(),
+          currentVehicleTripStatus.getServiceDate());
+    }
 
     List<BlockTripBean> blockTrips = blockInstance.getBlockConfiguration()
         .getTrips();
@@ -294,17 +324,7 @@ public final class SiriSupportV2 {
       }
     }
 
-    Map<String, TimepointPredictionRecord> stopIdToPredictionRecordMap = new HashMap<String, TimepointPredictionRecord>();
-
-    // (build map of stop IDs to TPRs)
-    if (stopLevelPredictions != null) {
-      for (TimepointPredictionRecord tpr : stopLevelPredictions) {
-        if(!tpr.isSkipped()){
-          stopIdToPredictionRecordMap.put(
-              AgencyAndId.convertToString(tpr.getTimepointId()), tpr);
-        }
-      }
-    }
+    Map<String, TimepointPredictionRecord> stopIdToPredictionRecordMap = getStopIdToPredictionRecordMap(stopLevelPredictions);
 
     // monitored call
     if (!presentationService.isOnDetour(currentVehicleTripStatus))
@@ -363,12 +383,15 @@ public final class SiriSupportV2 {
     
     // onward calls
     if (detailLevel.equals(DetailLevel.CALLS)){
-      if (!presentationService.isOnDetour(currentVehicleTripStatus))
-        fillOnwardCalls(monitoredVehicleJourney, blockInstance,
-            framedJourneyTripBean, currentVehicleTripStatus,
-            onwardCallsMode, presentationService,
-            transitDataService, stopIdToPredictionRecordMap,
-            maximumOnwardCalls, responseTimestamp);
+      if (!presentationService.isOnDetour(currentVehicleTripStatus)) {
+        if (onwardCalls == null)
+          onwardCalls = getOnwardCalls(blockInstance, framedJourneyTripBean,
+              currentVehicleTripStatus, onwardCallsMode,
+              presentationService, stopIdToPredictionRecordMap,
+              maximumOnwardCalls, responseTimestamp);
+        fillOnwardCalls(monitoredVehicleJourney, onwardCalls,
+            maximumOnwardCalls);
+      }
     }
     
 
@@ -634,29 +657,86 @@ public final class SiriSupportV2 {
     return true;
   }
 
+  /**
+   * Builds the vehicle monitoring onward calls of the vehicle's active trip
+   * once, so they can be shared by every request for the vehicle; see
+   * {@link org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot.Entry#getOnwardCalls()}.
+   * 
+   * @param responseTimestamp the time (ms) predictions are compared against
+   * @return one element per onward stop, null for stops that get no call
+   */
+  public static List<OnwardCallStructure> getOnwardCalls(
+      BlockInstanceBean blockInstance,
+      TripStatusBean currentVehicleTripStatus,
+      PresentationService presentationService,
+      List<TimepointPredictionRecord> stopLevelPredictions,
+      long responseTimestamp) {
+    return getOnwardCalls(blockInstance,
+        currentVehicleTripStatus.getActiveTrip(), currentVehicleTripStatus,
+        OnwardCallsMode.VEHICLE_MONITORING, presentationService,
+        getStopIdToPredictionRecordMap(stopLevelPredictions),
+        Integer.MAX_VALUE, responseTimestamp);
+  }
+
   /***
    * PRIVATE STATIC METHODS
    */
 
+  private static Map<String, TimepointPredictionRecord> getStopIdToPredictionRecordMap(
+      List<TimepointPredictionRecord> stopLevelPredictions) {
+    Map<String, TimepointPredictionRecord> stopIdToPredictionRecordMap = new HashMap<String, TimepointPredictionRecord>();
+
+    // (build map of stop IDs to TPRs)
+    if (stopLevelPredictions != null) {
+      for (TimepointPredictionRecord tpr : stopLevelPredictions) {
+        if(!tpr.isSkipped()){
+          stopIdToPredictionRecordMap.put(
+              AgencyAndId.convertToString(tpr.getTimepointId()), tpr);
+        }
+      }
+    }
+    return stopIdToPredictionRecordMap;
+  }
+
+  /**
+   * @param onwardCalls from {@link #getOnwardCalls}, one element per onward
+   *          stop, null for stops that get no call
+   */
   private static void fillOnwardCalls(
       MonitoredVehicleJourneyStructure monitoredVehicleJourney,
+      List<OnwardCallStructure> onwardCalls, int maximumOnwardCalls) {
+
+    monitoredVehicleJourney.setOnwardCalls(new OnwardCallsStructure());
+
+    // stops without a call still count against the maximum
+    for (int i = 0; i < onwardCalls.size() && i < maximumOnwardCalls; i++) {
+      OnwardCallStructure ocs = onwardCalls.get(i);
+      if (ocs != null) {
+        monitoredVehicleJourney
+            .getOnwardCalls()
+            .getOnwardCall()
+            .add(ocs);
+      }
+    }
+  }
+
+  private static List<OnwardCallStructure> getOnwardCalls(
       BlockInstanceBean blockInstance, TripBean framedJourneyTripBean,
       TripStatusBean currentVehicleTripStatus,
       OnwardCallsMode onwardCallsMode,
       PresentationService presentationService,
-      TransitDataService transitDataService,
       Map<String, TimepointPredictionRecord> stopLevelPredictions,
       int maximumOnwardCalls, long responseTimestamp) {
 
     String tripIdOfMonitoredCall = framedJourneyTripBean.getId();
 
-    monitoredVehicleJourney.setOnwardCalls(new OnwardCallsStructure());
+    List<OnwardCallStructure> onwardCalls = new ArrayList<OnwardCallStructure>();
 
     // ////////
 
     // no need to go further if this is the case!
     if (maximumOnwardCalls == 0) {
-      return;
+      return onwardCalls;
     }
 
     List<BlockTripBean> blockTrips = blockInstance.getBlockConfiguration()
@@ -664,7 +744,6 @@ public final class SiriSupportV2 {
 
     double distanceOfVehicleAlongBlock = 0;
     int blockTripStopsAfterTheVehicle = 0;
-    int onwardCallsAdded = 0;
 
     boolean foundActiveTrip = false;
     for (int i = 0; i < blockTrips.size(); i++) {
@@ -733,26 +812,18 @@ public final class SiriSupportV2 {
             visitNumber, blockTripStopsAfterTheVehicle - 1,
             stopLevelPredictions.get(stopTime.getStopTime()
                 .getStop().getId()), responseTimestamp);
-        if (ocs != null) {
-          monitoredVehicleJourney
-              .getOnwardCalls()
-              .getOnwardCall()
-              .add(ocs);
-        }
-
+        onwardCalls.add(ocs);
 
-        onwardCallsAdded++;
-
-        if (onwardCallsAdded >= maximumOnwardCalls) {
-          return;
+        if (onwardCalls.size() >= maximumOnwardCalls) {
+          return onwardCalls;
         }
       }
 
       // if we get here, we added our stops
-      return;
+      return onwardCalls;
     }
 
-    return;
+    return onwardCalls;
   }
 
   private static void fillMonitoredCall(
@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.actions.siri.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot;
+import org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot.Entry;
+import org.onebusaway.api.actions.siri.service.VehicleStatusSnapshotService;
+import org.onebusaway.container.ConfigurationParameter;
+import org.onebusaway.realtime.api.TimepointPredictionRecord;
+import org.onebusaway.transit_data.model.AgencyWithCoverageBean;
+import org.onebusaway.transit_data.model.ListBean;
+import org.onebusaway.transit_data.model.blocks.BlockInstanceBean;
+import org.onebusaway.transit_data.model.trips.TripDetailsBean;
+import org.onebusaway.transit_data.model.trips.TripDetailsInclusionBean;
+import org.onebusaway.transit_data.model.trips.TripStatusBean;
+import org.onebusaway.transit_data.model.trips.TripsForRouteQueryBean;
+import org.onebusaway.transit_data.services.TransitDataService;
+import org.onebusaway.util.SystemTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rebuilds the {@link VehicleStatusSnapshot} in the background at the refresh
+ * interval. Each rebuild runs the same trips-for-route query a request would
+ * for every route of every agency, and fetches the block instance and
+ * stop-level predictions for each trip once, so requests in between only
+ * filter the snapshot. A route whose query fails is left out of the snapshot,
+ * and requests for it query the transit data service directly.
+ * 
+ * Rebuilding stops once no request has asked for the snapshot within the idle
+ * timeout, and resumes on the next cycle after one does; requests fall back to
+ * querying the transit data service until then.
+ */
+@Component
+@ManagedResource("org.onebusaway.api.actions.siri.impl:name=VehicleStatusSnapshotServiceImpl")
+public class VehicleStatusSnapshotServiceImpl implements
+    VehicleStatusSnapshotService {
+
+  private static Logger _log = LoggerFactory.getLogger(VehicleStatusSnapshotServiceImpl.class);
+
+  private TransitDataService _transitDataService;
+
+  private long _refreshInterval = 10 * 1000;
+
+  private long _idleTimeout = 5 * 60 * 1000;
+
+  private ScheduledExecutorService _executor;
+
+  private volatile VehicleStatusSnapshot _snapshot;
+
+  private volatile long _lastAccessTime = 0;
+
+  @Autowired
+  public void setTransitDataService(TransitDataService transitDataService) {
+    _transitDataService = transitDataService;
+  }
+
+  /**
+   * How often the snapshot is rebuilt. This should roughly match the refresh
+   * interval of the underlying realtime sources.
+   * 
+   * @param refreshInterval in seconds
+   */
+  @ConfigurationParameter
+  public void setRefreshInterval(int refreshInterval) {
+    _refreshInterval = refreshInterval * 1000L;
+  }
+
+  /**
+   * @param idleTimeout in seconds without a request after which the snapshot
+   *          is no longer rebuilt
+   */
+  @ConfigurationParameter
+  public void setIdleTimeout(int idleTimeout) {
+    _idleTimeout = idleTimeout * 1000L;
+  }
+
+  @PostConstruct
+  public void start() {
+    _executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+    _executor.scheduleWithFixedDelay(new RefreshTask(), _refreshInterval,
+        _refreshInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (_executor != null)
+      _executor.shutdownNow();
+  }
+
+  @Override
+  public VehicleStatusSnapshot getSnapshot(long time) {
+    _lastAccessTime = SystemTime.currentTimeMillis();
+    VehicleStatusSnapshot snapshot = _snapshot;
+    // Allow for one missed cycle before falling back
+    if (snapshot == null
+        || Math.abs(time - snapshot.getTime()) > 2 * _refreshInterval)
+      return null;
+    return snapshot;
+  }
+
+  @Override
+  @ManagedAttribute
+  public Long getSnapshotTime() {
+    VehicleStatusSnapshot snapshot = _snapshot;
+    return snapshot != null ? snapshot.getTime() : null;
+  }
+
+  /**
+   * @return the age (ms) of the current snapshot, or -1 if there is none
+   */
+  @ManagedAttribute
+  public long getSnapshotAge() {
+    VehicleStatusSnapshot snapshot = _snapshot;
+    if (snapshot == null)
+      return -1;
+    return SystemTime.currentTimeMillis() - snapshot.getTime();
+  }
+
+  /**
+   * @return the number of active trips in the current snapshot
+   */
+  @ManagedAttribute
+  public int getSnapshotSize() {
+    VehicleStatusSnapshot snapshot = _snapshot;
+    return snapshot != null ? snapshot.size() : 0;
+  }
+
+  /**
+   * Rebuilds the snapshot now, unless it has gone unused for longer than the
+   * idle timeout, in which case it is dropped.
+   */
+  public void refresh() {
+
+    long time = SystemTime.currentTimeMillis();
+    if (time - _lastAccessTime > _idleTimeout) {
+      _snapshot = null;
+      return;
+    }
+
+    Map<String, List<Entry>> entriesByRouteId = new HashMap<String, List<Entry>>();
+    Map<String, Entry> entriesByKey = new HashMap<String, Entry>();
+    Map<String, BlockInstanceBean> blockInstances = new HashMap<String, BlockInstanceBean>();
+
+    for (AgencyWithCoverageBean agency : _transitDataService.getAgenciesWithCoverage()) {
+      String agencyId = agency.getAgency().getId();
+
+      for (String routeId : _transitDataService.getRouteIdsForAgencyId(
+          agencyId).getList()) {
+
+        ListBean<TripDetailsBean> trips;
+        try {
+          trips = getTripsForRoute(routeId, time);
+        } catch (Exception ex) {
+          _log.warn("error querying trips for route " + routeId, ex);
+          continue;
+        }
+
+        List<Entry> entries = new ArrayList<Entry>();
+        for (TripDetailsBean tripDetails : trips.getList()) {
+          if (tripDetails == null || tripDetails.getTrip() == null)
+            continue;
+          TripStatusBean status = tripDetails.getStatus();
+          if (status == null || status.getActiveTrip() == null)
+            continue;
+
+          // Blocks serving several routes come back for each of them
+          String key = status.getActiveTrip().getId() + " "
+              + status.getServiceDate() + " " + status.getVehicleId();
+          Entry entry = entriesByKey.get(key);
+          if (entry == null) {
+            entry = getEntry(agencyId, tripDetails, blockInstances);
+            if (entry == null)
+              continue;
+            entriesByKey.put(key, entry);
+          }
+          entries.add(entry);
+        }
+        entriesByRouteId.put(routeId, entries);
+      }
+    }
+
+    _snapshot = new VehicleStatusSnapshot(time, entriesByRouteId);
+  }
+
+  /**** Private Methods ****/
+
+  private ListBean<TripDetailsBean> getTripsForRoute(String routeId, long time) {
+    TripsForRouteQueryBean query = new TripsForRouteQueryBean();
+    query.setRouteId(routeId);
+    query.setTime(time);
+
+    TripDetailsInclusionBean inclusion = new TripDetailsInclusionBean();
+    inclusion.setIncludeTripBean(true);
+    inclusion.setIncludeTripStatus(true);
+    query.setInclusion(inclusion);
+
+    return _transitDataService.getTripsForRoute(query);
+  }
+
+  private Entry getEntry(String agencyId, TripDetailsBean tripDetails,
+      Map<String, BlockInstanceBean> blockInstances) {
+    TripStatusBean status = tripDetails.getStatus();
+
+    // Trips of the same block share a block instance
+    String blockId = status.getActiveTrip().getBlockId();
+    String blockKey = blockId + " " + status.getServiceDate();
+    BlockInstanceBean blockInstance = blockInstances.get(blockKey);
+    if (blockInstance == null) {
+      blockInstance = _transitDataService.getBlockInstance(blockId,
+          status.getServiceDate());
+      if (blockInstance == null)
+        return null;
+      blockInstances.put(blockKey, blockInstance);
+    }
+
+    List<TimepointPredictionRecord> predictionRecords = _transitDataService.getPredictionRecordsForTrip(
+        agencyId, status);
+
+    return new Entry(tripDetails, blockInstance, predictionRecords);
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "vehicle-status-snapshot");
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  private class RefreshTask implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        refresh();
+      } catch (Throwable ex) {
+        _log.error("error building vehicle status snapshot", ex);
+      }
+    }
+  }
+}
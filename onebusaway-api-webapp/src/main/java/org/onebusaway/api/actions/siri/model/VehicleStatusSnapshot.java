@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.actions.siri.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onebusaway.realtime.api.TimepointPredictionRecord;
+import org.onebusaway.transit_data.model.blocks.BlockInstanceBean;
+import org.onebusaway.transit_data.model.trips.TripBean;
+import org.onebusaway.transit_data.model.trips.TripDetailsBean;
+import org.onebusaway.transit_data.model.trips.TripStatusBean;
+
+import uk.org.siri.siri_2.OnwardCallStructure;
+
+/**
+ * The status of every active trip at one point in time, joined with what it
+ * takes to build its SIRI calls: the block instance and the stop-level
+ * predictions. The snapshot is built from one trips-for-route query per route,
+ * so it sees the same trips, late and early vehicles included, as a direct
+ * query for the route would. Entries are indexed by route, route and direction,
+ * and vehicle. A snapshot is immutable once built and shared by all requests
+ * while it is current, apart from the onward calls each entry caches on first
+ * use.
+ * 
+ * @see org.onebusaway.api.actions.siri.service.VehicleStatusSnapshotService
+ */
+public final class VehicleStatusSnapshot {
+
+  private final long _time;
+
+  private final Map<String, List<Entry>> _entriesByQueriedRouteId;
+
+  private final Map<String, List<Entry>> _entriesByRouteId = new HashMap<String, List<Entry>>();
+
+  private final Map<String, Map<String, List<Entry>>> _entriesByRouteIdAndDirectionId = new HashMap<String, Map<String, List<Entry>>>();
+
+  private final Map<String, Entry> _entriesByVehicleId = new HashMap<String, Entry>();
+
+  private final int _size;
+
+  /**
+   * @param time
+   * @param entriesByQueriedRouteId the entries each route query returned, by
+   *          route id. An entry returned for several routes, like a trip
+   *          interlined on a block that serves them, should be the same
+   *          instance in each list.
+   */
+  public VehicleStatusSnapshot(long time,
+      Map<String, List<Entry>> entriesByQueriedRouteId) {
+    _time = time;
+    _entriesByQueriedRouteId = entriesByQueriedRouteId;
+
+    Set<Entry> indexed = Collections.newSetFromMap(new IdentityHashMap<Entry, Boolean>());
+    for (List<Entry> entries : entriesByQueriedRouteId.values()) {
+      for (Entry entry : entries) {
+        if (indexed.add(entry))
+          index(entry);
+      }
+    }
+    _size = indexed.size();
+  }
+
+  /**
+   * @return the time (ms) the trip statuses were queried for
+   */
+  public long getTime() {
+    return _time;
+  }
+
+  /**
+   * @param routeId
+   * @param directionId the direction to filter by, or null for all directions
+   * @return the entries whose trip is on the route, not including trips of
+   *         other routes interlined on the same block, or null if the route
+   *         was not queried for this snapshot
+   */
+  public List<Entry> getEntriesForRoute(String routeId, String directionId) {
+    if (!_entriesByQueriedRouteId.containsKey(routeId))
+      return null;
+    List<Entry> entries = null;
+    if (directionId == null) {
+      entries = _entriesByRouteId.get(routeId);
+    } else {
+      Map<String, List<Entry>> entriesByDirectionId = _entriesByRouteIdAndDirectionId.get(routeId);
+      if (entriesByDirectionId != null)
+        entries = entriesByDirectionId.get(directionId);
+    }
+    if (entries == null)
+      return Collections.emptyList();
+    return Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * @param routeId
+   * @return the entries the trips-for-route query returned for the route,
+   *         including trips of other routes interlined on the same block, or
+   *         null if the route was not queried for this snapshot
+   */
+  public List<Entry> getEntriesQueriedForRoute(String routeId) {
+    List<Entry> entries = _entriesByQueriedRouteId.get(routeId);
+    if (entries == null)
+      return null;
+    return Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * @param vehicleId
+   * @return the entry for the vehicle's active trip, or null if the vehicle
+   *         is not in the snapshot
+   */
+  public Entry getEntryForVehicle(String vehicleId) {
+    return _entriesByVehicleId.get(vehicleId);
+  }
+
+  /**
+   * @return the number of distinct entries
+   */
+  public int size() {
+    return _size;
+  }
+
+  /**** Private Methods ****/
+
+  private void index(Entry entry) {
+    TripBean trip = entry.getTrip();
+    String routeId = trip.getRoute().getId();
+
+    getList(_entriesByRouteId, routeId).add(entry);
+
+    Map<String, List<Entry>> entriesByDirectionId = _entriesByRouteIdAndDirectionId.get(routeId);
+    if (entriesByDirectionId == null) {
+      entriesByDirectionId = new HashMap<String, List<Entry>>();
+      _entriesByRouteIdAndDirectionId.put(routeId, entriesByDirectionId);
+    }
+    getList(entriesByDirectionId, trip.getDirectionId()).add(entry);
+
+    // A vehicle can show up on more than one block, e.g. scheduled on one
+    // and matched to another; the predicted one is where it really is
+    String vehicleId = entry.getStatus().getVehicleId();
+    if (vehicleId != null) {
+      Entry existing = _entriesByVehicleId.get(vehicleId);
+      if (existing == null
+          || (!existing.getStatus().isPredicted() && entry.getStatus().isPredicted()))
+        _entriesByVehicleId.put(vehicleId, entry);
+    }
+  }
+
+  private static <K> List<Entry> getList(Map<K, List<Entry>> map, K key) {
+    List<Entry> list = map.get(key);
+    if (list == null) {
+      list = new ArrayList<Entry>();
+      map.put(key, list);
+    }
+    return list;
+  }
+
+  public static final class Entry {
+
+    private final TripDetailsBean _tripDetails;
+
+    private final BlockInstanceBean _blockInstance;
+
+    private final List<TimepointPredictionRecord> _predictionRecords;
+
+    private volatile List<OnwardCallStructure> _onwardCalls;
+
+    public Entry(TripDetailsBean tripDetails, BlockInstanceBean blockInstance,
+        List<TimepointPredictionRecord> predictionRecords) {
+      _tripDetails = tripDetails;
+      _blockInstance = blockInstance;
+      _predictionRecords = predictionRecords;
+    }
+
+    public TripDetailsBean getTripDetails() {
+      return _tripDetails;
+    }
+
+    public TripBean getTrip() {
+      return _tripDetails.getTrip();
+    }
+
+    public TripStatusBean getStatus() {
+      return _tripDetails.getStatus();
+    }
+
+    public BlockInstanceBean getBlockInstance() {
+      return _blockInstance;
+    }
+
+    public List<TimepointPredictionRecord> getPredictionRecords() {
+      return _predictionRecords;
+    }
+
+    /**
+     * @return the vehicle monitoring onward calls of the active trip, with
+     *         null for stops that get no call, or null if they have not been
+     *         built yet
+     * @see org.onebusaway.api.actions.siri.impl.SiriSupportV2#getOnwardCalls
+     */
+    public List<OnwardCallStructure> getOnwardCalls() {
+      return _onwardCalls;
+    }
+
+    /**
+     * Caches the onward calls for the rest of the snapshot's life. Two
+     * requests may race to build them; either result is the same.
+     */
+    public void setOnwardCalls(List<OnwardCallStructure> onwardCalls) {
+      _onwardCalls = onwardCalls;
+    }
+
+    /**
+     * @param status
+     * @return true if the entry is for the same active trip and service date
+     *         as the status, so its block instance and predictions apply to it
+     */
+    public boolean isForActiveTrip(TripStatusBean status) {
+      TripStatusBean entryStatus = getStatus();
+      return status.getActiveTrip() != null
+          && entryStatus.getServiceDate() == status.getServiceDate()
+          && entryStatus.getActiveTrip().getId().equals(
+              status.getActiveTrip().getId());
+    }
+  }
+}
@@ -20,6 +20,7 @@ import java.util.Map;
 
 import org.onebusaway.api.actions.siri.impl.SiriSupportV2.Filters;
 import org.onebusaway.api.actions.siri.model.DetailLevel;
+import org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot;
 import org.onebusaway.geospatial.model.CoordinateBounds;
 import org.onebusaway.gtfs.model.AgencyAndId;
 //import org.onebusaway.nyc.siri.support.SiriJsonSerializerV2;
@@ -49,17 +50,60 @@ public interface RealtimeServiceV2 {
       String vehicleId, int maximumOnwardCalls, DetailLevel detailLevel, 
       long currentTime);
 
+  /**
+   * As above, served from the given snapshot where it has the vehicle.
+   * 
+   * @param snapshot from {@link #getVehicleStatusSnapshot(long)}, or null to
+   *          query the transit data service directly
+   */
+  public VehicleActivityStructure getVehicleActivityForVehicle(
+      String vehicleId, int maximumOnwardCalls, DetailLevel detailLevel,
+      long currentTime, VehicleStatusSnapshot snapshot);
+
   public List<VehicleActivityStructure> getVehicleActivityForRoute(
       String routeId, String directionId, int maximumOnwardCalls,
       DetailLevel detailLevel, long currentTime);
 
+  /**
+   * As above, served from the given snapshot where it covers the route.
+   * 
+   * @param snapshot from {@link #getVehicleStatusSnapshot(long)}, or null to
+   *          query the transit data service directly
+   */
+  public List<VehicleActivityStructure> getVehicleActivityForRoute(
+      String routeId, String directionId, int maximumOnwardCalls,
+      DetailLevel detailLevel, long currentTime, VehicleStatusSnapshot snapshot);
+
   public List<MonitoredStopVisitStructure> getMonitoredStopVisitsForStop(
       String stopId, int maximumOnwardCalls, DetailLevel detailLevel,
       long currentTime, List<AgencyAndId> routeIds,
       Map<Filters, String> filters);
 
+  /**
+   * As above, reusing the given snapshot's lookups for vehicles it has on
+   * the same trip.
+   * 
+   * @param snapshot from {@link #getVehicleStatusSnapshot(long)}, or null to
+   *          query the transit data service directly
+   */
+  public List<MonitoredStopVisitStructure> getMonitoredStopVisitsForStop(
+      String stopId, int maximumOnwardCalls, DetailLevel detailLevel,
+      long currentTime, List<AgencyAndId> routeIds,
+      Map<Filters, String> filters, VehicleStatusSnapshot snapshot);
+
   public boolean getVehiclesInServiceForRoute(String routeId,
       String directionId, long currentTime);
+
+  /**
+   * Callers answering one request from several queries should get the
+   * snapshot once and pass it to each, so they all see the same one.
+   * 
+   * @param currentTime the time (ms) a request is answered for
+   * @return the vehicle status snapshot that requests for the current time
+   *         are served from, or null if they query the transit data service
+   *         directly
+   */
+  public VehicleStatusSnapshot getVehicleStatusSnapshot(long currentTime);
 /*
   public boolean getVehiclesInServiceForStopAndRoute(String stopId,
       String routeId, long currentTime);
@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.actions.siri.service;
+
+import org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot;
+
+/**
+ * Provides a {@link VehicleStatusSnapshot} of every active trip that is
+ * rebuilt once per realtime update cycle, so that SIRI and trips-for-route
+ * requests filter the snapshot instead of querying the transit data service
+ * for each request.
+ */
+public interface VehicleStatusSnapshotService {
+
+  /**
+   * @param time the time (ms) the caller is answering for
+   * @return the current snapshot, or null if there is none or it is too far
+   *         from the requested time to stand in for it, in which case callers
+   *         should query the transit data service directly
+   */
+  public VehicleStatusSnapshot getSnapshot(long time);
+
+  /**
+   * @return the time (ms) of the most recent snapshot, or null if there is
+   *         none
+   */
+  public Long getSnapshotTime();
+}
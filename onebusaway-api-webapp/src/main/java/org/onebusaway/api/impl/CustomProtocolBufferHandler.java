@@ -19,12 +19,14 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.opensymphony.xwork2.ActionInvocation;
 import org.apache.struts2.ServletActionContext;
 import org.apache.struts2.rest.handler.ContentTypeHandler;
 import org.onebusaway.api.model.ResponseBean;
+import org.onebusaway.api.services.GtfsRealtimeFeedSnapshot;
 
 import com.google.protobuf.Message;
 
@@ -52,7 +54,11 @@ public class CustomProtocolBufferHandler implements ContentTypeHandler {
        * with encoding the serialized protobuf to a String.
        */
       HttpServletResponse res = ServletActionContext.getResponse();
-      message.writeTo(res.getOutputStream());
+      GtfsRealtimeFeedSnapshot snapshot = getSnapshot(message);
+      if (snapshot != null)
+        res.getOutputStream().write(snapshot.getBytes());
+      else
+        message.writeTo(res.getOutputStream());
     } else {
       stream.write(response.getText());
     }
@@ -70,7 +76,11 @@ public class CustomProtocolBufferHandler implements ContentTypeHandler {
        * with encoding the serialized protobuf to a String.
        */
       HttpServletResponse res = ServletActionContext.getResponse();
-      message.writeTo(res.getOutputStream());
+      GtfsRealtimeFeedSnapshot snapshot = getSnapshot(message);
+      if (snapshot != null)
+        res.getOutputStream().write(snapshot.getBytes());
+      else
+        message.writeTo(res.getOutputStream());
     } else {
       stream.write(response.getText());
     }
@@ -86,4 +96,19 @@ public class CustomProtocolBufferHandler implements ContentTypeHandler {
   public String getExtension() {
     return "pb";
   }
+
+  /**
+   * @return the shared feed snapshot for the message, if the action served it
+   *         from one, so that the pre-serialized form can be written as is
+   */
+  private GtfsRealtimeFeedSnapshot getSnapshot(Message message) {
+    HttpServletRequest request = ServletActionContext.getRequest();
+    if (request == null)
+      return null;
+    Object snapshot = request.getAttribute(GtfsRealtimeFeedSnapshot.REQUEST_ATTRIBUTE);
+    if (snapshot instanceof GtfsRealtimeFeedSnapshot
+        && ((GtfsRealtimeFeedSnapshot) snapshot).getFeedMessage() == message)
+      return (GtfsRealtimeFeedSnapshot) snapshot;
+    return null;
+  }
 }
@@ -19,9 +19,13 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 
+import javax.servlet.http.HttpServletRequest;
+
 import com.opensymphony.xwork2.ActionInvocation;
+import org.apache.struts2.ServletActionContext;
 import org.apache.struts2.rest.handler.ContentTypeHandler;
 import org.onebusaway.api.model.ResponseBean;
+import org.onebusaway.api.services.GtfsRealtimeFeedSnapshot;
 
 import com.google.protobuf.Message;
 
@@ -43,7 +47,11 @@ public class CustomProtocolBufferTextHandler implements ContentTypeHandler {
     ResponseBean response = (ResponseBean) obj;
     if (response.getData() != null && response.getData() instanceof Message) {
       Message message = (Message) response.getData();
-      stream.write(message.toString());
+      GtfsRealtimeFeedSnapshot snapshot = getSnapshot(message);
+      if (snapshot != null)
+        stream.write(snapshot.getText());
+      else
+        stream.write(message.toString());
     } else {
       stream.write(response.getText());
     }
@@ -55,7 +63,11 @@ public class CustomProtocolBufferTextHandler implements ContentTypeHandler {
     ResponseBean response = (ResponseBean) obj;
     if (response.getData() != null && response.getData() instanceof Message) {
       Message message = (Message) response.getData();
-      stream.write(message.toString());
+      GtfsRealtimeFeedSnapshot snapshot = getSnapshot(message);
+      if (snapshot != null)
+        stream.write(snapshot.getText());
+      else
+        stream.write(message.toString());
     } else {
       stream.write(response.getText());
     }
@@ -71,4 +83,19 @@ public class CustomProtocolBufferTextHandler implements ContentTypeHandler {
   public String getExtension() {
     return "pbtext";
   }
+
+  /**
+   * @return the shared feed snapshot for the message, if the action served it
+   *         from one, so that the pre-serialized form can be written as is
+   */
+  private GtfsRealtimeFeedSnapshot getSnapshot(Message message) {
+    HttpServletRequest request = ServletActionContext.getRequest();
+    if (request == null)
+      return null;
+    Object snapshot = request.getAttribute(GtfsRealtimeFeedSnapshot.REQUEST_ATTRIBUTE);
+    if (snapshot instanceof GtfsRealtimeFeedSnapshot
+        && ((GtfsRealtimeFeedSnapshot) snapshot).getFeedMessage() == message)
+      return (GtfsRealtimeFeedSnapshot) snapshot;
+    return null;
+  }
 }
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.opensymphony.xwork2.ActionInvocation;
+
+import org.apache.struts2.ServletActionContext;
+
+/**
+ * Handles JSON content by streaming response beans directly to the output
+ * {@link Writer} with {@link StreamingJsonSerializer}, rather than building a
+ * json-lib object tree and string first. Output is identical to
+ * {@link CustomJsonLibHandler}, which is still used for parsing requests and
+ * for any response object the streaming serializer doesn't support.
+ */
+public class CustomStreamingJsonHandler extends CustomJsonLibHandler {
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private final StreamingJsonSerializer _serializer = new StreamingJsonSerializer();
+
+  @Override
+  public String fromObject(Object obj, String resultCode, Writer stream)
+      throws IOException {
+    if (!_serializer.isSupported(obj))
+      return super.fromObject(obj, resultCode, stream);
+    write(obj, stream);
+    return null;
+  }
+
+  @Override
+  public String fromObject(ActionInvocation actionInvocation, Object obj,
+      String resultCode, Writer stream) throws IOException {
+    if (!_serializer.isSupported(obj))
+      return super.fromObject(actionInvocation, obj, resultCode, stream);
+    write(obj, stream);
+    return null;
+  }
+
+  private void write(Object obj, Writer stream) throws IOException {
+
+    String callback = null;
+    HttpServletRequest req = ServletActionContext.getRequest();
+    if (req != null)
+      callback = req.getParameter("callback");
+
+    Writer out = new BufferedWriter(stream, BUFFER_SIZE);
+    if (callback != null) {
+      out.write(callback);
+      out.write('(');
+    }
+    _serializer.write(obj, out);
+    if (callback != null)
+      out.write(')');
+    out.flush();
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.onebusaway.api.services.GtfsRealtimeFeedSnapshot;
+import org.onebusaway.api.services.GtfsRealtimeFeedSnapshotService;
+import org.onebusaway.util.SystemTime;
+import org.springframework.stereotype.Component;
+
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+
+/**
+ * Keeps one {@link GtfsRealtimeFeedSnapshot} per feed key. A snapshot is
+ * rebuilt by a single request once it is older than the refresh interval,
+ * while concurrent requests for the same key wait for that rebuild instead of
+ * each going back to the transit data service. Every rebuild is published,
+ * so the feed header timestamp keeps advancing, but when it produces the same
+ * entities as before the ETag and Last-Modified time are carried over, so
+ * conditional requests keep getting a 304.
+ */
+@Component
+class GtfsRealtimeFeedSnapshotServiceImpl implements
+    GtfsRealtimeFeedSnapshotService {
+
+  private final ConcurrentMap<String, SnapshotEntry> _entries = new ConcurrentHashMap<String, SnapshotEntry>();
+
+  private long _refreshInterval = 10 * 1000;
+
+  private final AtomicLong _buildCount = new AtomicLong();
+
+  private final AtomicLong _hitCount = new AtomicLong();
+
+  /**
+   * How long a snapshot is served before it is rebuilt. This should roughly
+   * match the refresh interval of the underlying realtime sources.
+   * 
+   * @param refreshInterval in seconds
+   */
+  public void setRefreshInterval(int refreshInterval) {
+    _refreshInterval = refreshInterval * 1000L;
+  }
+
+  public long getBuildCount() {
+    return _buildCount.get();
+  }
+
+  public long getHitCount() {
+    return _hitCount.get();
+  }
+
+  @Override
+  public GtfsRealtimeFeedSnapshot getSnapshot(String key, FeedFactory factory) {
+    SnapshotEntry entry = _entries.get(key);
+    if (entry == null) {
+      SnapshotEntry newEntry = new SnapshotEntry();
+      entry = _entries.putIfAbsent(key, newEntry);
+      if (entry == null)
+        entry = newEntry;
+    }
+    return entry.getSnapshot(factory);
+  }
+
+  private class SnapshotEntry {
+
+    private volatile GtfsRealtimeFeedSnapshot _snapshot;
+
+    private volatile long _expiresAt;
+
+    public GtfsRealtimeFeedSnapshot getSnapshot(FeedFactory factory) {
+      GtfsRealtimeFeedSnapshot snapshot = _snapshot;
+      if (snapshot != null && SystemTime.currentTimeMillis() < _expiresAt) {
+        _hitCount.incrementAndGet();
+        return snapshot;
+      }
+      synchronized (this) {
+        long now = SystemTime.currentTimeMillis();
+        snapshot = _snapshot;
+        if (snapshot != null && now < _expiresAt) {
+          _hitCount.incrementAndGet();
+          return snapshot;
+        }
+        FeedMessage feed = factory.buildFeed(now);
+        _buildCount.incrementAndGet();
+        if (snapshot == null
+            || !snapshot.getFeedMessage().getEntityList().equals(
+                feed.getEntityList())) {
+          snapshot = new GtfsRealtimeFeedSnapshot(feed, now / 1000 * 1000);
+        } else {
+          snapshot = snapshot.withUnchangedEntities(feed);
+        }
+        _snapshot = snapshot;
+        _expiresAt = now + _refreshInterval;
+        return snapshot;
+      }
+    }
+  }
+}
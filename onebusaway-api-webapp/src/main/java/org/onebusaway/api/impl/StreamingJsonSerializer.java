@@ -0,0 +1,321 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.impl;
+
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.sf.json.JSONString;
+import net.sf.json.JsonConfig;
+import net.sf.json.util.JSONUtils;
+import net.sf.json.util.JsonVerifier;
+
+import org.apache.commons.beanutils.PropertyUtils;
+
+/**
+ * Writes a response bean tree as JSON directly to a {@link Writer}, producing
+ * the same output as json-lib's {@link JSONObject#fromObject(Object)} and
+ * {@link JSONArray#fromObject(Object)} without first building the intermediate
+ * {@link JSONObject} tree and output string.
+ * 
+ * Beans, collections, object arrays, strings, numbers and booleans are written
+ * directly, using json-lib's own formatting for strings and numbers, and bean
+ * property accessors are looked up once per class. Any other value (maps,
+ * enums, dates, strings that json-lib would interpret as JSON, etc) is handed
+ * to json-lib so that its quirks are preserved exactly.
+ * 
+ * As in json-lib, a bean or array that contains itself is reported through
+ * the configured {@link net.sf.json.util.CycleDetectionStrategy}, which by
+ * default throws a {@link net.sf.json.JSONException}.
+ */
+public class StreamingJsonSerializer {
+
+  /**
+   * The same properties json-lib excludes by default
+   */
+  private static final String[] DEFAULT_EXCLUDES = {
+      "class", "declaringClass", "metaClass"};
+
+  private static final String HOLDER_KEY = "v";
+
+  private final ConcurrentMap<Class<?>, PropertyAccessor[]> _accessorsByClass = new ConcurrentHashMap<Class<?>, PropertyAccessor[]>();
+
+  private final JsonConfig _jsonConfig = new JsonConfig();
+
+  /**
+   * @param obj the object to serialize
+   * @return true if the object can be streamed by this serializer, as opposed
+   *         to needing to be serialized by json-lib in its entirety
+   */
+  public boolean isSupported(Object obj) {
+    return obj != null && (isArray(obj) || isBean(obj));
+  }
+
+  /**
+   * Writes the JSON representation of the specified object. The caller should
+   * check {@link #isSupported(Object)} first.
+   */
+  public void write(Object obj, Writer out) throws IOException {
+    Set<Object> path = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    if (isArray(obj))
+      writeArray(obj, out, path);
+    else
+      writeBean(obj, out, path);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * @param path the beans and arrays currently being written, used to detect
+   *          cycles
+   */
+  private void writeBean(Object bean, Writer out, Set<Object> path)
+      throws IOException {
+    if (!path.add(bean)) {
+      JSONObject value = _jsonConfig.getCycleDetectionStrategy().handleRepeatedReferenceAsObject(
+          _jsonConfig, bean);
+      out.write(value == null ? "null" : value.toString());
+      return;
+    }
+    PropertyAccessor[] accessors = getAccessors(bean.getClass());
+    out.write('{');
+    for (int i = 0; i < accessors.length; i++) {
+      PropertyAccessor accessor = accessors[i];
+      if (i > 0)
+        out.write(',');
+      out.write(accessor.quotedName);
+      out.write(':');
+      Object value = accessor.getValue(bean);
+      if (value == null)
+        writeDefaultValue(accessor.type, out);
+      else
+        writePropertyValue(value, out, path);
+    }
+    out.write('}');
+    path.remove(bean);
+  }
+
+  private void writeArray(Object obj, Writer out, Set<Object> path)
+      throws IOException {
+    if (!path.add(obj)) {
+      JSONArray value = _jsonConfig.getCycleDetectionStrategy().handleRepeatedReferenceAsArray(
+          _jsonConfig, obj);
+      out.write(value == null ? "null" : value.toString());
+      return;
+    }
+    out.write('[');
+    boolean first = true;
+    if (obj instanceof Collection<?>) {
+      for (Object element : (Collection<?>) obj) {
+        if (!first)
+          out.write(',');
+        writeElementValue(element, out, path);
+        first = false;
+      }
+    } else {
+      for (Object element : (Object[]) obj) {
+        if (!first)
+          out.write(',');
+        writeElementValue(element, out, path);
+        first = false;
+      }
+    }
+    out.write(']');
+    path.remove(obj);
+  }
+
+  /**
+   * A null bean property is replaced with json-lib's default value for the
+   * declared property type: an empty array, zero, false, an empty string or
+   * null.
+   */
+  private void writeDefaultValue(Class<?> type, Writer out) throws IOException {
+    Object value = _jsonConfig.findDefaultValueProcessor(type).getDefaultValue(
+        type);
+    if (!JsonVerifier.isValidJsonValue(value))
+      value = null;
+    out.write(JSONUtils.valueToString(value));
+  }
+
+  private void writePropertyValue(Object value, Writer out, Set<Object> path)
+      throws IOException {
+    if (!writeCommonValue(value, out, path)) {
+      JSONObject holder = new JSONObject();
+      holder.element(HOLDER_KEY, value, _jsonConfig);
+      out.write(JSONUtils.valueToString(holder.get(HOLDER_KEY)));
+    }
+  }
+
+  private void writeElementValue(Object value, Writer out, Set<Object> path)
+      throws IOException {
+    if (value == null) {
+      out.write("null");
+    } else if (!writeCommonValue(value, out, path)) {
+      JSONArray holder = new JSONArray();
+      holder.element(value, _jsonConfig);
+      out.write(JSONUtils.valueToString(holder.get(0)));
+    }
+  }
+
+  /**
+   * @return true if the value was written, false if it needs to be handed off
+   *         to json-lib
+   */
+  private boolean writeCommonValue(Object value, Writer out, Set<Object> path)
+      throws IOException {
+    if (value instanceof String) {
+      String s = (String) value;
+      if (isPlainString(s)) {
+        out.write(JSONUtils.quote(s));
+        return true;
+      }
+      return false;
+    } else if (value instanceof Integer || value instanceof Long
+        || value instanceof Short || value instanceof Byte) {
+      out.write(JSONUtils.numberToString(JSONUtils.transformNumber((Number) value)));
+      return true;
+    } else if (value instanceof Double || value instanceof Float) {
+      double d = ((Number) value).doubleValue();
+      if (Double.isNaN(d) || Double.isInfinite(d))
+        return false;
+      out.write(JSONUtils.numberToString(JSONUtils.transformNumber((Number) value)));
+      return true;
+    } else if (value instanceof Boolean) {
+      out.write(value.toString());
+      return true;
+    } else if (isArray(value)) {
+      writeArray(value, out, path);
+      return true;
+    } else if (isBean(value)) {
+      writeBean(value, out, path);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * json-lib treats strings that look like JSON, javascript functions or JSON
+   * keywords specially, so we leave those to it
+   */
+  private boolean isPlainString(String s) {
+    return !(JSONUtils.mayBeJSON(s) || JSONUtils.hasQuotes(s)
+        || JSONUtils.isFunction(s) || "true".equals(s) || "false".equals(s));
+  }
+
+  private boolean isArray(Object obj) {
+    return obj instanceof Collection<?> || obj instanceof Object[];
+  }
+
+  /**
+   * We only stream our own model beans. JDK types, maps, enums and anything
+   * json-lib knows about are handed off to json-lib.
+   */
+  private boolean isBean(Object obj) {
+    if (obj instanceof Map<?, ?> || obj instanceof Enum<?>
+        || obj instanceof JSON || obj instanceof JSONString
+        || obj instanceof Class<?>)
+      return false;
+    Class<?> type = obj.getClass();
+    if (type.isArray() || type.isPrimitive())
+      return false;
+    String name = type.getName();
+    return !(name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("net.sf.json."));
+  }
+
+  private PropertyAccessor[] getAccessors(Class<?> type) {
+    PropertyAccessor[] accessors = _accessorsByClass.get(type);
+    if (accessors == null) {
+      accessors = createAccessors(type);
+      _accessorsByClass.putIfAbsent(type, accessors);
+    }
+    return accessors;
+  }
+
+  private PropertyAccessor[] createAccessors(Class<?> type) {
+    List<PropertyAccessor> accessors = new ArrayList<PropertyAccessor>();
+    PropertyDescriptor[] descriptors = PropertyUtils.getPropertyDescriptors(type);
+    for (PropertyDescriptor descriptor : descriptors) {
+      String name = descriptor.getName();
+      if (isExcluded(name))
+        continue;
+      Method readMethod = descriptor.getReadMethod();
+      if (readMethod == null)
+        continue;
+      /**
+       * Public getters declared on non-public classes need to be made
+       * accessible, as bean utils would
+       */
+      if (!readMethod.isAccessible())
+        readMethod.setAccessible(true);
+      accessors.add(new PropertyAccessor(name, descriptor.getPropertyType(),
+          readMethod));
+    }
+    return accessors.toArray(new PropertyAccessor[accessors.size()]);
+  }
+
+  private static boolean isExcluded(String name) {
+    for (String exclude : DEFAULT_EXCLUDES) {
+      if (exclude.equals(name))
+        return true;
+    }
+    return false;
+  }
+
+  private static class PropertyAccessor {
+
+    private final String quotedName;
+
+    private final Class<?> type;
+
+    private final Method readMethod;
+
+    public PropertyAccessor(String name, Class<?> type, Method readMethod) {
+      this.quotedName = JSONUtils.quote(name);
+      this.type = type;
+      this.readMethod = readMethod;
+    }
+
+    public Object getValue(Object bean) throws IOException {
+      try {
+        return readMethod.invoke(bean);
+      } catch (IllegalAccessException ex) {
+        throw new IllegalStateException("error reading property "
+            + readMethod.getName() + " of " + bean.getClass().getName(), ex);
+      } catch (InvocationTargetException ex) {
+        throw new IllegalStateException("error reading property "
+            + readMethod.getName() + " of " + bean.getClass().getName(),
+            ex.getTargetException());
+      }
+    }
+  }
+}
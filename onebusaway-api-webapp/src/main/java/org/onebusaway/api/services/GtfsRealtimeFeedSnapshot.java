@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.services;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+
+/**
+ * A GTFS-realtime feed that has been built once and is shared between all the
+ * requests that arrive while it is current. The serialized protocol buffer is
+ * kept, and the text form is built on first use, so repeated requests for the
+ * same feed don't pay for serialization again.
+ * 
+ * The ETag and Last-Modified time only cover the feed's entities, not its
+ * header, so a rebuild that only advances the header timestamp keeps them.
+ * @see GtfsRealtimeFeedSnapshotService
+ */
+public final class GtfsRealtimeFeedSnapshot {
+
+  /**
+   * Request attribute under which the snapshot backing the current response is
+   * stored, so content handlers can write the pre-serialized form.
+   */
+  public static final String REQUEST_ATTRIBUTE = GtfsRealtimeFeedSnapshot.class.getName();
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final FeedMessage _feedMessage;
+
+  private final byte[] _bytes;
+
+  private volatile String _text;
+
+  private final String _eTag;
+
+  private final long _lastModified;
+
+  public GtfsRealtimeFeedSnapshot(FeedMessage feedMessage, long lastModified) {
+    this(feedMessage, computeETag(feedMessage), lastModified);
+  }
+
+  private GtfsRealtimeFeedSnapshot(FeedMessage feedMessage, String eTag,
+      long lastModified) {
+    _feedMessage = feedMessage;
+    _bytes = feedMessage.toByteArray();
+    _eTag = eTag;
+    _lastModified = lastModified;
+  }
+
+  /**
+   * @param feedMessage a rebuilt feed with the same entities as this one
+   * @return a snapshot of the rebuilt feed, with its fresh header, that keeps
+   *         this snapshot's ETag and Last-Modified time
+   */
+  public GtfsRealtimeFeedSnapshot withUnchangedEntities(FeedMessage feedMessage) {
+    return new GtfsRealtimeFeedSnapshot(feedMessage, _eTag, _lastModified);
+  }
+
+  public FeedMessage getFeedMessage() {
+    return _feedMessage;
+  }
+
+  /**
+   * @return the serialized protocol buffer; callers must not modify the array
+   */
+  public byte[] getBytes() {
+    return _bytes;
+  }
+
+  public String getText() {
+    String text = _text;
+    if (text == null) {
+      text = _feedMessage.toString();
+      _text = text;
+    }
+    return text;
+  }
+
+  /**
+   * @return a quoted entity tag derived from the feed content
+   */
+  public String getETag() {
+    return _eTag;
+  }
+
+  /**
+   * @return the time (ms) at which the feed content last changed, truncated to
+   *         whole seconds to match HTTP date resolution
+   */
+  public long getLastModified() {
+    return _lastModified;
+  }
+
+  /**
+   * If-None-Match may list several entity tags, or "*". As required for
+   * If-None-Match, tags are compared weakly, so a W/ prefix is ignored.
+   * 
+   * @param ifNoneMatch value of the If-None-Match header, or null
+   * @param ifModifiedSince value of the If-Modified-Since header (ms), or -1
+   * @return true if a client sending these conditional headers already has
+   *         the current content
+   */
+  public boolean isNotModified(String ifNoneMatch, long ifModifiedSince) {
+    if (ifNoneMatch != null)
+      return matchesETag(ifNoneMatch);
+    return ifModifiedSince != -1 && _lastModified <= ifModifiedSince;
+  }
+
+  private boolean matchesETag(String ifNoneMatch) {
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.equals("*"))
+        return true;
+      if (tag.startsWith("W/"))
+        tag = tag.substring(2);
+      if (tag.equals(_eTag))
+        return true;
+    }
+    return false;
+  }
+
+  private static String computeETag(FeedMessage feedMessage) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+    for (FeedEntity entity : feedMessage.getEntityList())
+      digest.update(entity.toByteArray());
+    byte[] hash = digest.digest();
+    StringBuilder b = new StringBuilder(hash.length * 2 + 2);
+    b.append('"');
+    for (byte v : hash) {
+      b.append(HEX[(v >> 4) & 0x0f]);
+      b.append(HEX[v & 0x0f]);
+    }
+    b.append('"');
+    return b.toString();
+  }
+}
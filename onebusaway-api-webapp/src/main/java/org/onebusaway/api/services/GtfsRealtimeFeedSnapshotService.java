@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.services;
+
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+
+/**
+ * Shares GTFS-realtime feeds between requests. Each feed is identified by a
+ * key (typically the feed type, agency and output options) and is rebuilt at
+ * most once per refresh interval, no matter how many clients are polling it.
+ * 
+ */
+public interface GtfsRealtimeFeedSnapshotService {
+
+  /**
+   * Builds the content of a feed on a snapshot miss.
+   */
+  public interface FeedFactory {
+    public FeedMessage buildFeed(long time);
+  }
+
+  /**
+   * 
+   * @param key identifies the feed
+   * @param factory invoked to rebuild the feed when the current snapshot is
+   *          missing or has expired
+   * @return the current snapshot for the feed
+   */
+  public GtfsRealtimeFeedSnapshot getSnapshot(String key, FeedFactory factory);
+}
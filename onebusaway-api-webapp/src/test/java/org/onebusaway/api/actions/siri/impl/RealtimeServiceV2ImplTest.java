@@ -0,0 +1,351 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.actions.siri.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.onebusaway.api.actions.siri.impl.SiriSupportV2.Filters;
+import org.onebusaway.api.actions.siri.model.DetailLevel;
+import org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot;
+import org.onebusaway.api.actions.siri.service.VehicleStatusSnapshotService;
+import org.onebusaway.geospatial.model.CoordinatePoint;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.presentation.services.realtime.PresentationService;
+import org.onebusaway.realtime.api.TimepointPredictionRecord;
+import org.onebusaway.transit_data.model.ArrivalAndDepartureBean;
+import org.onebusaway.transit_data.model.ArrivalsAndDeparturesQueryBean;
+import org.onebusaway.transit_data.model.ListBean;
+import org.onebusaway.transit_data.model.RouteBean;
+import org.onebusaway.transit_data.model.StopBean;
+import org.onebusaway.transit_data.model.StopWithArrivalsAndDeparturesBean;
+import org.onebusaway.transit_data.model.blocks.BlockConfigurationBean;
+import org.onebusaway.transit_data.model.blocks.BlockInstanceBean;
+import org.onebusaway.transit_data.model.blocks.BlockTripBean;
+import org.onebusaway.transit_data.model.trips.TripBean;
+import org.onebusaway.transit_data.model.trips.TripDetailsBean;
+import org.onebusaway.transit_data.model.trips.TripForVehicleQueryBean;
+import org.onebusaway.transit_data.model.trips.TripStatusBean;
+import org.onebusaway.transit_data.model.trips.TripsForRouteQueryBean;
+import org.onebusaway.transit_data.services.TransitDataService;
+
+import uk.org.siri.siri_2.MonitoredStopVisitStructure;
+import uk.org.siri.siri_2.OnwardCallStructure;
+import uk.org.siri.siri_2.VehicleActivityStructure;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RealtimeServiceV2ImplTest {
+
+  private static final long NOW = 1000000L;
+
+  private static final long SERVICE_DATE = 1000L;
+
+  @InjectMocks
+  private RealtimeServiceV2Impl realtimeService;
+
+  @Mock
+  private TransitDataService transitDataService;
+
+  @Mock
+  private PresentationService presentationService;
+
+  @Mock
+  private VehicleStatusSnapshotService vehicleStatusSnapshotService;
+
+  private BlockInstanceBean blockInstance;
+
+  private TripDetailsBean tripDetails;
+
+  private List<TimepointPredictionRecord> predictionRecords = new ArrayList<TimepointPredictionRecord>();
+
+  private VehicleStatusSnapshot.Entry entry;
+
+  private VehicleStatusSnapshot snapshot;
+
+  @Before
+  public void setup() {
+    when(presentationService.include(any(TripStatusBean.class))).thenReturn(
+        true);
+    when(
+        presentationService.include(any(ArrivalAndDepartureBean.class),
+            any(TripStatusBean.class))).thenReturn(true);
+    // Keeps the SIRI calls out of the way, they don't depend on the snapshot
+    when(presentationService.isOnDetour(any(TripStatusBean.class))).thenReturn(
+        true);
+
+    blockInstance = new BlockInstanceBean();
+    blockInstance.setBlockConfiguration(new BlockConfigurationBean());
+    blockInstance.getBlockConfiguration().setTrips(
+        new ArrayList<BlockTripBean>());
+
+    tripDetails = tripDetails("1_tripA", "1_v1");
+    entry = new VehicleStatusSnapshot.Entry(tripDetails, blockInstance,
+        predictionRecords);
+    Map<String, List<VehicleStatusSnapshot.Entry>> entriesByRouteId = new HashMap<String, List<VehicleStatusSnapshot.Entry>>();
+    entriesByRouteId.put("1_R1", Arrays.asList(entry));
+    entriesByRouteId.put("1_R2", new ArrayList<VehicleStatusSnapshot.Entry>());
+    snapshot = new VehicleStatusSnapshot(NOW, entriesByRouteId);
+
+    // the fallback path
+    when(transitDataService.getTripsForRoute(any(TripsForRouteQueryBean.class))).thenReturn(
+        new ListBean<TripDetailsBean>(Arrays.asList(tripDetails), false));
+    when(
+        transitDataService.getTripDetailsForVehicleAndTime(any(TripForVehicleQueryBean.class))).thenReturn(
+        tripDetails);
+    when(transitDataService.getBlockInstance(anyString(), anyLong())).thenReturn(
+        blockInstance);
+    when(
+        transitDataService.getPredictionRecordsForTrip(anyString(),
+            any(TripStatusBean.class))).thenReturn(predictionRecords);
+  }
+
+  @Test
+  public void testVehicleActivityForRouteFromSnapshot() {
+    when(vehicleStatusSnapshotService.getSnapshot(NOW)).thenReturn(snapshot);
+
+    List<VehicleActivityStructure> activities = realtimeService.getVehicleActivityForRoute(
+        "1_R1", null, 0, DetailLevel.MINIMUM, NOW);
+
+    assertEquals(1, activities.size());
+    assertEquals("1_v1",
+        activities.get(0).getMonitoredVehicleJourney().getVehicleRef().getValue());
+    assertEquals(0, realtimeService.getVehicleActivityForRoute("1_R1", "1", 0,
+        DetailLevel.MINIMUM, NOW).size());
+    assertEquals(0, realtimeService.getVehicleActivityForRoute("1_R2", null,
+        0, DetailLevel.MINIMUM, NOW).size());
+    verifyNoDirectQueries();
+  }
+
+  @Test
+  public void testVehicleActivityForRouteNotInSnapshot() {
+    when(vehicleStatusSnapshotService.getSnapshot(NOW)).thenReturn(snapshot);
+
+    // The direct query only has a trip of another route
+    assertEquals(0, realtimeService.getVehicleActivityForRoute("1_R3", null,
+        0, DetailLevel.MINIMUM, NOW).size());
+    verify(transitDataService).getTripsForRoute(
+        any(TripsForRouteQueryBean.class));
+  }
+
+  @Test
+  public void testVehicleActivityFromGivenSnapshot() {
+    // Callers that got the snapshot once pass it in
+    List<VehicleActivityStructure> activities = realtimeService.getVehicleActivityForRoute(
+        "1_R1", null, 0, DetailLevel.MINIMUM, NOW, snapshot);
+    assertEquals(1, activities.size());
+    assertNotNull(realtimeService.getVehicleActivityForVehicle("1_v1", 0,
+        DetailLevel.MINIMUM, NOW, snapshot));
+
+    verify(vehicleStatusSnapshotService, never()).getSnapshot(anyLong());
+    verifyNoDirectQueries();
+  }
+
+  @Test
+  public void testOnwardCallsAreBuiltOncePerSnapshot() {
+    when(presentationService.isOnDetour(any(TripStatusBean.class))).thenReturn(
+        false);
+    tripDetails.getStatus().setLocation(new CoordinatePoint(47.6, -122.3));
+
+    VehicleActivityStructure activity = realtimeService.getVehicleActivityForVehicle(
+        "1_v1", 10, DetailLevel.CALLS, NOW, snapshot);
+    List<OnwardCallStructure> onwardCalls = entry.getOnwardCalls();
+    assertNotNull(onwardCalls);
+    assertNotNull(activity.getMonitoredVehicleJourney().getOnwardCalls());
+
+    realtimeService.getVehicleActivityForVehicle("1_v1", 10,
+        DetailLevel.CALLS, NOW, snapshot);
+    assertSame(onwardCalls, entry.getOnwardCalls());
+  }
+
+  @Test
+  public void testCachedOnwardCallsAreLimited() {
+    when(presentationService.isOnDetour(any(TripStatusBean.class))).thenReturn(
+        false);
+    tripDetails.getStatus().setLocation(new CoordinatePoint(47.6, -122.3));
+
+    // A stop without a call still counts against the maximum
+    OnwardCallStructure first = new OnwardCallStructure();
+    OnwardCallStructure third = new OnwardCallStructure();
+    entry.setOnwardCalls(Arrays.asList(first, null, third));
+
+    List<OnwardCallStructure> onwardCalls = realtimeService.getVehicleActivityForVehicle(
+        "1_v1", 2, DetailLevel.CALLS, NOW, snapshot).getMonitoredVehicleJourney().getOnwardCalls().getOnwardCall();
+    assertEquals(1, onwardCalls.size());
+    assertSame(first, onwardCalls.get(0));
+
+    onwardCalls = realtimeService.getVehicleActivityForVehicle("1_v1", 10,
+        DetailLevel.CALLS, NOW, snapshot).getMonitoredVehicleJourney().getOnwardCalls().getOnwardCall();
+    assertEquals(2, onwardCalls.size());
+    assertSame(third, onwardCalls.get(1));
+    verifyNoDirectQueries();
+  }
+
+  @Test
+  public void testVehicleActivityForVehicleFromSnapshot() {
+    when(vehicleStatusSnapshotService.getSnapshot(NOW)).thenReturn(snapshot);
+
+    VehicleActivityStructure activity = realtimeService.getVehicleActivityForVehicle(
+        "1_v1", 0, DetailLevel.MINIMUM, NOW);
+
+    assertNotNull(activity);
+    assertEquals("1_v1",
+        activity.getMonitoredVehicleJourney().getVehicleRef().getValue());
+    verify(transitDataService, never()).getTripDetailsForVehicleAndTime(
+        any(TripForVehicleQueryBean.class));
+    verifyNoDirectQueries();
+  }
+
+  @Test
+  public void testVehicleActivityForVehicleNotInSnapshot() {
+    when(vehicleStatusSnapshotService.getSnapshot(NOW)).thenReturn(snapshot);
+
+    VehicleActivityStructure activity = realtimeService.getVehicleActivityForVehicle(
+        "1_v2", 0, DetailLevel.MINIMUM, NOW);
+
+    assertNotNull(activity);
+    verify(transitDataService).getTripDetailsForVehicleAndTime(
+        any(TripForVehicleQueryBean.class));
+  }
+
+  @Test
+  public void testStaleSnapshotFallsBackToTransitDataService() {
+    // the snapshot service returns null once its snapshot is too old
+    when(vehicleStatusSnapshotService.getSnapshot(NOW)).thenReturn(null);
+
+    List<VehicleActivityStructure> activities = realtimeService.getVehicleActivityForRoute(
+        "1_R1", null, 0, DetailLevel.MINIMUM, NOW);
+    assertEquals(1, activities.size());
+    assertNotNull(realtimeService.getVehicleActivityForVehicle("1_v1", 0,
+        DetailLevel.MINIMUM, NOW));
+
+    verify(transitDataService).getTripsForRoute(
+        any(TripsForRouteQueryBean.class));
+    verify(transitDataService).getTripDetailsForVehicleAndTime(
+        any(TripForVehicleQueryBean.class));
+    verify(transitDataService, times(2)).getBlockInstance(
+        "1_blockA", SERVICE_DATE);
+    assertNull(realtimeService.getVehicleStatusSnapshot(NOW));
+  }
+
+  @Test
+  public void testVehicleStatusSnapshot() {
+    when(vehicleStatusSnapshotService.getSnapshot(NOW)).thenReturn(snapshot);
+    assertSame(snapshot, realtimeService.getVehicleStatusSnapshot(NOW));
+  }
+
+  @Test
+  public void testMonitoredStopVisitsReuseSnapshotForActiveTrip() {
+    when(vehicleStatusSnapshotService.getSnapshot(NOW)).thenReturn(snapshot);
+    stubArrivalsAndDepartures(tripDetails("1_tripA", "1_v1"));
+
+    List<MonitoredStopVisitStructure> visits = getMonitoredStopVisits();
+
+    assertEquals(1, visits.size());
+    verifyNoDirectQueries();
+  }
+
+  @Test
+  public void testMonitoredStopVisitsForOtherTripQueryDirectly() {
+    when(vehicleStatusSnapshotService.getSnapshot(NOW)).thenReturn(snapshot);
+    // The snapshot has the vehicle on a different trip than the arrival
+    stubArrivalsAndDepartures(tripDetails("1_tripB", "1_v1"));
+
+    List<MonitoredStopVisitStructure> visits = getMonitoredStopVisits();
+
+    assertEquals(1, visits.size());
+    verify(transitDataService).getPredictionRecordsForTrip(eq("1"),
+        any(TripStatusBean.class));
+    verify(transitDataService).getBlockInstance("1_blockA", SERVICE_DATE);
+  }
+
+  private List<MonitoredStopVisitStructure> getMonitoredStopVisits() {
+    return realtimeService.getMonitoredStopVisitsForStop("1_stop", 0,
+        DetailLevel.BASIC, NOW, new ArrayList<AgencyAndId>(),
+        new HashMap<Filters, String>());
+  }
+
+  private void stubArrivalsAndDepartures(TripDetailsBean arrivalTrip) {
+    StopBean stop = new StopBean();
+    stop.setId("1_stop");
+
+    ArrivalAndDepartureBean arrival = new ArrivalAndDepartureBean();
+    arrival.setTrip(arrivalTrip.getTrip());
+    arrival.setTripStatus(arrivalTrip.getStatus());
+    arrival.setStop(stop);
+
+    List<ArrivalAndDepartureBean> arrivals = new ArrayList<ArrivalAndDepartureBean>();
+    arrivals.add(arrival);
+    when(
+        transitDataService.getStopWithArrivalsAndDepartures(eq("1_stop"),
+            any(ArrivalsAndDeparturesQueryBean.class))).thenReturn(
+        new StopWithArrivalsAndDeparturesBean(stop, arrivals, null, null));
+  }
+
+  private void verifyNoDirectQueries() {
+    verify(transitDataService, never()).getTripsForRoute(
+        any(TripsForRouteQueryBean.class));
+    verify(transitDataService, never()).getBlockInstance(anyString(),
+        anyLong());
+    verify(transitDataService, never()).getPredictionRecordsForTrip(
+        anyString(), any(TripStatusBean.class));
+  }
+
+  private TripDetailsBean tripDetails(String tripId, String vehicleId) {
+
+    RouteBean.Builder route = RouteBean.builder();
+    route.setId("1_R1");
+
+    TripBean trip = new TripBean();
+    trip.setId(tripId);
+    trip.setRoute(route.create());
+    trip.setDirectionId("0");
+    trip.setBlockId("1_blockA");
+
+    TripStatusBean status = new TripStatusBean();
+    status.setActiveTrip(trip);
+    status.setServiceDate(SERVICE_DATE);
+    status.setVehicleId(vehicleId);
+    status.setLastUpdateTime(NOW);
+    status.setLastKnownLocation(new CoordinatePoint(47.6, -122.3));
+
+    TripDetailsBean tripDetails = new TripDetailsBean();
+    tripDetails.setTrip(trip);
+    tripDetails.setStatus(status);
+    return tripDetails;
+  }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.actions.siri.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot;
+import org.onebusaway.api.actions.siri.model.VehicleStatusSnapshot.Entry;
+import org.onebusaway.realtime.api.TimepointPredictionRecord;
+import org.onebusaway.transit_data.model.AgencyBean;
+import org.onebusaway.transit_data.model.AgencyWithCoverageBean;
+import org.onebusaway.transit_data.model.ListBean;
+import org.onebusaway.transit_data.model.RouteBean;
+import org.onebusaway.transit_data.model.blocks.BlockInstanceBean;
+import org.onebusaway.transit_data.model.trips.TripBean;
+import org.onebusaway.transit_data.model.trips.TripDetailsBean;
+import org.onebusaway.transit_data.model.trips.TripStatusBean;
+import org.onebusaway.transit_data.model.trips.TripsForAgencyQueryBean;
+import org.onebusaway.transit_data.model.trips.TripsForRouteQueryBean;
+import org.onebusaway.transit_data.services.TransitDataService;
+import org.onebusaway.util.SystemTime;
+
+public class VehicleStatusSnapshotServiceImplTest {
+
+  private TransitDataService _transitDataService;
+
+  private VehicleStatusSnapshotServiceImpl _service;
+
+  private BlockInstanceBean _blockA = new BlockInstanceBean();
+
+  private BlockInstanceBean _blockB = new BlockInstanceBean();
+
+  private List<TripsForRouteQueryBean> _queries = new ArrayList<TripsForRouteQueryBean>();
+
+  @Before
+  public void setup() {
+    _transitDataService = Mockito.mock(TransitDataService.class);
+    _service = new VehicleStatusSnapshotServiceImpl();
+    _service.setTransitDataService(_transitDataService);
+    _service.setRefreshInterval(10);
+
+    AgencyBean agency = new AgencyBean();
+    agency.setId("1");
+    AgencyWithCoverageBean agencyWithCoverage = new AgencyWithCoverageBean();
+    agencyWithCoverage.setAgency(agency);
+    Mockito.when(_transitDataService.getAgenciesWithCoverage()).thenReturn(
+        Arrays.asList(agencyWithCoverage));
+
+    Mockito.when(_transitDataService.getRouteIdsForAgencyId("1")).thenReturn(
+        new ListBean<String>(Arrays.asList("1_R1", "1_R2", "1_R3"), false));
+
+    final List<TripDetailsBean> tripsForR1 = new ArrayList<TripDetailsBean>();
+    tripsForR1.add(tripDetails("tripA", "1_R1", "0", "blockA", "1_v1"));
+    // Scheduled on one block, but matched to tripB on another
+    TripDetailsBean scheduled = tripDetails("tripF", "1_R1", "0", "blockF",
+        "1_v2");
+    scheduled.getStatus().setPredicted(false);
+    tripsForR1.add(scheduled);
+    tripsForR1.add(tripDetails("tripB", "1_R1", "1", "blockB", "1_v2"));
+    // A second trip on the same block, interlined on another route
+    tripsForR1.add(tripDetails("tripC", "1_R2", "0", "blockA", "1_v3"));
+    // No status
+    TripDetailsBean noStatus = tripDetails("tripD", "1_R1", "0", "blockA",
+        "1_v4");
+    noStatus.setStatus(null);
+    tripsForR1.add(noStatus);
+
+    // The interlined trip again, from its own route's query
+    final List<TripDetailsBean> tripsForR2 = new ArrayList<TripDetailsBean>();
+    tripsForR2.add(tripDetails("tripC", "1_R2", "0", "blockA", "1_v3"));
+
+    Mockito.when(
+        _transitDataService.getTripsForRoute(Mockito.any(TripsForRouteQueryBean.class))).thenAnswer(
+        new Answer<ListBean<TripDetailsBean>>() {
+          @Override
+          public ListBean<TripDetailsBean> answer(InvocationOnMock invocation) {
+            TripsForRouteQueryBean query = (TripsForRouteQueryBean) invocation.getArguments()[0];
+            _queries.add(query);
+            if (query.getRouteId().equals("1_R1"))
+              return new ListBean<TripDetailsBean>(tripsForR1, false);
+            if (query.getRouteId().equals("1_R2"))
+              return new ListBean<TripDetailsBean>(tripsForR2, false);
+            throw new IllegalStateException("no index for route");
+          }
+        });
+
+    Mockito.when(_transitDataService.getBlockInstance("1_blockA", 1000L)).thenReturn(
+        _blockA);
+    Mockito.when(_transitDataService.getBlockInstance("1_blockB", 1000L)).thenReturn(
+        _blockB);
+    Mockito.when(_transitDataService.getBlockInstance("1_blockF", 1000L)).thenReturn(
+        new BlockInstanceBean());
+    Mockito.when(
+        _transitDataService.getPredictionRecordsForTrip(Mockito.eq("1"),
+            Mockito.any(TripStatusBean.class))).thenReturn(
+        new ArrayList<TimepointPredictionRecord>());
+  }
+
+  @Test
+  public void testSnapshotIsIndexedByRouteDirectionAndVehicle() {
+
+    long now = SystemTime.currentTimeMillis();
+
+    // Not built until someone asks
+    assertNull(_service.getSnapshot(now));
+    assertNull(_service.getSnapshotTime());
+    assertEquals(-1, _service.getSnapshotAge());
+    assertEquals(0, _service.getSnapshotSize());
+
+    _service.refresh();
+    VehicleStatusSnapshot snapshot = _service.getSnapshot(now);
+    assertNotNull(snapshot);
+    assertEquals(snapshot.getTime(), _service.getSnapshotTime().longValue());
+    assertEquals(4, snapshot.size());
+    assertEquals(4, _service.getSnapshotSize());
+    assertTrue(_service.getSnapshotAge() >= 0);
+
+    List<Entry> entries = snapshot.getEntriesForRoute("1_R1", null);
+    assertEquals(3, entries.size());
+    assertEquals("1_tripA", entries.get(0).getTrip().getId());
+    assertEquals("1_tripF", entries.get(1).getTrip().getId());
+    assertEquals("1_tripB", entries.get(2).getTrip().getId());
+
+    entries = snapshot.getEntriesForRoute("1_R1", "1");
+    assertEquals(1, entries.size());
+    assertEquals("1_tripB", entries.get(0).getTrip().getId());
+
+    assertEquals(0, snapshot.getEntriesForRoute("1_R1", "2").size());
+
+    entries = snapshot.getEntriesForRoute("1_R2", null);
+    assertEquals(1, entries.size());
+    assertEquals("1_tripC", entries.get(0).getTrip().getId());
+
+    // The route query as it came back, interlined trip included
+    entries = snapshot.getEntriesQueriedForRoute("1_R1");
+    assertEquals(4, entries.size());
+    assertSame(entries.get(3), snapshot.getEntriesQueriedForRoute("1_R2").get(0));
+
+    // Routes whose query failed, or that were not queried, are not covered
+    assertNull(snapshot.getEntriesForRoute("1_R3", null));
+    assertNull(snapshot.getEntriesQueriedForRoute("1_R3"));
+    assertNull(snapshot.getEntriesForRoute("1_R4", null));
+
+    Entry entry = snapshot.getEntryForVehicle("1_v3");
+    assertEquals("1_tripC", entry.getTrip().getId());
+    assertSame(_blockA, entry.getBlockInstance());
+    assertEquals("1_tripB", snapshot.getEntryForVehicle("1_v2").getTrip().getId());
+    assertSame(_blockB, snapshot.getEntryForVehicle("1_v2").getBlockInstance());
+    assertNull(snapshot.getEntryForVehicle("1_v4"));
+
+    assertTrue(entry.isForActiveTrip(entry.getStatus()));
+    TripStatusBean otherTrip = tripDetails("tripE", "1_R2", "0", "blockA",
+        "1_v3").getStatus();
+    assertFalse(entry.isForActiveTrip(otherTrip));
+
+    // Queried like a direct request for the route, at the snapshot time
+    assertEquals(3, _queries.size());
+    for (TripsForRouteQueryBean query : _queries) {
+      assertEquals(snapshot.getTime(), query.getTime());
+      assertTrue(query.getInclusion().isIncludeTripBean());
+      assertTrue(query.getInclusion().isIncludeTripStatus());
+    }
+    Mockito.verify(_transitDataService, Mockito.never()).getTripsForAgency(
+        Mockito.any(TripsForAgencyQueryBean.class));
+
+    // Trips on the same block share one block instance lookup, and trips
+    // returned for more than one route are looked up once
+    Mockito.verify(_transitDataService, Mockito.times(1)).getBlockInstance(
+        "1_blockA", 1000L);
+    Mockito.verify(_transitDataService, Mockito.times(4)).getPredictionRecordsForTrip(
+        Mockito.eq("1"), Mockito.any(TripStatusBean.class));
+
+    // Too far from the snapshot time to stand in for it
+    assertNull(_service.getSnapshot(now + 60 * 1000));
+    assertNull(_service.getSnapshot(now - 60 * 1000));
+  }
+
+  @Test
+  public void testIdleSnapshotIsDropped() {
+    long now = SystemTime.currentTimeMillis();
+    _service.getSnapshot(now);
+    _service.refresh();
+    assertNotNull(_service.getSnapshot(now));
+
+    _service.setIdleTimeout(-1);
+    _service.refresh();
+    assertNull(_service.getSnapshotTime());
+    assertNull(_service.getSnapshot(now));
+  }
+
+  private TripDetailsBean tripDetails(String tripId, String routeId,
+      String directionId, String blockId, String vehicleId) {
+
+    RouteBean.Builder route = RouteBean.builder();
+    route.setId(routeId);
+
+    TripBean trip = new TripBean();
+    trip.setId("1_" + tripId);
+    trip.setRoute(route.create());
+    trip.setDirectionId(directionId);
+    trip.setBlockId("1_" + blockId);
+
+    TripStatusBean status = new TripStatusBean();
+    status.setActiveTrip(trip);
+    status.setServiceDate(1000L);
+    status.setVehicleId(vehicleId);
+    status.setPredicted(true);
+
+    TripDetailsBean tripDetails = new TripDetailsBean();
+    tripDetails.setTrip(trip);
+    tripDetails.setStatus(status);
+    return tripDetails;
+  }
+}
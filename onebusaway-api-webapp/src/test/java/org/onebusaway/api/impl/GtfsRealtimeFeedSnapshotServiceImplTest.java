@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.onebusaway.api.services.GtfsRealtimeFeedSnapshot;
+import org.onebusaway.api.services.GtfsRealtimeFeedSnapshotService.FeedFactory;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.VehicleDescriptor;
+import com.google.transit.realtime.GtfsRealtimeConstants;
+
+public class GtfsRealtimeFeedSnapshotServiceImplTest {
+
+  @Test
+  public void testSnapshotIsSharedWithinRefreshInterval() {
+    GtfsRealtimeFeedSnapshotServiceImpl service = new GtfsRealtimeFeedSnapshotServiceImpl();
+    service.setRefreshInterval(60);
+
+    MockFeedFactory factory = new MockFeedFactory("v1");
+    GtfsRealtimeFeedSnapshot a = service.getSnapshot("1", factory);
+    GtfsRealtimeFeedSnapshot b = service.getSnapshot("1", factory);
+    assertSame(a, b);
+    assertEquals(1, factory.count);
+    assertEquals(1, service.getBuildCount());
+    assertEquals(1, service.getHitCount());
+
+    assertArrayEquals(a.getFeedMessage().toByteArray(), a.getBytes());
+    assertEquals(a.getFeedMessage().toString(), a.getText());
+
+    service.getSnapshot("2", factory);
+    assertEquals(2, factory.count);
+  }
+
+  @Test
+  public void testUnchangedContentKeepsETag() {
+    GtfsRealtimeFeedSnapshotServiceImpl service = new GtfsRealtimeFeedSnapshotServiceImpl();
+    service.setRefreshInterval(0);
+
+    MockFeedFactory factory = new MockFeedFactory("v1");
+    GtfsRealtimeFeedSnapshot a = service.getSnapshot("1", factory);
+    factory.headerTime += 30 * 1000;
+    GtfsRealtimeFeedSnapshot b = service.getSnapshot("1", factory);
+    assertEquals(2, factory.count);
+    assertEquals(a.getETag(), b.getETag());
+    assertEquals(a.getLastModified(), b.getLastModified());
+
+    // The header timestamp still advances while the entities are unchanged
+    assertEquals(a.getFeedMessage().getHeader().getTimestamp() + 30,
+        b.getFeedMessage().getHeader().getTimestamp());
+    assertArrayEquals(b.getFeedMessage().toByteArray(), b.getBytes());
+
+    factory.vehicleId = "v2";
+    GtfsRealtimeFeedSnapshot c = service.getSnapshot("1", factory);
+    assertNotSame(a, c);
+    assertFalse(a.getETag().equals(c.getETag()));
+  }
+
+  @Test
+  public void testIsNotModified() {
+    GtfsRealtimeFeedSnapshot snapshot = new GtfsRealtimeFeedSnapshot(
+        new MockFeedFactory("v1").buildFeed(1000), 5000);
+    assertTrue(snapshot.isNotModified(snapshot.getETag(), -1));
+    assertFalse(snapshot.isNotModified("\"other\"", -1));
+    assertFalse(snapshot.isNotModified("\"other\"", 6000));
+    assertTrue(snapshot.isNotModified(null, 5000));
+    assertFalse(snapshot.isNotModified(null, 4000));
+    assertFalse(snapshot.isNotModified(null, -1));
+
+    assertTrue(snapshot.isNotModified("*", -1));
+    assertTrue(snapshot.isNotModified("W/" + snapshot.getETag(), -1));
+    assertTrue(snapshot.isNotModified("\"other\", " + snapshot.getETag(), -1));
+    assertTrue(snapshot.isNotModified("\"other\",W/" + snapshot.getETag(), -1));
+    assertFalse(snapshot.isNotModified("\"other\", W/\"another\"", 6000));
+  }
+
+  private static class MockFeedFactory implements FeedFactory {
+
+    private String vehicleId;
+
+    private int count = 0;
+
+    private long headerTime = 1000000;
+
+    public MockFeedFactory(String vehicleId) {
+      this.vehicleId = vehicleId;
+    }
+
+    @Override
+    public FeedMessage buildFeed(long time) {
+      count++;
+      FeedMessage.Builder feed = FeedMessage.newBuilder();
+      feed.getHeaderBuilder().setGtfsRealtimeVersion(
+          GtfsRealtimeConstants.VERSION);
+      feed.getHeaderBuilder().setTimestamp(headerTime / 1000);
+      FeedEntity.Builder entity = feed.addEntityBuilder();
+      entity.setId("1");
+      entity.getVehicleBuilder().setVehicle(
+          VehicleDescriptor.newBuilder().setId(vehicleId));
+      return feed.build();
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import org.junit.Test;
+import org.onebusaway.api.model.ResponseBean;
+import org.onebusaway.api.model.transit.EntryWithReferencesBean;
+import org.onebusaway.api.model.transit.ReferencesBean;
+import org.onebusaway.api.model.transit.StopV2Bean;
+import org.onebusaway.transit_data.model.EAccessibility;
+
+public class StreamingJsonSerializerTest {
+
+  private StreamingJsonSerializer _serializer = new StreamingJsonSerializer();
+
+  @Test
+  public void testResponseBean() throws IOException {
+
+    StopV2Bean stopA = new StopV2Bean();
+    stopA.setId("1_123");
+    stopA.setName("3rd Ave & \"Pine\" </St>\n");
+    stopA.setCode("123");
+    stopA.setDirection("N");
+    stopA.setLat(47.0);
+    stopA.setLon(-122.123456789);
+    stopA.setLocationType(0);
+    stopA.setWheelchairBoarding(EAccessibility.ACCESSIBLE);
+    stopA.setRouteIds(Arrays.asList("1_10", "1_11"));
+
+    /**
+     * Null and JSON-like values exercise json-lib's default values and
+     * string handling
+     */
+    StopV2Bean stopB = new StopV2Bean();
+    stopB.setId("1_456");
+    stopB.setName("[1,2]");
+    stopB.setCode("null");
+    stopB.setDirection("true");
+    stopB.setLat(1.5e-10);
+
+    ReferencesBean references = new ReferencesBean();
+    references.addStop(stopB);
+
+    EntryWithReferencesBean<StopV2Bean> entry = new EntryWithReferencesBean<StopV2Bean>(
+        stopA, references);
+    ResponseBean response = new ResponseBean(2, 200, "OK", entry);
+
+    assertTrue(_serializer.isSupported(response));
+    assertEquals(JSONObject.fromObject(response).toString(), write(response));
+  }
+
+  @Test
+  public void testList() throws IOException {
+    StopV2Bean stop = new StopV2Bean();
+    stop.setId("1_123");
+    List<Object> values = new ArrayList<Object>();
+    values.add(stop);
+    values.add(null);
+    values.add("a\tb");
+    values.add(1.25f);
+    values.add(Long.MAX_VALUE);
+    values.add(Boolean.TRUE);
+
+    assertTrue(_serializer.isSupported(values));
+    assertEquals(JSONArray.fromObject(values).toString(), write(values));
+  }
+
+  @Test
+  public void testUnsupported() {
+    assertFalse(_serializer.isSupported(null));
+    assertFalse(_serializer.isSupported("value"));
+    assertFalse(_serializer.isSupported(new int[] {1, 2}));
+  }
+
+  @Test
+  public void testCycle() throws IOException {
+
+    Node node = new Node();
+    node.setName("a");
+    node.setChild(node);
+
+    try {
+      JSONObject.fromObject(node);
+      fail();
+    } catch (JSONException ex) {
+
+    }
+
+    try {
+      write(node);
+      fail();
+    } catch (JSONException ex) {
+
+    }
+
+    List<Object> values = new ArrayList<Object>();
+    values.add(values);
+    try {
+      write(values);
+      fail();
+    } catch (JSONException ex) {
+
+    }
+  }
+
+  @Test
+  public void testRepeatedReferenceIsNotACycle() throws IOException {
+
+    Node child = new Node();
+    child.setName("b");
+
+    List<Node> values = Arrays.asList(child, child);
+    assertEquals(JSONArray.fromObject(values).toString(), write(values));
+  }
+
+  private String write(Object obj) throws IOException {
+    StringWriter out = new StringWriter();
+    _serializer.write(obj, out);
+    return out.toString();
+  }
+
+  public static class Node {
+
+    private String name;
+
+    private Node child;
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public Node getChild() {
+      return child;
+    }
+
+    public void setChild(Node child) {
+      this.child = child;
+    }
+  }
+}
@@ -42,6 +42,11 @@ import java.lang.annotation.Target;
  * {@link DefaultCacheableObjectKeyFactory} factories to generate a key for each
  * argument, unless otherwise specified with a {@link CacheableKey} annotation.
  * 
+ * By default, every caller that misses the cache computes the value itself.
+ * Set {@link #coalesceConcurrentMisses()} to have concurrent misses for the
+ * same key share a single computation, and {@link #refreshAfterSeconds()} to
+ * serve a stale value while a single caller refreshes it.
+ * 
  * @author bdferris
  * @see CacheableAnnotationInterceptor
  * @see CacheableMethodKeyFactory
@@ -57,4 +62,27 @@ public @interface Cacheable {
   Class<? extends CacheableMethodKeyFactory> keyFactory() default CacheableMethodKeyFactory.class;
   
   boolean isValueSerializable() default true;
+
+  /**
+   * When true, concurrent cache misses for the same key are coalesced: the
+   * first caller computes the value and the remaining callers wait for and
+   * share its result (or its exception) instead of computing it themselves.
+   * 
+   * @return true if concurrent cache misses should be coalesced
+   */
+  boolean coalesceConcurrentMisses() default false;
+
+  /**
+   * When greater than zero, a cached value older than the specified number of
+   * seconds is considered stale. The first caller to see a stale value
+   * recomputes it, while concurrent callers continue to be served the stale
+   * value until the refresh completes. Implies
+   * {@link #coalesceConcurrentMisses()}. Note that the underlying cache's own
+   * expiration still applies, so this should be less than the cache's time to
+   * live.
+   * 
+   * @return the age in seconds after which a cached value is refreshed, or
+   *         zero to disable refreshing
+   */
+  int refreshAfterSeconds() default 0;
 }
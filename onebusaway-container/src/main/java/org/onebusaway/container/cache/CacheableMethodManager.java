@@ -17,7 +17,14 @@ package org.onebusaway.container.cache;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.util.Hashtable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
@@ -28,6 +35,10 @@ import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.Signature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
 
 /**
  * Support class providing functionality for caching the output of arbitrary
@@ -35,13 +46,18 @@ import org.slf4j.LoggerFactory;
  * 
  * EhCache is used as the backing cache store.
  * 
+ * The coalescing and refresh counters are exported over JMX. Since a manager
+ * is created in every webapp context and several contexts can share an MBean
+ * server, each instance names itself after its bean name and identity.
+ * 
  * @author bdferris
  * @see Cacheable
  * @see CacheableAnnotationInterceptor
  * @see CacheableMethodKeyFactory
  * @see CacheableMethodKeyFactoryManager
  */
-public class CacheableMethodManager {
+@ManagedResource
+public class CacheableMethodManager implements BeanNameAware, SelfNaming {
 
   private static Logger _log = LoggerFactory.getLogger(CacheableMethodManager.class);
   
@@ -53,6 +69,14 @@ public class CacheableMethodManager {
 
   private String _cacheNamePrefix;
 
+  private String _beanName;
+
+  private AtomicLong _coalescedWaitCount = new AtomicLong();
+
+  private AtomicLong _staleValueCount = new AtomicLong();
+
+  private AtomicLong _refreshCount = new AtomicLong();
+
   public void setCacheManager(CacheManager cacheManager) {
     _cacheManager = cacheManager;
   }
@@ -66,6 +90,48 @@ public class CacheableMethodManager {
     _cacheNamePrefix = cacheNamePrefix;
   }
 
+  @Override
+  public void setBeanName(String beanName) {
+    _beanName = beanName;
+  }
+
+  @Override
+  public ObjectName getObjectName() throws MalformedObjectNameException {
+    Hashtable<String, String> properties = new Hashtable<String, String>();
+    properties.put("type", getClass().getSimpleName());
+    properties.put("name", _beanName != null ? _beanName
+        : getClass().getSimpleName());
+    properties.put("instance",
+        Integer.toHexString(System.identityHashCode(this)));
+    return new ObjectName(getClass().getPackage().getName(), properties);
+  }
+
+  /**
+   * @return the number of callers that waited on a concurrent computation of
+   *         the same key instead of computing the value themselves
+   */
+  @ManagedAttribute
+  public long getCoalescedWaitCount() {
+    return _coalescedWaitCount.get();
+  }
+
+  /**
+   * @return the number of callers that were served a stale value while another
+   *         caller refreshed it
+   */
+  @ManagedAttribute
+  public long getStaleValueCount() {
+    return _staleValueCount.get();
+  }
+
+  /**
+   * @return the number of stale values that were refreshed
+   */
+  @ManagedAttribute
+  public long getRefreshCount() {
+    return _refreshCount.get();
+  }
+
   public Object evaluate(ProceedingJoinPoint pjp) throws Throwable {
 
     CacheEntry entry = getCache(pjp);
@@ -76,16 +142,20 @@ public class CacheableMethodManager {
 
     Element element = cache.get(key);
 
+    if (entry.isCoalesceConcurrentMisses() && !keyInfo.isCacheRefreshIndicated()) {
+      if (element == null)
+        return evaluateCoalesced(pjp, entry, key);
+      if (isStale(entry, element))
+        return refreshStale(pjp, entry, key, element);
+    }
+
     if (element == null || keyInfo.isCacheRefreshIndicated()) {
       Object retVal = pjp.proceed();
       element = new Element(key, retVal);
       cache.put(element);
     }
 
-    if (entry.isValueSerializable())
-      return element.getValue();
-    else
-      return element.getObjectValue();
+    return getValue(entry, element);
   }
 
   /***************************************************************************
@@ -117,6 +187,94 @@ public class CacheableMethodManager {
    * Private Methods
    ****/
 
+  /**
+   * Computes the value for a missing key, unless another caller is already
+   * computing it, in which case we wait for and return that caller's result.
+   */
+  private Object evaluateCoalesced(ProceedingJoinPoint pjp, CacheEntry entry,
+      Serializable key) throws Throwable {
+
+    ConcurrentMap<Serializable, PendingValue> pendingValues = entry.getPendingValues();
+    PendingValue pending = new PendingValue();
+    PendingValue existing = pendingValues.putIfAbsent(key, pending);
+
+    if (existing != null) {
+      _coalescedWaitCount.incrementAndGet();
+      return existing.get();
+    }
+
+    try {
+      /**
+       * A computation for this key may have completed between our cache miss
+       * and claiming the pending slot, in which case the value is now cached.
+       */
+      Element element = entry.getCache().get(key);
+      if (element == null)
+        element = computeAndCache(pjp, entry, key);
+      Object value = getValue(entry, element);
+      pending.set(value);
+      return value;
+    } catch (Throwable ex) {
+      pending.setException(ex);
+      throw ex;
+    } finally {
+      pendingValues.remove(key, pending);
+    }
+  }
+
+  /**
+   * The first caller to see a stale value refreshes it; everyone else is served
+   * the stale value in the meantime.
+   */
+  private Object refreshStale(ProceedingJoinPoint pjp, CacheEntry entry,
+      Serializable key, Element staleElement) throws Throwable {
+
+    ConcurrentMap<Serializable, PendingValue> pendingValues = entry.getPendingValues();
+    PendingValue pending = new PendingValue();
+
+    if (pendingValues.putIfAbsent(key, pending) != null) {
+      _staleValueCount.incrementAndGet();
+      return getValue(entry, staleElement);
+    }
+
+    try {
+      Element element = computeAndCache(pjp, entry, key);
+      _refreshCount.incrementAndGet();
+      Object value = getValue(entry, element);
+      pending.set(value);
+      return value;
+    } catch (Throwable ex) {
+      pending.setException(ex);
+      throw ex;
+    } finally {
+      pendingValues.remove(key, pending);
+    }
+  }
+
+  private Element computeAndCache(ProceedingJoinPoint pjp, CacheEntry entry,
+      Serializable key) throws Throwable {
+    Object retVal = pjp.proceed();
+    Element element = new Element(key, retVal);
+    entry.getCache().put(element);
+    return element;
+  }
+
+  private boolean isStale(CacheEntry entry, Element element) {
+    long refreshAfter = entry.getRefreshAfterMillis();
+    if (refreshAfter <= 0)
+      return false;
+    long age = System.currentTimeMillis()
+        - element.getLatestOfCreationAndUpdateTime();
+    return age > refreshAfter;
+  }
+
+  private Object getValue(CacheEntry entry, Element element) {
+    if (entry.isValueSerializable())
+      return element.getValue();
+    else
+      return element.getObjectValue();
+  }
+
   private CacheEntry getCache(ProceedingJoinPoint pjp) {
 
     String name = getCacheName(pjp);
@@ -127,6 +285,11 @@ public class CacheableMethodManager {
       Method method = _cacheableMethodKeyFactoryManager.getMatchingMethodForJoinPoint(pjp);
       CacheableMethodKeyFactory keyFactory = getKeyFactory(pjp, method);
       boolean valueSerializable = isValueSerializable(pjp, method);
+      Cacheable cacheable = method.getAnnotation(Cacheable.class);
+      int refreshAfterSeconds = cacheable == null ? 0
+          : cacheable.refreshAfterSeconds();
+      boolean coalesceConcurrentMisses = cacheable != null
+          && (cacheable.coalesceConcurrentMisses() || refreshAfterSeconds > 0);
       Cache cache = _cacheManager.getCache(name);
       if (cache == null) {
         cache = createCache(pjp, name);
@@ -147,7 +310,8 @@ public class CacheableMethodManager {
         }
       }
       synchronized (_entries) {
-    	  entry = new CacheEntry(keyFactory, valueSerializable, cache);
+    	  entry = new CacheEntry(keyFactory, valueSerializable, cache,
+    	      coalesceConcurrentMisses, refreshAfterSeconds * 1000L);
     	  if (_entries.containsKey(name)) {
     		  // another thread beat us here, discard
     		  _log.warn("concurrent attempt to create cache = " + name);
@@ -174,11 +338,20 @@ public class CacheableMethodManager {
 
     private Cache _cache;
 
+    private boolean _coalesceConcurrentMisses;
+
+    private long _refreshAfterMillis;
+
+    private ConcurrentMap<Serializable, PendingValue> _pendingValues = new ConcurrentHashMap<Serializable, PendingValue>();
+
     public CacheEntry(CacheableMethodKeyFactory keyFactory,
-        boolean valueSerializable, Cache cache) {
+        boolean valueSerializable, Cache cache,
+        boolean coalesceConcurrentMisses, long refreshAfterMillis) {
       _keyFactory = keyFactory;
       _valueSerializable = valueSerializable;
       _cache = cache;
+      _coalesceConcurrentMisses = coalesceConcurrentMisses;
+      _refreshAfterMillis = refreshAfterMillis;
     }
 
     public CacheableMethodKeyFactory getKeyFactory() {
@@ -192,5 +365,46 @@ public class CacheableMethodManager {
     public Cache getCache() {
       return _cache;
     }
+
+    public boolean isCoalesceConcurrentMisses() {
+      return _coalesceConcurrentMisses;
+    }
+
+    public long getRefreshAfterMillis() {
+      return _refreshAfterMillis;
+    }
+
+    public ConcurrentMap<Serializable, PendingValue> getPendingValues() {
+      return _pendingValues;
+    }
+  }
+
+  /**
+   * The result of an in-progress computation that other callers can wait on.
+   */
+  private static class PendingValue {
+
+    private final CountDownLatch _latch = new CountDownLatch(1);
+
+    private Object _value;
+
+    private Throwable _exception;
+
+    public void set(Object value) {
+      _value = value;
+      _latch.countDown();
+    }
+
+    public void setException(Throwable exception) {
+      _exception = exception;
+      _latch.countDown();
+    }
+
+    public Object get() throws Throwable {
+      _latch.await();
+      if (_exception != null)
+        throw _exception;
+      return _value;
+    }
   }
 }
\ No newline at end of file
@@ -0,0 +1,1251 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.container.spring;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+/**
+ * A compact binary encoding for the bean graphs exchanged with remote services
+ * such as the TransitDataService. It is the wire format of
+ * {@link CompressingHttpInvokerServiceExporter} and
+ * {@link BinaryBeanHttpInvokerRequestExecutor}.
+ * 
+ * Each bean class gets a {@link BeanSerializer} that is built by reflection
+ * once and then cached. It writes the bean's fields in a fixed order, and
+ * primitive fields without a type tag. The first time a bean class appears in
+ * a stream, its name and its field names and kinds are written; after that,
+ * the class is referred to by index. The reader matches fields by name, so a
+ * bean can gain or lose fields on one side without breaking the other: fields
+ * the reader doesn't know are skipped, and fields the writer didn't send keep
+ * their default value. Repeated strings, such as entity ids, and repeated
+ * references to the same object are written only once.
+ * 
+ * Classes with custom Java serialization (writeObject, writeReplace, ...), or
+ * without a no-argument constructor, fall back to Java serialization, and so do
+ * java.* types other than strings, boxed primitives, dates, collections and
+ * maps. Only classes that pass
+ * {@link CompressingHttpInvokerServiceExporter#isAllowedClass(String)} are
+ * resolved when reading.
+ */
+public class BinaryBeanCodec {
+
+  private static final int MAGIC = 0x4F42;
+
+  private static final int VERSION = 1;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * Arrays and byte buffers are allocated in steps of at most this many
+   * elements, so a corrupt length can't allocate much more than the stream
+   * actually holds
+   */
+  private static final int MAX_INITIAL_CAPACITY = 8 * 1024;
+
+  /****
+   * Value tags
+   ****/
+
+  private static final int TAG_NULL = 0;
+
+  private static final int TAG_REF = 1;
+
+  private static final int TAG_STRING = 2;
+
+  private static final int TAG_STRING_REF = 3;
+
+  private static final int TAG_TRUE = 4;
+
+  private static final int TAG_FALSE = 5;
+
+  private static final int TAG_INT = 6;
+
+  private static final int TAG_LONG = 7;
+
+  private static final int TAG_DOUBLE = 8;
+
+  private static final int TAG_FLOAT = 9;
+
+  private static final int TAG_SHORT = 10;
+
+  private static final int TAG_BYTE = 11;
+
+  private static final int TAG_CHAR = 12;
+
+  private static final int TAG_ENUM = 13;
+
+  private static final int TAG_DATE = 14;
+
+  private static final int TAG_CLASS = 15;
+
+  private static final int TAG_BEAN = 16;
+
+  private static final int TAG_ARRAY = 17;
+
+  private static final int TAG_COLLECTION = 18;
+
+  private static final int TAG_MAP = 19;
+
+  private static final int TAG_SERIALIZED = 20;
+
+  /****
+   * Field kinds
+   ****/
+
+  private static final int KIND_OBJECT = 0;
+
+  private static final int KIND_BOOLEAN = 1;
+
+  private static final int KIND_BYTE = 2;
+
+  private static final int KIND_CHAR = 3;
+
+  private static final int KIND_SHORT = 4;
+
+  private static final int KIND_INT = 5;
+
+  private static final int KIND_LONG = 6;
+
+  private static final int KIND_FLOAT = 7;
+
+  private static final int KIND_DOUBLE = 8;
+
+  private static final Map<String, Class<?>> PRIMITIVE_TYPES = new HashMap<String, Class<?>>();
+
+  static {
+    for (Class<?> type : new Class<?>[] {
+        boolean.class, byte.class, char.class, short.class, int.class,
+        long.class, float.class, double.class, void.class})
+      PRIMITIVE_TYPES.put(type.getName(), type);
+  }
+
+  private static final Set<String> SERIALIZATION_METHODS = new HashSet<String>(
+      Arrays.asList("writeObject", "readObject", "readObjectNoData",
+          "writeReplace", "readResolve"));
+
+  private static final BeanSerializer NOT_A_BEAN = new BeanSerializer();
+
+  private static final ConcurrentMap<Class<?>, BeanSerializer> _serializers = new ConcurrentHashMap<Class<?>, BeanSerializer>();
+
+  public static void writeInvocation(RemoteInvocation invocation,
+      OutputStream out) throws IOException {
+    Writer writer = new Writer(out);
+    writer.writeValue(invocation.getMethodName());
+    writer.writeValue(invocation.getParameterTypes());
+    writer.writeValue(invocation.getArguments());
+    writer.writeValue(invocation.getAttributes());
+    writer.flush();
+  }
+
+  @SuppressWarnings("unchecked")
+  public static RemoteInvocation readInvocation(InputStream in,
+      ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    Reader reader = new Reader(in, classLoader);
+    String methodName = reader.readValue(String.class);
+    Class<?>[] parameterTypes = reader.readValue(Class[].class);
+    Object[] arguments = reader.readValue(Object[].class);
+    Map<String, Serializable> attributes = reader.readValue(Map.class);
+    RemoteInvocation invocation = new RemoteInvocation(methodName,
+        parameterTypes, arguments);
+    invocation.setAttributes(attributes);
+    return invocation;
+  }
+
+  public static void writeResult(RemoteInvocationResult result,
+      OutputStream out) throws IOException {
+    Writer writer = new Writer(out);
+    writer.writeValue(result.getException());
+    if (result.getException() == null)
+      writer.writeValue(result.getValue());
+    writer.flush();
+  }
+
+  public static RemoteInvocationResult readResult(InputStream in,
+      ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    Reader reader = new Reader(in, classLoader);
+    Throwable exception = reader.readValue(Throwable.class);
+    if (exception != null)
+      return new RemoteInvocationResult(exception);
+    return new RemoteInvocationResult(reader.readValue(Object.class));
+  }
+
+  public static void write(Object value, OutputStream out) throws IOException {
+    Writer writer = new Writer(out);
+    writer.writeValue(value);
+    writer.flush();
+  }
+
+  public static Object read(InputStream in, ClassLoader classLoader)
+      throws IOException, ClassNotFoundException {
+    return new Reader(in, classLoader).readValue(Object.class);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * @return the cached serializer for the type, or null if instances of the
+   *         type aren't encoded as beans
+   */
+  static BeanSerializer getSerializer(Class<?> type) {
+    BeanSerializer serializer = _serializers.get(type);
+    if (serializer == null) {
+      serializer = BeanSerializer.create(type);
+      _serializers.putIfAbsent(type, serializer);
+    }
+    return serializer == NOT_A_BEAN ? null : serializer;
+  }
+
+  private static boolean isJavaType(Class<?> type) {
+    return type.getName().startsWith("java.");
+  }
+
+  private static int getKind(Class<?> type) {
+    if (type == boolean.class)
+      return KIND_BOOLEAN;
+    if (type == byte.class)
+      return KIND_BYTE;
+    if (type == char.class)
+      return KIND_CHAR;
+    if (type == short.class)
+      return KIND_SHORT;
+    if (type == int.class)
+      return KIND_INT;
+    if (type == long.class)
+      return KIND_LONG;
+    if (type == float.class)
+      return KIND_FLOAT;
+    if (type == double.class)
+      return KIND_DOUBLE;
+    return KIND_OBJECT;
+  }
+
+  /**
+   * The fields of a bean class, in the order they are written, and the
+   * constructor used to create instances when reading.
+   */
+  static final class BeanSerializer {
+
+    private final Class<?> _type;
+
+    private final Constructor<?> _constructor;
+
+    private final Field[] _fields;
+
+    private final int[] _kinds;
+
+    private final Map<String, Integer> _indicesByName = new HashMap<String, Integer>();
+
+    private BeanSerializer() {
+      _type = null;
+      _constructor = null;
+      _fields = new Field[0];
+      _kinds = new int[0];
+    }
+
+    private BeanSerializer(Class<?> type, Constructor<?> constructor,
+        List<Field> fields) {
+      _type = type;
+      _constructor = constructor;
+      _fields = fields.toArray(new Field[fields.size()]);
+      _kinds = new int[_fields.length];
+      for (int i = 0; i < _fields.length; i++) {
+        _kinds[i] = getKind(_fields[i].getType());
+        _indicesByName.put(_fields[i].getName(), i);
+      }
+    }
+
+    static BeanSerializer create(Class<?> type) {
+
+      if (!Serializable.class.isAssignableFrom(type)
+          || Externalizable.class.isAssignableFrom(type) || type.isEnum()
+          || type.isArray() || type.isInterface() || isJavaType(type)
+          || Modifier.isAbstract(type.getModifiers()))
+        return NOT_A_BEAN;
+
+      Constructor<?> constructor;
+      try {
+        constructor = type.getDeclaredConstructor();
+      } catch (NoSuchMethodException ex) {
+        return NOT_A_BEAN;
+      }
+
+      List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+      for (Class<?> c = type; c != null && Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+        if (hasCustomSerialization(c))
+          return NOT_A_BEAN;
+        hierarchy.add(0, c);
+      }
+
+      List<Field> fields = new ArrayList<Field>();
+      for (Class<?> c : hierarchy) {
+        for (Field field : c.getDeclaredFields()) {
+          int modifiers = field.getModifiers();
+          if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers))
+            continue;
+          field.setAccessible(true);
+          fields.add(field);
+        }
+      }
+
+      constructor.setAccessible(true);
+      return new BeanSerializer(type, constructor, fields);
+    }
+
+    private static boolean hasCustomSerialization(Class<?> type) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (SERIALIZATION_METHODS.contains(method.getName())
+            && !Modifier.isStatic(method.getModifiers()))
+          return true;
+      }
+      return false;
+    }
+
+    void writeFields(Writer writer, Object bean) throws IOException {
+      try {
+        for (int i = 0; i < _fields.length; i++)
+          writer.writeField(_kinds[i], _fields[i], bean);
+      } catch (IllegalAccessException ex) {
+        throw new NotSerializableException(_type.getName() + ": "
+            + ex.getMessage());
+      }
+    }
+
+    Object newInstance() throws InvalidClassException {
+      try {
+        return _constructor.newInstance();
+      } catch (Exception ex) {
+        throw new InvalidClassException(_type.getName(),
+            "could not instantiate: " + ex);
+      }
+    }
+  }
+
+  /**
+   * A bean class as described by the stream, with each stream field mapped to
+   * the local field of the same name and kind, or to null if there is none
+   */
+  private static final class StreamClassDescriptor {
+
+    private final BeanSerializer _serializer;
+
+    private final int[] _kinds;
+
+    private final Field[] _fields;
+
+    public StreamClassDescriptor(BeanSerializer serializer, String[] names,
+        int[] kinds) {
+      _serializer = serializer;
+      _kinds = kinds;
+      _fields = new Field[names.length];
+      for (int i = 0; i < names.length; i++) {
+        Integer index = serializer._indicesByName.get(names[i]);
+        if (index != null && serializer._kinds[index] == kinds[i])
+          _fields[i] = serializer._fields[index];
+      }
+    }
+  }
+
+  private static final class Writer {
+
+    private final OutputStream _out;
+
+    private final byte[] _buffer = new byte[BUFFER_SIZE];
+
+    private int _position = 0;
+
+    private final Map<Object, Integer> _handles = new IdentityHashMap<Object, Integer>();
+
+    private final Map<String, Integer> _strings = new HashMap<String, Integer>();
+
+    private final Map<Class<?>, Integer> _classes = new HashMap<Class<?>, Integer>();
+
+    private final Map<Class<?>, Integer> _descriptors = new HashMap<Class<?>, Integer>();
+
+    public Writer(OutputStream out) throws IOException {
+      _out = out;
+      writeShort(MAGIC);
+      writeByte(VERSION);
+    }
+
+    public void flush() throws IOException {
+      _out.write(_buffer, 0, _position);
+      _position = 0;
+      _out.flush();
+    }
+
+    public void writeValue(Object value) throws IOException {
+
+      if (value == null) {
+        writeByte(TAG_NULL);
+        return;
+      }
+
+      Class<?> type = value.getClass();
+
+      if (type == String.class) {
+        writeString((String) value);
+        return;
+      }
+      if (type == Integer.class) {
+        writeByte(TAG_INT);
+        writeVarLong(zigZag((Integer) value));
+        return;
+      }
+      if (type == Long.class) {
+        writeByte(TAG_LONG);
+        writeVarLong(zigZag((Long) value));
+        return;
+      }
+      if (type == Boolean.class) {
+        writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        return;
+      }
+      if (type == Double.class) {
+        writeByte(TAG_DOUBLE);
+        writeDouble((Double) value);
+        return;
+      }
+      if (type == Float.class) {
+        writeByte(TAG_FLOAT);
+        writeFloat((Float) value);
+        return;
+      }
+      if (type == Short.class) {
+        writeByte(TAG_SHORT);
+        writeShort((Short) value);
+        return;
+      }
+      if (type == Byte.class) {
+        writeByte(TAG_BYTE);
+        writeByte((Byte) value);
+        return;
+      }
+      if (type == Character.class) {
+        writeByte(TAG_CHAR);
+        writeChar((Character) value);
+        return;
+      }
+      if (value instanceof Enum) {
+        writeByte(TAG_ENUM);
+        writeClass(((Enum<?>) value).getDeclaringClass());
+        writeString(((Enum<?>) value).name());
+        return;
+      }
+      if (type == Date.class) {
+        writeByte(TAG_DATE);
+        writeLong(((Date) value).getTime());
+        return;
+      }
+      if (type == Class.class) {
+        writeByte(TAG_CLASS);
+        writeClass((Class<?>) value);
+        return;
+      }
+
+      Integer handle = _handles.get(value);
+      if (handle != null) {
+        writeByte(TAG_REF);
+        writeVarLong(handle);
+        return;
+      }
+
+      if (type.isArray()) {
+        writeByte(TAG_ARRAY);
+        register(value);
+        writeArray(value);
+        return;
+      }
+
+      if (value instanceof Collection && isJavaType(type)) {
+        Collection<?> collection = (Collection<?>) value;
+        writeByte(TAG_COLLECTION);
+        register(value);
+        writeClass(getCollectionType(collection));
+        writeVarLong(collection.size());
+        for (Object element : collection)
+          writeValue(element);
+        return;
+      }
+
+      if (value instanceof Map && isJavaType(type)) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        writeByte(TAG_MAP);
+        register(value);
+        writeClass(getMapType(map));
+        writeVarLong(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          writeValue(entry.getKey());
+          writeValue(entry.getValue());
+        }
+        return;
+      }
+
+      BeanSerializer serializer = getSerializer(type);
+      if (serializer != null) {
+        writeByte(TAG_BEAN);
+        register(value);
+        writeDescriptor(serializer);
+        serializer.writeFields(this, value);
+        return;
+      }
+
+      if (value instanceof Serializable) {
+        writeByte(TAG_SERIALIZED);
+        register(value);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(value);
+        out.close();
+        writeVarLong(bytes.size());
+        writeBytes(bytes.toByteArray());
+        return;
+      }
+
+      throw new NotSerializableException(type.getName());
+    }
+
+    void writeField(int kind, Field field, Object bean) throws IOException,
+        IllegalAccessException {
+      switch (kind) {
+        case KIND_BOOLEAN:
+          writeBoolean(field.getBoolean(bean));
+          break;
+        case KIND_BYTE:
+          writeByte(field.getByte(bean));
+          break;
+        case KIND_CHAR:
+          writeChar(field.getChar(bean));
+          break;
+        case KIND_SHORT:
+          writeShort(field.getShort(bean));
+          break;
+        case KIND_INT:
+          writeVarLong(zigZag(field.getInt(bean)));
+          break;
+        case KIND_LONG:
+          writeVarLong(zigZag(field.getLong(bean)));
+          break;
+        case KIND_FLOAT:
+          writeFloat(field.getFloat(bean));
+          break;
+        case KIND_DOUBLE:
+          writeDouble(field.getDouble(bean));
+          break;
+        default:
+          writeValue(field.get(bean));
+          break;
+      }
+    }
+
+    private void writeArray(Object array) throws IOException {
+      Class<?> componentType = array.getClass().getComponentType();
+      int length = Array.getLength(array);
+      writeClass(componentType);
+      writeVarLong(length);
+      if (componentType == byte.class) {
+        writeBytes((byte[]) array);
+        return;
+      }
+      int kind = getKind(componentType);
+      if (kind == KIND_OBJECT) {
+        Object[] values = (Object[]) array;
+        for (Object value : values)
+          writeValue(value);
+        return;
+      }
+      for (int i = 0; i < length; i++)
+        writePrimitive(kind, Array.get(array, i));
+    }
+
+    private void writePrimitive(int kind, Object value) throws IOException {
+      switch (kind) {
+        case KIND_BOOLEAN:
+          writeBoolean((Boolean) value);
+          break;
+        case KIND_CHAR:
+          writeChar((Character) value);
+          break;
+        case KIND_SHORT:
+          writeShort((Short) value);
+          break;
+        case KIND_INT:
+          writeVarLong(zigZag((Integer) value));
+          break;
+        case KIND_LONG:
+          writeVarLong(zigZag((Long) value));
+          break;
+        case KIND_FLOAT:
+          writeFloat((Float) value);
+          break;
+        case KIND_DOUBLE:
+          writeDouble((Double) value);
+          break;
+        default:
+          throw new IllegalStateException("unexpected kind " + kind);
+      }
+    }
+
+    private void writeString(String value) throws IOException {
+      Integer index = _strings.get(value);
+      if (index != null) {
+        writeByte(TAG_STRING_REF);
+        writeVarLong(index);
+        return;
+      }
+      _strings.put(value, _strings.size());
+      writeByte(TAG_STRING);
+      writeUtf8(value);
+    }
+
+    private void writeClass(Class<?> type) throws IOException {
+      Integer index = _classes.get(type);
+      if (index != null) {
+        writeVarLong(index + 1);
+        return;
+      }
+      _classes.put(type, _classes.size());
+      writeVarLong(0);
+      writeUtf8(type.getName());
+    }
+
+    private void writeDescriptor(BeanSerializer serializer) throws IOException {
+      Integer index = _descriptors.get(serializer._type);
+      if (index != null) {
+        writeVarLong(index + 1);
+        return;
+      }
+      _descriptors.put(serializer._type, _descriptors.size());
+      writeVarLong(0);
+      writeClass(serializer._type);
+      writeVarLong(serializer._fields.length);
+      for (int i = 0; i < serializer._fields.length; i++) {
+        writeUtf8(serializer._fields[i].getName());
+        writeByte(serializer._kinds[i]);
+      }
+    }
+
+    private void register(Object value) {
+      _handles.put(value, _handles.size());
+    }
+
+    private void writeUtf8(String value) throws IOException {
+      byte[] bytes = value.getBytes(UTF_8);
+      writeVarLong(bytes.length);
+      writeBytes(bytes);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+      ensure(10);
+      while ((value & ~0x7FL) != 0) {
+        _buffer[_position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      _buffer[_position++] = (byte) value;
+    }
+
+    /****
+     * Unsynchronized replacements for DataOutputStream, which writes most
+     * values a byte at a time
+     ****/
+
+    private void writeByte(int value) throws IOException {
+      ensure(1);
+      _buffer[_position++] = (byte) value;
+    }
+
+    private void writeBoolean(boolean value) throws IOException {
+      writeByte(value ? 1 : 0);
+    }
+
+    private void writeShort(int value) throws IOException {
+      ensure(2);
+      _buffer[_position++] = (byte) (value >>> 8);
+      _buffer[_position++] = (byte) value;
+    }
+
+    private void writeChar(int value) throws IOException {
+      writeShort(value);
+    }
+
+    private void writeLong(long value) throws IOException {
+      ensure(8);
+      for (int shift = 56; shift >= 0; shift -= 8)
+        _buffer[_position++] = (byte) (value >>> shift);
+    }
+
+    private void writeFloat(float value) throws IOException {
+      int bits = Float.floatToIntBits(value);
+      ensure(4);
+      for (int shift = 24; shift >= 0; shift -= 8)
+        _buffer[_position++] = (byte) (bits >>> shift);
+    }
+
+    /**
+     * Whole numbers, like the many zero distances and offsets in transit
+     * beans, are written as a varint rather than as eight bytes
+     */
+    private void writeDouble(double value) throws IOException {
+      long whole = (long) value;
+      if (whole == value && Math.abs(whole) < (1L << 53)
+          && (whole != 0 || 1 / value > 0)) {
+        writeByte(0);
+        writeVarLong(zigZag(whole));
+      } else {
+        writeByte(1);
+        writeLong(Double.doubleToLongBits(value));
+      }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+      if (bytes.length > _buffer.length - _position) {
+        _out.write(_buffer, 0, _position);
+        _position = 0;
+        if (bytes.length > _buffer.length) {
+          _out.write(bytes);
+          return;
+        }
+      }
+      System.arraycopy(bytes, 0, _buffer, _position, bytes.length);
+      _position += bytes.length;
+    }
+
+    private void ensure(int length) throws IOException {
+      if (_position + length > _buffer.length) {
+        _out.write(_buffer, 0, _position);
+        _position = 0;
+      }
+    }
+
+    private static long zigZag(long value) {
+      return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Collections are re-created from their class name, so anything that
+     * can't be, like Arrays.asList() or Collections.unmodifiableList(), is
+     * sent as the closest general-purpose collection
+     */
+    private static Class<?> getCollectionType(Collection<?> collection) {
+      Class<?> type = collection.getClass();
+      if (hasPublicNoArgConstructor(type))
+        return type;
+      if (collection instanceof Set)
+        return LinkedHashSet.class;
+      return ArrayList.class;
+    }
+
+    private static Class<?> getMapType(Map<?, ?> map) {
+      Class<?> type = map.getClass();
+      if (hasPublicNoArgConstructor(type))
+        return type;
+      return LinkedHashMap.class;
+    }
+
+    private static boolean hasPublicNoArgConstructor(Class<?> type) {
+      if (!Modifier.isPublic(type.getModifiers())
+          || type.getName().indexOf('$') != -1)
+        return false;
+      try {
+        type.getConstructor();
+        return true;
+      } catch (NoSuchMethodException ex) {
+        return false;
+      }
+    }
+  }
+
+  private static final class Reader {
+
+    private final InputStream _in;
+
+    private final byte[] _buffer = new byte[BUFFER_SIZE];
+
+    private int _position = 0;
+
+    private int _limit = 0;
+
+    private final ClassLoader _classLoader;
+
+    private final List<Object> _handles = new ArrayList<Object>();
+
+    private final List<String> _strings = new ArrayList<String>();
+
+    private final List<Class<?>> _classes = new ArrayList<Class<?>>();
+
+    private final List<StreamClassDescriptor> _descriptors = new ArrayList<StreamClassDescriptor>();
+
+    public Reader(InputStream in, ClassLoader classLoader) throws IOException {
+      _in = in;
+      _classLoader = classLoader != null ? classLoader
+          : BinaryBeanCodec.class.getClassLoader();
+      if (readUnsignedShort() != MAGIC)
+        throw new StreamCorruptedException("not a binary bean stream");
+      int version = readUnsignedByte();
+      if (version != VERSION)
+        throw new StreamCorruptedException("unsupported binary bean stream version " + version);
+    }
+
+    public <T> T readValue(Class<T> expectedType) throws IOException,
+        ClassNotFoundException {
+      Object value = readValue();
+      if (value != null && !expectedType.isInstance(value))
+        throw new StreamCorruptedException("expected " + expectedType.getName()
+            + " but found " + value.getClass().getName());
+      return expectedType.cast(value);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Object readValue() throws IOException, ClassNotFoundException {
+      int tag = readUnsignedByte();
+      switch (tag) {
+        case TAG_NULL:
+          return null;
+        case TAG_REF:
+          return _handles.get(readIndex(_handles.size()));
+        case TAG_STRING: {
+          String value = readUtf8();
+          _strings.add(value);
+          return value;
+        }
+        case TAG_STRING_REF:
+          return _strings.get(readIndex(_strings.size()));
+        case TAG_TRUE:
+          return Boolean.TRUE;
+        case TAG_FALSE:
+          return Boolean.FALSE;
+        case TAG_INT:
+          return (int) unZigZag(readVarLong());
+        case TAG_LONG:
+          return unZigZag(readVarLong());
+        case TAG_DOUBLE:
+          return readDouble();
+        case TAG_FLOAT:
+          return readFloat();
+        case TAG_SHORT:
+          return readShort();
+        case TAG_BYTE:
+          return readByte();
+        case TAG_CHAR:
+          return readChar();
+        case TAG_ENUM: {
+          Class<?> type = readClass();
+          String name = readValue(String.class);
+          if (!type.isEnum())
+            throw new InvalidClassException(type.getName(), "not an enum");
+          return Enum.valueOf((Class) type, name);
+        }
+        case TAG_DATE:
+          return new Date(readLong());
+        case TAG_CLASS:
+          return readClass();
+        case TAG_ARRAY:
+          return readArray();
+        case TAG_COLLECTION: {
+          Class<?> type = readClass();
+          if (!Collection.class.isAssignableFrom(type) || !isJavaType(type))
+            throw new InvalidClassException(type.getName(), "not a collection");
+          Collection<Object> collection = (Collection<Object>) newInstance(type);
+          _handles.add(collection);
+          int size = readLength();
+          for (int i = 0; i < size; i++)
+            collection.add(readValue());
+          return collection;
+        }
+        case TAG_MAP: {
+          Class<?> type = readClass();
+          if (!Map.class.isAssignableFrom(type) || !isJavaType(type))
+            throw new InvalidClassException(type.getName(), "not a map");
+          Map<Object, Object> map = (Map<Object, Object>) newInstance(type);
+          _handles.add(map);
+          int size = readLength();
+          for (int i = 0; i < size; i++) {
+            Object key = readValue();
+            map.put(key, readValue());
+          }
+          return map;
+        }
+        case TAG_BEAN: {
+          StreamClassDescriptor descriptor = readDescriptor();
+          Object bean = descriptor._serializer.newInstance();
+          _handles.add(bean);
+          readFields(descriptor, bean);
+          return bean;
+        }
+        case TAG_SERIALIZED: {
+          int handle = _handles.size();
+          _handles.add(null);
+          byte[] bytes = readBytes(readLength());
+          ObjectInputStream in = new CompressingHttpInvokerServiceExporter.AllowListObjectInputStream(
+              new ByteArrayInputStream(bytes), _classLoader);
+          Object value = in.readObject();
+          in.close();
+          _handles.set(handle, value);
+          return value;
+        }
+        default:
+          throw new StreamCorruptedException("unknown tag " + tag);
+      }
+    }
+
+    private void readFields(StreamClassDescriptor descriptor, Object bean)
+        throws IOException, ClassNotFoundException {
+      try {
+        for (int i = 0; i < descriptor._kinds.length; i++)
+          readField(descriptor._kinds[i], descriptor._fields[i], bean);
+      } catch (IllegalAccessException ex) {
+        throw new InvalidClassException(bean.getClass().getName(),
+            ex.getMessage());
+      } catch (IllegalArgumentException ex) {
+        throw new InvalidClassException(bean.getClass().getName(),
+            ex.getMessage());
+      }
+    }
+
+    /**
+     * Reads a field value, discarding it if field is null
+     */
+    private void readField(int kind, Field field, Object bean)
+        throws IOException, ClassNotFoundException, IllegalAccessException {
+      switch (kind) {
+        case KIND_BOOLEAN: {
+          boolean value = readBoolean();
+          if (field != null)
+            field.setBoolean(bean, value);
+          break;
+        }
+        case KIND_BYTE: {
+          byte value = readByte();
+          if (field != null)
+            field.setByte(bean, value);
+          break;
+        }
+        case KIND_CHAR: {
+          char value = readChar();
+          if (field != null)
+            field.setChar(bean, value);
+          break;
+        }
+        case KIND_SHORT: {
+          short value = readShort();
+          if (field != null)
+            field.setShort(bean, value);
+          break;
+        }
+        case KIND_INT: {
+          int value = (int) unZigZag(readVarLong());
+          if (field != null)
+            field.setInt(bean, value);
+          break;
+        }
+        case KIND_LONG: {
+          long value = unZigZag(readVarLong());
+          if (field != null)
+            field.setLong(bean, value);
+          break;
+        }
+        case KIND_FLOAT: {
+          float value = readFloat();
+          if (field != null)
+            field.setFloat(bean, value);
+          break;
+        }
+        case KIND_DOUBLE: {
+          double value = readDouble();
+          if (field != null)
+            field.setDouble(bean, value);
+          break;
+        }
+        case KIND_OBJECT: {
+          Object value = readValue();
+          if (field != null
+              && (value == null || field.getType().isInstance(value)))
+            field.set(bean, value);
+          break;
+        }
+        default:
+          throw new StreamCorruptedException("unknown field kind " + kind);
+      }
+    }
+
+    private Object readArray() throws IOException, ClassNotFoundException {
+      Class<?> componentType = readClass();
+      int length = readLength();
+      if (componentType == byte.class) {
+        byte[] bytes = readBytes(length);
+        _handles.add(bytes);
+        return bytes;
+      }
+      int handle = _handles.size();
+      Object array = Array.newInstance(componentType,
+          Math.min(length, MAX_INITIAL_CAPACITY));
+      _handles.add(array);
+      int kind = getKind(componentType);
+      for (int i = 0; i < length; i++) {
+        if (i == Array.getLength(array)) {
+          Object grown = Array.newInstance(componentType,
+              (int) Math.min(length, 2L * i));
+          System.arraycopy(array, 0, grown, 0, i);
+          array = grown;
+          _handles.set(handle, array);
+        }
+        Array.set(array, i, readElement(kind, componentType));
+      }
+      return array;
+    }
+
+    private Object readElement(int kind, Class<?> componentType)
+        throws IOException, ClassNotFoundException {
+      switch (kind) {
+        case KIND_BOOLEAN:
+          return readBoolean();
+        case KIND_BYTE:
+          return readByte();
+        case KIND_CHAR:
+          return readChar();
+        case KIND_SHORT:
+          return readShort();
+        case KIND_INT:
+          return (int) unZigZag(readVarLong());
+        case KIND_LONG:
+          return unZigZag(readVarLong());
+        case KIND_FLOAT:
+          return readFloat();
+        case KIND_DOUBLE:
+          return readDouble();
+        default:
+          Object value = readValue();
+          if (value != null && !componentType.isInstance(value))
+            throw new StreamCorruptedException("array element "
+                + value.getClass().getName() + " is not a "
+                + componentType.getName());
+          return value;
+      }
+    }
+
+    private Class<?> readClass() throws IOException, ClassNotFoundException {
+      int index = readIndex(_classes.size() + 1);
+      if (index > 0)
+        return _classes.get(index - 1);
+      String name = readUtf8();
+      if (!CompressingHttpInvokerServiceExporter.isAllowedClass(name))
+        throw new InvalidClassException(name,
+            "class is not allowed in a remote invocation");
+      Class<?> type = PRIMITIVE_TYPES.get(name);
+      if (type == null)
+        type = Class.forName(name, false, _classLoader);
+      _classes.add(type);
+      return type;
+    }
+
+    private StreamClassDescriptor readDescriptor() throws IOException,
+        ClassNotFoundException {
+      int index = readIndex(_descriptors.size() + 1);
+      if (index > 0)
+        return _descriptors.get(index - 1);
+      Class<?> type = readClass();
+      BeanSerializer serializer = getSerializer(type);
+      if (serializer == null)
+        throw new InvalidClassException(type.getName(), "not a bean");
+      int fieldCount = readLength();
+      String[] names = new String[fieldCount];
+      int[] kinds = new int[fieldCount];
+      for (int i = 0; i < fieldCount; i++) {
+        names[i] = readUtf8();
+        kinds[i] = readUnsignedByte();
+        if (kinds[i] > KIND_DOUBLE)
+          throw new StreamCorruptedException("unknown field kind " + kinds[i]);
+      }
+      StreamClassDescriptor descriptor = new StreamClassDescriptor(serializer,
+          names, kinds);
+      _descriptors.add(descriptor);
+      return descriptor;
+    }
+
+    private Object newInstance(Class<?> type) throws InvalidClassException {
+      try {
+        return type.newInstance();
+      } catch (Exception ex) {
+        throw new InvalidClassException(type.getName(),
+            "could not instantiate: " + ex);
+      }
+    }
+
+    private String readUtf8() throws IOException {
+      return new String(readBytes(readLength()), UTF_8);
+    }
+
+    private byte[] readBytes(int length) throws IOException {
+      if (length <= MAX_INITIAL_CAPACITY) {
+        byte[] bytes = new byte[length];
+        readFully(bytes);
+        return bytes;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+          MAX_INITIAL_CAPACITY);
+      byte[] buffer = new byte[MAX_INITIAL_CAPACITY];
+      while (length > 0) {
+        int n = Math.min(length, buffer.length);
+        readFully(buffer, 0, n);
+        bytes.write(buffer, 0, n);
+        length -= n;
+      }
+      return bytes.toByteArray();
+    }
+
+    private int readLength() throws IOException {
+      long length = readVarLong();
+      if (length < 0 || length > Integer.MAX_VALUE)
+        throw new StreamCorruptedException("invalid length " + length);
+      return (int) length;
+    }
+
+    private int readIndex(int size) throws IOException {
+      long index = readVarLong();
+      if (index < 0 || index >= size)
+        throw new StreamCorruptedException("invalid reference " + index);
+      return (int) index;
+    }
+
+    private long readVarLong() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readUnsignedByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0)
+          return value;
+      }
+      throw new StreamCorruptedException("malformed varint");
+    }
+
+    /****
+     * Unsynchronized replacements for DataInputStream
+     ****/
+
+    private int readUnsignedByte() throws IOException {
+      if (_position == _limit)
+        fill();
+      return _buffer[_position++] & 0xFF;
+    }
+
+    private byte readByte() throws IOException {
+      return (byte) readUnsignedByte();
+    }
+
+    private boolean readBoolean() throws IOException {
+      return readUnsignedByte() != 0;
+    }
+
+    private int readUnsignedShort() throws IOException {
+      return (readUnsignedByte() << 8) | readUnsignedByte();
+    }
+
+    private short readShort() throws IOException {
+      return (short) readUnsignedShort();
+    }
+
+    private char readChar() throws IOException {
+      return (char) readUnsignedShort();
+    }
+
+    private long readLong() throws IOException {
+      long value = 0;
+      for (int i = 0; i < 8; i++)
+        value = (value << 8) | readUnsignedByte();
+      return value;
+    }
+
+    private float readFloat() throws IOException {
+      int bits = 0;
+      for (int i = 0; i < 4; i++)
+        bits = (bits << 8) | readUnsignedByte();
+      return Float.intBitsToFloat(bits);
+    }
+
+    private double readDouble() throws IOException {
+      if (readUnsignedByte() == 0)
+        return unZigZag(readVarLong());
+      return Double.longBitsToDouble(readLong());
+    }
+
+    private void readFully(byte[] bytes, int offset, int length)
+        throws IOException {
+      while (length > 0) {
+        if (_position == _limit)
+          fill();
+        int n = Math.min(length, _limit - _position);
+        System.arraycopy(_buffer, _position, bytes, offset, n);
+        _position += n;
+        offset += n;
+        length -= n;
+      }
+    }
+
+    private void readFully(byte[] bytes) throws IOException {
+      readFully(bytes, 0, bytes.length);
+    }
+
+    private void fill() throws IOException {
+      int n = _in.read(_buffer, 0, _buffer.length);
+      if (n <= 0)
+        throw new EOFException();
+      _position = 0;
+      _limit = n;
+    }
+
+    private static long unZigZag(long value) {
+      return (value >>> 1) ^ -(value & 1);
+    }
+  }
+}
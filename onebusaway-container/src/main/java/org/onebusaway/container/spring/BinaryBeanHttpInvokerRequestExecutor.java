@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.container.spring;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.springframework.remoting.httpinvoker.HttpComponentsHttpInvokerRequestExecutor;
+import org.springframework.remoting.httpinvoker.HttpInvokerProxyFactoryBean;
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+/**
+ * The client side of {@link CompressingHttpInvokerServiceExporter}: an
+ * {@link HttpInvokerProxyFactoryBean} request executor that exchanges
+ * invocations and results in the {@link BinaryBeanCodec} format. Requests go
+ * through the pooled, keep-alive connections of
+ * {@link HttpComponentsHttpInvokerRequestExecutor}, which also takes care of
+ * gzip-compressed responses.
+ */
+public class BinaryBeanHttpInvokerRequestExecutor extends
+    HttpComponentsHttpInvokerRequestExecutor {
+
+  @Override
+  protected void writeRemoteInvocation(RemoteInvocation invocation,
+      OutputStream os) throws IOException {
+    BinaryBeanCodec.writeInvocation(invocation, decorateOutputStream(os));
+  }
+
+  @Override
+  protected RemoteInvocationResult readRemoteInvocationResult(InputStream is,
+      String codebaseUrl) throws IOException, ClassNotFoundException {
+    return BinaryBeanCodec.readResult(decorateInputStream(is),
+        getBeanClassLoader());
+  }
+}
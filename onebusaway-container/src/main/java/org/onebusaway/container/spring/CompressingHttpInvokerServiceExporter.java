@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.container.spring;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.remoting.httpinvoker.HttpInvokerProxyFactoryBean;
+import org.springframework.remoting.httpinvoker.HttpInvokerServiceExporter;
+import org.springframework.remoting.rmi.CodebaseAwareObjectInputStream;
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+/**
+ * An {@link HttpInvokerServiceExporter} that exchanges invocations and results
+ * in the compact {@link BinaryBeanCodec} format instead of Java serialization.
+ * Clients must use a {@link BinaryBeanHttpInvokerRequestExecutor} with their
+ * {@link HttpInvokerProxyFactoryBean}.
+ * 
+ * With {@link #setCompressResponses(boolean)}, results are also gzip-compressed
+ * whenever the client advertises support for it, which trades CPU on both ends
+ * for bandwidth. Gzipped invocation requests are always accepted.
+ * 
+ * Only classes from an allow-list ({@code org.onebusaway.*}, {@code java.*} and
+ * Spring's {@link RemoteInvocation}) are resolved, both by the codec and by the
+ * Java serialization it falls back to, and the (decompressed) size of an
+ * invocation request is capped. The exporter should still only be exposed to
+ * trusted clients on an internal network.
+ */
+public class CompressingHttpInvokerServiceExporter extends
+    HttpInvokerServiceExporter {
+
+  private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+  private static final String CONTENT_ENCODING = "Content-Encoding";
+
+  private static final String ENCODING_GZIP = "gzip";
+
+  private static final String[] ALLOWED_PACKAGE_PREFIXES = {
+      "org.onebusaway.", "java."};
+
+  private static final Set<String> ALLOWED_CLASS_NAMES = Collections.unmodifiableSet(new HashSet<String>(
+      Arrays.asList(RemoteInvocation.class.getName(), "boolean", "byte", "char",
+          "short", "int", "long", "float", "double", "void")));
+
+  private int _bufferSize = 8 * 1024;
+
+  private boolean _compressResponses = false;
+
+  private long _maxRequestSize = 4 * 1024 * 1024;
+
+  public void setBufferSize(int bufferSize) {
+    _bufferSize = bufferSize;
+  }
+
+  /**
+   * @param maxRequestSize the maximum number of bytes read from an invocation
+   *          request, after decompression
+   */
+  public void setMaxRequestSize(long maxRequestSize) {
+    _maxRequestSize = maxRequestSize;
+  }
+
+  public void setCompressResponses(boolean compressResponses) {
+    _compressResponses = compressResponses;
+  }
+
+  @Override
+  protected InputStream decorateInputStream(HttpServletRequest request,
+      InputStream is) throws IOException {
+    String encoding = request.getHeader(CONTENT_ENCODING);
+    if (encoding != null && encoding.toLowerCase().contains(ENCODING_GZIP))
+      is = new GZIPInputStream(is, _bufferSize);
+    return new SizeLimitedInputStream(is, _maxRequestSize);
+  }
+
+  @Override
+  protected RemoteInvocation readRemoteInvocation(HttpServletRequest request,
+      InputStream is) throws IOException, ClassNotFoundException {
+    return BinaryBeanCodec.readInvocation(decorateInputStream(request, is),
+        getBeanClassLoader());
+  }
+
+  @Override
+  protected void writeRemoteInvocationResult(HttpServletRequest request,
+      HttpServletResponse response, RemoteInvocationResult result,
+      OutputStream os) throws IOException {
+    OutputStream out = decorateOutputStream(request, response, os);
+    try {
+      BinaryBeanCodec.writeResult(result, out);
+    } finally {
+      out.close();
+    }
+  }
+
+  @Override
+  protected ObjectInputStream createObjectInputStream(InputStream is)
+      throws IOException {
+    return new AllowListObjectInputStream(is, getBeanClassLoader());
+  }
+
+  @Override
+  protected OutputStream decorateOutputStream(HttpServletRequest request,
+      HttpServletResponse response, OutputStream os) throws IOException {
+    if (!_compressResponses)
+      return os;
+    String accept = request.getHeader(ACCEPT_ENCODING);
+    if (accept == null || !accept.toLowerCase().contains(ENCODING_GZIP))
+      return os;
+    response.setHeader(CONTENT_ENCODING, ENCODING_GZIP);
+    return new GZIPOutputStream(os, _bufferSize);
+  }
+
+  static boolean isAllowedClass(String name) {
+    // Array descriptors look like "[[Lorg.onebusaway.Bean;" or "[J"
+    int start = 0;
+    while (start < name.length() && name.charAt(start) == '[')
+      start++;
+    if (start > 0) {
+      if (start == name.length() - 1)
+        return true;
+      if (name.charAt(start) != 'L' || !name.endsWith(";"))
+        return false;
+      name = name.substring(start + 1, name.length() - 1);
+    }
+    if (ALLOWED_CLASS_NAMES.contains(name))
+      return true;
+    for (String prefix : ALLOWED_PACKAGE_PREFIXES) {
+      if (name.startsWith(prefix))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Refuses to resolve any class that is not on the allow-list, and any dynamic
+   * proxy class, before it can be instantiated.
+   */
+  static class AllowListObjectInputStream extends
+      CodebaseAwareObjectInputStream {
+
+    public AllowListObjectInputStream(InputStream in, ClassLoader classLoader)
+        throws IOException {
+      super(in, classLoader, false);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass classDesc)
+        throws IOException, ClassNotFoundException {
+      if (!isAllowedClass(classDesc.getName()))
+        throw new InvalidClassException(classDesc.getName(),
+            "class is not allowed in a remote invocation");
+      return super.resolveClass(classDesc);
+    }
+
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaces)
+        throws IOException, ClassNotFoundException {
+      throw new InvalidClassException(Arrays.toString(interfaces),
+          "dynamic proxies are not allowed in a remote invocation");
+    }
+  }
+
+  /**
+   * Fails the read, rather than silently truncating it, once more than the
+   * maximum number of bytes has been read.
+   */
+  static class SizeLimitedInputStream extends FilterInputStream {
+
+    private final long _maxSize;
+
+    private long _count = 0;
+
+    public SizeLimitedInputStream(InputStream in, long maxSize) {
+      super(in);
+      _maxSize = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1)
+        count(1);
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0)
+        count(n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count(skipped);
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void count(long n) throws IOException {
+      _count += n;
+      if (_count > _maxSize)
+        throw new IOException("remote invocation exceeds the maximum size of "
+            + _maxSize + " bytes");
+    }
+  }
+}
@@ -16,10 +16,20 @@
 package org.onebusaway.container.cache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.ConfigurationFactory;
 
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.junit.Test;
@@ -65,4 +75,215 @@ public class CacheableMethodManagerTest {
     assertEquals("test", value);
     assertEquals(2, impl.getEvalauteBeanWithParameterAnnotationCount());
   }
+
+  @Test
+  public void testCoalesceConcurrentMisses() throws Throwable {
+
+    CacheableMethodKeyFactoryManager factoryManager = new CacheableMethodKeyFactoryManager();
+    Configuration config = ConfigurationFactory.parseConfiguration(getClass().getResource(
+        "ehcache-test.xml"));
+    config.setName("testCoalesceConcurrentMisses");
+    CacheManager cacheManager = new CacheManager(config);
+
+    final CacheableMethodManager manager = new CacheableMethodManager();
+    manager.setCacheableMethodKeyFactoryManager(factoryManager);
+    manager.setCacheManager(cacheManager);
+
+    MockServiceImpl impl = new MockServiceImpl();
+    Method method = MockServiceImpl.class.getMethod("evalauteWithCoalescing",
+        String.class);
+
+    final ProceedingJoinPoint pjpA = ProceedingJoinPointFactory.create(impl,
+        impl, MockService.class, method, "a");
+    final ProceedingJoinPoint pjpB = ProceedingJoinPointFactory.create(impl,
+        impl, MockService.class, method, "a");
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<Object> futureA = executor.submit(new Callable<Object>() {
+        public Object call() throws Exception {
+          return evaluate(manager, pjpA);
+        }
+      });
+      impl.getEvalauteWithCoalescingStarted().await(10, TimeUnit.SECONDS);
+
+      Future<Object> futureB = executor.submit(new Callable<Object>() {
+        public Object call() throws Exception {
+          return evaluate(manager, pjpB);
+        }
+      });
+
+      /**
+       * Wait for the second caller to block on the first caller's computation
+       */
+      long timeout = System.currentTimeMillis() + 10000;
+      while (manager.getCoalescedWaitCount() == 0
+          && System.currentTimeMillis() < timeout)
+        Thread.sleep(10);
+
+      impl.getEvalauteWithCoalescingRelease().countDown();
+
+      assertEquals("a", futureA.get(10, TimeUnit.SECONDS));
+      assertEquals("a", futureB.get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(1, impl.getEvalauteWithCoalescingCount());
+    assertEquals(1, manager.getCoalescedWaitCount());
+
+    cacheManager.shutdown();
+  }
+
+  @Test
+  public void testCoalescedExceptionPropagatesToWaiters() throws Throwable {
+
+    CacheManager cacheManager = createCacheManager("testCoalescedExceptionPropagatesToWaiters");
+    final CacheableMethodManager manager = createManager(cacheManager);
+
+    MockServiceImpl impl = new MockServiceImpl();
+    Method method = MockServiceImpl.class.getMethod(
+        "evalauteWithCoalescingFailure", String.class);
+
+    final ProceedingJoinPoint pjpA = ProceedingJoinPointFactory.create(impl,
+        impl, MockService.class, method, "a");
+    final ProceedingJoinPoint pjpB = ProceedingJoinPointFactory.create(impl,
+        impl, MockService.class, method, "a");
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<Object> futureA = executor.submit(new Callable<Object>() {
+        public Object call() throws Exception {
+          return evaluate(manager, pjpA);
+        }
+      });
+      impl.getEvalauteWithCoalescingStarted().await(10, TimeUnit.SECONDS);
+
+      Future<Object> futureB = executor.submit(new Callable<Object>() {
+        public Object call() throws Exception {
+          return evaluate(manager, pjpB);
+        }
+      });
+
+      long timeout = System.currentTimeMillis() + 10000;
+      while (manager.getCoalescedWaitCount() == 0
+          && System.currentTimeMillis() < timeout)
+        Thread.sleep(10);
+
+      impl.getEvalauteWithCoalescingRelease().countDown();
+
+      assertFailsWithIllegalArgument(futureA);
+      assertFailsWithIllegalArgument(futureB);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(1, impl.getEvalauteWithCoalescingCount());
+    assertEquals(1, manager.getCoalescedWaitCount());
+
+    /**
+     * A failed computation is not cached, so the next caller tries again
+     */
+    try {
+      manager.evaluate(pjpA);
+      fail();
+    } catch (IllegalArgumentException ex) {
+      assertEquals("a", ex.getMessage());
+    }
+    assertEquals(2, impl.getEvalauteWithCoalescingCount());
+
+    cacheManager.shutdown();
+  }
+
+  @Test
+  public void testRefreshStaleValue() throws Throwable {
+
+    CacheManager cacheManager = createCacheManager("testRefreshStaleValue");
+    final CacheableMethodManager manager = createManager(cacheManager);
+
+    MockServiceImpl impl = new MockServiceImpl();
+    Method method = MockServiceImpl.class.getMethod("evalauteWithRefresh",
+        String.class);
+
+    final ProceedingJoinPoint pjp = ProceedingJoinPointFactory.create(impl,
+        impl, MockService.class, method, "a");
+
+    assertEquals("a1", manager.evaluate(pjp));
+    assertEquals("a1", manager.evaluate(pjp));
+    assertEquals(1, impl.getEvalauteWithRefreshCount());
+
+    /**
+     * Let the cached value go stale
+     */
+    Thread.sleep(1100);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> refresh = executor.submit(new Callable<Object>() {
+        public Object call() throws Exception {
+          return evaluate(manager, pjp);
+        }
+      });
+      assertTrue(impl.getEvalauteWithRefreshStarted().await(10,
+          TimeUnit.SECONDS));
+
+      /**
+       * While the refresh is in progress, other callers get the stale value
+       */
+      assertEquals("a1", manager.evaluate(pjp));
+      assertEquals(1, manager.getStaleValueCount());
+
+      impl.getEvalauteWithRefreshRelease().countDown();
+      assertEquals("a2", refresh.get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(1, manager.getRefreshCount());
+    assertEquals(2, impl.getEvalauteWithRefreshCount());
+
+    /**
+     * The refreshed value is now served from the cache
+     */
+    assertEquals("a2", manager.evaluate(pjp));
+    assertEquals(2, impl.getEvalauteWithRefreshCount());
+
+    cacheManager.shutdown();
+  }
+
+  private CacheManager createCacheManager(String name) {
+    Configuration config = ConfigurationFactory.parseConfiguration(getClass().getResource(
+        "ehcache-test.xml"));
+    config.setName(name);
+    return new CacheManager(config);
+  }
+
+  private static CacheableMethodManager createManager(CacheManager cacheManager) {
+    CacheableMethodManager manager = new CacheableMethodManager();
+    manager.setCacheableMethodKeyFactoryManager(new CacheableMethodKeyFactoryManager());
+    manager.setCacheManager(cacheManager);
+    return manager;
+  }
+
+  private static void assertFailsWithIllegalArgument(Future<Object> future)
+      throws Exception {
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof IllegalArgumentException);
+      assertEquals("a", ex.getCause().getMessage());
+    }
+  }
+
+  private static Object evaluate(CacheableMethodManager manager,
+      ProceedingJoinPoint pjp) throws Exception {
+    try {
+      return manager.evaluate(pjp);
+    } catch (Exception ex) {
+      throw ex;
+    } catch (Throwable ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
 }
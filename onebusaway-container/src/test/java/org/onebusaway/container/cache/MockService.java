@@ -30,4 +30,10 @@ public interface MockService {
 
   public String evalauteBeanWithoutParameterAnnotation(MockBean bean,
       boolean forceRefresh);
+
+  public String evalauteWithCoalescing(String value);
+
+  public String evalauteWithCoalescingFailure(String value);
+
+  public String evalauteWithRefresh(String value);
 }
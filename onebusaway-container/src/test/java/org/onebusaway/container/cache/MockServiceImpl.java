@@ -15,14 +15,53 @@
  */
 package org.onebusaway.container.cache;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class MockServiceImpl implements MockService {
 
   private int _evalauteBeanWithParameterAnnotationCount;
 
+  private AtomicInteger _evalauteWithCoalescingCount = new AtomicInteger();
+
+  private CountDownLatch _evalauteWithCoalescingStarted = new CountDownLatch(1);
+
+  private CountDownLatch _evalauteWithCoalescingRelease = new CountDownLatch(1);
+
+  private AtomicInteger _evalauteWithRefreshCount = new AtomicInteger();
+
+  private CountDownLatch _evalauteWithRefreshStarted = new CountDownLatch(1);
+
+  private CountDownLatch _evalauteWithRefreshRelease = new CountDownLatch(1);
+
   public int getEvalauteBeanWithParameterAnnotationCount() {
     return _evalauteBeanWithParameterAnnotationCount;
   }
 
+  public int getEvalauteWithCoalescingCount() {
+    return _evalauteWithCoalescingCount.get();
+  }
+
+  public CountDownLatch getEvalauteWithCoalescingStarted() {
+    return _evalauteWithCoalescingStarted;
+  }
+
+  public CountDownLatch getEvalauteWithCoalescingRelease() {
+    return _evalauteWithCoalescingRelease;
+  }
+
+  public int getEvalauteWithRefreshCount() {
+    return _evalauteWithRefreshCount.get();
+  }
+
+  public CountDownLatch getEvalauteWithRefreshStarted() {
+    return _evalauteWithRefreshStarted;
+  }
+
+  public CountDownLatch getEvalauteWithRefreshRelease() {
+    return _evalauteWithRefreshRelease;
+  }
+
   /****
    * {@link MockService} Interface
    ****/
@@ -61,4 +100,44 @@ public class MockServiceImpl implements MockService {
     return "test";
   }
 
+  @Override
+  @Cacheable(coalesceConcurrentMisses = true)
+  public String evalauteWithCoalescing(String value) {
+    _evalauteWithCoalescingCount.incrementAndGet();
+    _evalauteWithCoalescingStarted.countDown();
+    try {
+      _evalauteWithCoalescingRelease.await();
+    } catch (InterruptedException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return value;
+  }
+
+  @Override
+  @Cacheable(coalesceConcurrentMisses = true)
+  public String evalauteWithCoalescingFailure(String value) {
+    _evalauteWithCoalescingCount.incrementAndGet();
+    _evalauteWithCoalescingStarted.countDown();
+    try {
+      _evalauteWithCoalescingRelease.await();
+    } catch (InterruptedException ex) {
+      throw new IllegalStateException(ex);
+    }
+    throw new IllegalArgumentException(value);
+  }
+
+  @Override
+  @Cacheable(refreshAfterSeconds = 1)
+  public String evalauteWithRefresh(String value) {
+    int count = _evalauteWithRefreshCount.incrementAndGet();
+    if (count > 1) {
+      _evalauteWithRefreshStarted.countDown();
+      try {
+        _evalauteWithRefreshRelease.await();
+      } catch (InterruptedException ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+    return value + count;
+  }
 }
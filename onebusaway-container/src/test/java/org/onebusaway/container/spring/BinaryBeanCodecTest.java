@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.container.spring;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationResult;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+public class BinaryBeanCodecTest {
+
+  @Test
+  public void testBeanRoundTrip() throws Exception {
+    TestBean bean = new TestBean("1_a", 47.5);
+    bean.sequence = -3;
+    bean.time = 1546318800000L;
+    bean.direction = Direction.SOUTH;
+    bean.flag = true;
+    bean.date = new Date(5000);
+    bean.values = new int[] {1, -2, 300};
+    bean.bytes = new byte[20000];
+    bean.bytes[19999] = 9;
+    bean.counts = new TreeMap<String, Integer>();
+    bean.counts.put("k", 7);
+    bean.transientValue = "ignored";
+
+    TestBean copy = roundTrip(bean);
+    assertEquals("1_a", copy.id);
+    assertEquals(47.5, copy.lat, 0.0);
+    assertEquals(-3, copy.sequence);
+    assertEquals(1546318800000L, copy.time);
+    assertSame(Direction.SOUTH, copy.direction);
+    assertTrue(copy.flag);
+    assertEquals(bean.date, copy.date);
+    assertArrayEquals(bean.values, copy.values);
+    assertArrayEquals(bean.bytes, copy.bytes);
+    assertEquals(TreeMap.class, copy.counts.getClass());
+    assertEquals(bean.counts, copy.counts);
+    assertEquals(null, copy.transientValue);
+  }
+
+  @Test
+  public void testSharedReferencesAndCycles() throws Exception {
+    TestBean a = new TestBean("1_a", 0);
+    TestBean b = new TestBean("1_b", 0);
+    b.parent = a;
+    a.nearby.add(b);
+    a.nearby.add(b);
+    a.nearby.add(a);
+
+    TestBean copy = roundTrip(a);
+    assertEquals(3, copy.nearby.size());
+    assertSame(copy.nearby.get(0), copy.nearby.get(1));
+    assertSame(copy, copy.nearby.get(2));
+    assertSame(copy, copy.nearby.get(0).parent);
+  }
+
+  @Test
+  public void testRepeatedStringsAreWrittenOnce() throws Exception {
+    List<String> ids = new ArrayList<String>();
+    for (int i = 0; i < 100; i++)
+      ids.add("1_stop_with_a_long_id");
+    // a tag and an index for each repeat
+    assertTrue(write(ids).length < 3 * ids.size());
+    assertEquals(ids, roundTrip(ids));
+  }
+
+  @Test
+  public void testValues() throws Exception {
+    List<Object> values = new ArrayList<Object>(Arrays.asList("a", 5L, 3,
+        2.5f, 1.5, (short) 4, (byte) 1, 'c', null, Boolean.FALSE, int.class,
+        new BigDecimal("1.25"), new Object[] {"z"},
+        Collections.unmodifiableList(Arrays.asList("x"))));
+
+    List<Object> copy = roundTrip(values);
+    assertEquals(values.subList(0, 12), copy.subList(0, 12));
+    assertArrayEquals((Object[]) values.get(12), (Object[]) copy.get(12));
+    assertEquals(ArrayList.class, copy.get(13).getClass());
+    assertEquals(values.get(13), copy.get(13));
+  }
+
+  @Test
+  public void testDoubles() throws Exception {
+    List<Double> values = Arrays.asList(0.0, -0.0, 3.0, -1e15, 0.1,
+        Double.NaN, Double.POSITIVE_INFINITY, 1e300);
+    assertEquals(values, roundTrip(values));
+    assertArrayEquals(new double[] {0.0, -0.0, 2.5},
+        roundTrip(new double[] {0.0, -0.0, 2.5}), 0.0);
+  }
+
+  @Test
+  public void testSmallerThanJavaSerialization() throws Exception {
+    List<TestBean> beans = new ArrayList<TestBean>();
+    for (int i = 0; i < 200; i++)
+      beans.add(new TestBean("1_" + (i % 20), i));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(beans);
+    out.close();
+
+    assertTrue(write(beans).length < bytes.size() / 2);
+  }
+
+  @Test
+  public void testInvocationRoundTrip() throws Exception {
+    RemoteInvocation invocation = new RemoteInvocation("getStop",
+        new Class<?>[] {String.class, long.class}, new Object[] {
+            "1_75403", 1546318800000L});
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryBeanCodec.writeInvocation(invocation, bytes);
+    RemoteInvocation copy = BinaryBeanCodec.readInvocation(
+        new ByteArrayInputStream(bytes.toByteArray()), null);
+
+    assertEquals("getStop", copy.getMethodName());
+    assertArrayEquals(invocation.getParameterTypes(),
+        copy.getParameterTypes());
+    assertArrayEquals(invocation.getArguments(), copy.getArguments());
+  }
+
+  @Test
+  public void testResultRoundTrip() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryBeanCodec.writeResult(new RemoteInvocationResult(new TestBean(
+        "1_a", 1.0)), bytes);
+    RemoteInvocationResult result = BinaryBeanCodec.readResult(
+        new ByteArrayInputStream(bytes.toByteArray()), null);
+    assertEquals("1_a", ((TestBean) result.getValue()).id);
+
+    bytes = new ByteArrayOutputStream();
+    BinaryBeanCodec.writeResult(new RemoteInvocationResult(
+        new IllegalStateException("boom")), bytes);
+    result = BinaryBeanCodec.readResult(
+        new ByteArrayInputStream(bytes.toByteArray()), null);
+    assertEquals(IllegalStateException.class, result.getException().getClass());
+    assertEquals("boom", result.getException().getMessage());
+  }
+
+  @Test
+  public void testRejectsClassNotOnAllowList() throws Exception {
+    Map<String, String> map = new LinkedCaseInsensitiveMap<String>();
+    byte[] data = write(Arrays.asList("a", map));
+    try {
+      BinaryBeanCodec.read(new ByteArrayInputStream(data), null);
+      fail();
+    } catch (InvalidClassException ex) {
+      assertEquals(LinkedCaseInsensitiveMap.class.getName(), ex.classname);
+    }
+  }
+
+  private static byte[] write(Object value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryBeanCodec.write(value, bytes);
+    return bytes.toByteArray();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T roundTrip(T value) throws IOException,
+      ClassNotFoundException {
+    return (T) BinaryBeanCodec.read(new ByteArrayInputStream(write(value)),
+        null);
+  }
+
+  public enum Direction {
+    NORTH, SOUTH
+  }
+
+  public static class ParentBean implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected String id;
+  }
+
+  public static final class TestBean extends ParentBean {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double lat;
+
+    private int sequence;
+
+    private long time;
+
+    private Direction direction;
+
+    private boolean flag;
+
+    private Date date;
+
+    private int[] values;
+
+    private byte[] bytes;
+
+    private Map<String, Integer> counts;
+
+    private TestBean parent;
+
+    private List<TestBean> nearby = new ArrayList<TestBean>();
+
+    private transient String transientValue;
+
+    private TestBean() {
+      lat = 0;
+    }
+
+    public TestBean(String id, double lat) {
+      this.id = id;
+      this.lat = lat;
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.container.spring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.onebusaway.container.spring.CompressingHttpInvokerServiceExporter.SizeLimitedInputStream;
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+public class CompressingHttpInvokerServiceExporterTest {
+
+  @Test
+  public void testIsAllowedClass() {
+    assertTrue(isAllowed("java.util.ArrayList"));
+    assertTrue(isAllowed("org.onebusaway.transit_data.model.StopBean"));
+    assertTrue(isAllowed("[Lorg.onebusaway.transit_data.model.StopBean;"));
+    assertTrue(isAllowed("[[J"));
+    assertTrue(isAllowed("long"));
+    assertTrue(isAllowed(RemoteInvocation.class.getName()));
+
+    assertFalse(isAllowed("org.springframework.util.LinkedCaseInsensitiveMap"));
+    assertFalse(isAllowed("[Lorg.apache.commons.collections.functors.ChainedTransformer;"));
+    assertFalse(isAllowed("javax.management.BadAttributeValueExpException"));
+  }
+
+  @Test
+  public void testCreateObjectInputStream() throws Exception {
+    CompressingHttpInvokerServiceExporter exporter = new CompressingHttpInvokerServiceExporter();
+
+    List<Object> arguments = new ArrayList<Object>();
+    arguments.add("1_75403");
+    arguments.add(new long[] {1546318800000L});
+    RemoteInvocation invocation = new RemoteInvocation("getStop",
+        new Class<?>[] {List.class}, new Object[] {arguments});
+
+    ObjectInputStream in = exporter.createObjectInputStream(serialize(invocation));
+    RemoteInvocation copy = (RemoteInvocation) in.readObject();
+    assertEquals("getStop", copy.getMethodName());
+    assertEquals(arguments.get(0), ((List<?>) copy.getArguments()[0]).get(0));
+
+    arguments.add(new LinkedCaseInsensitiveMap<String>());
+    in = exporter.createObjectInputStream(serialize(invocation));
+    try {
+      in.readObject();
+      fail();
+    } catch (InvalidClassException ex) {
+      assertEquals(LinkedCaseInsensitiveMap.class.getName(), ex.classname);
+    }
+  }
+
+  @Test
+  public void testRejectsDynamicProxies() throws Exception {
+    CompressingHttpInvokerServiceExporter exporter = new CompressingHttpInvokerServiceExporter();
+
+    Object proxy = Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] {Runnable.class}, new NoOpInvocationHandler());
+
+    ObjectInputStream in = exporter.createObjectInputStream(serialize(proxy));
+    try {
+      in.readObject();
+      fail();
+    } catch (InvalidClassException ex) {
+      assertTrue(ex.classname.contains(Runnable.class.getName()));
+    }
+  }
+
+  @Test
+  public void testSizeLimitedInputStream() throws IOException {
+    byte[] data = new byte[100];
+
+    InputStream in = new SizeLimitedInputStream(new ByteArrayInputStream(data),
+        100);
+    assertEquals(100, in.read(new byte[200]));
+    assertEquals(-1, in.read());
+
+    in = new SizeLimitedInputStream(new ByteArrayInputStream(data), 99);
+    try {
+      in.read(new byte[200]);
+      fail();
+    } catch (IOException ex) {
+      // expected
+    }
+  }
+
+  private static boolean isAllowed(String name) {
+    return CompressingHttpInvokerServiceExporter.isAllowedClass(name);
+  }
+
+  private static class NoOpInvocationHandler implements InvocationHandler,
+      Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      return null;
+    }
+  }
+
+  private static InputStream serialize(Object value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(value);
+    out.close();
+    return new ByteArrayInputStream(bytes.toByteArray());
+  }
+}
@@ -31,6 +31,8 @@ public class AutocompleteAction extends OneBusAwayEnterpriseActionSupport {
 
   private static final long serialVersionUID = 1L;
 
+  private static final int MAX_SUGGESTIONS = 10;
+
   @Autowired
   private TransitDataService _transitDataService;
   
@@ -52,7 +54,11 @@ public class AutocompleteAction extends OneBusAwayEnterpriseActionSupport {
     if(_term == null || _term.isEmpty())
       return SUCCESS;
     
-    suggestions = _transitDataService.getSearchSuggestions(null, _term.toLowerCase());
+    // complete route and stop names from the in-memory prefix index first
+    suggestions = _transitDataService.getSearchSuggestionsForPrefix(null, _term,
+        MAX_SUGGESTIONS);
+    if (suggestions == null || suggestions.isEmpty())
+      suggestions = _transitDataService.getSearchSuggestions(null, _term.toLowerCase());
     
     if (suggestions != null && suggestions.size() == 0 && _term.length() > 2) {
     	List<EnterpriseGeocoderResult> geocoderResults = _geocoderService.enterpriseGeocode(_term);
@@ -34,6 +34,12 @@ import org.springframework.beans.factory.config.AbstractFactoryBean;
  * <bean class="org.onebusaway.federations.FederatedServiceFactoryBean">
  *   <property name="serviceInterface" value="some.package.SomeServiceInterface"/>
  *   <proeprty name="collection" ref="federatedServiceCollectionImpl" />
+ *   <!-- Optional: query all services concurrently for aggregate methods -->
+ *   <property name="fanOutExecutor">
+ *     <bean class="org.onebusaway.federations.FederatedServiceFanOutExecutor">
+ *       <property name="timeoutMillis" value="10000" />
+ *     </bean>
+ *   </property>
  * </bean>
  * </pre>
  * 
@@ -43,7 +49,7 @@ import org.springframework.beans.factory.config.AbstractFactoryBean;
  */
 public class FederatedServiceFactoryBean extends AbstractFactoryBean<Object> {
 
-  private static FederatedServiceMethodInvocationHandlerFactory _handlerFactory = new FederatedServiceMethodInvocationHandlerFactory();
+  private FederatedServiceMethodInvocationHandlerFactory _handlerFactory = new FederatedServiceMethodInvocationHandlerFactory();
 
   private Class<?> _serviceInterface;
 
@@ -57,6 +63,15 @@ public class FederatedServiceFactoryBean extends AbstractFactoryBean<Object> {
     _collection = collection;
   }
 
+  /**
+   * When set, methods that are federated across all services (see
+   * {@link org.onebusaway.federations.annotations.FederatedByAggregateMethod})
+   * will invoke each service concurrently instead of one after another.
+   */
+  public void setFanOutExecutor(FederatedServiceFanOutExecutor fanOutExecutor) {
+    _handlerFactory.setFanOutExecutor(fanOutExecutor);
+  }
+
   @Override
   public Class<?> getObjectType() {
     return _serviceInterface;
@@ -0,0 +1,322 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.federations;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.onebusaway.exceptions.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Invokes a method on a set of {@link FederatedService} instances concurrently
+ * and gathers the results, such that the total cost of the call is that of the
+ * slowest service rather than the sum of all services. Used by
+ * {@link FederatedServiceFactoryBean} to dispatch methods that are federated
+ * across every service in a {@link FederatedServiceCollection}.
+ * 
+ * By default, a failure or timeout in any one service fails the entire call.
+ * If {@link #setAllowPartialResults(boolean)} is enabled, failed and timed-out
+ * services are logged and omitted from the results instead.
+ * 
+ * Per-service latency, failure and timeout counts are recorded and can be
+ * examined with {@link #getServiceStats()}.
+ * 
+ * @see FederatedServiceFactoryBean#setFanOutExecutor(FederatedServiceFanOutExecutor)
+ */
+public class FederatedServiceFanOutExecutor {
+
+  private static Logger _log = LoggerFactory.getLogger(FederatedServiceFanOutExecutor.class);
+
+  private ExecutorService _executor;
+
+  private int _threadPoolSize = 16;
+
+  private long _timeoutMillis = 0;
+
+  private boolean _allowPartialResults = false;
+
+  private ConcurrentMap<FederatedService, ServiceStats> _stats = new ConcurrentHashMap<FederatedService, ServiceStats>();
+
+  /**
+   * @param threadPoolSize the maximum number of concurrent service invocations
+   *          across all calls
+   */
+  public void setThreadPoolSize(int threadPoolSize) {
+    _threadPoolSize = threadPoolSize;
+  }
+
+  /**
+   * @param timeoutMillis the maximum time to wait for all services to respond
+   *          to a single call, or zero to wait indefinitely
+   */
+  public void setTimeoutMillis(long timeoutMillis) {
+    _timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * @param allowPartialResults when true, services that fail or time out are
+   *          omitted from the results instead of failing the entire call
+   */
+  public void setAllowPartialResults(boolean allowPartialResults) {
+    _allowPartialResults = allowPartialResults;
+  }
+
+  /**
+   * @return latency and error statistics, keyed by the string representation
+   *         of each service that has been invoked
+   */
+  public Map<String, ServiceStats> getServiceStats() {
+    Map<String, ServiceStats> stats = new HashMap<String, ServiceStats>();
+    for (Map.Entry<FederatedService, ServiceStats> entry : _stats.entrySet())
+      stats.put(entry.getKey().toString(), entry.getValue());
+    return stats;
+  }
+
+  @PreDestroy
+  public synchronized void stop() {
+    if (_executor != null) {
+      _executor.shutdownNow();
+      _executor = null;
+    }
+  }
+
+  /**
+   * Invoke the specified method on each service concurrently.
+   * 
+   * @param services the target services
+   * @param method the method to invoke
+   * @param args the method arguments
+   * @return the method results, in the iteration order of the services,
+   *         omitting any services that failed if partial results are allowed
+   * @throws InvocationTargetException if a service threw an exception and
+   *           partial results are not allowed
+   * @throws ServiceException if a service timed out and partial results are
+   *           not allowed
+   */
+  public List<Object> invokeAll(Collection<? extends FederatedService> services,
+      final Method method, final Object[] args) throws IllegalAccessException,
+      InvocationTargetException {
+
+    List<Object> results = new ArrayList<Object>(services.size());
+
+    /**
+     * No need to hand off to another thread for a single service
+     */
+    if (services.size() == 1) {
+      FederatedService service = services.iterator().next();
+      try {
+        results.add(invoke(service, method, args));
+      } catch (InvocationTargetException ex) {
+        handleFailure(service, method, ex);
+      }
+      return results;
+    }
+
+    ExecutorService executor = getExecutor();
+
+    List<FederatedService> submitted = new ArrayList<FederatedService>(
+        services.size());
+    List<Future<Object>> futures = new ArrayList<Future<Object>>(
+        services.size());
+
+    for (final FederatedService service : services) {
+      submitted.add(service);
+      futures.add(executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          return invoke(service, method, args);
+        }
+      }));
+    }
+
+    long deadline = System.currentTimeMillis() + _timeoutMillis;
+
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        FederatedService service = submitted.get(i);
+        Future<Object> future = futures.get(i);
+        try {
+          if (_timeoutMillis > 0) {
+            long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+            results.add(future.get(remaining, TimeUnit.MILLISECONDS));
+          } else {
+            results.add(future.get());
+          }
+        } catch (TimeoutException ex) {
+          getStats(service).timeouts.incrementAndGet();
+          if (!_allowPartialResults)
+            throw new ServiceException("timeout waiting for federated service "
+                + service + " method=" + method.getName());
+          _log.warn("timeout waiting for federated service " + service
+              + " method=" + method.getName() + " - omitting from results");
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof IllegalAccessException)
+            throw (IllegalAccessException) cause;
+          if (cause instanceof InvocationTargetException)
+            handleFailure(service, method, (InvocationTargetException) cause);
+          else
+            handleFailure(service, method, new InvocationTargetException(cause));
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new ServiceException("interrupted waiting for federated services",
+          ex);
+    } finally {
+      for (Future<Object> future : futures)
+        future.cancel(true);
+    }
+
+    return results;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private Object invoke(FederatedService service, Method method, Object[] args)
+      throws IllegalAccessException, InvocationTargetException {
+    ServiceStats stats = getStats(service);
+    long t = System.nanoTime();
+    try {
+      return method.invoke(service, args);
+    } catch (InvocationTargetException ex) {
+      stats.failures.incrementAndGet();
+      throw ex;
+    } finally {
+      stats.record(System.nanoTime() - t);
+    }
+  }
+
+  private void handleFailure(FederatedService service, Method method,
+      InvocationTargetException ex) throws InvocationTargetException {
+    if (!_allowPartialResults)
+      throw ex;
+    _log.warn("error invoking federated service " + service + " method="
+        + method.getName() + " - omitting from results", ex.getCause());
+  }
+
+  private ServiceStats getStats(FederatedService service) {
+    ServiceStats stats = _stats.get(service);
+    if (stats == null) {
+      ServiceStats newStats = new ServiceStats();
+      stats = _stats.putIfAbsent(service, newStats);
+      if (stats == null)
+        stats = newStats;
+    }
+    return stats;
+  }
+
+  private synchronized ExecutorService getExecutor() {
+    if (_executor == null)
+      _executor = Executors.newFixedThreadPool(_threadPoolSize,
+          new DaemonThreadFactory());
+    return _executor;
+  }
+
+  /**
+   * Latency and error statistics for a single federated service.
+   */
+  public static class ServiceStats {
+
+    private final AtomicLong invocations = new AtomicLong();
+
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    public long getInvocationCount() {
+      return invocations.get();
+    }
+
+    public long getFailureCount() {
+      return failures.get();
+    }
+
+    public long getTimeoutCount() {
+      return timeouts.get();
+    }
+
+    public double getAverageLatencyMillis() {
+      long count = invocations.get();
+      if (count == 0)
+        return 0;
+      return totalLatencyNanos.get() / (count * 1e6);
+    }
+
+    public double getMaxLatencyMillis() {
+      return maxLatencyNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      return "ServiceStats(invocations=" + getInvocationCount() + " failures="
+          + getFailureCount() + " timeouts=" + getTimeoutCount()
+          + " avgLatencyMillis=" + getAverageLatencyMillis()
+          + " maxLatencyMillis=" + getMaxLatencyMillis() + ")";
+    }
+
+    private void record(long latencyNanos) {
+      invocations.incrementAndGet();
+      totalLatencyNanos.addAndGet(latencyNanos);
+      while (true) {
+        long max = maxLatencyNanos.get();
+        if (latencyNanos <= max
+            || maxLatencyNanos.compareAndSet(max, latencyNanos))
+          break;
+      }
+    }
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger _count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "federated-service-fan-out-"
+          + _count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
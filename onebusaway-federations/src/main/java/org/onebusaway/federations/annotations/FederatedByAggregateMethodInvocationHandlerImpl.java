@@ -18,6 +18,7 @@ package org.onebusaway.federations.annotations;
 import org.onebusaway.exceptions.ServiceAreaServiceException;
 import org.onebusaway.federations.FederatedService;
 import org.onebusaway.federations.FederatedServiceCollection;
+import org.onebusaway.federations.FederatedServiceFanOutExecutor;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -28,7 +29,9 @@ import java.util.Map;
 
 /**
  * Provides a {@link FederatedServiceMethodInvocationHandler} implementation for
- * the {@link FederatedByAggregateMethod} annotation.
+ * the {@link FederatedByAggregateMethod} annotation. If a
+ * {@link FederatedServiceFanOutExecutor} is supplied, the services are invoked
+ * concurrently. Otherwise, they are invoked one after another.
  * 
  * @author bdferris
  */
@@ -36,8 +39,16 @@ class FederatedByAggregateMethodInvocationHandlerImpl implements FederatedServic
 
   private EMethodAggregationType _aggregationType;
 
+  private FederatedServiceFanOutExecutor _fanOutExecutor;
+
   public FederatedByAggregateMethodInvocationHandlerImpl(EMethodAggregationType aggregationType) {
+    this(aggregationType, null);
+  }
+
+  public FederatedByAggregateMethodInvocationHandlerImpl(EMethodAggregationType aggregationType,
+      FederatedServiceFanOutExecutor fanOutExecutor) {
     _aggregationType = aggregationType;
+    _fanOutExecutor = fanOutExecutor;
   }
   
   public EMethodAggregationType getAggregationType() {
@@ -47,6 +58,12 @@ class FederatedByAggregateMethodInvocationHandlerImpl implements FederatedServic
   public Object invoke(FederatedServiceCollection collection, Method method, Object[] args)
       throws ServiceAreaServiceException, IllegalArgumentException, IllegalAccessException, InvocationTargetException {
 
+    if (_fanOutExecutor != null) {
+      List<Object> results = _fanOutExecutor.invokeAll(
+          collection.getAllServices(), method, args);
+      return aggregateResults(results);
+    }
+
     List<Object> results = new ArrayList<Object>();
 
     for (FederatedService service : collection.getAllServices())
@@ -21,6 +21,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.onebusaway.exceptions.ServiceException;
+import org.onebusaway.federations.FederatedServiceFanOutExecutor;
 
 /**
  * This factory can be used to examine a Method signature and create an
@@ -39,6 +40,16 @@ import org.onebusaway.exceptions.ServiceException;
  */
 public class FederatedServiceMethodInvocationHandlerFactory {
 
+  private FederatedServiceFanOutExecutor _fanOutExecutor;
+
+  /**
+   * @param fanOutExecutor if set, methods federated across all services are
+   *          dispatched to each service concurrently using this executor
+   */
+  public void setFanOutExecutor(FederatedServiceFanOutExecutor fanOutExecutor) {
+    _fanOutExecutor = fanOutExecutor;
+  }
+
   public FederatedServiceMethodInvocationHandler getHandlerForMethod(
       Method method) {
 
@@ -78,7 +89,7 @@ public class FederatedServiceMethodInvocationHandlerFactory {
     if (ann4 != null) {
       EMethodAggregationType aggregationType = getAggregationTypeForMethod(method);
       return new FederatedByAggregateMethodInvocationHandlerImpl(
-          aggregationType);
+          aggregationType, _fanOutExecutor);
     }
 
     FederatedByCoordinateBoundsMethod ann5 = method.getAnnotation(FederatedByCoordinateBoundsMethod.class);
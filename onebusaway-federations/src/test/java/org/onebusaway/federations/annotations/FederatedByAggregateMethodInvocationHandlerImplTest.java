@@ -19,6 +19,7 @@ import static org.junit.Assert.assertEquals;
 
 import org.onebusaway.federations.FederatedService;
 import org.onebusaway.federations.FederatedServiceCollection;
+import org.onebusaway.federations.FederatedServiceFanOutExecutor;
 import org.onebusaway.federations.SimpleFederatedService;
 import org.onebusaway.federations.impl.FederatedServiceCollectionImpl;
 
@@ -109,4 +110,52 @@ public class FederatedByAggregateMethodInvocationHandlerImplTest {
     assertEquals("c3",results.get("c"));
     assertEquals("d4",results.get("d"));
   }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testListWithFanOutExecutor() throws Exception {
+
+    SimpleFederatedService mockServiceA = Mockito.mock(SimpleFederatedService.class);
+    Mockito.when(mockServiceA.getValuesAsList()).thenReturn(Arrays.asList("a","b"));
+
+    SimpleFederatedService mockServiceB = Mockito.mock(SimpleFederatedService.class);
+    Mockito.when(mockServiceB.getValuesAsList()).thenReturn(Arrays.asList("c"));
+
+    SimpleFederatedService mockServiceC = Mockito.mock(SimpleFederatedService.class);
+    Mockito.when(mockServiceC.getValuesAsList()).thenThrow(new IllegalStateException());
+
+    Set<FederatedService> services = new HashSet<FederatedService>();
+    services.add(mockServiceA);
+    services.add(mockServiceB);
+    services.add(mockServiceC);
+
+    FederatedServiceCollection mockCollection = Mockito.mock(FederatedServiceCollectionImpl.class);
+    Mockito.when(mockCollection.getAllServices()).thenReturn(services);
+
+    Method method = SimpleFederatedService.class.getDeclaredMethod("getValuesAsList");
+
+    FederatedServiceFanOutExecutor executor = new FederatedServiceFanOutExecutor();
+    executor.setAllowPartialResults(true);
+
+    try {
+      FederatedServiceMethodInvocationHandler handler = new FederatedByAggregateMethodInvocationHandlerImpl(
+          EMethodAggregationType.LIST, executor);
+      List<String> results = (List<String>) handler.invoke(mockCollection, method, new Object[] {});
+
+      Mockito.verify(mockServiceA).getValuesAsList();
+      Mockito.verify(mockServiceB).getValuesAsList();
+      Mockito.verify(mockServiceC).getValuesAsList();
+
+      assertEquals(3,results.size());
+      Collections.sort(results);
+      assertEquals("a",results.get(0));
+      assertEquals("b",results.get(1));
+      assertEquals("c",results.get(2));
+
+      assertEquals(3, executor.getServiceStats().size());
+      assertEquals(1, executor.getServiceStats().get(mockServiceC.toString()).getFailureCount());
+    } finally {
+      executor.stop();
+    }
+  }
 }
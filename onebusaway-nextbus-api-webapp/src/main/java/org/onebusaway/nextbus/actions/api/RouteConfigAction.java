@@ -93,9 +93,12 @@ public class RouteConfigAction extends NextBusApiBase implements
       int routes_count = 1;
 
       if (processRouteIds(routeId, routeIds, agencyIds, body)) {
+        List<String> ids = new ArrayList<String>(routeIds.size());
         for (AgencyAndId routeId : routeIds) {
-          routeBeans.add(_transitDataService.getRouteForId(routeId.toString()));
+          ids.add(routeId.toString());
         }
+        routeBeans = new ArrayList<RouteBean>(
+            _transitDataService.getRoutesForIds(ids).getList());
       } else if (routeId == null) {
         routeBeans = _transitDataService.getRoutesForAgencyId(agencyId).getList();
       }
@@ -94,22 +94,13 @@ public class BookmarkPresentationServiceImpl implements
    ****/
 
   private List<StopBean> getStopsForStopIds(List<String> stopIds) {
-    List<StopBean> stops = new ArrayList<StopBean>(stopIds.size());
-    for (String stopId : stopIds) {
-      StopBean stop = _transitDataService.getStop(stopId);
-      if (stop != null)
-        stops.add(stop);
-    }
-    return stops;
+    return new ArrayList<StopBean>(
+        _transitDataService.getStopsForIds(stopIds).getList());
   }
 
   private List<RouteBean> getRoutesForRouteFilter(RouteFilterBean routeFilter) {
-    List<RouteBean> routes = new ArrayList<RouteBean>();
-    for (String routeId : routeFilter.getRouteIds()) {
-      RouteBean route = _transitDataService.getRouteForId(routeId);
-      if (route != null)
-        routes.add(route);
-    }
+    List<RouteBean> routes = new ArrayList<RouteBean>(
+        _transitDataService.getRoutesForIds(routeFilter.getRouteIds()).getList());
     Collections.sort(routes, new RouteNameComparator());
     return routes;
   }
@@ -179,16 +179,14 @@ public class SearchServiceImpl implements SearchService {
 		CoordinateBounds bounds = SphericalGeometryLibrary.bounds(latitude,
 				longitude, DISTANCE_TO_STOPS);
 
+		// CLOSEST queries come back nearest first from the stop spatial index
 		SearchQueryBean queryBean = new SearchQueryBean();
-		queryBean.setType(SearchQueryBean.EQueryType.BOUNDS_OR_CLOSEST);
+		queryBean.setType(SearchQueryBean.EQueryType.CLOSEST);
 		queryBean.setBounds(bounds);
 		queryBean.setMaxCount(100);
 
 		StopsBean stops = _transitDataService.getStops(queryBean);
 
-		Collections.sort(stops.getStops(), new StopDistanceFromPointComparator(
-				latitude, longitude));
-
 		// A list of stops that will go in our search results
 		List<StopBean> stopsForResults = new ArrayList<StopBean>();
 
@@ -895,35 +893,6 @@ public class SearchServiceImpl implements SearchService {
 		return code;
 	}
 
-	private class StopDistanceFromPointComparator implements
-			Comparator<StopBean> {
-
-		private double lat;
-		private double lon;
-
-		public StopDistanceFromPointComparator(double lat, double lon) {
-			this.lat = lat;
-			this.lon = lon;
-		}
-
-		@Override
-		public int compare(StopBean o1, StopBean o2) {
-
-			double d1 = SphericalGeometryLibrary.distanceFaster(this.lat,
-					this.lon, o1.getLat(), o1.getLon());
-			double d2 = SphericalGeometryLibrary.distanceFaster(this.lat,
-					this.lon, o2.getLat(), o2.getLon());
-
-			if (d1 < d2) {
-				return -1;
-			} else if (d1 > d2) {
-				return +1;
-			} else {
-				return 0;
-			}
-		}
-	}
-
 	private class RouteDistanceFromPointComparator implements
 			Comparator<RouteBean> {
 
@@ -0,0 +1,598 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.presentation.impl.transit_data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.onebusaway.container.spring.ProxyFactoryBean;
+import org.onebusaway.transit_data.model.ListBean;
+import org.onebusaway.transit_data.model.RouteBean;
+import org.onebusaway.transit_data.model.StopBean;
+import org.onebusaway.transit_data.services.TransitDataService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client-side near-cache for a remote {@link TransitDataService}, typically a
+ * Hessian proxy. Results of the mostly static lookup methods (stops, routes,
+ * trips, shapes, agencies) are kept in memory and dropped whenever the remote
+ * active bundle id changes. Concurrent identical calls to any other getter are
+ * coalesced into a single remote request, and the batch
+ * {@link TransitDataService#getStopsForIds(Collection)} and
+ * {@link TransitDataService#getRoutesForIds(Collection)} calls are answered
+ * from the near-cache, fetching only the missing ids from the server.
+ * 
+ * The transit data beans are mutable, so the near-cache keeps results in
+ * serialized form and every caller gets its own copy of a cached or coalesced
+ * result. Callers are free to modify what they get back. The caller that
+ * actually made the remote request gets the target's result directly; a
+ * coalesced result is only copied when other callers were waiting for it.
+ * 
+ * Batch ids that the server could not resolve are omitted from the result, as
+ * they are by the server itself, and logged at debug level. They are not
+ * cached, so they are asked for again on the next call.
+ * 
+ * Wire it up with a {@link ProxyFactoryBean}, as the data-sources.xml of the
+ * client webapps do. With {@link #setEnabled(boolean)} set to false, every
+ * call goes straight to the target:
+ * 
+ * <pre>
+ * &lt;bean id="transitDataService" class="org.onebusaway.container.spring.ProxyFactoryBean">
+ *   &lt;property name="proxyInterface" value="org.onebusaway.transit_data.services.TransitDataService" />
+ *   &lt;property name="invocationHandler">
+ *     &lt;bean class="org.onebusaway.presentation.impl.transit_data.TransitDataServiceNearCache">
+ *       &lt;property name="target">
+ *         &lt;bean class="org.springframework.remoting.caucho.HessianProxyFactoryBean">
+ *           ...
+ *         &lt;/bean>
+ *       &lt;/property>
+ *     &lt;/bean>
+ *   &lt;/property>
+ * &lt;/bean>
+ * </pre>
+ */
+public class TransitDataServiceNearCache implements InvocationHandler {
+
+  private static Logger _log = LoggerFactory.getLogger(TransitDataServiceNearCache.class);
+
+  private static final String GET_STOP = "getStop";
+
+  private static final String GET_ROUTE_FOR_ID = "getRouteForId";
+
+  private TransitDataService _target;
+
+  private volatile boolean _enabled = true;
+
+  private Set<String> _cachedMethods = new HashSet<String>(Arrays.asList(
+      "getAgency", "getAgenciesWithCoverage", GET_ROUTE_FOR_ID, GET_STOP,
+      "getTrip", "getShapeForId", "getStopsForRoute"));
+
+  private int _maxEntries = 50000;
+
+  /**
+   * Time, in seconds, between checks of the remote active bundle id
+   */
+  private int _bundleCheckInterval = 60;
+
+  private final ConcurrentMap<CallKey, FutureTask<Object>> _cache = new ConcurrentHashMap<CallKey, FutureTask<Object>>();
+
+  private final ConcurrentMap<CallKey, InFlightCall> _inFlight = new ConcurrentHashMap<CallKey, InFlightCall>();
+
+  private final Object _bundleCheckLock = new Object();
+
+  private volatile long _nextBundleCheck = 0;
+
+  private volatile String _bundleId;
+
+  private final AtomicLong _hits = new AtomicLong();
+
+  private final AtomicLong _misses = new AtomicLong();
+
+  private final AtomicLong _coalesced = new AtomicLong();
+
+  public void setTarget(TransitDataService target) {
+    _target = target;
+  }
+
+  public void setEnabled(boolean enabled) {
+    _enabled = enabled;
+    if (!enabled)
+      _cache.clear();
+  }
+
+  public void setCachedMethods(Set<String> cachedMethods) {
+    _cachedMethods = new HashSet<String>(cachedMethods);
+  }
+
+  /**
+   * 
+   * @param maxEntries once exceeded, the near-cache is flushed
+   */
+  public void setMaxEntries(int maxEntries) {
+    _maxEntries = maxEntries;
+  }
+
+  /**
+   * 
+   * @param bundleCheckInterval in seconds
+   */
+  public void setBundleCheckInterval(int bundleCheckInterval) {
+    _bundleCheckInterval = bundleCheckInterval;
+  }
+
+  public long getHitCount() {
+    return _hits.get();
+  }
+
+  public long getMissCount() {
+    return _misses.get();
+  }
+
+  public long getCoalescedCount() {
+    return _coalesced.get();
+  }
+
+  public int getSize() {
+    return _cache.size();
+  }
+
+  public void clear() {
+    _cache.clear();
+  }
+
+  /****
+   * {@link InvocationHandler} Interface
+   ****/
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args)
+      throws Throwable {
+
+    if (method.getDeclaringClass() == Object.class)
+      return invokeObjectMethod(proxy, method, args);
+
+    if (!_enabled)
+      return invokeTarget(method, args);
+
+    String name = method.getName();
+
+    if (name.equals("getStopsForIds")) {
+      checkBundle();
+      return getStopsForIds(asIds(args));
+    }
+
+    if (name.equals("getRoutesForIds")) {
+      checkBundle();
+      return getRoutesForIds(asIds(args));
+    }
+
+    if (_cachedMethods.contains(name)) {
+      checkBundle();
+      return getCached(method, args);
+    }
+
+    if (name.startsWith("get"))
+      return getCoalesced(method, args);
+
+    return invokeTarget(method, args);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private Object getCached(final Method method, final Object[] args)
+      throws Throwable {
+
+    CallKey key = new CallKey(method.getName(), args);
+    FutureTask<Object> task = _cache.get(key);
+
+    if (task == null) {
+      final Object[] value = new Object[1];
+      FutureTask<Object> created = newTask(method, args, value);
+      task = _cache.putIfAbsent(key, created);
+      if (task == null) {
+        _misses.incrementAndGet();
+        if (_cache.size() > _maxEntries) {
+          _cache.clear();
+          _cache.put(key, created);
+        }
+        created.run();
+        try {
+          getResult(created);
+        } catch (Throwable ex) {
+          _cache.remove(key, created);
+          throw ex;
+        }
+        // the cache holds its own serialized copy, so we can hand out the
+        // target's result as is
+        return value[0];
+      } else {
+        _hits.incrementAndGet();
+      }
+    } else {
+      _hits.incrementAndGet();
+    }
+
+    try {
+      return deserialize((byte[]) getResult(task));
+    } catch (Throwable ex) {
+      // failures are never cached
+      _cache.remove(key, task);
+      throw ex;
+    }
+  }
+
+  private Object getCoalesced(Method method, Object[] args) throws Throwable {
+
+    CallKey key = new CallKey(method.getName(), args);
+
+    while (true) {
+      InFlightCall created = new InFlightCall();
+      InFlightCall call = _inFlight.putIfAbsent(key, created);
+      if (call == null)
+        return created.lead(key, method, args);
+      if (call.join()) {
+        _coalesced.incrementAndGet();
+        return call.follow();
+      }
+      // the call finished before we could join it, so start a new one
+      _inFlight.remove(key, call);
+    }
+  }
+
+  private ListBean<StopBean> getStopsForIds(Collection<String> stopIds)
+      throws Throwable {
+    return getBatch(GET_STOP, stopIds, new BatchLoader<StopBean>() {
+      @Override
+      public List<StopBean> load(Collection<String> ids) {
+        return _target.getStopsForIds(ids).getList();
+      }
+
+      @Override
+      public String getId(StopBean bean) {
+        return bean.getId();
+      }
+    });
+  }
+
+  private ListBean<RouteBean> getRoutesForIds(Collection<String> routeIds)
+      throws Throwable {
+    return getBatch(GET_ROUTE_FOR_ID, routeIds, new BatchLoader<RouteBean>() {
+      @Override
+      public List<RouteBean> load(Collection<String> ids) {
+        return _target.getRoutesForIds(ids).getList();
+      }
+
+      @Override
+      public String getId(RouteBean bean) {
+        return bean.getId();
+      }
+    });
+  }
+
+  /**
+   * Resolves each id against the near-cache entries of the matching single-id
+   * method, fetches whatever is missing in one batch call and then populates
+   * the near-cache with the fetched beans.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> ListBean<T> getBatch(String singleMethodName,
+      Collection<String> ids, BatchLoader<T> loader) throws Throwable {
+
+    Map<String, T> found = new HashMap<String, T>();
+    Set<String> missing = new HashSet<String>();
+
+    for (String id : ids) {
+      FutureTask<Object> task = _cache.get(new CallKey(singleMethodName,
+          new Object[] {id}));
+      if (task != null && task.isDone()) {
+        try {
+          T bean = (T) deserialize((byte[]) task.get());
+          if (bean != null)
+            found.put(id, bean);
+          _hits.incrementAndGet();
+          continue;
+        } catch (ExecutionException ex) {
+          // fall through and fetch it again
+        }
+      }
+      missing.add(id);
+    }
+
+    if (!missing.isEmpty()) {
+      _misses.addAndGet(missing.size());
+      List<T> beans = loader.load(new ArrayList<String>(missing));
+      if (beans != null) {
+        for (T bean : beans) {
+          String id = loader.getId(bean);
+          found.put(id, bean);
+          missing.remove(id);
+          _cache.put(new CallKey(singleMethodName, new Object[] {id}),
+              newCompletedTask(serialize(bean)));
+        }
+      }
+      if (!missing.isEmpty() && _log.isDebugEnabled())
+        _log.debug("batch " + singleMethodName + " could not resolve ids "
+            + missing);
+      if (_cache.size() > _maxEntries)
+        _cache.clear();
+    }
+
+    List<T> results = new ArrayList<T>(ids.size());
+    for (String id : ids) {
+      T bean = found.get(id);
+      if (bean != null)
+        results.add(bean);
+    }
+    return new ListBean<T>(results, false);
+  }
+
+  /**
+   * Flush the near-cache if the remote active bundle changed since the last
+   * check. The check itself is rate-limited to once per
+   * {@link #setBundleCheckInterval(int)}.
+   */
+  private void checkBundle() {
+
+    long now = System.currentTimeMillis();
+    if (now < _nextBundleCheck)
+      return;
+
+    synchronized (_bundleCheckLock) {
+      if (now < _nextBundleCheck)
+        return;
+      _nextBundleCheck = now + _bundleCheckInterval * 1000L;
+    }
+
+    String bundleId;
+    try {
+      bundleId = _target.getActiveBundleId();
+    } catch (RuntimeException ex) {
+      _log.warn("error checking active bundle id: " + ex.getMessage());
+      return;
+    }
+
+    String previous = _bundleId;
+    if (previous == null ? bundleId != null : !previous.equals(bundleId)) {
+      if (previous != null)
+        _log.info("active bundle changed from " + previous + " to " + bundleId
+            + ", clearing near-cache");
+      _bundleId = bundleId;
+      _cache.clear();
+    }
+  }
+
+  /**
+   * The task's result is the serialized form of the target's result, so that
+   * every caller sharing the task deserializes its own copy. The target's
+   * result itself is left in value[0] for the caller running the task.
+   */
+  private FutureTask<Object> newTask(final Method method, final Object[] args,
+      final Object[] value) {
+    return new FutureTask<Object>(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        try {
+          value[0] = invokeTarget(method, args);
+          return serialize(value[0]);
+        } catch (Exception ex) {
+          throw ex;
+        } catch (Throwable ex) {
+          throw new InvocationTargetException(ex);
+        }
+      }
+    });
+  }
+
+  private static FutureTask<Object> newCompletedTask(final Object value) {
+    FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+      @Override
+      public Object call() {
+        return value;
+      }
+    });
+    task.run();
+    return task;
+  }
+
+  private static Object getResult(FutureTask<Object> task) throws Throwable {
+    try {
+      return task.get();
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof InvocationTargetException
+          && cause.getCause() != null)
+        cause = cause.getCause();
+      throw cause;
+    }
+  }
+
+  private static byte[] serialize(Object value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(value);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static Object deserialize(byte[] data) throws IOException,
+      ClassNotFoundException {
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+    try {
+      return in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+  private Object invokeTarget(Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(_target, args);
+    } catch (InvocationTargetException ex) {
+      throw ex.getCause();
+    }
+  }
+
+  private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+    String name = method.getName();
+    if (name.equals("equals"))
+      return proxy == args[0];
+    if (name.equals("hashCode"))
+      return System.identityHashCode(proxy);
+    if (name.equals("toString"))
+      return "TransitDataServiceNearCache(" + _target + ")";
+    throw new UnsupportedOperationException(name);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Collection<String> asIds(Object[] args) {
+    return (Collection<String>) args[0];
+  }
+
+  private interface BatchLoader<T> {
+
+    public List<T> load(Collection<String> ids);
+
+    public String getId(T bean);
+  }
+
+  /**
+   * A remote call shared by concurrent identical getter calls. The leader makes
+   * the call and keeps the result; only when followers have joined does it
+   * leave them a serialized copy to deserialize.
+   */
+  private final class InFlightCall {
+
+    private final CountDownLatch _done = new CountDownLatch(1);
+
+    private int _followers = 0;
+
+    private boolean _closed = false;
+
+    private volatile byte[] _result;
+
+    private volatile Throwable _failure;
+
+    public Object lead(CallKey key, Method method, Object[] args)
+        throws Throwable {
+      Object value = null;
+      Throwable failure = null;
+      try {
+        value = invokeTarget(method, args);
+      } catch (Throwable ex) {
+        failure = ex;
+      }
+
+      _inFlight.remove(key, this);
+
+      try {
+        if (close()) {
+          if (failure != null)
+            _failure = failure;
+          else
+            _result = serialize(value);
+        }
+      } catch (IOException ex) {
+        _failure = ex;
+      } finally {
+        _done.countDown();
+      }
+
+      if (failure != null)
+        throw failure;
+      return value;
+    }
+
+    /**
+     * @return false if the call has already finished and can't be joined
+     */
+    public synchronized boolean join() {
+      if (_closed)
+        return false;
+      _followers++;
+      return true;
+    }
+
+    public Object follow() throws Throwable {
+      _done.await();
+      if (_failure != null)
+        throw _failure;
+      return deserialize(_result);
+    }
+
+    /**
+     * @return true if any followers joined the call
+     */
+    private synchronized boolean close() {
+      _closed = true;
+      return _followers > 0;
+    }
+  }
+
+  private static final class CallKey {
+
+    private final String _methodName;
+
+    private final Object[] _args;
+
+    private final int _hash;
+
+    public CallKey(String methodName, Object[] args) {
+      _methodName = methodName;
+      _args = args == null ? new Object[0] : args.clone();
+      _hash = 31 * methodName.hashCode() + Arrays.deepHashCode(_args);
+    }
+
+    @Override
+    public int hashCode() {
+      return _hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof CallKey))
+        return false;
+      CallKey other = (CallKey) obj;
+      return _methodName.equals(other._methodName)
+          && Arrays.deepEquals(_args, other._args);
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.presentation.impl.transit_data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.transit_data.model.ListBean;
+import org.onebusaway.transit_data.model.StopBean;
+import org.onebusaway.transit_data.services.TransitDataService;
+
+public class TransitDataServiceNearCacheTest {
+
+  private final List<String> _calls = new ArrayList<String>();
+
+  private final AtomicInteger _stopLookups = new AtomicInteger();
+
+  private String _bundleId = "bundleA";
+
+  private final ListBean<String> _routeIds = new ListBean<String>(
+      Arrays.asList("1_r"), false);
+
+  private final CountDownLatch _routeIdsRequested = new CountDownLatch(1);
+
+  private final CountDownLatch _routeIdsReleased = new CountDownLatch(1);
+
+  private TransitDataServiceNearCache _nearCache;
+
+  private TransitDataService _service;
+
+  @Before
+  public void setup() {
+
+    InvocationHandler remote = new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+          throws InterruptedException {
+        String name = method.getName();
+        _calls.add(name);
+        if (name.equals("getRouteIdsForAgencyId")) {
+          _routeIdsRequested.countDown();
+          _routeIdsReleased.await();
+          return _routeIds;
+        }
+        if (name.equals("getActiveBundleId"))
+          return _bundleId;
+        if (name.equals("getStop")) {
+          _stopLookups.incrementAndGet();
+          return stop((String) args[0]);
+        }
+        if (name.equals("getStopsForIds")) {
+          @SuppressWarnings("unchecked")
+          Collection<String> ids = (Collection<String>) args[0];
+          List<StopBean> stops = new ArrayList<StopBean>();
+          for (String id : ids) {
+            _stopLookups.incrementAndGet();
+            if (!id.equals("1_missing"))
+              stops.add(stop(id));
+          }
+          return new ListBean<StopBean>(stops, false);
+        }
+        return null;
+      }
+    };
+
+    TransitDataService target = (TransitDataService) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[] {TransitDataService.class},
+        remote);
+
+    _nearCache = new TransitDataServiceNearCache();
+    _nearCache.setTarget(target);
+    _nearCache.setBundleCheckInterval(0);
+
+    _service = (TransitDataService) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[] {TransitDataService.class},
+        _nearCache);
+  }
+
+  @Test
+  public void testCachedLookup() {
+    StopBean a = _service.getStop("1_a");
+    StopBean b = _service.getStop("1_a");
+    assertNotSame(a, b);
+    assertEquals("1_a", b.getId());
+    assertEquals(1, _stopLookups.get());
+    assertEquals(1, _nearCache.getHitCount());
+    assertEquals(1, _nearCache.getMissCount());
+  }
+
+  @Test
+  public void testBundleChangeClearsCache() {
+    _service.getStop("1_a");
+    _bundleId = "bundleB";
+    _service.getStop("1_a");
+    assertEquals(2, _stopLookups.get());
+  }
+
+  @Test
+  public void testBatchOnlyFetchesMissingIds() {
+    StopBean a = _service.getStop("1_a");
+
+    ListBean<StopBean> stops = _service.getStopsForIds(Arrays.asList("1_a",
+        "1_b", "1_missing", "1_c"));
+
+    assertEquals(4, _stopLookups.get());
+    assertEquals(3, stops.getList().size());
+    assertNotSame(a, stops.getList().get(0));
+    assertEquals("1_a", stops.getList().get(0).getId());
+    assertEquals("1_b", stops.getList().get(1).getId());
+    assertEquals("1_c", stops.getList().get(2).getId());
+
+    // batch results populate the single-id entries
+    _service.getStop("1_b");
+    _service.getStop("1_c");
+    assertEquals(4, _stopLookups.get());
+  }
+
+  @Test
+  public void testCallersGetTheirOwnCopy() {
+    StopBean a = _service.getStop("1_a");
+    a.setName("modified");
+
+    assertEquals("name", _service.getStop("1_a").getName());
+
+    ListBean<StopBean> stops = _service.getStopsForIds(Arrays.asList("1_b"));
+    stops.getList().get(0).setName("modified");
+
+    assertEquals("name", _service.getStop("1_b").getName());
+    assertEquals(2, _stopLookups.get());
+  }
+
+  @Test
+  public void testUncontendedCallReturnsTargetResult() {
+    _routeIdsReleased.countDown();
+    assertSame(_routeIds, _service.getRouteIdsForAgencyId("1"));
+    assertEquals(0, _nearCache.getCoalescedCount());
+  }
+
+  @Test
+  public void testCoalescedCallersGetACopy() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Callable<ListBean<String>> call = new Callable<ListBean<String>>() {
+        @Override
+        public ListBean<String> call() {
+          return _service.getRouteIdsForAgencyId("1");
+        }
+      };
+
+      Future<ListBean<String>> leader = executor.submit(call);
+      _routeIdsRequested.await();
+      Future<ListBean<String>> follower = executor.submit(call);
+      while (_nearCache.getCoalescedCount() == 0)
+        Thread.sleep(10);
+      _routeIdsReleased.countDown();
+
+      assertSame(_routeIds, leader.get());
+      assertNotSame(_routeIds, follower.get());
+      assertEquals(_routeIds.getList(), follower.get().getList());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testDisabled() {
+    _nearCache.setEnabled(false);
+    _service.getStop("1_a");
+    _service.getStop("1_a");
+    assertEquals(2, _stopLookups.get());
+    assertEquals(0, _nearCache.getSize());
+  }
+
+  private static StopBean stop(String id) {
+    StopBean stop = new StopBean();
+    stop.setId(id);
+    stop.setName("name");
+    return stop;
+  }
+}
@@ -18,7 +18,10 @@ package org.onebusaway.transit_data_federation.bundle;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -33,6 +36,7 @@ import org.onebusaway.container.spring.PropertyOverrideConfigurer;
 import org.onebusaway.transit_data_federation.bundle.model.GtfsBundle;
 import org.onebusaway.transit_data_federation.bundle.model.StatusMessages;
 import org.onebusaway.transit_data_federation.bundle.model.TaskDefinition;
+import org.onebusaway.transit_data_federation.bundle.model.TaskTiming;
 import org.onebusaway.transit_data_federation.impl.DirectedGraph;
 import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -62,6 +66,10 @@ import org.springframework.context.ConfigurableApplicationContext;
  * 
  * {@value #BUNDLE_RESOURCE}
  * 
+ * Tasks are scheduled according to their declared before/after dependencies.
+ * By default they run one at a time, but independent tasks can be run
+ * concurrently by raising {@link #setParallelism(int)}.
+ * 
  * @author bdferris
  * @see FederatedTransitDataBundleCreatorMain
  */
@@ -93,6 +101,10 @@ public class FederatedTransitDataBundleCreator {
   
   private StatusMessages _status = new StatusMessages();
 
+  private int _parallelism = 1;
+
+  private List<TaskTiming> _taskTimings = Collections.emptyList();
+
   /**
    * 
    * @param context
@@ -157,6 +169,24 @@ public class FederatedTransitDataBundleCreator {
     return this._status;
   }
 
+  /**
+   * 
+   * @param parallelism the maximum number of independent tasks to run
+   *          concurrently
+   */
+  public void setParallelism(int parallelism) {
+    _parallelism = parallelism;
+  }
+
+  /**
+   * 
+   * @return the wall time and peak heap usage of each task run by the last
+   *         call to {@link #run()}, in completion order
+   */
+  public List<TaskTiming> getTaskTimings() {
+    return _taskTimings;
+  }
+
   /**
    * Build the bundle!
    * 
@@ -181,35 +211,35 @@ public class FederatedTransitDataBundleCreator {
       closeContextOnCompletion = true;
     }
 
-    List<TaskDefinition> taskDefinitions = getTaskList(context);
+    Map<String, TaskDefinition> taskDefinitionsByName = getTaskDefinitionsByName(context.getBeansOfType(TaskDefinition.class));
+    DirectedGraph<String> taskGraph = getTaskGraph(taskDefinitionsByName);
+    List<TaskDefinition> taskDefinitions = getTaskList(taskGraph,
+        taskDefinitionsByName);
     Set<String> taskNames = getReducedTaskList(taskDefinitions);
 
     // Clear cache files
     FederatedTransitDataBundle bundle = context.getBean(FederatedTransitDataBundle.class);
     clearExistingCacheFiles(bundle);
-    int taskSize = taskNames.size();
-    int i = 0;
+
+    TaskGraphExecutor executor = new TaskGraphExecutor(_parallelism, _status);
     for (TaskDefinition def : taskDefinitions) {
       String taskName = def.getTaskName();
       if (taskNames.contains(taskName)) {
-        i++;
-        System.out.println("== " + taskName + " =====>");
-        _status.addMessage("running task " + taskName + " (" + i + "/" + taskSize + ")");
         Runnable task = getTask(context, def.getTask(), def.getTaskBeanName());
         if (task == null)
           throw new IllegalStateException("unknown task bean with name: "
               + taskName);
-        task.run();
+        executor.addTask(taskName, task, false);
       } else {
         Runnable task = getTask(context, def.getTaskWhenSkipped(),
             def.getTaskWhenSkippedBeanName());
-        if (task != null) {
-          System.out.println("== skipping " + taskName + " =====>");
-          _status.addMessage("skipping task " + taskName);
-          task.run();
-        }
+        if (task != null)
+          executor.addTask(taskName, task, true);
       }
     }
+    addTaskDependencies(taskGraph, executor);
+
+    _taskTimings = executor.run();
 
     // We don't need this context anymore
     if (closeContextOnCompletion) {
@@ -309,15 +339,13 @@ public class FederatedTransitDataBundleCreator {
     return task;
   }
 
-  private List<TaskDefinition> getTaskList(ApplicationContext context)
+  private DirectedGraph<String> getTaskGraph(
+      Map<String, TaskDefinition> taskDefinitionsByTaskName)
       throws UnknownTaskException {
 
-    Map<String, TaskDefinition> taskDefinitions = context.getBeansOfType(TaskDefinition.class);
-    Map<String, TaskDefinition> taskDefinitionsByTaskName = getTaskDefinitionsByName(taskDefinitions);
-
     DirectedGraph<String> graph = new DirectedGraph<String>();
 
-    for (TaskDefinition taskDefinition : taskDefinitions.values()) {
+    for (TaskDefinition taskDefinition : taskDefinitionsByTaskName.values()) {
 
       String taskName = taskDefinition.getTaskName();
 
@@ -340,6 +368,12 @@ public class FederatedTransitDataBundleCreator {
       }
     }
 
+    return graph;
+  }
+
+  private List<TaskDefinition> getTaskList(DirectedGraph<String> graph,
+      Map<String, TaskDefinition> taskDefinitionsByTaskName) {
+
     List<String> taskNames = graph.getTopologicalSort(null);
 
     List<TaskDefinition> taskDefinitionsInOrder = new ArrayList<TaskDefinition>();
@@ -350,6 +384,28 @@ public class FederatedTransitDataBundleCreator {
     return taskDefinitionsInOrder;
   }
 
+  /**
+   * A task that is not scheduled to run still orders the tasks around it, so
+   * dependencies are followed through it to the nearest scheduled tasks.
+   */
+  private void addTaskDependencies(DirectedGraph<String> graph,
+      TaskGraphExecutor executor) {
+    for (String taskName : executor.getTaskNames()) {
+      Set<String> visited = new HashSet<String>();
+      Deque<String> stack = new ArrayDeque<String>(
+          graph.getInboundNodes(taskName));
+      while (!stack.isEmpty()) {
+        String from = stack.pop();
+        if (!visited.add(from))
+          continue;
+        if (executor.hasTask(from))
+          executor.addDependency(from, taskName);
+        else
+          stack.addAll(graph.getInboundNodes(from));
+      }
+    }
+  }
+
   private Map<String, TaskDefinition> getTaskDefinitionsByName(
       Map<String, TaskDefinition> taskDefinitions) {
     Map<String, TaskDefinition> taskDefinitionsByTaskName = new HashMap<String, TaskDefinition>();
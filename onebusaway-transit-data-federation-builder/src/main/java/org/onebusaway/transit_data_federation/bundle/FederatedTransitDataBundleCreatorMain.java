@@ -82,6 +82,8 @@ public class FederatedTransitDataBundleCreatorMain {
 
   private static final String ARG_ADDITIONAL_RESOURCES_DIRECTORY = "additionalResourcesDirectory";
 
+  private static final String ARG_PARALLELISM = "parallelism";
+
   public static void main(String[] args) throws Exception {
     System.out.println(System.getProperties());
     FederatedTransitDataBundleCreatorMain main = new FederatedTransitDataBundleCreatorMain();
@@ -164,6 +166,9 @@ public class FederatedTransitDataBundleCreatorMain {
       if (commandLine.hasOption(ARG_RANDOMIZE_CACHE_DIR))
         creator.setRandomizeCacheDir(true);
 
+      if (commandLine.hasOption(ARG_PARALLELISM))
+        creator.setParallelism(Integer.parseInt(commandLine.getOptionValue(ARG_PARALLELISM)));
+
       if (commandLine.hasOption(ARG_BUNDLE_KEY)) {
         String key = commandLine.getOptionValue(ARG_BUNDLE_KEY);
         creator.setBundleKey(key);
@@ -234,6 +239,7 @@ public class FederatedTransitDataBundleCreatorMain {
     options.addOption(ARG_BUNDLE_KEY, true, "");
     options.addOption(ARG_RANDOMIZE_CACHE_DIR, false, "");
     options.addOption(ARG_ADDITIONAL_RESOURCES_DIRECTORY, true, "");
+    options.addOption(ARG_PARALLELISM, true, "");
 
     Option dOption = new Option("D", "use value for given property");
     dOption.setArgName("property=value");
@@ -0,0 +1,329 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.bundle;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.onebusaway.transit_data_federation.bundle.model.StatusMessages;
+import org.onebusaway.transit_data_federation.bundle.model.TaskTiming;
+
+/**
+ * Runs the bundle building tasks selected by
+ * {@link FederatedTransitDataBundleCreator} as a dependency graph: a task is
+ * started as soon as all of the tasks it depends on have completed, with at
+ * most {@code parallelism} tasks running at once. Among the tasks that are
+ * ready to run, the one that was added first always starts first, so with a
+ * parallelism of one the tasks run in exactly the order they were added, on
+ * the calling thread.
+ * 
+ * Tasks must be added in a valid topological order. If a task fails, no
+ * further tasks are started and the failure is rethrown once the running tasks
+ * have finished.
+ */
+class TaskGraphExecutor {
+
+  /**
+   * Time, in milliseconds, between heap usage samples
+   */
+  private static final long HEAP_SAMPLE_INTERVAL = 250;
+
+  private final int _parallelism;
+
+  private final StatusMessages _status;
+
+  private final List<Node> _nodes = new ArrayList<Node>();
+
+  private final Map<String, Node> _nodesByName = new HashMap<String, Node>();
+
+  private final Set<Node> _running = Collections.newSetFromMap(new ConcurrentHashMap<Node, Boolean>());
+
+  private final MemoryMXBean _memory = ManagementFactory.getMemoryMXBean();
+
+  public TaskGraphExecutor(int parallelism, StatusMessages status) {
+    _parallelism = Math.max(parallelism, 1);
+    _status = status;
+  }
+
+  public void addTask(String taskName, Runnable task, boolean skipped) {
+    if (_nodesByName.containsKey(taskName))
+      throw new IllegalArgumentException("duplicate task: " + taskName);
+    Node node = new Node(taskName, _nodes.size(), task, skipped);
+    _nodes.add(node);
+    _nodesByName.put(taskName, node);
+  }
+
+  public boolean hasTask(String taskName) {
+    return _nodesByName.containsKey(taskName);
+  }
+
+  public List<String> getTaskNames() {
+    List<String> names = new ArrayList<String>(_nodes.size());
+    for (Node node : _nodes)
+      names.add(node.name);
+    return names;
+  }
+
+  /**
+   * 
+   * @param fromTaskName the task that must complete first
+   * @param toTaskName the task that depends on it
+   */
+  public void addDependency(String fromTaskName, String toTaskName) {
+    Node from = getNode(fromTaskName);
+    Node to = getNode(toTaskName);
+    if (from.index >= to.index)
+      throw new IllegalArgumentException("task " + fromTaskName
+          + " must be added before " + toTaskName);
+    if (from.dependents.add(to))
+      to.pending++;
+  }
+
+  /**
+   * 
+   * @return the timings of the completed tasks, in completion order
+   */
+  public List<TaskTiming> run() {
+
+    int taskCount = 0;
+    for (Node node : _nodes) {
+      if (!node.skipped)
+        taskCount++;
+    }
+
+    PriorityQueue<Node> ready = new PriorityQueue<Node>(
+        Math.max(_nodes.size(), 1), new Comparator<Node>() {
+          @Override
+          public int compare(Node a, Node b) {
+            return a.index - b.index;
+          }
+        });
+    for (Node node : _nodes) {
+      if (node.pending == 0)
+        ready.add(node);
+    }
+
+    ExecutorService pool = null;
+    Executor executor;
+    if (_parallelism > 1) {
+      pool = Executors.newFixedThreadPool(_parallelism,
+          new NamedThreadFactory("bundle-task-"));
+      executor = pool;
+    } else {
+      executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+          command.run();
+        }
+      };
+    }
+
+    ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+        "bundle-task-heap-sampler-"));
+    sampler.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        long used = getHeapUsage();
+        for (Node node : _running)
+          node.observeHeapUsage(used);
+      }
+    }, HEAP_SAMPLE_INTERVAL, HEAP_SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+
+    CompletionService<Node> completion = new ExecutorCompletionService<Node>(
+        executor);
+    List<TaskTiming> timings = new ArrayList<TaskTiming>();
+    Throwable failure = null;
+    int active = 0;
+    int started = 0;
+
+    try {
+      while (true) {
+
+        while (failure == null && active < _parallelism && !ready.isEmpty()) {
+          Node node = ready.poll();
+          if (node.skipped) {
+            System.out.println("== skipping " + node.name + " =====>");
+            _status.addMessage("skipping task " + node.name);
+          } else {
+            started++;
+            System.out.println("== " + node.name + " =====>");
+            _status.addMessage("running task " + node.name + " (" + started
+                + "/" + taskCount + ")");
+          }
+          completion.submit(new NodeCallable(node));
+          active++;
+        }
+
+        if (active == 0)
+          break;
+
+        Future<Node> future = completion.take();
+        active--;
+
+        Node node;
+        try {
+          node = future.get();
+        } catch (ExecutionException ex) {
+          if (failure == null)
+            failure = ex.getCause();
+          continue;
+        }
+
+        TaskTiming timing = node.getTiming();
+        timings.add(timing);
+        _status.addMessage("completed task " + timing);
+
+        for (Node dependent : node.dependents) {
+          if (--dependent.pending == 0)
+            ready.add(dependent);
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      failure = ex;
+    } finally {
+      if (pool != null)
+        pool.shutdownNow();
+      sampler.shutdownNow();
+    }
+
+    if (failure != null) {
+      if (failure instanceof RuntimeException)
+        throw (RuntimeException) failure;
+      if (failure instanceof Error)
+        throw (Error) failure;
+      throw new IllegalStateException("error running bundle task", failure);
+    }
+
+    return timings;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private Node getNode(String taskName) {
+    Node node = _nodesByName.get(taskName);
+    if (node == null)
+      throw new IllegalArgumentException("unknown task: " + taskName);
+    return node;
+  }
+
+  private long getHeapUsage() {
+    return _memory.getHeapMemoryUsage().getUsed();
+  }
+
+  private class NodeCallable implements Callable<Node> {
+
+    private final Node _node;
+
+    public NodeCallable(Node node) {
+      _node = node;
+    }
+
+    @Override
+    public Node call() {
+      _node.startTime = System.currentTimeMillis();
+      long t0 = System.nanoTime();
+      _node.observeHeapUsage(getHeapUsage());
+      _running.add(_node);
+      try {
+        _node.task.run();
+      } finally {
+        _running.remove(_node);
+        _node.observeHeapUsage(getHeapUsage());
+        _node.wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+      }
+      return _node;
+    }
+  }
+
+  private static class Node {
+
+    private final String name;
+
+    private final int index;
+
+    private final Runnable task;
+
+    private final boolean skipped;
+
+    private final Set<Node> dependents = new LinkedHashSet<Node>();
+
+    private int pending = 0;
+
+    private volatile long startTime;
+
+    private volatile long wallTime;
+
+    private long peakHeapUsage;
+
+    public Node(String name, int index, Runnable task, boolean skipped) {
+      this.name = name;
+      this.index = index;
+      this.task = task;
+      this.skipped = skipped;
+    }
+
+    public synchronized void observeHeapUsage(long used) {
+      peakHeapUsage = Math.max(peakHeapUsage, used);
+    }
+
+    public synchronized TaskTiming getTiming() {
+      return new TaskTiming(name, skipped, startTime, wallTime, peakHeapUsage);
+    }
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+
+    private final String _prefix;
+
+    private final AtomicInteger _count = new AtomicInteger();
+
+    public NamedThreadFactory(String prefix) {
+      _prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, _prefix + _count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.bundle.model;
+
+/**
+ * Wall time and peak heap usage observed while a single bundle building task
+ * was running. When tasks run concurrently, the peak heap value covers the
+ * whole JVM heap and so includes the usage of any overlapping tasks.
+ */
+public class TaskTiming {
+
+  private final String taskName;
+
+  private final boolean skipped;
+
+  private final long startTime;
+
+  private final long wallTime;
+
+  private final long peakHeapUsage;
+
+  public TaskTiming(String taskName, boolean skipped, long startTime,
+      long wallTime, long peakHeapUsage) {
+    this.taskName = taskName;
+    this.skipped = skipped;
+    this.startTime = startTime;
+    this.wallTime = wallTime;
+    this.peakHeapUsage = peakHeapUsage;
+  }
+
+  public String getTaskName() {
+    return taskName;
+  }
+
+  /**
+   * 
+   * @return true if the task's "when skipped" runnable was executed
+   */
+  public boolean isSkipped() {
+    return skipped;
+  }
+
+  /**
+   * 
+   * @return start time, in unix-time milliseconds
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * 
+   * @return wall time, in milliseconds
+   */
+  public long getWallTime() {
+    return wallTime;
+  }
+
+  /**
+   * 
+   * @return peak heap usage, in bytes
+   */
+  public long getPeakHeapUsage() {
+    return peakHeapUsage;
+  }
+
+  @Override
+  public String toString() {
+    return taskName + " " + (wallTime / 1000.0) + "s peakHeap="
+        + (peakHeapUsage / (1024 * 1024)) + "MB" + (skipped ? " (skipped)" : "");
+  }
+}
@@ -24,6 +24,7 @@ import org.apache.lucene.analysis.miscellaneous.LimitTokenCountAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexWriter;
@@ -31,6 +32,7 @@ import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.onebusaway.container.refresh.RefreshService;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data_federation.impl.RefreshableResources;
@@ -138,6 +140,14 @@ public class GenerateRouteCollectionSearchIndexTask implements Runnable {
         RouteCollectionSearchIndexConstants.FIELD_ROUTE_COLLECTION_ID,
         routeCollectionId.getId(), Field.Store.YES));
 
+    // Id doc values, so search hits don't need to load stored fields
+    document.add(new SortedDocValuesField(
+        RouteCollectionSearchIndexConstants.FIELD_ROUTE_COLLECTION_AGENCY_ID,
+        new BytesRef(routeCollectionId.getAgencyId())));
+    document.add(new SortedDocValuesField(
+        RouteCollectionSearchIndexConstants.FIELD_ROUTE_COLLECTION_ID,
+        new BytesRef(routeCollectionId.getId())));
+
     if (isValue(narrative.getShortName()))
       document.add(new TextField(
           RouteCollectionSearchIndexConstants.FIELD_ROUTE_SHORT_NAME,
@@ -40,7 +40,7 @@ public class ShapePointHelper {
     _gtfsDao = gtfsDao;
   }
 
-  public ShapePoints getShapePointsForShapeId(AgencyAndId shapeId) {
+  public synchronized ShapePoints getShapePointsForShapeId(AgencyAndId shapeId) {
 
     ShapePoints shapePoints = _cache.get(shapeId);
     if (shapePoints == null) {
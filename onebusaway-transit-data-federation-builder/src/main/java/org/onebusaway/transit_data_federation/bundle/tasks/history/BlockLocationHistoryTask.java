@@ -58,6 +58,8 @@ public class BlockLocationHistoryTask implements Runnable {
 
   private AgencyAndId _skipToTrip = null;
 
+  private int _saveBatchSize = 100;
+
   @Autowired
   public void setTransitGraphDao(TransitGraphDao transitGraphDao) {
     _transitGraphDao = transitGraphDao;
@@ -89,6 +91,16 @@ public class BlockLocationHistoryTask implements Runnable {
     _skipToTrip = AgencyAndIdLibrary.convertFromString(tripId);
   }
 
+  /**
+   * Histories are saved once this many have been computed, rather than one
+   * trip at a time.
+   * 
+   * @param saveBatchSize
+   */
+  public void setSaveBatchSize(int saveBatchSize) {
+    _saveBatchSize = saveBatchSize;
+  }
+
   @Override
   public void run() {
 
@@ -102,6 +114,8 @@ public class BlockLocationHistoryTask implements Runnable {
 
     boolean skipTo = _skipToTrip != null;
 
+    List<ScheduleDeviationHistory> histories = new ArrayList<ScheduleDeviationHistory>();
+
     for (TripEntry trip : allTrips) {
 
       if (tripIndex % 20 == 0)
@@ -112,22 +126,25 @@ public class BlockLocationHistoryTask implements Runnable {
         skipTo = false;
       } else if (!skipTo) {
         try {
-          processTrip(trip);
+          processTrip(trip, histories);
         } catch (Throwable ex) {
           _log.warn("error processing trip " + trip.getId(), ex);
         }
+        if (histories.size() >= _saveBatchSize)
+          saveHistories(histories);
       }
     }
+
+    saveHistories(histories);
   }
 
-  private void processTrip(TripEntry trip) {
+  private void processTrip(TripEntry trip,
+      List<ScheduleDeviationHistory> histories) {
 
     List<BlockLocationArchiveRecord> records = _source.getRecordsForTrip(trip.getId());
 
     Map<AgencyAndId, BlockLocationArchiveRecordMap> recordsByTrip = loadRecords(records);
 
-    List<ScheduleDeviationHistory> histories = new ArrayList<ScheduleDeviationHistory>();
-
     for (Map.Entry<AgencyAndId, BlockLocationArchiveRecordMap> entry : recordsByTrip.entrySet()) {
 
       AgencyAndId tripId = entry.getKey();
@@ -143,9 +160,17 @@ public class BlockLocationHistoryTask implements Runnable {
           recordsByInstance);
       histories.add(history);
     }
+  }
 
-    if (!histories.isEmpty())
+  private void saveHistories(List<ScheduleDeviationHistory> histories) {
+    if (histories.isEmpty())
+      return;
+    try {
       _scheduleDeviationHistoryDao.saveScheduleDeviationHistory(histories);
+    } catch (Throwable ex) {
+      _log.warn("error saving " + histories.size() + " histories", ex);
+    }
+    histories.clear();
   }
 
   private Map<AgencyAndId, BlockLocationArchiveRecordMap> loadRecords(
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.onebusaway.collections.FactoryMap;
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -56,8 +57,18 @@ public class BlockEntriesFactory {
   }
 
   public void processBlocks(TransitGraphImpl graph) {
+    processBlocks(graph, null);
+  }
+
+  /**
+   * 
+   * @param graph
+   * @param pool the pool to build block configurations on, or null to build
+   *          them on the calling thread
+   */
+  public void processBlocks(TransitGraphImpl graph, ForkJoinPool pool) {
     Map<AgencyAndId, List<TripEntryImpl>> tripsByBlockId = getTripsByBlockId(graph);
-    processBlockTrips(graph, tripsByBlockId);
+    processBlockTrips(graph, tripsByBlockId, pool);
   }
 
   private Map<AgencyAndId, List<TripEntryImpl>> getTripsByBlockId(
@@ -108,12 +119,17 @@ public class BlockEntriesFactory {
    * We loop over blocks of trips, removing any trip that has no stop times,
    * sorting the remaining trips into the proper order, setting the 'nextTrip'
    * property for trips in the block, and setting the 'nextStop' property for
-   * stops in the block.
-   * 
-   * @return
+   * stops in the block. Block configurations are independent of each other
+   * and may be built concurrently, but blocks are still added to the graph in
+   * iteration order.
    */
   private void processBlockTrips(TransitGraphImpl graph,
-      Map<AgencyAndId, List<TripEntryImpl>> tripsByBlockId) {
+      Map<AgencyAndId, List<TripEntryImpl>> tripsByBlockId, ForkJoinPool pool) {
+
+    final List<BlockEntryImpl> blockEntries = new ArrayList<BlockEntryImpl>(
+        tripsByBlockId.size());
+    final List<List<TripEntryImpl>> tripsForBlocks = new ArrayList<List<TripEntryImpl>>(
+        tripsByBlockId.size());
 
     int blockIndex = 0; 
 	int logInterval = LoggingIntervalUtil.getAppropriateLoggingInterval(tripsByBlockId.keySet().size());
@@ -135,13 +151,26 @@ public class BlockEntriesFactory {
       BlockEntryImpl blockEntry = new BlockEntryImpl();
       blockEntry.setId(blockId);
 
-      _blockConfigurationEntriesFactory.processBlockConfigurations(blockEntry,
-          tripsInBlock);
+      blockEntries.add(blockEntry);
+      tripsForBlocks.add(tripsInBlock);
+    }
+
+    ParallelWorkLibrary.run(pool, blockEntries.size(),
+        new ParallelWorkLibrary.IndexedWork() {
+          @Override
+          public void process(int index) {
+            _blockConfigurationEntriesFactory.processBlockConfigurations(
+                blockEntries.get(index), tripsForBlocks.get(index));
+          }
+        });
+
+    for (int i = 0; i < blockEntries.size(); i++) {
 
+      BlockEntryImpl blockEntry = blockEntries.get(i);
       graph.putBlockEntry(blockEntry);
 
       // Wire up the trip to block link
-      for (TripEntryImpl trip : tripsInBlock)
+      for (TripEntryImpl trip : tripsForBlocks.get(i))
         trip.setBlock(blockEntry);
     }
   }
@@ -49,8 +49,6 @@ public class DistanceAlongShapeLibrary {
 
   private static Logger _log = LoggerFactory.getLogger(DistanceAlongShapeLibrary.class);
 
-  private static NumberFormat _errorFormatter = new DecimalFormat("0.00");
-
   private ShapePointsLibrary _shapePointsLibrary = new ShapePointsLibrary();
 
   private double _maxDistanceFromStopToShapePoint = 1000;
@@ -59,7 +57,7 @@ public class DistanceAlongShapeLibrary {
   
   private boolean _lenientStopShapeAssignment = false;
 
-  private Set<AgencyAndId> _shapeIdsWeHavePrinted = new HashSet<AgencyAndId>();
+  private Set<AgencyAndId> _shapeIdsWeHavePrinted = Collections.synchronizedSet(new HashSet<AgencyAndId>());
 
   /**
    * When computing stop-to-shape matches, we will consider multiple potential
@@ -546,6 +544,8 @@ public class DistanceAlongShapeLibrary {
         + trip.getId() + " shape=" + trip.getShapeId() + " firstStopTime="
         + first.getId() + " lastStopTime=" + last.getId());
 
+    // DecimalFormat is not thread-safe and trips may be processed concurrently
+    NumberFormat errorFormatter = new DecimalFormat("0.00");
     StringBuilder b = new StringBuilder();
     int index = 0;
 
@@ -575,9 +575,9 @@ public class DistanceAlongShapeLibrary {
         b.append("  ");
         b.append(projection.reverse(pindex.point));
         b.append(' ');
-        b.append(_errorFormatter.format(pindex.distanceAlongShape));
+        b.append(errorFormatter.format(pindex.distanceAlongShape));
         b.append(' ');
-        b.append(_errorFormatter.format(pindex.distanceFromTarget));
+        b.append(errorFormatter.format(pindex.distanceFromTarget));
         b.append(' ');
         b.append(pindex.index);
         b.append("\n");
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.bundle.tasks.transit_graph;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a range of independent work items across a {@link ForkJoinPool}.
+ * Callers collect their inputs and apply their results in index order, so the
+ * work done here never decides the order of anything written to the graph.
+ */
+final class ParallelWorkLibrary {
+
+  /**
+   * Ranges at or below this size are processed by a single worker
+   */
+  private static final int SEQUENTIAL_THRESHOLD = 16;
+
+  interface IndexedWork {
+    public void process(int index);
+  }
+
+  private ParallelWorkLibrary() {
+
+  }
+
+  /**
+   * 
+   * @param pool the pool to run on, or null to run on the calling thread
+   * @param size the number of work items
+   * @param work invoked once for each index in [0, size)
+   */
+  public static void run(ForkJoinPool pool, int size, IndexedWork work) {
+    if (pool == null || size <= SEQUENTIAL_THRESHOLD) {
+      for (int i = 0; i < size; i++)
+        work.process(i);
+      return;
+    }
+    pool.invoke(new RangeAction(work, 0, size));
+  }
+
+  private static class RangeAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final IndexedWork _work;
+
+    private final int _from;
+
+    private final int _to;
+
+    public RangeAction(IndexedWork work, int from, int to) {
+      _work = work;
+      _from = from;
+      _to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (_to - _from <= SEQUENTIAL_THRESHOLD) {
+        for (int i = _from; i < _to; i++)
+          _work.process(i);
+        return;
+      }
+      int mid = (_from + _to) >>> 1;
+      invokeAll(new RangeAction(_work, _from, mid), new RangeAction(_work,
+          mid, _to));
+    }
+  }
+}
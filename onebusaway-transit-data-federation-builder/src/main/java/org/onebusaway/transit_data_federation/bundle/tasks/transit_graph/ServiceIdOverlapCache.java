@@ -45,7 +45,11 @@ public class ServiceIdOverlapCache {
     _calendarService = calendarService;
   }
 
-  public List<ServiceIdActivation> getOverlappingServiceIdCombinations(
+  /**
+   * Synchronized so that concurrent block processing always shares a single
+   * list of combinations per set of service ids.
+   */
+  public synchronized List<ServiceIdActivation> getOverlappingServiceIdCombinations(
       Set<LocalizedServiceId> serviceIds) {
 
     List<ServiceIdActivation> combinations = _cache.get(serviceIds);
@@ -22,6 +22,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.onebusaway.container.ConfigurationParameter;
 import org.onebusaway.geospatial.model.CoordinatePoint;
@@ -58,7 +59,7 @@ public class StopTimeEntriesFactory {
 
   private DistanceAlongShapeLibrary _distanceAlongShapeLibrary;
 
-  private long _invalidStopToShapeMappingExceptionCount;
+  private final AtomicLong _invalidStopToShapeMappingExceptionCount = new AtomicLong();
   
   private boolean isLenientArrivalDepartureTimes = DEFAULT_LENIENT_MODE;
 
@@ -82,7 +83,7 @@ public class StopTimeEntriesFactory {
   }
 
   public long getInvalidStopToShapeMappingExceptionCount() {
-    return _invalidStopToShapeMappingExceptionCount;
+    return _invalidStopToShapeMappingExceptionCount.get();
   }
 
   public List<StopTimeEntryImpl> processStopTimes(TransitGraphImpl graph,
@@ -263,7 +264,7 @@ private void removeDuplicateStopTimes(List<StopTime> stopTimes) {
             + point + " index=" + pindex.index + " distance="
             + pindex.distanceFromTarget);
       } catch (DistanceAlongShapeException ex) {
-        _invalidStopToShapeMappingExceptionCount++;
+        _invalidStopToShapeMappingExceptionCount.incrementAndGet();
       } catch (IllegalArgumentException iae) {
         _log.warn("Stop has illegal coordinates along shapes=" + shapePoints);
       }
@@ -16,16 +16,24 @@
  */
 package org.onebusaway.transit_data_federation.bundle.tasks.transit_graph;
 
+import java.util.concurrent.ForkJoinPool;
+
+import org.onebusaway.container.ConfigurationParameter;
 import org.onebusaway.container.refresh.RefreshService;
 import org.onebusaway.transit_data_federation.impl.RefreshableResources;
+import org.onebusaway.transit_data_federation.impl.transit_graph.ColumnarTransitGraphLibrary;
 import org.onebusaway.transit_data_federation.impl.transit_graph.TransitGraphImpl;
 import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
 import org.onebusaway.utility.ObjectSerializationLibrary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 
 public class TransitGraphTask implements Runnable {
 
+  private static Logger _log = LoggerFactory.getLogger(TransitGraphTask.class);
+
   private FederatedTransitDataBundle _bundle;
 
   private AgencyEntriesFactory _agencyEntriesFactory;
@@ -44,6 +52,8 @@ public class TransitGraphTask implements Runnable {
 
   private FrequencyEntriesFactory _frequencyEntriesFactory;
 
+  private int _parallelism = 1;
+
   @Autowired
   public void setBundle(FederatedTransitDataBundle bundle) {
     _bundle = bundle;
@@ -91,29 +101,68 @@ public class TransitGraphTask implements Runnable {
     _refreshService = refreshService;
   }
 
+  /**
+   * When greater than one, stop times and block configurations are computed on
+   * a fork-join pool of this size. Trips and blocks are still added to the
+   * graph in the same order, so the serialized graph does not change. The
+   * parallel mode expects GTFS entities to be fully loaded in memory, as they
+   * are with the default in-memory GTFS dao.
+   * 
+   * @param parallelism number of worker threads used to build the graph
+   */
+  @ConfigurationParameter
+  public void setParallelism(int parallelism) {
+    _parallelism = parallelism;
+  }
+
   @Transactional
   public void run() {
 
     TransitGraphImpl graph = new TransitGraphImpl();
 
-    _agencyEntriesFactory.processAgencies(graph);
-    _stopEntriesFactory.processStops(graph);
-    _routeEntriesFactory.processRoutes(graph);
-    _routeCollectionEntriesFactory.processRouteCollections(graph);
-    _tripEntriesFactory.processTrips(graph);
-    _blockEntriesFactory.processBlocks(graph);
-    _frequencyEntriesFactory.processFrequencies(graph);
+    ForkJoinPool pool = _parallelism > 1 ? new ForkJoinPool(_parallelism)
+        : null;
 
-    /**
-     * Make sure the graph is initialized as result of the graph building
-     * process, as it will be used by subsequent tasks
-     */
-    graph.initialize();
+    try {
+      long t = System.currentTimeMillis();
+      _agencyEntriesFactory.processAgencies(graph);
+      t = logStage("agencies", t);
+      _stopEntriesFactory.processStops(graph);
+      t = logStage("stops", t);
+      _routeEntriesFactory.processRoutes(graph);
+      t = logStage("routes", t);
+      _routeCollectionEntriesFactory.processRouteCollections(graph);
+      t = logStage("route collections", t);
+      if (pool == null)
+        _tripEntriesFactory.processTrips(graph);
+      else
+        _tripEntriesFactory.processTrips(graph, pool);
+      t = logStage("trips", t);
+      if (pool == null)
+        _blockEntriesFactory.processBlocks(graph);
+      else
+        _blockEntriesFactory.processBlocks(graph, pool);
+      t = logStage("blocks", t);
+      _frequencyEntriesFactory.processFrequencies(graph);
+      t = logStage("frequencies", t);
+
+      /**
+       * Make sure the graph is initialized as result of the graph building
+       * process, as it will be used by subsequent tasks
+       */
+      graph.initialize();
+      logStage("initialize", t);
+    } finally {
+      if (pool != null)
+        pool.shutdown();
+    }
 
     try {
 
       ObjectSerializationLibrary.writeObject(_bundle.getTransitGraphPath(),
           graph);
+      ColumnarTransitGraphLibrary.writeGraph(
+          _bundle.getTransitGraphColumnsPath(), graph);
 
     } catch (Exception ex) {
       throw new IllegalStateException("error writing graph to file", ex);
@@ -122,4 +171,17 @@ public class TransitGraphTask implements Runnable {
     _refreshService.refresh(RefreshableResources.ROUTE_COLLECTIONS_DATA);
     _refreshService.refresh(RefreshableResources.TRANSIT_GRAPH);
   }
+
+  /**
+   * 
+   * @param stage
+   * @param startTime the time the stage started
+   * @return the current time, i.e. the start time of the next stage
+   */
+  private long logStage(String stage, long startTime) {
+    long now = System.currentTimeMillis();
+    _log.info("transit graph stage " + stage + " took " + (now - startTime)
+        + " ms (parallelism=" + _parallelism + ")");
+    return now;
+  }
 }
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
 
 import org.onebusaway.container.ConfigurationParameter;
 import org.onebusaway.gtfs.model.Agency;
@@ -94,10 +95,30 @@ public class TripEntriesFactory {
   }
 
   public void processTrips(TransitGraphImpl graph) {
+    processTrips(graph, null);
+  }
+
+  /**
+   * Trips are prepared and added to the graph in route and trip order on the
+   * calling thread. Only the CPU-heavy stop time and shape distance
+   * computation is spread across the pool, so the resulting graph is the same
+   * as for a sequential build.
+   * 
+   * @param graph
+   * @param pool the pool to compute stop times on, or null to compute them on
+   *          the calling thread
+   */
+  public void processTrips(final TransitGraphImpl graph, ForkJoinPool pool) {
 
     Collection<Route> routes = _gtfsDao.getAllRoutes();
     int routeIndex = 0;
 
+    List<RouteEntryImpl> routeEntries = new ArrayList<RouteEntryImpl>(
+        routes.size());
+    List<List<PendingTrip>> pendingTripsByRoute = new ArrayList<List<PendingTrip>>(
+        routes.size());
+    final List<PendingTrip> pendingTrips = new ArrayList<PendingTrip>();
+
     for (Route route : routes) {
 
       _log.info("route processed: " + routeIndex + "/" + routes.size());
@@ -110,15 +131,43 @@ public class TripEntriesFactory {
 
       _log.info("trips to process: " + tripCount);
       int tripIndex = 0;
-      RouteEntryImpl routeEntry = graph.getRouteForId(route.getId());
-      ArrayList<TripEntry> tripEntries = new ArrayList<TripEntry>();
+      List<PendingTrip> pendingTripsForRoute = new ArrayList<PendingTrip>(
+          tripCount);
 
       for (Trip trip : tripsForRoute) {
         tripIndex++;
         if (tripIndex % logInterval == 0)
           _log.info("trips processed: " + tripIndex + "/"
               + tripsForRoute.size());
-        TripEntryImpl tripEntry = processTrip(graph, trip);
+        PendingTrip pendingTrip = prepareTrip(trip);
+        if (pendingTrip != null) {
+          pendingTripsForRoute.add(pendingTrip);
+          pendingTrips.add(pendingTrip);
+        }
+      }
+
+      routeEntries.add(graph.getRouteForId(route.getId()));
+      pendingTripsByRoute.add(pendingTripsForRoute);
+    }
+
+    ParallelWorkLibrary.run(pool, pendingTrips.size(),
+        new ParallelWorkLibrary.IndexedWork() {
+          @Override
+          public void process(int index) {
+            PendingTrip pendingTrip = pendingTrips.get(index);
+            pendingTrip.stopTimeEntries = _stopTimeEntriesFactory.processStopTimes(
+                graph, pendingTrip.stopTimes, pendingTrip.tripEntry,
+                pendingTrip.shapePoints);
+          }
+        });
+
+    for (int i = 0; i < routeEntries.size(); i++) {
+
+      RouteEntryImpl routeEntry = routeEntries.get(i);
+      ArrayList<TripEntry> tripEntries = new ArrayList<TripEntry>();
+
+      for (PendingTrip pendingTrip : pendingTripsByRoute.get(i)) {
+        TripEntryImpl tripEntry = completeTrip(graph, pendingTrip);
         if (tripEntry != null) {
           tripEntry.setRoute(routeEntry);
           tripEntries.add(tripEntry);
@@ -141,7 +190,7 @@ public class TripEntriesFactory {
     graph.refreshTripMapping();
   }
 
-  private TripEntryImpl processTrip(TransitGraphImpl graph, Trip trip) {
+  private PendingTrip prepareTrip(Trip trip) {
 
     List<StopTime> stopTimes = _gtfsDao.getStopTimesForTrip(trip);
 
@@ -169,16 +218,28 @@ public class TripEntriesFactory {
     if (!(shapePoints == null || shapePoints.isEmpty()))
       tripEntry.setShapeId(unique(trip.getShapeId()));
 
-    List<StopTimeEntryImpl> stopTimesForTrip = _stopTimeEntriesFactory.processStopTimes(
-        graph, stopTimes, tripEntry, shapePoints);
+    PendingTrip pendingTrip = new PendingTrip();
+    pendingTrip.trip = trip;
+    pendingTrip.stopTimes = stopTimes;
+    pendingTrip.shapePoints = shapePoints;
+    pendingTrip.tripEntry = tripEntry;
+    return pendingTrip;
+  }
+
+  private TripEntryImpl completeTrip(TransitGraphImpl graph,
+      PendingTrip pendingTrip) {
+
+    TripEntryImpl tripEntry = pendingTrip.tripEntry;
+    List<StopTimeEntryImpl> stopTimesForTrip = pendingTrip.stopTimeEntries;
 
     // Also:  only set the trip if there are stops for it
     if (stopTimesForTrip == null || stopTimesForTrip.size() < 2) {
-      _log.error("trip " + trip.getId() + " missing stops!");
+      _log.error("trip " + pendingTrip.trip.getId() + " missing stops!");
       return null;
     }
     
-    double tripDistance = getTripDistance(stopTimesForTrip, shapePoints);
+    double tripDistance = getTripDistance(stopTimesForTrip,
+        pendingTrip.shapePoints);
     tripEntry.setTotalTripDistance(tripDistance);
 
     tripEntry.setStopTimes(cast(stopTimesForTrip));
@@ -220,4 +281,17 @@ public class TripEntriesFactory {
   private <T> T unique(T value) {
     return _uniqueService.unique(value);
   }
+
+  private static class PendingTrip {
+
+    private Trip trip;
+
+    private List<StopTime> stopTimes;
+
+    private ShapePoints shapePoints;
+
+    private TripEntryImpl tripEntry;
+
+    private List<StopTimeEntryImpl> stopTimeEntries;
+  }
 }
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.bundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.onebusaway.transit_data_federation.bundle.model.StatusMessages;
+import org.onebusaway.transit_data_federation.bundle.model.TaskTiming;
+
+public class TaskGraphExecutorTest {
+
+  private final List<String> _order = Collections.synchronizedList(new ArrayList<String>());
+
+  @Test
+  public void testSequentialRunsInInsertionOrder() {
+    StatusMessages status = new StatusMessages();
+    TaskGraphExecutor executor = new TaskGraphExecutor(1, status);
+    executor.addTask("a", record("a"), false);
+    executor.addTask("c", record("c"), false);
+    executor.addTask("b", record("b"), true);
+    executor.addTask("d", record("d"), false);
+    executor.addDependency("a", "d");
+
+    List<TaskTiming> timings = executor.run();
+
+    assertEquals(Arrays.asList("a", "c", "b", "d"), _order);
+    assertEquals(4, timings.size());
+    assertTrue(timings.get(2).isSkipped());
+    assertTrue(timings.get(0).getPeakHeapUsage() > 0);
+    assertTrue(status.getMessages().contains("running task d (3/3)"));
+    assertTrue(status.getMessages().contains("skipping task b"));
+  }
+
+  @Test
+  public void testIndependentTasksOverlap() throws Exception {
+
+    final CountDownLatch bothStarted = new CountDownLatch(2);
+    Runnable waitForOther = new Runnable() {
+      @Override
+      public void run() {
+        bothStarted.countDown();
+        try {
+          if (!bothStarted.await(10, TimeUnit.SECONDS))
+            throw new IllegalStateException("tasks did not overlap");
+        } catch (InterruptedException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+    };
+
+    TaskGraphExecutor executor = new TaskGraphExecutor(2,
+        new StatusMessages());
+    executor.addTask("start", record("start"), false);
+    executor.addTask("left", waitForOther, false);
+    executor.addTask("right", waitForOther, false);
+    executor.addTask("end", record("end"), false);
+    executor.addDependency("start", "left");
+    executor.addDependency("start", "right");
+    executor.addDependency("left", "end");
+    executor.addDependency("right", "end");
+
+    List<TaskTiming> timings = executor.run();
+
+    assertEquals(Arrays.asList("start", "end"), _order);
+    assertEquals(4, timings.size());
+    assertEquals("start", timings.get(0).getTaskName());
+    assertEquals("end", timings.get(3).getTaskName());
+  }
+
+  @Test
+  public void testFailureStopsDependents() {
+    TaskGraphExecutor executor = new TaskGraphExecutor(2,
+        new StatusMessages());
+    executor.addTask("a", new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException("boom");
+      }
+    }, false);
+    executor.addTask("b", record("b"), false);
+    executor.addDependency("a", "b");
+
+    try {
+      executor.run();
+      fail();
+    } catch (IllegalStateException ex) {
+      assertEquals("boom", ex.getMessage());
+    }
+    assertFalse(_order.contains("b"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDependencyMustFollowInsertionOrder() {
+    TaskGraphExecutor executor = new TaskGraphExecutor(1,
+        new StatusMessages());
+    executor.addTask("a", record("a"), false);
+    executor.addTask("b", record("b"), false);
+    executor.addDependency("b", "a");
+  }
+
+  private Runnable record(final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        _order.add(name);
+      }
+    };
+  }
+}
@@ -15,6 +15,7 @@
  */
 package org.onebusaway.transit_data_federation.bundle.tasks.transit_graph;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
@@ -166,5 +167,29 @@ public class BlockConfigurationEntryImplTest {
     assertEquals(4230, bst.getDistanceAlongBlock(), 0.0);
     assertSame(st6, bst.getStopTime());
     assertSame(blockTrips.get(2), bst.getTrip());
+
+    /****
+     * Packed Stop Times
+     ****/
+
+    BlockConfigurationEntryImpl impl = (BlockConfigurationEntryImpl) entry;
+    assertArrayEquals(new int[] {
+        time(6, 30), time(7, 00), time(7, 30), time(8, 00), time(8, 30),
+        time(9, 00)}, impl.getArrivalTimes());
+    assertArrayEquals(new int[] {
+        time(6, 35), time(7, 10), time(7, 35), time(8, 07), time(8, 35),
+        time(9, 02)}, impl.getDepartureTimes());
+    assertArrayEquals(new double[] {200, 800, 1410, 2610, 3330, 4230},
+        impl.getDistancesAlongBlock(), 0.0);
+
+    for (int i = 0; i < stopTimes.size(); i++) {
+      bst = stopTimes.get(i);
+      assertEquals(bst.getStopTime().getArrivalTime(),
+          entry.getArrivalTimeForIndex(i));
+      assertEquals(bst.getStopTime().getDepartureTime(),
+          entry.getDepartureTimeForIndex(i));
+      assertEquals(bst.getDistanceAlongBlock(),
+          entry.getDistanceAlongBlockForIndex(i), 0.0);
+    }
   }
 }
@@ -26,6 +26,7 @@ import org.junit.Test;
 import org.mockito.Mockito;
 import org.onebusaway.container.refresh.RefreshService;
 import org.onebusaway.transit_data_federation.impl.RefreshableResources;
+import org.onebusaway.transit_data_federation.impl.transit_graph.ColumnarTransitGraphLibrary;
 import org.onebusaway.transit_data_federation.impl.transit_graph.TransitGraphImpl;
 import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
 import org.onebusaway.utility.ObjectSerializationLibrary;
@@ -57,8 +58,12 @@ public class TransitGraphTaskTest {
     File path = File.createTempFile("TemporaryBundleDirectory-", "");
     path.delete();
 
+    File columnsPath = File.createTempFile("TemporaryBundleColumns-", "");
+    columnsPath.delete();
+
     FederatedTransitDataBundle bundle = Mockito.mock(FederatedTransitDataBundle.class);
     Mockito.when(bundle.getTransitGraphPath()).thenReturn(path);
+    Mockito.when(bundle.getTransitGraphColumnsPath()).thenReturn(columnsPath);
 
     task.setBundle(bundle);
 
@@ -81,5 +86,10 @@ public class TransitGraphTaskTest {
 
     TransitGraphImpl graph = ObjectSerializationLibrary.readObject(path);
     assertNotNull(graph);
+
+    assertTrue(columnsPath.exists());
+
+    TransitGraphImpl columnarGraph = ColumnarTransitGraphLibrary.readGraph(columnsPath);
+    assertNotNull(columnarGraph);
   }
 }
@@ -24,8 +24,10 @@ import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.
 import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stop;
 import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.time;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -44,6 +46,7 @@ import org.onebusaway.transit_data_federation.impl.transit_graph.TripEntryImpl;
 import org.onebusaway.transit_data_federation.model.ShapePoints;
 import org.onebusaway.transit_data_federation.model.ShapePointsFactory;
 import org.onebusaway.transit_data_federation.services.transit_graph.StopTimeEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.TripEntry;
 
 public class TripEntriesFactoryTest {
 
@@ -144,4 +147,106 @@ public class TripEntriesFactoryTest {
       assertSame(entry, stopTime.getTrip());
     }
   }
+
+  @Test
+  public void testParallelMatchesSequential() {
+
+    TransitGraphImpl sequential = processManyTrips(null);
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    TransitGraphImpl parallel;
+    try {
+      parallel = processManyTrips(pool);
+    } finally {
+      pool.shutdown();
+    }
+
+    List<TripEntry> expected = sequential.getRouteForId(aid("routeA")).getTrips();
+    List<TripEntry> actual = parallel.getRouteForId(aid("routeA")).getTrips();
+    assertEquals(100, expected.size());
+    assertEquals(expected.size(), actual.size());
+
+    for (int i = 0; i < expected.size(); i++) {
+      TripEntry a = expected.get(i);
+      TripEntry b = actual.get(i);
+      assertEquals(a.getId(), b.getId());
+      assertSame(b, parallel.getTripEntryForId(b.getId()));
+      assertEquals(a.getTotalTripDistance(), b.getTotalTripDistance(), 0.0);
+      assertEquals(a.getStopTimes().size(), b.getStopTimes().size());
+      for (int j = 0; j < a.getStopTimes().size(); j++) {
+        StopTimeEntry stA = a.getStopTimes().get(j);
+        StopTimeEntry stB = b.getStopTimes().get(j);
+        assertEquals(stA.getArrivalTime(), stB.getArrivalTime());
+        assertEquals(stA.getShapeDistTraveled(), stB.getShapeDistTraveled(),
+            0.0);
+        assertSame(b, stB.getTrip());
+      }
+    }
+  }
+
+  private TransitGraphImpl processManyTrips(ForkJoinPool pool) {
+
+    GtfsRelationalDao gtfsDao = Mockito.mock(GtfsRelationalDao.class);
+
+    Agency agency = new Agency();
+    agency.setId("1");
+    agency.setTimezone("America/Los_Angeles");
+
+    Route route = new Route();
+    route.setId(new AgencyAndId("1", "routeA"));
+    route.setAgency(agency);
+    Mockito.when(gtfsDao.getAllRoutes()).thenReturn(Arrays.asList(route));
+
+    Stop stopA = new Stop();
+    stopA.setId(aid("stopA"));
+    Stop stopB = new Stop();
+    stopB.setId(aid("stopB"));
+
+    List<Trip> trips = new ArrayList<Trip>();
+    for (int i = 0; i < 100; i++) {
+      Trip trip = new Trip();
+      trip.setId(new AgencyAndId("1", "trip" + i));
+      trip.setRoute(route);
+      trip.setServiceId(new AgencyAndId("1", "serviceId"));
+      trips.add(trip);
+
+      StopTime stA = new StopTime();
+      stA.setId(2 * i);
+      stA.setArrivalTime(time(6, i));
+      stA.setDepartureTime(time(6, i));
+      stA.setStopSequence(0);
+      stA.setStop(stopA);
+      stA.setTrip(trip);
+
+      StopTime stB = new StopTime();
+      stB.setId(2 * i + 1);
+      stB.setArrivalTime(time(7, i));
+      stB.setDepartureTime(time(7, i));
+      stB.setStopSequence(1);
+      stB.setStop(stopB);
+      stB.setTrip(trip);
+
+      Mockito.when(gtfsDao.getStopTimesForTrip(trip)).thenReturn(
+          Arrays.asList(stA, stB));
+    }
+    Mockito.when(gtfsDao.getTripsForRoute(route)).thenReturn(trips);
+
+    TransitGraphImpl graph = new TransitGraphImpl();
+    graph.putStopEntry(stop("stopA", 47.672207391799056, -122.387855896286));
+    graph.putStopEntry(stop("stopB", 47.66852277218285, -122.3853882639923));
+    graph.putRouteEntry(route("routeA"));
+    graph.initialize();
+
+    TripEntriesFactory factory = new TripEntriesFactory();
+    factory.setGtfsDao(gtfsDao);
+    factory.setShapePointHelper(Mockito.mock(ShapePointHelper.class));
+    factory.setUniqueService(new UniqueServiceImpl());
+
+    StopTimeEntriesFactory stopTimeEntriesFactory = new StopTimeEntriesFactory();
+    stopTimeEntriesFactory.setDistanceAlongShapeLibrary(new DistanceAlongShapeLibrary());
+    factory.setStopTimeEntriesFactory(stopTimeEntriesFactory);
+
+    factory.processTrips(graph, pool);
+    return graph;
+  }
 }
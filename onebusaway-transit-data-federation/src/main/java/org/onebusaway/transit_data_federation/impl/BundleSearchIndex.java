@@ -0,0 +1,344 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.StringHelper;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.BytesRefFSTEnum;
+import org.apache.lucene.util.fst.BytesRefFSTEnum.InputOutput;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.transit_data_federation.model.SearchResult;
+
+/**
+ * A stop or route search index from the bundle, opened once per refresh and
+ * shared by all searches.
+ * 
+ * Along with the {@link IndexSearcher} (with its similarity fixed at open
+ * time), the index keeps the {@link AgencyAndId} of every document, read from
+ * doc values when the bundle has them, so that hits never load stored
+ * documents. It also supports typeahead completion: every indexed token of the
+ * suggest fields is mapped through an {@link FST} to the sorted list of
+ * documents containing it, and a prefix lookup walks the FST's range of
+ * matching tokens.
+ */
+final class BundleSearchIndex {
+
+  private static final float EXACT_TOKEN_SCORE = 1.0f;
+
+  private static final float PREFIX_TOKEN_SCORE = 0.5f;
+
+  private final IndexSearcher _searcher;
+
+  private final AgencyAndId[] _idsByDoc;
+
+  /**
+   * Maps each token to its ordinal in {@link #_docsByToken}, or null if the
+   * suggest fields are empty
+   */
+  private final FST<Long> _tokens;
+
+  private final int[][] _docsByToken;
+
+  private BundleSearchIndex(IndexSearcher searcher, AgencyAndId[] idsByDoc,
+      FST<Long> tokens, int[][] docsByToken) {
+    _searcher = searcher;
+    _idsByDoc = idsByDoc;
+    _tokens = tokens;
+    _docsByToken = docsByToken;
+  }
+
+  /**
+   * @param path the index directory
+   * @param loadIntoMemory when true, the index files are copied onto the heap
+   *          instead of being read from disk
+   * @param similarity the similarity for all searches, or null for the Lucene
+   *          default
+   * @param agencyIdField
+   * @param idField
+   * @param suggestFields the tokenized fields to complete prefixes against
+   * @return the opened index
+   * @throws IOException
+   */
+  public static BundleSearchIndex open(File path, boolean loadIntoMemory,
+      Similarity similarity, String agencyIdField, String idField,
+      String... suggestFields) throws IOException {
+
+    Directory directory = FSDirectory.open(path.toPath());
+    if (loadIntoMemory) {
+      FSDirectory fsDirectory = (FSDirectory) directory;
+      directory = new RAMDirectory(fsDirectory, IOContext.READONCE);
+      fsDirectory.close();
+    }
+
+    IndexReader reader = DirectoryReader.open(directory);
+    IndexSearcher searcher = new IndexSearcher(reader);
+    if (similarity != null)
+      searcher.setSimilarity(similarity);
+
+    AgencyAndId[] idsByDoc = readIds(reader, agencyIdField, idField);
+
+    TreeMap<BytesRef, List<Integer>> docsByToken = readDocsByToken(reader,
+        suggestFields);
+    Builder<Long> builder = new Builder<Long>(FST.INPUT_TYPE.BYTE1,
+        PositiveIntOutputs.getSingleton());
+    IntsRefBuilder scratch = new IntsRefBuilder();
+    int[][] postings = new int[docsByToken.size()][];
+    int ordinal = 0;
+    for (Map.Entry<BytesRef, List<Integer>> entry : docsByToken.entrySet()) {
+      builder.add(Util.toIntsRef(entry.getKey(), scratch), (long) ordinal);
+      postings[ordinal++] = toSortedUniqueArray(entry.getValue());
+    }
+    FST<Long> tokens = builder.finish();
+
+    return new BundleSearchIndex(searcher, idsByDoc, tokens, postings);
+  }
+
+  public IndexSearcher getSearcher() {
+    return _searcher;
+  }
+
+  public IndexReader getReader() {
+    return _searcher.getIndexReader();
+  }
+
+  /**
+   * @param doc a document number from a search of {@link #getSearcher()}
+   * @return the id of the document, or null if it has been deleted
+   */
+  public AgencyAndId getId(int doc) {
+    return _idsByDoc[doc];
+  }
+
+  /**
+   * Typeahead completion: finds the documents where each word of the prefix
+   * starts one of the document's tokens, so "pi st" matches "Pine St". A word
+   * matching a whole token scores higher than one matching only its start.
+   * 
+   * @param prefix the text typed so far
+   * @param maxResultCount maximum number of results to return
+   * @return the matching ids, best scores first
+   * @throws IOException
+   */
+  public SearchResult<AgencyAndId> suggest(String prefix, int maxResultCount)
+      throws IOException {
+
+    List<String> words = getWords(prefix);
+    if (_tokens == null || words.isEmpty() || maxResultCount <= 0)
+      return new SearchResult<AgencyAndId>();
+
+    /**
+     * The number of words matched so far by each document, and its score.
+     * Only documents matching the first word can match them all, so those are
+     * the candidates.
+     */
+    int[] matchedWords = new int[_idsByDoc.length];
+    float[] scores = new float[_idsByDoc.length];
+    List<Integer> candidates = new ArrayList<Integer>();
+
+    for (int w = 0; w < words.size(); w++) {
+      BytesRef target = new BytesRef(words.get(w));
+      BytesRefFSTEnum<Long> tokens = new BytesRefFSTEnum<Long>(_tokens);
+
+      /**
+       * Tokens come back in order, so a token equal to the word comes first
+       * and the first match of a document for a word is its best one
+       */
+      for (InputOutput<Long> token = tokens.seekCeil(target); token != null
+          && StringHelper.startsWith(token.input, target); token = tokens.next()) {
+        float score = token.input.length == target.length ? EXACT_TOKEN_SCORE
+            : PREFIX_TOKEN_SCORE;
+        for (int doc : _docsByToken[token.output.intValue()]) {
+          if (matchedWords[doc] != w)
+            continue;
+          matchedWords[doc] = w + 1;
+          scores[doc] += score;
+          if (w == 0)
+            candidates.add(doc);
+        }
+      }
+    }
+
+    List<Integer> docs = new ArrayList<Integer>();
+    for (int doc : candidates) {
+      if (matchedWords[doc] == words.size() && _idsByDoc[doc] != null)
+        docs.add(doc);
+    }
+    Collections.sort(docs, new DocScoreComparator(scores));
+
+    Set<AgencyAndId> seen = new HashSet<AgencyAndId>();
+    List<AgencyAndId> ids = new ArrayList<AgencyAndId>();
+    List<Float> idScores = new ArrayList<Float>();
+    for (int doc : docs) {
+      if (ids.size() == maxResultCount)
+        break;
+      AgencyAndId id = _idsByDoc[doc];
+      if (seen.add(id)) {
+        ids.add(id);
+        idScores.add(scores[doc]);
+      }
+    }
+
+    double[] results = new double[ids.size()];
+    for (int i = 0; i < results.length; i++)
+      results[i] = idScores.get(i);
+    return new SearchResult<AgencyAndId>(ids, results);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private static AgencyAndId[] readIds(IndexReader reader,
+      String agencyIdField, String idField) throws IOException {
+
+    AgencyAndId[] ids = new AgencyAndId[reader.maxDoc()];
+    Bits liveDocs = MultiFields.getLiveDocs(reader);
+
+    SortedDocValues agencyIds = MultiDocValues.getSortedValues(reader,
+        agencyIdField);
+    SortedDocValues localIds = MultiDocValues.getSortedValues(reader, idField);
+
+    if (agencyIds != null && localIds != null) {
+      for (int doc = 0; doc < ids.length; doc++) {
+        if (liveDocs != null && !liveDocs.get(doc))
+          continue;
+        if (agencyIds.advanceExact(doc) && localIds.advanceExact(doc)) {
+          ids[doc] = new AgencyAndId(agencyIds.binaryValue().utf8ToString(),
+              localIds.binaryValue().utf8ToString());
+        }
+      }
+    } else {
+      // Bundles built before the ids were indexed as doc values
+      Set<String> fields = new HashSet<String>(Arrays.asList(agencyIdField,
+          idField));
+      for (int doc = 0; doc < ids.length; doc++) {
+        if (liveDocs != null && !liveDocs.get(doc))
+          continue;
+        Document document = reader.document(doc, fields);
+        ids[doc] = new AgencyAndId(document.get(agencyIdField),
+            document.get(idField));
+      }
+    }
+
+    return ids;
+  }
+
+  private static TreeMap<BytesRef, List<Integer>> readDocsByToken(
+      IndexReader reader, String[] fields) throws IOException {
+
+    TreeMap<BytesRef, List<Integer>> docsByToken = new TreeMap<BytesRef, List<Integer>>();
+    Bits liveDocs = MultiFields.getLiveDocs(reader);
+
+    for (String field : fields) {
+      Terms terms = MultiFields.getTerms(reader, field);
+      if (terms == null)
+        continue;
+      TermsEnum termsEnum = terms.iterator();
+      PostingsEnum postings = null;
+      for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+        List<Integer> docs = docsByToken.get(term);
+        if (docs == null) {
+          docs = new ArrayList<Integer>();
+          docsByToken.put(BytesRef.deepCopyOf(term), docs);
+        }
+        postings = termsEnum.postings(postings, PostingsEnum.NONE);
+        for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+          if (liveDocs == null || liveDocs.get(doc))
+            docs.add(doc);
+        }
+      }
+    }
+
+    return docsByToken;
+  }
+
+  private static int[] toSortedUniqueArray(List<Integer> values) {
+    Collections.sort(values);
+    int[] array = new int[values.size()];
+    int n = 0;
+    for (int value : values) {
+      if (n == 0 || array[n - 1] != value)
+        array[n++] = value;
+    }
+    return Arrays.copyOf(array, n);
+  }
+
+  /**
+   * Splits the typed text into lower-case words the same way the indexed
+   * names were tokenized, closely enough for completion
+   */
+  private static List<String> getWords(String text) {
+    List<String> words = new ArrayList<String>();
+    if (text == null)
+      return words;
+    for (String word : text.toLowerCase().split("[^\\p{L}\\p{N}']+")) {
+      if (!word.isEmpty())
+        words.add(word);
+    }
+    return words;
+  }
+
+  private static class DocScoreComparator implements Comparator<Integer> {
+
+    private final float[] _scores;
+
+    public DocScoreComparator(float[] scores) {
+      _scores = scores;
+    }
+
+    @Override
+    public int compare(Integer a, Integer b) {
+      int c = Float.compare(_scores[b], _scores[a]);
+      if (c != 0)
+        return c;
+      return a.compareTo(b);
+    }
+  }
+}
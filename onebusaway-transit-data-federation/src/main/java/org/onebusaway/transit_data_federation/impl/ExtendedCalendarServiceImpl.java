@@ -15,7 +15,6 @@
  */
 package org.onebusaway.transit_data_federation.impl;
 
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
@@ -26,19 +25,19 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
 
 import javax.annotation.PostConstruct;
 
 import net.sf.ehcache.Cache;
-import net.sf.ehcache.Element;
 
 import org.onebusaway.collections.CollectionsLibrary;
 import org.onebusaway.container.cache.Cacheable;
 import org.onebusaway.container.refresh.Refreshable;
-import org.onebusaway.gtfs.model.calendar.LocalizedServiceId;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.onebusaway.gtfs.model.calendar.ServiceInterval;
 import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.onebusaway.transit_data_federation.impl.ServiceCalendarIndex.ServiceDays;
 import org.onebusaway.transit_data_federation.services.ExtendedCalendarService;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockEntry;
@@ -50,15 +49,17 @@ import org.springframework.stereotype.Component;
 @Component
 public class ExtendedCalendarServiceImpl implements ExtendedCalendarService {
 
+  private static final long DAY = 24 * 60 * 60 * 1000L;
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
   private CalendarService _calendarService;
 
   private TransitGraphDao _transitGraphDao;
 
-  private Map<ServiceIdActivation, List<Date>> _serviceDatesByServiceIds = new HashMap<ServiceIdActivation, List<Date>>();
+  private volatile ServiceCalendarIndex _calendarIndex;
 
-  private double _serviceDateRangeCacheInterval = 4 * 60 * 60;
-
-  private Cache _serviceDateRangeCache;
+  private Map<ServiceIdActivation, List<Date>> _serviceDatesByServiceIds = new HashMap<ServiceIdActivation, List<Date>>();
 
   private int _serviceDateLowerBoundsInWeeks = -1;
 
@@ -75,6 +76,7 @@ public class ExtendedCalendarServiceImpl implements ExtendedCalendarService {
   @Autowired
   public void setCalendarService(CalendarService calendarService) {
     _calendarService = calendarService;
+    _calendarIndex = new ServiceCalendarIndex(calendarService);
   }
 
   @Autowired
@@ -82,17 +84,28 @@ public class ExtendedCalendarServiceImpl implements ExtendedCalendarService {
     _transitGraphDao = transitGraphDao;
   }
 
+  /**
+   * @deprecated range queries are now answered directly from the compact
+   *             service calendar, so this setting has no effect
+   */
+  @Deprecated
   public void setServiceDateRangeCacheInterval(int hours) {
-    _serviceDateRangeCacheInterval = hours * 60 * 60;
+    // no-op
   }
 
+  /**
+   * @deprecated range queries are now answered directly from the compact
+   *             service calendar, so this cache is no longer used
+   */
+  @Deprecated
   public void setServiceDateRangeCache(Cache serviceDateRangeCache) {
-    _serviceDateRangeCache = serviceDateRangeCache;
+    // no-op
   }
 
   @PostConstruct
   @Refreshable(dependsOn = RefreshableResources.CALENDAR_DATA)
   public void start() {
+    _calendarIndex = new ServiceCalendarIndex(_calendarService);
     cacheServiceDatesForServiceIds();
   }
 
@@ -101,29 +114,17 @@ public class ExtendedCalendarServiceImpl implements ExtendedCalendarService {
   public Set<ServiceDate> getServiceDatesForServiceIds(
       ServiceIdActivation serviceIds) {
 
-    Set<ServiceDate> serviceDates = null;
+    ServiceDays days = _calendarIndex.getServiceDays(serviceIds);
+    if (days.size() == 0)
+      return Collections.emptySet();
 
-    List<LocalizedServiceId> activeServiceIds = serviceIds.getActiveServiceIds();
-    List<LocalizedServiceId> inactiveServiceIds = serviceIds.getInactiveServiceIds();
-
-    for (LocalizedServiceId activeServiceId : activeServiceIds) {
-
-      Set<ServiceDate> dates = _calendarService.getServiceDatesForServiceId(activeServiceId.getId());
-      if (dates.isEmpty())
-        return Collections.emptySet();
-      if (serviceDates == null)
-        serviceDates = new HashSet<ServiceDate>(dates);
-      else
-        serviceDates.retainAll(dates);
-      if (serviceDates.isEmpty())
-        return Collections.emptySet();
+    Calendar c = Calendar.getInstance(UTC);
+    Set<ServiceDate> serviceDates = new HashSet<ServiceDate>();
+    for (int i = 0; i < days.size(); i++) {
+      c.setTimeInMillis(days.getDay(i) * DAY);
+      serviceDates.add(new ServiceDate(c.get(Calendar.YEAR),
+          c.get(Calendar.MONTH) + 1, c.get(Calendar.DAY_OF_MONTH)));
     }
-
-    for (LocalizedServiceId inactiveServiceId : inactiveServiceIds) {
-      Set<ServiceDate> dates = _calendarService.getServiceDatesForServiceId(inactiveServiceId.getId());
-      serviceDates.removeAll(dates);
-    }
-
     return serviceDates;
   }
 
@@ -131,96 +132,43 @@ public class ExtendedCalendarServiceImpl implements ExtendedCalendarService {
   @Override
   public Set<Date> getDatesForServiceIds(ServiceIdActivation serviceIds) {
 
-    Set<Date> serviceDates = null;
-
-    List<LocalizedServiceId> activeServiceIds = serviceIds.getActiveServiceIds();
-    List<LocalizedServiceId> inactiveServiceIds = serviceIds.getInactiveServiceIds();
-
-    for (LocalizedServiceId activeServiceId : activeServiceIds) {
-
-      List<Date> dates = _calendarService.getDatesForLocalizedServiceId(activeServiceId);
-      if (dates.isEmpty())
-        return Collections.emptySet();
-      if (serviceDates == null)
-        serviceDates = new HashSet<Date>(dates);
-      else
-        serviceDates.retainAll(dates);
-      if (serviceDates.isEmpty())
-        return Collections.emptySet();
-    }
-
-    for (LocalizedServiceId inactiveServiceId : inactiveServiceIds) {
-      List<Date> dates = _calendarService.getDatesForLocalizedServiceId(inactiveServiceId);
-      serviceDates.removeAll(dates);
-    }
+    ServiceDays days = _calendarIndex.getServiceDays(serviceIds);
+    if (days.size() == 0)
+      return Collections.emptySet();
 
+    Set<Date> serviceDates = new HashSet<Date>();
+    for (long serviceDate : days.getServiceDates())
+      serviceDates.add(new Date(serviceDate));
     return serviceDates;
   }
 
   @Cacheable
   public List<Date> getDatesForServiceIdsAsOrderedList(
       ServiceIdActivation serviceIds) {
-    Set<Date> dates = getDatesForServiceIds(serviceIds);
-    List<Date> list = new ArrayList<Date>(dates);
-    Collections.sort(list);
-    return list;
+    ServiceDays days = _calendarIndex.getServiceDays(serviceIds);
+    return toDates(days.getServiceDates());
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public Collection<Date> getServiceDatesWithinRange(
       ServiceIdActivation serviceIds, ServiceInterval interval, Date from,
       Date to) {
+    return toDates(getServiceDateTimesWithinRange(serviceIds, interval,
+        from.getTime(), to.getTime()));
+  }
 
-    if (_serviceDateRangeCache == null)
-      return getServiceDatesWithinRangeExact(serviceIds, interval, from, to);
-
-    ServiceDateRangeKey key = getCacheKey(serviceIds, interval, from, to);
-    Element element = _serviceDateRangeCache.get(key);
-
-    if (element == null) {
-
-      serviceIds = key.getServiceIds();
-      interval = key.getInterval();
-      from = key.getFromTime();
-      to = key.getToTime();
-
-      Collection<Date> values = getServiceDatesWithinRangeExact(serviceIds,
-          interval, from, to);
-
-      element = new Element(key, values);
-      _serviceDateRangeCache.put(element);
-    }
-
-    return (Collection<Date>) element.getValue();
+  @Override
+  public long[] getServiceDateTimesWithinRange(ServiceIdActivation serviceIds,
+      ServiceInterval interval, long from, long to) {
+    ServiceDays days = _calendarIndex.getServiceDays(serviceIds);
+    return days.getServiceDatesWithinRange(interval, from, to);
   }
 
   @Override
-  @Cacheable
   public boolean areServiceIdsActiveOnServiceDate(
       ServiceIdActivation serviceIds, Date serviceDate) {
-
-    List<LocalizedServiceId> activeServiceIds = serviceIds.getActiveServiceIds();
-    List<LocalizedServiceId> inactiveServiceIds = serviceIds.getInactiveServiceIds();
-
-    // 95% of configs look like this
-    if (activeServiceIds.size() == 1 && inactiveServiceIds.isEmpty()) {
-      LocalizedServiceId lsid = activeServiceIds.get(0);
-      return _calendarService.isLocalizedServiceIdActiveOnDate(lsid,
-          serviceDate);
-    }
-
-    for (LocalizedServiceId lsid : activeServiceIds) {
-      if (!_calendarService.isLocalizedServiceIdActiveOnDate(lsid, serviceDate))
-        return false;
-    }
-
-    for (LocalizedServiceId lsid : inactiveServiceIds) {
-      if (_calendarService.isLocalizedServiceIdActiveOnDate(lsid, serviceDate))
-        return false;
-    }
-
-    return true;
+    ServiceDays days = _calendarIndex.getServiceDays(serviceIds);
+    return days.contains(serviceDate.getTime());
   }
 
   @Override
@@ -333,83 +281,15 @@ public class ExtendedCalendarServiceImpl implements ExtendedCalendarService {
    * Private Methods
    ****/
 
-  private ServiceDateRangeKey getCacheKey(ServiceIdActivation serviceIds,
-      ServiceInterval interval, Date from, Date to) {
-
-    Serializable serviceIdsKey = getServiceIdsKey(serviceIds);
-    int fromStopTime = (int) (Math.floor(interval.getMinArrival()
-        / _serviceDateRangeCacheInterval) * _serviceDateRangeCacheInterval);
-    int toStopTime = (int) (Math.ceil(interval.getMaxDeparture()
-        / _serviceDateRangeCacheInterval) * _serviceDateRangeCacheInterval);
-    double m = _serviceDateRangeCacheInterval * 1000;
-    long fromTime = (long) (Math.floor(from.getTime() / m) * m);
-    long toTime = (long) (Math.ceil(to.getTime() / m) * m);
-    return new ServiceDateRangeKey(serviceIdsKey, fromStopTime, toStopTime,
-        fromTime, toTime);
-  }
-
-  private Serializable getServiceIdsKey(ServiceIdActivation serviceIds) {
-
-    List<LocalizedServiceId> activeServiceIds = serviceIds.getActiveServiceIds();
-    List<LocalizedServiceId> inactiveServiceIds = serviceIds.getInactiveServiceIds();
-
-    if (activeServiceIds.size() == 1 && inactiveServiceIds.isEmpty())
-      return activeServiceIds.get(0);
-
-    return serviceIds;
-  }
-
-  private Collection<Date> getServiceDatesWithinRangeExact(
-      ServiceIdActivation serviceIds, ServiceInterval interval, Date from,
-      Date to) {
-    Set<Date> serviceDates = null;
-
-    List<LocalizedServiceId> activeServiceIds = serviceIds.getActiveServiceIds();
-    List<LocalizedServiceId> inactiveServiceIds = serviceIds.getInactiveServiceIds();
-
-    // System.out.println(serviceIds + " " + interval + " " + from + " " + to);
-
-    // 95% of configs look like this
-    if (activeServiceIds.size() == 1 && inactiveServiceIds.isEmpty())
-      return _calendarService.getServiceDatesWithinRange(
-          activeServiceIds.get(0), interval, from, to);
-
-    for (LocalizedServiceId serviceId : activeServiceIds) {
-      List<Date> dates = _calendarService.getServiceDatesWithinRange(serviceId,
-          interval, from, to);
-
-      // If the dates are ever empty here, we can short circuit to no dates
-      if (dates.isEmpty())
-        return Collections.emptyList();
-
-      if (serviceDates == null)
-        serviceDates = new HashSet<Date>(dates);
-      else
-        serviceDates.retainAll(serviceDates);
-
-      // If the dates are empty here after the intersection operation, we can
-      // short circuit to no dates
-      if (serviceDates.isEmpty())
-        return Collections.emptyList();
-    }
-
-    if (!inactiveServiceIds.isEmpty()) {
-      for (LocalizedServiceId serviceId : inactiveServiceIds) {
-        List<Date> dates = _calendarService.getServiceDatesWithinRange(
-            serviceId, interval, from, to);
-        serviceDates.removeAll(dates);
-      }
-    }
-
-    return serviceDates;
+  private static List<Date> toDates(long[] serviceDates) {
+    List<Date> dates = new ArrayList<Date>(serviceDates.length);
+    for (long serviceDate : serviceDates)
+      dates.add(new Date(serviceDate));
+    return dates;
   }
 
   private void cacheServiceDatesForServiceIds() {
 
-    if(_serviceDateRangeCache != null) {
-      _serviceDateRangeCache.removeAll();
-    }
-    
     _serviceDatesByServiceIds.clear();
     
     Set<ServiceIdActivation> allServiceIds = determineAllServiceIds();
@@ -450,110 +330,15 @@ public class ExtendedCalendarServiceImpl implements ExtendedCalendarService {
 
   private List<Date> computeServiceDatesForServiceIds(
       ServiceIdActivation serviceIds, Date lowerBounds, Date upperBounds) {
-    Set<Date> serviceDates = null;
-
-    for (LocalizedServiceId lsid : serviceIds.getActiveServiceIds()) {
-      List<Date> dates = _calendarService.getDatesForLocalizedServiceId(lsid);
-      if (dates == null)
-        dates = Collections.emptyList();
-      if (serviceDates == null)
-        serviceDates = new HashSet<Date>(dates);
-      else
-        serviceDates.retainAll(dates);
-    }
 
-    for (LocalizedServiceId lsid : serviceIds.getInactiveServiceIds()) {
-      List<Date> dates = _calendarService.getDatesForLocalizedServiceId(lsid);
-      if (serviceDates != null)
-        serviceDates.removeAll(dates);
-    }
+    ServiceDays days = _calendarIndex.getServiceDays(serviceIds);
 
     List<Date> dates = new ArrayList<Date>();
-    if (serviceDates != null) {
-      for (Date serviceDate : serviceDates) {
-        if ((lowerBounds == null || lowerBounds.before(serviceDate))
-            && (upperBounds == null || serviceDate.before(upperBounds)))
-          dates.add(serviceDate);
-      }
+    for (long serviceDate : days.getServiceDates()) {
+      if ((lowerBounds == null || lowerBounds.getTime() < serviceDate)
+          && (upperBounds == null || serviceDate < upperBounds.getTime()))
+        dates.add(new Date(serviceDate));
     }
-
-    Collections.sort(dates);
     return dates;
   }
-
-  private class ServiceDateRangeKey {
-    private final Serializable _serviceIds;
-    private final int _fromStopTime;
-    private final int _toStopTime;
-    private final long _fromTime;
-    private final long _toTime;
-
-    public ServiceDateRangeKey(Serializable serviceIds, int fromStopTime,
-        int toStopTime, long fromTime, long toTime) {
-      if (serviceIds == null)
-        throw new IllegalStateException("serviceIds cannot be null");
-      _serviceIds = serviceIds;
-      _fromStopTime = fromStopTime;
-      _toStopTime = toStopTime;
-      _fromTime = fromTime;
-      _toTime = toTime;
-    }
-
-    public ServiceIdActivation getServiceIds() {
-      if (_serviceIds instanceof ServiceIdActivation) {
-        return (ServiceIdActivation) _serviceIds;
-      } else if (_serviceIds instanceof LocalizedServiceId) {
-        return new ServiceIdActivation((LocalizedServiceId) _serviceIds);
-      } else {
-        throw new IllegalStateException("unknown service id type: "
-            + _serviceIds);
-      }
-    }
-
-    public ServiceInterval getInterval() {
-      return new ServiceInterval(_fromStopTime, _toStopTime);
-    }
-
-    public Date getFromTime() {
-      return new Date(_fromTime);
-    }
-
-    public Date getToTime() {
-      return new Date(_toTime);
-    }
-
-    @Override
-    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result + _fromStopTime;
-      result = prime * result + (int) (_fromTime ^ (_fromTime >>> 32));
-      result = prime * result + _serviceIds.hashCode();
-      result = prime * result + _toStopTime;
-      result = prime * result + (int) (_toTime ^ (_toTime >>> 32));
-      return result;
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj)
-        return true;
-      if (obj == null)
-        return false;
-      if (getClass() != obj.getClass())
-        return false;
-      ServiceDateRangeKey other = (ServiceDateRangeKey) obj;
-      if (_fromStopTime != other._fromStopTime)
-        return false;
-      if (_fromTime != other._fromTime)
-        return false;
-      if (!_serviceIds.equals(other._serviceIds))
-        return false;
-      if (_toStopTime != other._toStopTime)
-        return false;
-      if (_toTime != other._toTime)
-        return false;
-      return true;
-    }
-  }
 }
@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -32,16 +33,14 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.FSDirectory;
+import org.onebusaway.container.ConfigurationParameter;
 import org.onebusaway.container.refresh.Refreshable;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data_federation.model.SearchResult;
@@ -71,13 +70,26 @@ public class RouteCollectionSearchServiceImpl implements
 
   private FederatedTransitDataBundle _bundle;
 
-  private IndexSearcher _searcher;
+  private boolean _loadIndexIntoMemory = false;
+
+  private RouteIndex _index;
 
   @Autowired
   public void setBundle(FederatedTransitDataBundle bundle) {
     _bundle = bundle;
   }
 
+  /**
+   * When true, the route search index is copied onto the heap at startup
+   * rather than read from the bundle directory.
+   * 
+   * @param loadIndexIntoMemory
+   */
+  @ConfigurationParameter
+  public void setLoadIndexIntoMemory(boolean loadIndexIntoMemory) {
+    _loadIndexIntoMemory = loadIndexIntoMemory;
+  }
+
   @PostConstruct
   @Refreshable(dependsOn = RefreshableResources.ROUTE_COLLECTION_SEARCH_DATA)
   public void initialize() throws IOException {
@@ -85,10 +97,14 @@ public class RouteCollectionSearchServiceImpl implements
     File path = _bundle.getRouteSearchIndexPath();
 
     if (path.exists()) {
-      IndexReader reader = DirectoryReader.open(FSDirectory.open(path.toPath()));
-      _searcher = new IndexSearcher(reader);
+      BundleSearchIndex index = BundleSearchIndex.open(path,
+          _loadIndexIntoMemory, null,
+          RouteCollectionSearchIndexConstants.FIELD_ROUTE_COLLECTION_AGENCY_ID,
+          RouteCollectionSearchIndexConstants.FIELD_ROUTE_COLLECTION_ID,
+          NAME_FIELDS);
+      _index = new RouteIndex(index, readShortNameTokens(index.getReader()));
     } else {
-      _searcher = null;
+      _index = null;
     }
   }
 
@@ -100,41 +116,39 @@ public class RouteCollectionSearchServiceImpl implements
         maxResultCount, minScoreToKeep);
   }
 
+  @Override
+  public SearchResult<AgencyAndId> searchForRoutesByNamePrefix(String prefix,
+      int maxResultCount) throws IOException {
+    RouteIndex index = _index;
+    if (index == null)
+      return new SearchResult<AgencyAndId>();
+    return index.searchIndex.suggest(prefix, maxResultCount);
+  }
+
   private SearchResult<AgencyAndId> search(QueryParser parser, String value,
       int maxResultCount, double minScoreToKeep) throws IOException,
       ParseException {
 
-    if (_searcher == null)
+    RouteIndex routeIndex = _index;
+    if (routeIndex == null)
       return new SearchResult<AgencyAndId>();
 
     Query query = parser.parse(value);
-    TopDocs top = _searcher.search(query, maxResultCount);
+    TopDocs top = routeIndex.searchIndex.getSearcher().search(query, maxResultCount);
 
     Map<AgencyAndId, Float> topScores = new HashMap<AgencyAndId, Float>();
 
     String lowerCaseQueryValue = value.toLowerCase();
 
     for (ScoreDoc sd : top.scoreDocs) {
-      Document document = _searcher.doc(sd.doc);
-
-      String routeShortName = document.get(RouteCollectionSearchIndexConstants.FIELD_ROUTE_SHORT_NAME);
-
-      Set<String> tokens = new HashSet<String>();
-      if (routeShortName != null) {
-        for (String token : routeShortName.toLowerCase().split("\\b")) {
-          if (!token.isEmpty())
-            tokens.add(token);
-        }
-      }
+      Set<String> tokens = routeIndex.shortNameTokensByDoc.get(sd.doc);
 
       // Result must have a minimum score to qualify
       if (sd.score < minScoreToKeep && !tokens.contains(lowerCaseQueryValue))
         continue;
 
       // Keep the best score for a particular id
-      String agencyId = document.get(RouteCollectionSearchIndexConstants.FIELD_ROUTE_COLLECTION_AGENCY_ID);
-      String id = document.get(RouteCollectionSearchIndexConstants.FIELD_ROUTE_COLLECTION_ID);
-      AgencyAndId routeId = new AgencyAndId(agencyId, id);
+      AgencyAndId routeId = routeIndex.searchIndex.getId(sd.doc);
       Float score = topScores.get(routeId);
       if (score == null || score < sd.score)
         topScores.put(routeId, sd.score);
@@ -152,4 +166,40 @@ public class RouteCollectionSearchServiceImpl implements
 
     return new SearchResult<AgencyAndId>(ids, scores);
   }
+
+  private static List<Set<String>> readShortNameTokens(IndexReader reader)
+      throws IOException {
+    Set<String> fields = Collections.singleton(RouteCollectionSearchIndexConstants.FIELD_ROUTE_SHORT_NAME);
+    List<Set<String>> tokensByDoc = new ArrayList<Set<String>>(reader.maxDoc());
+    for (int doc = 0; doc < reader.maxDoc(); doc++) {
+      Set<String> tokens = new HashSet<String>();
+      Document document = reader.document(doc, fields);
+      String routeShortName = document.get(RouteCollectionSearchIndexConstants.FIELD_ROUTE_SHORT_NAME);
+      if (routeShortName != null) {
+        for (String token : routeShortName.toLowerCase().split("\\b")) {
+          if (!token.isEmpty())
+            tokens.add(token);
+        }
+      }
+      tokensByDoc.add(tokens);
+    }
+    return tokensByDoc;
+  }
+
+  /**
+   * The search index along with the lower-case route short name tokens of each
+   * document, so that hits don't load stored documents
+   */
+  private static class RouteIndex {
+
+    private final BundleSearchIndex searchIndex;
+
+    private final List<Set<String>> shortNameTokensByDoc;
+
+    public RouteIndex(BundleSearchIndex searchIndex,
+        List<Set<String>> shortNameTokensByDoc) {
+      this.searchIndex = searchIndex;
+      this.shortNameTokensByDoc = shortNameTokensByDoc;
+    }
+  }
 }
@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.onebusaway.gtfs.model.calendar.LocalizedServiceId;
+import org.onebusaway.gtfs.model.calendar.ServiceInterval;
+import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.onebusaway.transit_data_federation.services.transit_graph.ServiceIdActivation;
+
+/**
+ * Compact calendar used by {@link ExtendedCalendarServiceImpl}. The active days
+ * of each {@link LocalizedServiceId} are kept as a {@link ServiceDayBitSet},
+ * and the days of a {@link ServiceIdActivation} are computed by AND-ing the
+ * sets of its active service ids and AND-NOT-ing those of its inactive ones.
+ * The resulting days are also kept as a sorted array of service date times,
+ * so membership and range queries are binary searches over primitives.
+ * 
+ * Entries are computed lazily from the underlying {@link CalendarService} and
+ * kept until the index is replaced.
+ */
+final class ServiceCalendarIndex {
+
+  private static final long DAY = 24 * 60 * 60 * 1000L;
+
+  private static final long HALF_DAY = DAY / 2;
+
+  private final CalendarService _calendarService;
+
+  private final ConcurrentMap<LocalizedServiceId, ServiceDays> _daysByServiceId = new ConcurrentHashMap<LocalizedServiceId, ServiceDays>();
+
+  private final ConcurrentMap<ServiceIdActivation, ServiceDays> _daysByServiceIds = new ConcurrentHashMap<ServiceIdActivation, ServiceDays>();
+
+  public ServiceCalendarIndex(CalendarService calendarService) {
+    _calendarService = calendarService;
+  }
+
+  public ServiceDays getServiceDays(ServiceIdActivation serviceIds) {
+    ServiceDays days = _daysByServiceIds.get(serviceIds);
+    if (days == null) {
+      days = computeServiceDays(serviceIds);
+      _daysByServiceIds.put(serviceIds, days);
+    }
+    return days;
+  }
+
+  /**
+   * Service dates are "noon minus twelve hours" in the local time zone, so
+   * local noon is always twelve hours after the service date and is never
+   * affected by a daylight saving transition.
+   * 
+   * @return the number of days since the epoch, in the specified time zone, of
+   *         the service date
+   */
+  public static int getServiceDay(long serviceDate, TimeZone timeZone) {
+    long noon = serviceDate + HALF_DAY;
+    long localNoon = noon + timeZone.getOffset(noon);
+    return (int) Math.floor((double) localNoon / DAY);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private ServiceDays computeServiceDays(ServiceIdActivation serviceIds) {
+
+    List<LocalizedServiceId> activeServiceIds = serviceIds.getActiveServiceIds();
+    List<LocalizedServiceId> inactiveServiceIds = serviceIds.getInactiveServiceIds();
+
+    // 95% of configs look like this
+    if (activeServiceIds.size() == 1 && inactiveServiceIds.isEmpty())
+      return getServiceDays(activeServiceIds.get(0));
+
+    ServiceDays first = null;
+    ServiceDayBitSet bits = null;
+
+    for (LocalizedServiceId lsid : activeServiceIds) {
+      ServiceDays days = getServiceDays(lsid);
+      if (first == null) {
+        first = days;
+        bits = days.getBits();
+      } else {
+        bits = bits.and(days.getBits());
+      }
+    }
+
+    if (bits == null || bits.isEmpty())
+      return ServiceDays.EMPTY;
+
+    for (LocalizedServiceId lsid : inactiveServiceIds)
+      bits = bits.andNot(getServiceDays(lsid).getBits());
+
+    /**
+     * The service date times of the remaining days are taken from the first
+     * active service id, which contains all of them
+     */
+    int[] days = bits.toDays();
+    long[] serviceDates = new long[days.length];
+    for (int i = 0; i < days.length; i++)
+      serviceDates[i] = first.getServiceDateForDay(days[i]);
+
+    return new ServiceDays(bits, days, serviceDates);
+  }
+
+  private ServiceDays getServiceDays(LocalizedServiceId lsid) {
+    ServiceDays days = _daysByServiceId.get(lsid);
+    if (days == null) {
+      days = computeServiceDays(lsid);
+      _daysByServiceId.put(lsid, days);
+    }
+    return days;
+  }
+
+  private ServiceDays computeServiceDays(LocalizedServiceId lsid) {
+
+    List<Date> dates = _calendarService.getDatesForLocalizedServiceId(lsid);
+    if (dates == null || dates.isEmpty())
+      return ServiceDays.EMPTY;
+
+    long[] serviceDates = new long[dates.size()];
+    for (int i = 0; i < serviceDates.length; i++)
+      serviceDates[i] = dates.get(i).getTime();
+    Arrays.sort(serviceDates);
+
+    TimeZone timeZone = lsid.getTimeZone();
+    int[] days = new int[serviceDates.length];
+    for (int i = 0; i < serviceDates.length; i++)
+      days[i] = getServiceDay(serviceDates[i], timeZone);
+
+    return new ServiceDays(ServiceDayBitSet.forDays(days), days, serviceDates);
+  }
+
+  /**
+   * The active days of a service id or set of service ids, both as a bit set
+   * and as parallel sorted arrays of service days and service date times.
+   */
+  public static final class ServiceDays {
+
+    public static final ServiceDays EMPTY = new ServiceDays(
+        ServiceDayBitSet.EMPTY, new int[0], new long[0]);
+
+    private final ServiceDayBitSet _bits;
+
+    private final int[] _days;
+
+    private final long[] _serviceDates;
+
+    private ServiceDays(ServiceDayBitSet bits, int[] days, long[] serviceDates) {
+      _bits = bits;
+      _days = days;
+      _serviceDates = serviceDates;
+    }
+
+    public ServiceDayBitSet getBits() {
+      return _bits;
+    }
+
+    public int size() {
+      return _serviceDates.length;
+    }
+
+    public int getDay(int index) {
+      return _days[index];
+    }
+
+    /**
+     * @return the service date times, in ascending order; callers must not
+     *         modify the array
+     */
+    public long[] getServiceDates() {
+      return _serviceDates;
+    }
+
+    public boolean contains(long serviceDate) {
+      return Arrays.binarySearch(_serviceDates, serviceDate) >= 0;
+    }
+
+    /**
+     * A service date is included when the span between the earliest arrival
+     * and the latest departure of the interval on that date overlaps the
+     * specified time range, both ends inclusive.
+     * 
+     * @return the matching service date times, in ascending order
+     */
+    public long[] getServiceDatesWithinRange(ServiceInterval interval,
+        long from, long to) {
+
+      long lower = from - interval.getMaxDeparture() * 1000L;
+      long upper = to - interval.getMinArrival() * 1000L;
+
+      int fromIndex = Arrays.binarySearch(_serviceDates, lower);
+      if (fromIndex < 0)
+        fromIndex = -(fromIndex + 1);
+
+      int toIndex = fromIndex;
+      while (toIndex < _serviceDates.length && _serviceDates[toIndex] <= upper)
+        toIndex++;
+
+      return Arrays.copyOfRange(_serviceDates, fromIndex, toIndex);
+    }
+
+    private long getServiceDateForDay(int day) {
+      int index = Arrays.binarySearch(_days, day);
+      if (index < 0)
+        throw new IllegalStateException("no service date for day " + day);
+      return _serviceDates[index];
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl;
+
+/**
+ * An immutable set of service days, where a service day is the number of days
+ * since the epoch in the local time zone of a service id. Bits are stored in
+ * 64-bit words aligned to multiples of 64 days, so that two sets can be
+ * combined word by word regardless of the range of days each covers.
+ */
+final class ServiceDayBitSet {
+
+  public static final ServiceDayBitSet EMPTY = new ServiceDayBitSet(0,
+      new long[0]);
+
+  /**
+   * Index of the word holding bit 0 of {@link #_words}, i.e. the first covered
+   * day divided by 64
+   */
+  private final int _wordOffset;
+
+  private final long[] _words;
+
+  private ServiceDayBitSet(int wordOffset, long[] words) {
+    _wordOffset = wordOffset;
+    _words = words;
+  }
+
+  public static ServiceDayBitSet forDays(int[] days) {
+    if (days.length == 0)
+      return EMPTY;
+    int min = days[0];
+    int max = days[0];
+    for (int day : days) {
+      min = Math.min(min, day);
+      max = Math.max(max, day);
+    }
+    int wordOffset = min >> 6;
+    long[] words = new long[(max >> 6) - wordOffset + 1];
+    for (int day : days)
+      words[(day >> 6) - wordOffset] |= 1L << day;
+    return new ServiceDayBitSet(wordOffset, words);
+  }
+
+  public boolean get(int day) {
+    int word = (day >> 6) - _wordOffset;
+    if (word < 0 || word >= _words.length)
+      return false;
+    return (_words[word] & (1L << day)) != 0;
+  }
+
+  public boolean isEmpty() {
+    for (long word : _words) {
+      if (word != 0)
+        return false;
+    }
+    return true;
+  }
+
+  public int cardinality() {
+    int count = 0;
+    for (long word : _words)
+      count += Long.bitCount(word);
+    return count;
+  }
+
+  /**
+   * @return the days that are set in both this set and the specified set
+   */
+  public ServiceDayBitSet and(ServiceDayBitSet other) {
+    int from = Math.max(_wordOffset, other._wordOffset);
+    int to = Math.min(_wordOffset + _words.length, other._wordOffset
+        + other._words.length);
+    if (from >= to)
+      return EMPTY;
+    long[] words = new long[to - from];
+    for (int w = from; w < to; w++)
+      words[w - from] = _words[w - _wordOffset]
+          & other._words[w - other._wordOffset];
+    return new ServiceDayBitSet(from, words);
+  }
+
+  /**
+   * @return the days that are set in this set but not in the specified set
+   */
+  public ServiceDayBitSet andNot(ServiceDayBitSet other) {
+    long[] words = _words.clone();
+    int from = Math.max(_wordOffset, other._wordOffset);
+    int to = Math.min(_wordOffset + _words.length, other._wordOffset
+        + other._words.length);
+    for (int w = from; w < to; w++)
+      words[w - _wordOffset] &= ~other._words[w - other._wordOffset];
+    return new ServiceDayBitSet(_wordOffset, words);
+  }
+
+  /**
+   * @return the set days, in ascending order
+   */
+  public int[] toDays() {
+    int[] days = new int[cardinality()];
+    int index = 0;
+    for (int w = 0; w < _words.length; w++) {
+      long word = _words[w];
+      while (word != 0) {
+        int bit = Long.numberOfTrailingZeros(word);
+        days[index++] = ((_wordOffset + w) << 6) + bit;
+        word &= word - 1;
+      }
+    }
+    return days;
+  }
+}
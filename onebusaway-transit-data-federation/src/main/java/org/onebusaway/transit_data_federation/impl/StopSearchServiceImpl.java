@@ -26,18 +26,14 @@ import javax.annotation.PostConstruct;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
-import org.apache.lucene.store.FSDirectory;
+import org.onebusaway.container.ConfigurationParameter;
 import org.onebusaway.container.refresh.Refreshable;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data_federation.model.SearchResult;
@@ -58,23 +54,45 @@ public class StopSearchServiceImpl implements StopSearchService {
 
   private FederatedTransitDataBundle _bundle;
 
-  private IndexSearcher _searcher;
+  private boolean _loadIndexIntoMemory = false;
+
+  private BundleSearchIndex _index;
 
   @Autowired
   public void setBundle(FederatedTransitDataBundle bundle) {
     _bundle = bundle;
   }
 
+  /**
+   * When true, the stop search index is copied onto the heap at startup rather
+   * than read from the bundle directory, for deployments that search on every
+   * keystroke.
+   * 
+   * @param loadIndexIntoMemory
+   */
+  @ConfigurationParameter
+  public void setLoadIndexIntoMemory(boolean loadIndexIntoMemory) {
+    _loadIndexIntoMemory = loadIndexIntoMemory;
+  }
+
   @PostConstruct
   @Refreshable(dependsOn = RefreshableResources.STOP_SEARCH_DATA)
   public void initialize() throws IOException {
     File path = _bundle.getStopSearchIndexPath();
 
     if (path.exists()) {
-      IndexReader reader = DirectoryReader.open(FSDirectory.open(path.toPath()));
-      _searcher = new IndexSearcher(reader);
+      /* NOTE:  idf changed from
+      (float)(Math.log(numDocs/(double)(docFreq+1)) + 1.0) to
+      (float)Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5))
+      sometime after version 2.4.1
+       */
+      // new default is now BM25Similarity but conflicts with MIN_SCORE
+      _index = BundleSearchIndex.open(path, _loadIndexIntoMemory,
+          new ClassicSimilarity(), StopSearchIndexConstants.FIELD_AGENCY_ID,
+          StopSearchIndexConstants.FIELD_STOP_ID,
+          StopSearchIndexConstants.FIELD_STOP_NAME);
     } else {
-      _searcher = null;
+      _index = null;
     }
   }
 
@@ -92,33 +110,32 @@ public class StopSearchServiceImpl implements StopSearchService {
         maxResultCount, minScoreToKeep);
   }
 
+  @Override
+  public SearchResult<AgencyAndId> searchForStopsByNamePrefix(String prefix,
+      int maxResultCount) throws IOException {
+    if (_index == null)
+      return new SearchResult<AgencyAndId>();
+    return _index.suggest(prefix, maxResultCount);
+  }
+
   private SearchResult<AgencyAndId> search(QueryParser parser, String value,
                                            int maxResultCount, double minScoreToKeep) throws IOException,
       ParseException {
 
-    if (_searcher == null)
+    BundleSearchIndex searchIndex = _index;
+    if (searchIndex == null)
       return new SearchResult<AgencyAndId>();
 
     Query query = parser.parse(value);
 
-    /* NOTE:  idf changed from
-    (float)(Math.log(numDocs/(double)(docFreq+1)) + 1.0) to
-    (float)Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5))
-    sometime after version 2.4.1
-     */
-    _searcher.setSimilarity(new ClassicSimilarity()); // new default is now BM25Similarity but conflicts with MIN_SCORE
-
-    TopDocs top = _searcher.search(query, maxResultCount);
+    TopDocs top = searchIndex.getSearcher().search(query, maxResultCount);
 
     Map<AgencyAndId, Float> topScores = new HashMap<AgencyAndId, Float>();
 
     for (ScoreDoc sd : top.scoreDocs) {
-      Document document = _searcher.doc(sd.doc);
       if (sd.score < minScoreToKeep)
         continue;
-      String agencyId = document.get(StopSearchIndexConstants.FIELD_AGENCY_ID);
-      String stopId = document.get(StopSearchIndexConstants.FIELD_STOP_ID);
-      AgencyAndId id = new AgencyAndId(agencyId, stopId);
+      AgencyAndId id = searchIndex.getId(sd.doc);
 
       Float existingScore = topScores.get(id);
       if (existingScore == null || existingScore < sd.score)
@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.gtfs.model.calendar.ServiceInterval;
+import org.onebusaway.transit_data_federation.impl.time.GenericBinarySearch;
+import org.onebusaway.transit_data_federation.model.StopTimeInstance;
+import org.onebusaway.transit_data_federation.services.ExtendedCalendarService;
+import org.onebusaway.transit_data_federation.services.blocks.BlockStopTimeIndex;
+import org.onebusaway.transit_data_federation.services.blocks.InstanceState;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockStopTimeEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.ServiceIdActivation;
+
+/**
+ * A per-stop index over all the {@link BlockStopTimeIndex} entries at a stop,
+ * used to answer time-range queries without walking the block configuration
+ * object graph.
+ * 
+ * Arrival and departure times for each index are packed into int arrays, so
+ * the binary searches work on primitives. Indices sharing the same
+ * {@link ServiceIdActivation} are grouped, and the service dates of a group
+ * are resolved once for the whole days spanned by a query and then reused by
+ * every index in the group, and by later queries over the same days. Matches
+ * are collected as index ranges, and {@link StopTimeInstance} objects are only
+ * created once the full result size is known.
+ */
+final class StopTimeRangeIndex {
+
+  private static final long DAY = 24 * 60 * 60 * 1000L;
+
+  private final BlockStopTimeIndex[] _indices;
+
+  private final int[][] _arrivalTimes;
+
+  private final int[][] _departureTimes;
+
+  private final int[] _groupForIndex;
+
+  private final ServiceIdActivation[] _groupServiceIds;
+
+  private final ServiceInterval[] _groupServiceIntervals;
+
+  private final ServiceDates[] _groupServiceDates;
+
+  public StopTimeRangeIndex(List<BlockStopTimeIndex> indices) {
+
+    int n = indices.size();
+    _indices = indices.toArray(new BlockStopTimeIndex[n]);
+    _arrivalTimes = new int[n][];
+    _departureTimes = new int[n][];
+    _groupForIndex = new int[n];
+
+    Map<ServiceIdActivation, Integer> groups = new LinkedHashMap<ServiceIdActivation, Integer>();
+    List<ServiceInterval> groupIntervals = new ArrayList<ServiceInterval>();
+
+    for (int i = 0; i < n; i++) {
+      BlockStopTimeIndex index = _indices[i];
+
+      int size = index.size();
+      int[] arrivals = new int[size];
+      int[] departures = new int[size];
+      for (int j = 0; j < size; j++) {
+        arrivals[j] = index.getArrivalTimeForIndex(j);
+        departures[j] = index.getDepartureTimeForIndex(j);
+      }
+      _arrivalTimes[i] = arrivals;
+      _departureTimes[i] = departures;
+
+      ServiceIdActivation serviceIds = index.getServiceIds();
+      Integer group = groups.get(serviceIds);
+      ServiceInterval interval = index.getServiceInterval();
+      if (group == null) {
+        group = groups.size();
+        groups.put(serviceIds, group);
+        groupIntervals.add(interval);
+      } else {
+        ServiceInterval existing = groupIntervals.get(group);
+        groupIntervals.set(group, new ServiceInterval(Math.min(
+            existing.getMinArrival(), interval.getMinArrival()), Math.min(
+            existing.getMinDeparture(), interval.getMinDeparture()), Math.max(
+            existing.getMaxArrival(), interval.getMaxArrival()), Math.max(
+            existing.getMaxDeparture(), interval.getMaxDeparture())));
+      }
+      _groupForIndex[i] = group;
+    }
+
+    _groupServiceIds = groups.keySet().toArray(
+        new ServiceIdActivation[groups.size()]);
+    _groupServiceIntervals = groupIntervals.toArray(new ServiceInterval[groupIntervals.size()]);
+    _groupServiceDates = new ServiceDates[_groupServiceIds.length];
+  }
+
+  /**
+   * @return true if this index was built from exactly the specified list of
+   *         stop time indices
+   */
+  public boolean isBuiltFrom(List<BlockStopTimeIndex> indices) {
+    if (indices.size() != _indices.length)
+      return false;
+    for (int i = 0; i < _indices.length; i++) {
+      if (indices.get(i) != _indices[i])
+        return false;
+    }
+    return true;
+  }
+
+  public void getStopTimeInstancesInTimeRange(
+      ExtendedCalendarService calendarService, Date from, Date to,
+      List<StopTimeInstance> results) {
+
+    long[][] serviceDatesByGroup = new long[_groupServiceIds.length][];
+
+    /**
+     * Matches are recorded as (index, service date, from, to) tuples and only
+     * materialized once we know how many there are
+     */
+    int[] matchIndices = new int[16];
+    long[] matchServiceDates = new long[16];
+    int[] matchFrom = new int[16];
+    int[] matchTo = new int[16];
+    int matchCount = 0;
+    int total = 0;
+
+    for (int i = 0; i < _indices.length; i++) {
+
+      int group = _groupForIndex[i];
+      long[] serviceDates = serviceDatesByGroup[group];
+      if (serviceDates == null) {
+        serviceDates = getServiceDatesForGroup(calendarService, group, from, to);
+        serviceDatesByGroup[group] = serviceDates;
+      }
+
+      int[] arrivals = _arrivalTimes[i];
+      int[] departures = _departureTimes[i];
+
+      for (long serviceDate : serviceDates) {
+
+        int relativeFrom = (int) ((from.getTime() - serviceDate) / 1000);
+        int relativeTo = (int) ((to.getTime() - serviceDate) / 1000);
+
+        int fromIndex = GenericBinarySearch.searchRange(departures, 0,
+            departures.length, relativeFrom);
+        int toIndex = GenericBinarySearch.searchRange(arrivals, 0,
+            arrivals.length, relativeTo);
+
+        if (fromIndex >= toIndex)
+          continue;
+
+        if (matchCount == matchIndices.length) {
+          int capacity = matchCount * 2;
+          matchIndices = Arrays.copyOf(matchIndices, capacity);
+          matchServiceDates = Arrays.copyOf(matchServiceDates, capacity);
+          matchFrom = Arrays.copyOf(matchFrom, capacity);
+          matchTo = Arrays.copyOf(matchTo, capacity);
+        }
+        matchIndices[matchCount] = i;
+        matchServiceDates[matchCount] = serviceDate;
+        matchFrom[matchCount] = fromIndex;
+        matchTo[matchCount] = toIndex;
+        matchCount++;
+        total += toIndex - fromIndex;
+      }
+    }
+
+    if (results instanceof ArrayList)
+      ((ArrayList<StopTimeInstance>) results).ensureCapacity(results.size()
+          + total);
+
+    for (int m = 0; m < matchCount; m++) {
+      List<BlockStopTimeEntry> blockStopTimes = _indices[matchIndices[m]].getStopTimes();
+      InstanceState state = new InstanceState(matchServiceDates[m]);
+      for (int in = matchFrom[m]; in < matchTo[m]; in++)
+        results.add(new StopTimeInstance(blockStopTimes.get(in), state));
+    }
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * Service dates are resolved for the whole days spanned by the query. This
+   * yields a superset of the dates for the exact range, which is harmless since
+   * the binary searches discard any date without matching stop times, and lets
+   * us reuse the result for all queries over the same days.
+   */
+  private long[] getServiceDatesForGroup(
+      ExtendedCalendarService calendarService, int group, Date from, Date to) {
+
+    long windowFrom = floorToDay(from.getTime());
+    long windowTo = floorToDay(to.getTime()) + DAY - 1;
+
+    ServiceDates cached = _groupServiceDates[group];
+    if (cached != null && cached.windowFrom == windowFrom
+        && cached.windowTo == windowTo)
+      return cached.serviceDates;
+
+    long[] serviceDates = calendarService.getServiceDateTimesWithinRange(
+        _groupServiceIds[group], _groupServiceIntervals[group], windowFrom,
+        windowTo);
+
+    _groupServiceDates[group] = new ServiceDates(windowFrom, windowTo,
+        serviceDates);
+    return serviceDates;
+  }
+
+  private static long floorToDay(long time) {
+    return time - (((time % DAY) + DAY) % DAY);
+  }
+
+  private static final class ServiceDates {
+
+    private final long windowFrom;
+
+    private final long windowTo;
+
+    private final long[] serviceDates;
+
+    public ServiceDates(long windowFrom, long windowTo, long[] serviceDates) {
+      this.windowFrom = windowFrom;
+      this.windowTo = windowTo;
+      this.serviceDates = serviceDates;
+    }
+  }
+}
@@ -16,11 +16,13 @@
 package org.onebusaway.transit_data_federation.impl;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.onebusaway.collections.Range;
+import org.onebusaway.container.refresh.Refreshable;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.onebusaway.gtfs.model.calendar.ServiceInterval;
@@ -34,7 +36,6 @@ import org.onebusaway.transit_data_federation.services.blocks.BlockStopSequenceI
 import org.onebusaway.transit_data_federation.services.blocks.BlockStopTimeIndex;
 import org.onebusaway.transit_data_federation.services.blocks.FrequencyBlockStopTimeIndex;
 import org.onebusaway.transit_data_federation.services.blocks.FrequencyStopTripIndex;
-import org.onebusaway.transit_data_federation.services.blocks.HasIndexedBlockStopTimes;
 import org.onebusaway.transit_data_federation.services.blocks.InstanceState;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockStopTimeEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.FrequencyBlockStopTimeEntry;
@@ -56,6 +57,8 @@ class StopTimeServiceImpl implements StopTimeService {
 
   private BlockIndexService _blockIndexService;
 
+  private final ConcurrentMap<StopEntry, StopTimeRangeIndex> _rangeIndicesByStop = new ConcurrentHashMap<StopEntry, StopTimeRangeIndex>();
+
   @Autowired
   public void setTransitGraphDao(TransitGraphDao graph) {
     _graph = graph;
@@ -71,6 +74,13 @@ class StopTimeServiceImpl implements StopTimeService {
     _blockIndexService = blockIndexService;
   }
 
+  @Refreshable(dependsOn = {
+      RefreshableResources.CALENDAR_DATA,
+      RefreshableResources.BLOCK_INDEX_DATA})
+  public void clearRangeIndices() {
+    _rangeIndicesByStop.clear();
+  }
+
   @Override
   public List<StopTimeInstance> getStopTimeInstancesInTimeRange(
       AgencyAndId stopId, Date from, Date to) {
@@ -87,23 +97,17 @@ class StopTimeServiceImpl implements StopTimeService {
 
     List<StopTimeInstance> stopTimeInstances = new ArrayList<StopTimeInstance>();
 
-    for (BlockStopTimeIndex index : _blockIndexService.getStopTimeIndicesForStop(stopEntry)) {
-
-      Collection<Date> serviceDates = _calendarService.getServiceDatesWithinRange(
-          index.getServiceIds(), index.getServiceInterval(), from, to);
-
-      for (Date serviceDate : serviceDates) {
-        getStopTimesForStopAndServiceDateAndTimeRange(index, serviceDate, from,
-            to, stopTimeInstances);
-      }
-    }
+    StopTimeRangeIndex rangeIndex = getRangeIndexForStop(stopEntry);
+    rangeIndex.getStopTimeInstancesInTimeRange(_calendarService, from, to,
+        stopTimeInstances);
 
     List<FrequencyStopTripIndex> frequencyStopTripIndices = _blockIndexService.getFrequencyStopTripIndicesForStop(stopEntry);
 
     for (FrequencyStopTripIndex index : frequencyStopTripIndices) {
-      Collection<Date> serviceDates = _calendarService.getServiceDatesWithinRange(
-          index.getServiceIds(), index.getServiceInterval(), from, to);
-      for (Date serviceDate : serviceDates) {
+      long[] serviceDates = _calendarService.getServiceDateTimesWithinRange(
+          index.getServiceIds(), index.getServiceInterval(), from.getTime(),
+          to.getTime());
+      for (long serviceDate : serviceDates) {
         getFrequenciesForStopAndServiceIdsAndTimeRange(index, serviceDate,
             from, to, stopTimeInstances, frequencyBehavior);
       }
@@ -214,36 +218,23 @@ class StopTimeServiceImpl implements StopTimeService {
     return t - sourceBst.getStopTime().getDepartureTime();
   }
 
-  private int getStopTimesForStopAndServiceDateAndTimeRange(
-      HasIndexedBlockStopTimes index, Date serviceDate, Date from, Date to,
-      List<StopTimeInstance> instances) {
-
-    List<BlockStopTimeEntry> blockStopTimes = index.getStopTimes();
-
-    int relativeFrom = effectiveTime(serviceDate, from);
-    int relativeTo = effectiveTime(serviceDate, to);
-
-    int fromIndex = GenericBinarySearch.search(index, blockStopTimes.size(),
-        relativeFrom, IndexAdapters.BLOCK_STOP_TIME_DEPARTURE_INSTANCE);
-    int toIndex = GenericBinarySearch.search(index, blockStopTimes.size(),
-        relativeTo, IndexAdapters.BLOCK_STOP_TIME_ARRIVAL_INSTANCE);
-
-    InstanceState state = new InstanceState(serviceDate.getTime());
-    for (int in = fromIndex; in < toIndex; in++) {
-      BlockStopTimeEntry blockStopTime = blockStopTimes.get(in);
-      instances.add(new StopTimeInstance(blockStopTime, state));
+  private StopTimeRangeIndex getRangeIndexForStop(StopEntry stopEntry) {
+    List<BlockStopTimeIndex> indices = _blockIndexService.getStopTimeIndicesForStop(stopEntry);
+    StopTimeRangeIndex rangeIndex = _rangeIndicesByStop.get(stopEntry);
+    if (rangeIndex == null || !rangeIndex.isBuiltFrom(indices)) {
+      rangeIndex = new StopTimeRangeIndex(indices);
+      _rangeIndicesByStop.put(stopEntry, rangeIndex);
     }
-
-    return fromIndex;
+    return rangeIndex;
   }
 
   private List<Integer> getFrequenciesForStopAndServiceIdsAndTimeRange(
-      FrequencyStopTripIndex index, Date serviceDate, Date from, Date to,
+      FrequencyStopTripIndex index, long serviceDate, Date from, Date to,
       List<StopTimeInstance> stopTimeInstances,
       EFrequencyStopTimeBehavior frequencyBehavior) {
 
-    int relativeFrom = effectiveTime(serviceDate, from);
-    int relativeTo = effectiveTime(serviceDate, to);
+    int relativeFrom = effectiveTime(serviceDate, from.getTime());
+    int relativeTo = effectiveTime(serviceDate, to.getTime());
 
     int fromIndex = GenericBinarySearch.search(index, index.size(),
         relativeFrom, IndexAdapters.FREQUENCY_END_TIME_INSTANCE);
@@ -260,7 +251,7 @@ class StopTimeServiceImpl implements StopTimeService {
       BlockStopTimeEntry bst = entry.getStopTime();
       FrequencyEntry frequency = entry.getFrequency();
 
-      InstanceState state = new InstanceState(serviceDate.getTime(), frequency);
+      InstanceState state = new InstanceState(serviceDate, frequency);
 
       switch (frequencyBehavior) {
 
@@ -323,10 +314,6 @@ class StopTimeServiceImpl implements StopTimeService {
     }
   }
 
-  private static int effectiveTime(Date serviceDate, Date targetTime) {
-    return effectiveTime(serviceDate.getTime(), targetTime.getTime());
-  }
-
   private static int effectiveTime(long serviceDate, long targetTime) {
     return (int) ((targetTime - serviceDate) / 1000);
   }
@@ -16,101 +16,55 @@
  */
 package org.onebusaway.transit_data_federation.impl;
 
-import org.onebusaway.container.refresh.Refreshable;
 import org.onebusaway.geospatial.model.CoordinateBounds;
 import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.transit_data_federation.impl.transit_graph.StopSpatialIndex;
 import org.onebusaway.transit_data_federation.services.beans.GeospatialBeanService;
 import org.onebusaway.transit_data_federation.services.beans.RouteBeanService;
 import org.onebusaway.transit_data_federation.services.transit_graph.StopEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.TransitGraphDao;
 
-import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.index.ItemVisitor;
-import com.vividsolutions.jts.index.strtree.STRtree;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
-import javax.annotation.PostConstruct;
-
+/**
+ * Stop lookups are answered by the transit graph's {@link StopSpatialIndex},
+ * which is rebuilt on
+ * {@link RefreshableResources#STOP_GEOSPATIAL_INDEX} refresh, rather than by an
+ * index of our own.
+ */
 @Component
 class WhereGeospatialServiceImpl implements GeospatialBeanService {
-  
-  private static Logger _log = LoggerFactory.getLogger(WhereGeospatialServiceImpl.class);
 
   private TransitGraphDao _transitGraphDao;
 
-  private STRtree _tree;
-
   @Autowired
   public void setTransitGraphDao(TransitGraphDao transitGraphDao) {
     _transitGraphDao = transitGraphDao;
   }
 
-
-  @PostConstruct
-  @Refreshable(dependsOn = RefreshableResources.STOP_GEOSPATIAL_INDEX)
-  public void initialize() {
-
-    List<StopEntry> stops = _transitGraphDao.getAllStops();
-    
-    if (stops.size() == 0) {
-      _tree = null;
-      return;
-    }
-    
-    _tree = new STRtree(stops.size());
-
-    for (StopEntry stop : stops) {
-      float x = (float) stop.getStopLon();
-      float y = (float) stop.getStopLat();
-      Envelope env = new Envelope(x, x, y, y);
-      _tree.insert(env, stop.getId());
-    }
-
-    _tree.build();
-  }
-
   /****
    * {@link RouteBeanService} Interface
    ****/
 
   @Override
   public List<AgencyAndId> getStopsByBounds(CoordinateBounds bounds) {
-    
-    if( _tree == null) {
-      _log.warn("Stop tree is empty!");
-      return Collections.emptyList();
-    }
-    
-    double xMin = bounds.getMinLon();
-    double yMin = bounds.getMinLat();
-    double xMax = bounds.getMaxLon();
-    double yMax = bounds.getMaxLat();
-
-    TreeVisistor v = new TreeVisistor();
-    _tree.query(new Envelope(xMin, xMax, yMin, yMax), v);
-    return v.getIdsInRange();
+    return getIds(_transitGraphDao.getStopsByLocation(bounds));
   }
 
-  private class TreeVisistor implements ItemVisitor {
-
-    private List<AgencyAndId> _idsInRange = new ArrayList<AgencyAndId>();
-
-    public List<AgencyAndId> getIdsInRange() {
-      return _idsInRange;
-    }
-
-    @Override
-    public void visitItem(Object obj) {
-      _idsInRange.add((AgencyAndId) obj);
-    }
+  @Override
+  public List<AgencyAndId> getNearestStops(double lat, double lon,
+      int maxCount, double radius) {
+    return getIds(_transitGraphDao.getNearestStops(lat, lon, maxCount, radius));
   }
 
+  private List<AgencyAndId> getIds(List<StopEntry> stops) {
+    List<AgencyAndId> ids = new ArrayList<AgencyAndId>(stops.size());
+    for (StopEntry stop : stops)
+      ids.add(stop.getId());
+    return ids;
+  }
 }
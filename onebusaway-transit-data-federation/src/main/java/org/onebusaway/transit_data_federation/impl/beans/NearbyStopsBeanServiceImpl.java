@@ -20,8 +20,6 @@ import java.util.List;
 
 import org.onebusaway.container.cache.Cacheable;
 import org.onebusaway.container.cache.CacheableArgument;
-import org.onebusaway.geospatial.model.CoordinateBounds;
-import org.onebusaway.geospatial.services.SphericalGeometryLibrary;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data.model.StopBean;
 import org.onebusaway.transit_data_federation.services.beans.GeospatialBeanService;
@@ -44,9 +42,8 @@ class NearbyStopsBeanServiceImpl implements NearbyStopsBeanService {
   public List<AgencyAndId> getNearbyStops(
       @CacheableArgument(keyProperty = "id") StopBean stopBean, double radius) {
 
-    CoordinateBounds bounds = SphericalGeometryLibrary.bounds(
-        stopBean.getLat(), stopBean.getLon(), radius);
-    List<AgencyAndId> ids = _geospatialBeanService.getStopsByBounds(bounds);
+    List<AgencyAndId> ids = _geospatialBeanService.getNearestStops(
+        stopBean.getLat(), stopBean.getLon(), Integer.MAX_VALUE, radius);
 
     List<AgencyAndId> excludingSource = new ArrayList<AgencyAndId>();
 
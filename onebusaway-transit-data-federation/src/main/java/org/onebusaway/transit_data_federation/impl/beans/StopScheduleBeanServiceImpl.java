@@ -138,7 +138,7 @@ class StopScheduleBeanServiceImpl implements StopScheduleBeanService {
     _continuesAsThreshold = continuesAsThreshold;
   }
 
-  @Cacheable
+  @Cacheable(coalesceConcurrentMisses = true)
   public StopCalendarDaysBean getCalendarForStop(AgencyAndId stopId) {
 
     TimeZone timeZone = _agencyService.getTimeZoneForAgencyId(stopId.getAgencyId());
@@ -178,7 +178,7 @@ class StopScheduleBeanServiceImpl implements StopScheduleBeanService {
     return new StopCalendarDaysBean(timeZone.getID(), beans);
   }
 
-  @Cacheable
+  @Cacheable(coalesceConcurrentMisses = true)
   public List<StopRouteScheduleBean> getScheduledArrivalsForStopAndDate(
       AgencyAndId stopId, ServiceDate date) {
 
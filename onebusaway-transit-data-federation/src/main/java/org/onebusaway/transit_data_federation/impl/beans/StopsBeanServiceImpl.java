@@ -32,6 +32,7 @@ import org.onebusaway.geospatial.services.SphericalGeometryLibrary;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data.model.ListBean;
 import org.onebusaway.transit_data.model.SearchQueryBean;
+import org.onebusaway.transit_data.model.SearchQueryBean.EQueryType;
 import org.onebusaway.transit_data.model.StopBean;
 import org.onebusaway.transit_data.model.StopsBean;
 import org.onebusaway.transit_data_federation.model.SearchResult;
@@ -72,7 +73,9 @@ class StopsBeanServiceImpl implements StopsBeanService {
   @Override
   public StopsBean getStops(SearchQueryBean queryBean) throws ServiceException {
     String query = queryBean.getQuery();
-    if (query == null)
+    if (query == null && queryBean.getType() == EQueryType.CLOSEST)
+      return getClosestStops(queryBean);
+    else if (query == null)
       return getStopsByBounds(queryBean);
     else
       return getStopsByBoundsAndQuery(queryBean);
@@ -134,6 +137,58 @@ class StopsBeanServiceImpl implements StopsBeanService {
     return constructResult(stopBeans, limitExceeded);
   }
 
+  /**
+   * Stops within the circle inscribed in the query bounds, nearest to its
+   * center first. Unlike the other queries, the results keep that order.
+   */
+  private StopsBean getClosestStops(SearchQueryBean queryBean)
+      throws ServiceException {
+
+    CoordinateBounds bounds = queryBean.getBounds();
+    CoordinatePoint center = SphericalGeometryLibrary.getCenterOfBounds(bounds);
+    double radius = Math.min(SphericalGeometryLibrary.distance(
+        center.getLat(), center.getLon(), bounds.getMinLat(), center.getLon()),
+        SphericalGeometryLibrary.distance(center.getLat(), center.getLon(),
+            center.getLat(), bounds.getMinLon()));
+    int maxCount = queryBean.getMaxCount();
+
+    /**
+     * Stops without any routes actively serving them are dropped, so we may
+     * need more than maxCount + 1 of the nearest stops to fill the result and
+     * tell whether the limit was exceeded. Widen the search until we have
+     * enough or run out of stops in the radius.
+     */
+    List<StopBean> stopBeans = new ArrayList<StopBean>();
+    int requested = maxCount == Integer.MAX_VALUE ? maxCount : maxCount + 1;
+    int examined = 0;
+    while (true) {
+      List<AgencyAndId> stopIds = _geospatialBeanService.getNearestStops(
+          center.getLat(), center.getLon(), requested, radius);
+      for (AgencyAndId stopId : stopIds.subList(examined, stopIds.size())) {
+        StopBean stopBean = _stopBeanService.getStopForId(stopId, null);
+        if (stopBean == null)
+          throw new ServiceException();
+        if (stopBean.getRoutes().isEmpty())
+          continue;
+        stopBeans.add(stopBean);
+      }
+      examined = stopIds.size();
+      if (stopBeans.size() > maxCount || stopIds.size() < requested
+          || requested == Integer.MAX_VALUE)
+        break;
+      requested = (int) Math.min(Integer.MAX_VALUE, 2L * requested);
+    }
+
+    boolean limitExceeded = stopBeans.size() > maxCount;
+    if (limitExceeded)
+      stopBeans = new ArrayList<StopBean>(stopBeans.subList(0, maxCount));
+
+    StopsBean result = new StopsBean();
+    result.setStops(stopBeans);
+    result.setLimitExceeded(limitExceeded);
+    return result;
+  }
+
   private StopsBean getStopsByBoundsAndQuery(SearchQueryBean queryBean)
       throws ServiceException {
 
@@ -97,15 +97,12 @@ class VehicleStatusBeanServiceImpl implements VehicleStatusBeanService {
   public ListBean<VehicleStatusBean> getAllVehiclesForAgency(String agencyId,
       long time) {
 
-    List<VehicleStatus> statuses = _vehicleStatusService.getAllVehicleStatuses();
+    List<VehicleStatus> statuses = _vehicleStatusService.getAllVehicleStatusesForAgency(agencyId);
 
-    List<VehicleStatusBean> beans = new ArrayList<VehicleStatusBean>();
+    List<VehicleStatusBean> beans = new ArrayList<VehicleStatusBean>(
+        statuses.size());
 
     for (VehicleStatus status : statuses) {
-      AgencyAndId vid = status.getVehicleId();
-      if (!vid.getAgencyId().equals(agencyId))
-        continue;
-
       VehicleStatusBean bean = getStatusAsBean(status, time);
       beans.add(bean);
     }
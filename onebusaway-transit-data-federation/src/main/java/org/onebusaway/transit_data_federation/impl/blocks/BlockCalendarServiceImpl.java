@@ -209,8 +209,8 @@ class BlockCalendarServiceImpl implements BlockCalendarService {
   private boolean allServiceIdsAreActiveForServiceDate(
       BlockConfigurationEntry configuration, Date serviceDate) {
 
-    Set<Date> serviceDates = _calendarService.getDatesForServiceIds(configuration.getServiceIds());
-    return serviceDates.contains(serviceDate);
+    return _calendarService.areServiceIdsActiveOnServiceDate(
+        configuration.getServiceIds(), serviceDate);
   }
 
   /****
@@ -234,10 +234,11 @@ class BlockCalendarServiceImpl implements BlockCalendarService {
     ServiceIntervalBlock serviceIntervalBlock = index.getServiceIntervalBlock();
     ServiceInterval serviceInterval = serviceIntervalBlock.getRange();
 
-    Collection<Date> serviceDates = _calendarService.getServiceDatesWithinRange(
-        index.getServiceIds(), serviceInterval, timeFrom, timeTo);
+    long[] serviceDates = _calendarService.getServiceDateTimesWithinRange(
+        index.getServiceIds(), serviceInterval, timeFrom.getTime(),
+        timeTo.getTime());
 
-    for (Date serviceDate : serviceDates) {
+    for (long serviceDate : serviceDates) {
 
       findBlockTripsInRange(serviceIntervalBlock, serviceDate, timeFrom,
           timeTo, trips, instances);
@@ -247,18 +248,18 @@ class BlockCalendarServiceImpl implements BlockCalendarService {
   }
 
   private void findBlockTripsInRange(ServiceIntervalBlock intervals,
-      Date serviceDate, Date timeFrom, Date timeTo, List<BlockTripEntry> trips,
+      long serviceDate, Date timeFrom, Date timeTo, List<BlockTripEntry> trips,
       Collection<BlockInstance> instances) {
 
-    int scheduledTimeFrom = (int) ((timeFrom.getTime() - serviceDate.getTime()) / 1000);
-    int scheduledTimeTo = (int) ((timeTo.getTime() - serviceDate.getTime()) / 1000);
+    int scheduledTimeFrom = (int) ((timeFrom.getTime() - serviceDate) / 1000);
+    int scheduledTimeTo = (int) ((timeTo.getTime() - serviceDate) / 1000);
 
     int indexFrom = index(Arrays.binarySearch(intervals.getMaxDepartures(),
         scheduledTimeFrom));
     int indexTo = index(Arrays.binarySearch(intervals.getMinArrivals(),
         scheduledTimeTo));
     
-    InstanceState state = new InstanceState(serviceDate.getTime());
+    InstanceState state = new InstanceState(serviceDate);
 
     for (int in = indexFrom; in < indexTo; in++) {
       BlockTripEntry trip = trips.get(in);
@@ -289,10 +290,11 @@ class BlockCalendarServiceImpl implements BlockCalendarService {
     LayoverIntervalBlock layoverIntervalBlock = index.getLayoverIntervalBlock();
     ServiceInterval serviceInterval = layoverIntervalBlock.getRange();
 
-    Collection<Date> serviceDates = _calendarService.getServiceDatesWithinRange(
-        index.getServiceIds(), serviceInterval, timeFrom, timeTo);
+    long[] serviceDates = _calendarService.getServiceDateTimesWithinRange(
+        index.getServiceIds(), serviceInterval, timeFrom.getTime(),
+        timeTo.getTime());
 
-    for (Date serviceDate : serviceDates) {
+    for (long serviceDate : serviceDates) {
 
       findBlockLayoversInRange(layoverIntervalBlock, serviceDate, timeFrom,
           timeTo, trips, instances);
@@ -302,18 +304,18 @@ class BlockCalendarServiceImpl implements BlockCalendarService {
   }
 
   private void findBlockLayoversInRange(LayoverIntervalBlock intervals,
-      Date serviceDate, Date timeFrom, Date timeTo, List<BlockTripEntry> trips,
+      long serviceDate, Date timeFrom, Date timeTo, List<BlockTripEntry> trips,
       Collection<BlockInstance> instances) {
 
-    int scheduledTimeFrom = (int) ((timeFrom.getTime() - serviceDate.getTime()) / 1000);
-    int scheduledTimeTo = (int) ((timeTo.getTime() - serviceDate.getTime()) / 1000);
+    int scheduledTimeFrom = (int) ((timeFrom.getTime() - serviceDate) / 1000);
+    int scheduledTimeTo = (int) ((timeTo.getTime() - serviceDate) / 1000);
 
     int indexFrom = index(Arrays.binarySearch(intervals.getEndTimes(),
         scheduledTimeFrom));
     int indexTo = index(Arrays.binarySearch(intervals.getStartTimes(),
         scheduledTimeTo));
     
-    InstanceState state = new InstanceState(serviceDate.getTime()); 
+    InstanceState state = new InstanceState(serviceDate); 
 
     for (int in = indexFrom; in < indexTo; in++) {
       BlockTripEntry trip = trips.get(in);
@@ -347,10 +349,11 @@ class BlockCalendarServiceImpl implements BlockCalendarService {
     FrequencyServiceIntervalBlock serviceIntervalBlock = index.getServiceIntervalBlock();
     ServiceInterval serviceInterval = serviceIntervalBlock.getRange();
 
-    Collection<Date> serviceDates = _calendarService.getServiceDatesWithinRange(
-        index.getServiceIds(), serviceInterval, timeFrom, timeTo);
+    long[] serviceDates = _calendarService.getServiceDateTimesWithinRange(
+        index.getServiceIds(), serviceInterval, timeFrom.getTime(),
+        timeTo.getTime());
 
-    for (Date serviceDate : serviceDates) {
+    for (long serviceDate : serviceDates) {
 
       findFrequencyBlockTripsInRange(serviceIntervalBlock, serviceDate,
           timeFrom, timeTo, trips, frequencies, instances);
@@ -360,12 +363,12 @@ class BlockCalendarServiceImpl implements BlockCalendarService {
   }
 
   private void findFrequencyBlockTripsInRange(
-      FrequencyServiceIntervalBlock serviceIntervalIndex, Date serviceDate,
+      FrequencyServiceIntervalBlock serviceIntervalIndex, long serviceDate,
       Date timeFrom, Date timeTo, List<BlockTripEntry> trips,
       List<FrequencyEntry> frequencies, Collection<BlockInstance> instances) {
 
-    int scheduledTimeFrom = (int) ((timeFrom.getTime() - serviceDate.getTime()) / 1000);
-    int scheduledTimeTo = (int) ((timeTo.getTime() - serviceDate.getTime()) / 1000);
+    int scheduledTimeFrom = (int) ((timeFrom.getTime() - serviceDate) / 1000);
+    int scheduledTimeTo = (int) ((timeTo.getTime() - serviceDate) / 1000);
 
     int indexFrom = index(Arrays.binarySearch(
         serviceIntervalIndex.getEndTimes(), scheduledTimeFrom));
@@ -376,7 +379,7 @@ class BlockCalendarServiceImpl implements BlockCalendarService {
       BlockTripEntry trip = trips.get(in);
       BlockConfigurationEntry block = trip.getBlockConfiguration();
       FrequencyEntry frequency = frequencies.get(in);
-      InstanceState state = new InstanceState(serviceDate.getTime(), frequency);
+      InstanceState state = new InstanceState(serviceDate, frequency);
       BlockInstance instance = new BlockInstance(block, state);
       instances.add(instance);
     }
@@ -18,13 +18,17 @@ package org.onebusaway.transit_data_federation.impl.blocks;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 
@@ -32,6 +36,7 @@ import org.onebusaway.collections.CollectionsLibrary;
 import org.onebusaway.collections.MappingLibrary;
 import org.onebusaway.collections.Min;
 import org.onebusaway.collections.tuple.T2;
+import org.onebusaway.container.ConfigurationParameter;
 import org.onebusaway.container.refresh.Refreshable;
 import org.onebusaway.geospatial.model.CoordinateBounds;
 import org.onebusaway.geospatial.model.CoordinatePoint;
@@ -40,6 +45,7 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data_federation.impl.ProjectedPointFactory;
 import org.onebusaway.transit_data_federation.impl.RefreshableResources;
 import org.onebusaway.transit_data_federation.impl.shapes.PointAndIndex;
+import org.onebusaway.transit_data_federation.impl.shapes.ProjectedBlockShape;
 import org.onebusaway.transit_data_federation.impl.shapes.ShapePointsLibrary;
 import org.onebusaway.transit_data_federation.model.ProjectedPoint;
 import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
@@ -93,6 +99,50 @@ class BlockGeospatialServiceImpl implements BlockGeospatialService {
 
   private ScheduledBlockLocationService _scheduledBlockLocationService;
 
+  /**
+   * How far (in meters) behind the last match an incremental search starts,
+   * to absorb GPS noise around a stopped vehicle
+   */
+  private static final double INCREMENTAL_MATCHING_BACKTRACK = 100;
+
+  /**
+   * How close (in meters) an incrementally matched position must be to the
+   * shape before we accept it without a full search
+   */
+  private static final double INCREMENTAL_MATCHING_MAX_DISTANCE_FROM_SHAPE = 100;
+
+  private int _projectedBlockShapeCacheSize = 2000;
+
+  private double _incrementalMatchingWindow = 3000;
+
+  private double _incrementalMatchingMaxJump = 1500;
+
+  private long _vehicleMatchStateMaxAge = 10 * 60 * 1000;
+
+  private AtomicLong _lastVehicleMatchStatePurge = new AtomicLong();
+
+  private ConcurrentMap<AgencyAndId, VehicleMatchState> _vehicleMatchStates = new ConcurrentHashMap<AgencyAndId, VehicleMatchState>();
+
+  private AtomicLong _incrementalMatchCount = new AtomicLong();
+
+  private AtomicLong _fullMatchCount = new AtomicLong();
+
+  /**
+   * Projected shapes for recently matched blocks, in access order so that the
+   * least recently matched block is evicted first
+   */
+  private final Map<BlockConfigurationEntry, ProjectedBlockShape> _projectedBlockShapes = Collections.synchronizedMap(new LinkedHashMap<BlockConfigurationEntry, ProjectedBlockShape>(
+      16, 0.75f, true) {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(
+        Map.Entry<BlockConfigurationEntry, ProjectedBlockShape> eldest) {
+      return size() > _projectedBlockShapeCacheSize;
+    }
+  });
+
   @Autowired
   public void setBundle(FederatedTransitDataBundle bundle) {
     _bundle = bundle;
@@ -129,12 +179,61 @@ class BlockGeospatialServiceImpl implements BlockGeospatialService {
     _scheduledBlockLocationService = scheduledBlockLocationService;
   }
 
+  /**
+   * The maximum number of blocks whose projected shapes are kept in memory for
+   * {@link #getBestScheduledBlockLocationForLocation}.
+   * 
+   * @param projectedBlockShapeCacheSize
+   */
+  @ConfigurationParameter
+  public void setProjectedBlockShapeCacheSize(int projectedBlockShapeCacheSize) {
+    _projectedBlockShapeCacheSize = projectedBlockShapeCacheSize;
+  }
+
+  /**
+   * How far (in meters) along the block past a vehicle's last match to search
+   * for its next position in
+   * {@link #getBestScheduledBlockLocationForVehicleLocation}.
+   * 
+   * @param incrementalMatchingWindow
+   */
+  @ConfigurationParameter
+  public void setIncrementalMatchingWindow(double incrementalMatchingWindow) {
+    _incrementalMatchingWindow = incrementalMatchingWindow;
+  }
+
+  /**
+   * If a vehicle has moved further than this (in meters, as the crow flies)
+   * since its last match, its next position is matched against the full block.
+   * 
+   * @param incrementalMatchingMaxJump
+   */
+  @ConfigurationParameter
+  public void setIncrementalMatchingMaxJump(double incrementalMatchingMaxJump) {
+    _incrementalMatchingMaxJump = incrementalMatchingMaxJump;
+  }
+
+  /**
+   * How long the last match for a vehicle is remembered. A vehicle that has
+   * not reported for longer than this is matched against the full block, and
+   * its state is eventually purged so that vehicles which stop reporting do
+   * not accumulate.
+   * 
+   * @param vehicleMatchStateMaxAge in milliseconds
+   */
+  @ConfigurationParameter
+  public void setVehicleMatchStateMaxAge(long vehicleMatchStateMaxAge) {
+    _vehicleMatchStateMaxAge = vehicleMatchStateMaxAge;
+  }
+
   @PostConstruct
   @Refreshable(dependsOn = {
       RefreshableResources.SHAPE_GEOSPATIAL_INDEX,
       RefreshableResources.BLOCK_INDEX_SERVICE})
   public void setup() throws IOException, ClassNotFoundException {
     _blockSequenceIndicesByShapeId.clear();
+    _projectedBlockShapes.clear();
+    _vehicleMatchStates.clear();
     groupBlockSequenceIndicesByShapeIds();
 
     buildShapeSpatialIndex();
@@ -211,47 +310,106 @@ class BlockGeospatialServiceImpl implements BlockGeospatialService {
 
     ProjectedPoint targetPoint = ProjectedPointFactory.forward(location);
 
-    List<AgencyAndId> shapePointIds = MappingLibrary.map(block.getTrips(),
-        "trip.shapeId");
+    ProjectedBlockShape shape = getProjectedBlockShape(block,
+        targetPoint.getSrid());
 
-    T2<List<XYPoint>, double[]> tuple = _projectedShapePointService.getProjectedShapePoints(
-        shapePointIds, targetPoint.getSrid());
+    int fromIndex = shape.getFromIndexForDistance(blockDistanceFrom);
+    int toIndex = shape.getToIndexForDistance(blockDistanceTo);
 
-    if (tuple == null) {
-      throw new IllegalStateException("block had no shape points: "
-          + block.getBlock().getId());
-    }
+    XYPoint xyPoint = new XYPoint(targetPoint.getX(), targetPoint.getY());
+
+    List<PointAndIndex> assignments = _shapePointsLibrary.computePotentialAssignments(
+        shape, xyPoint, fromIndex, toIndex);
+
+    return getBestScheduledBlockLocationForAssignments(blockInstance,
+        assignments, timestamp);
+  }
+
+  @Override
+  public ScheduledBlockLocation getBestScheduledBlockLocationForVehicleLocation(
+      AgencyAndId vehicleId, AgencyAndId tripId, BlockInstance blockInstance,
+      CoordinatePoint location, long timestamp) {
+
+    BlockConfigurationEntry block = blockInstance.getBlock();
+
+    ProjectedPoint targetPoint = ProjectedPointFactory.forward(location);
+    int utmZoneId = targetPoint.getSrid();
+    double x = targetPoint.getX();
+    double y = targetPoint.getY();
+
+    ProjectedBlockShape shape = getProjectedBlockShape(block, utmZoneId);
+    XYPoint xyPoint = new XYPoint(x, y);
+
+    ScheduledBlockLocation blockLocation = null;
 
-    List<XYPoint> projectedShapePoints = tuple.getFirst();
-    double[] distances = tuple.getSecond();
+    VehicleMatchState state = _vehicleMatchStates.get(vehicleId);
 
-    int fromIndex = 0;
-    int toIndex = distances.length;
+    if (state != null && state.canContinue(tripId, blockInstance, utmZoneId,
+        x, y, timestamp, _incrementalMatchingMaxJump, _vehicleMatchStateMaxAge)) {
 
-    if (blockDistanceFrom > 0) {
-      fromIndex = Arrays.binarySearch(distances, blockDistanceFrom);
-      if (fromIndex < 0) {
-        fromIndex = -(fromIndex + 1);
-        // Include the previous point if we didn't get an exact match
-        if (fromIndex > 0)
-          fromIndex--;
+      int fromIndex = shape.getFromIndexForDistance(state.distanceAlongBlock
+          - INCREMENTAL_MATCHING_BACKTRACK);
+      int toIndex = shape.getToIndexForDistance(state.distanceAlongBlock
+          + _incrementalMatchingWindow);
+
+      List<PointAndIndex> assignments = _shapePointsLibrary.computePotentialAssignments(
+          shape, xyPoint, fromIndex, toIndex);
+
+      if (isCloseToShape(assignments)) {
+        blockLocation = getBestScheduledBlockLocationForAssignments(
+            blockInstance, assignments, timestamp);
+        if (blockLocation != null)
+          _incrementalMatchCount.incrementAndGet();
       }
     }
 
-    if (blockDistanceTo < distances[distances.length - 1]) {
-      toIndex = Arrays.binarySearch(distances, blockDistanceTo);
-      if (toIndex < 0) {
-        toIndex = -(toIndex + 1);
-        // Include the previous point if we didn't get an exact match
-        if (toIndex < distances.length)
-          toIndex++;
-      }
+    if (blockLocation == null) {
+      List<PointAndIndex> assignments = _shapePointsLibrary.computePotentialAssignments(
+          shape, xyPoint, 0, shape.size());
+      blockLocation = getBestScheduledBlockLocationForAssignments(
+          blockInstance, assignments, timestamp);
+      _fullMatchCount.incrementAndGet();
     }
 
-    XYPoint xyPoint = new XYPoint(targetPoint.getX(), targetPoint.getY());
+    if (blockLocation != null) {
+      _vehicleMatchStates.put(vehicleId, new VehicleMatchState(tripId,
+          blockInstance, utmZoneId, x, y, timestamp,
+          blockLocation.getDistanceAlongBlock()));
+    } else {
+      _vehicleMatchStates.remove(vehicleId);
+    }
 
-    List<PointAndIndex> assignments = _shapePointsLibrary.computePotentialAssignments(
-        projectedShapePoints, distances, xyPoint, fromIndex, toIndex);
+    purgeExpiredVehicleMatchStates(timestamp);
+
+    return blockLocation;
+  }
+
+  @Override
+  public void resetVehicleLocation(AgencyAndId vehicleId) {
+    _vehicleMatchStates.remove(vehicleId);
+  }
+
+  public long getIncrementalMatchCount() {
+    return _incrementalMatchCount.get();
+  }
+
+  public long getFullMatchCount() {
+    return _fullMatchCount.get();
+  }
+
+  public int getVehicleMatchStateCount() {
+    return _vehicleMatchStates.size();
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private ScheduledBlockLocation getBestScheduledBlockLocationForAssignments(
+      BlockInstance blockInstance, List<PointAndIndex> assignments,
+      long timestamp) {
+
+    BlockConfigurationEntry block = blockInstance.getBlock();
 
     Min<ScheduledBlockLocation> best = new Min<ScheduledBlockLocation>();
 
@@ -278,9 +436,60 @@ class BlockGeospatialServiceImpl implements BlockGeospatialService {
     return best.getMinElement();
   }
 
-  /****
-   * Private Methods
-   ****/
+  /**
+   * A windowed search always returns the closest segment in the window, even
+   * if the vehicle has since moved well beyond it, so we only trust it if the
+   * match actually lies near the shape.
+   */
+  private boolean isCloseToShape(List<PointAndIndex> assignments) {
+    for (PointAndIndex assignment : assignments) {
+      if (assignment.distanceFromTarget <= INCREMENTAL_MATCHING_MAX_DISTANCE_FROM_SHAPE)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * At most once per max age (as measured by vehicle timestamps), drop the
+   * match state of vehicles that have not reported within the max age.
+   */
+  private void purgeExpiredVehicleMatchStates(long timestamp) {
+    long lastPurge = _lastVehicleMatchStatePurge.get();
+    if (timestamp - lastPurge < _vehicleMatchStateMaxAge
+        || !_lastVehicleMatchStatePurge.compareAndSet(lastPurge, timestamp))
+      return;
+    long cutoff = timestamp - _vehicleMatchStateMaxAge;
+    for (Iterator<VehicleMatchState> it = _vehicleMatchStates.values().iterator(); it.hasNext();) {
+      if (it.next().timestamp < cutoff)
+        it.remove();
+    }
+  }
+
+  private ProjectedBlockShape getProjectedBlockShape(
+      BlockConfigurationEntry block, int utmZoneId) {
+
+    ProjectedBlockShape shape = _projectedBlockShapes.get(block);
+    if (shape != null && shape.getUtmZoneId() == utmZoneId)
+      return shape;
+
+    List<BlockTripEntry> blockTrips = block.getTrips();
+    List<AgencyAndId> shapeIds = new ArrayList<AgencyAndId>(blockTrips.size());
+    for (BlockTripEntry blockTrip : blockTrips)
+      shapeIds.add(blockTrip.getTrip().getShapeId());
+
+    T2<List<XYPoint>, double[]> tuple = _projectedShapePointService.getProjectedShapePoints(
+        shapeIds, utmZoneId);
+
+    if (tuple == null || tuple.getSecond().length == 0) {
+      throw new IllegalStateException("block had no shape points: "
+          + block.getBlock().getId());
+    }
+
+    shape = ProjectedBlockShape.create(utmZoneId, tuple.getFirst(),
+        tuple.getSecond());
+    _projectedBlockShapes.put(block, shape);
+    return shape;
+  }
 
   private void groupBlockSequenceIndicesByShapeIds() {
     List<BlockSequenceIndex> indices = _blockIndexService.getAllBlockSequenceIndices();
@@ -343,4 +552,48 @@ class BlockGeospatialServiceImpl implements BlockGeospatialService {
 
     _tree.build();
   }
+
+  private static class VehicleMatchState {
+
+    private final AgencyAndId tripId;
+
+    private final BlockInstance blockInstance;
+
+    private final int utmZoneId;
+
+    private final double x;
+
+    private final double y;
+
+    private final long timestamp;
+
+    private final double distanceAlongBlock;
+
+    public VehicleMatchState(AgencyAndId tripId, BlockInstance blockInstance,
+        int utmZoneId, double x, double y, long timestamp,
+        double distanceAlongBlock) {
+      this.tripId = tripId;
+      this.blockInstance = blockInstance;
+      this.utmZoneId = utmZoneId;
+      this.x = x;
+      this.y = y;
+      this.timestamp = timestamp;
+      this.distanceAlongBlock = distanceAlongBlock;
+    }
+
+    public boolean canContinue(AgencyAndId tripId, BlockInstance blockInstance,
+        int utmZoneId, double x, double y, long timestamp, double maxJump,
+        long maxAge) {
+      if (!this.blockInstance.equals(blockInstance))
+        return false;
+      if (this.tripId == null ? tripId != null : !this.tripId.equals(tripId))
+        return false;
+      if (this.utmZoneId != utmZoneId || timestamp < this.timestamp
+          || timestamp - this.timestamp > maxAge)
+        return false;
+      double dx = x - this.x;
+      double dy = y - this.y;
+      return dx * dx + dy * dy <= maxJump * maxJump;
+    }
+  }
 }
@@ -15,7 +15,9 @@
  */
 package org.onebusaway.transit_data_federation.impl.blocks;
 
+import org.onebusaway.transit_data_federation.impl.time.GenericBinarySearch;
 import org.onebusaway.transit_data_federation.impl.time.GenericBinarySearch.IndexAdapter;
+import org.onebusaway.transit_data_federation.impl.transit_graph.BlockConfigurationEntryImpl;
 import org.onebusaway.transit_data_federation.services.blocks.HasIndexedBlockStopTimes;
 import org.onebusaway.transit_data_federation.services.blocks.HasIndexedFrequencyBlockTrips;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
@@ -32,6 +34,40 @@ public class IndexAdapters {
 
   public static final IndexAdapter<HasIndexedFrequencyBlockTrips> FREQUENCY_START_TIME_INSTANCE = new FrequencyStartTimeIndexAdapter();
 
+  /**
+   * Binary search over the departure times of a block configuration. When the
+   * block configuration keeps packed stop time arrays, we search those
+   * directly instead of going through {@link #BLOCK_STOP_TIME_DEPARTURE_INSTANCE}.
+   */
+  public static int searchDepartureTimes(BlockConfigurationEntry blockConfig,
+      int indexFrom, int indexTo, double targetValue) {
+    if (blockConfig instanceof BlockConfigurationEntryImpl) {
+      BlockConfigurationEntryImpl impl = (BlockConfigurationEntryImpl) blockConfig;
+      return GenericBinarySearch.searchRange(impl.getDepartureTimes(),
+          indexFrom, indexTo, targetValue);
+    }
+    return GenericBinarySearch.searchRange(blockConfig, indexFrom, indexTo,
+        targetValue, BLOCK_STOP_TIME_DEPARTURE_INSTANCE);
+  }
+
+  /**
+   * Binary search over the distance along block of each stop time in a block
+   * configuration. When the block configuration keeps packed stop time arrays,
+   * we search those directly instead of going through
+   * {@link #BLOCK_CONFIG_DISTANCE_INSTANCE}.
+   */
+  public static int searchDistanceAlongBlock(
+      BlockConfigurationEntry blockConfig, int indexFrom, int indexTo,
+      double targetValue) {
+    if (blockConfig instanceof BlockConfigurationEntryImpl) {
+      BlockConfigurationEntryImpl impl = (BlockConfigurationEntryImpl) blockConfig;
+      return GenericBinarySearch.searchRange(impl.getDistancesAlongBlock(),
+          indexFrom, indexTo, targetValue);
+    }
+    return GenericBinarySearch.searchRange(blockConfig, indexFrom, indexTo,
+        targetValue, BLOCK_CONFIG_DISTANCE_INSTANCE);
+  }
+
   /****
    * 
    ****/
@@ -23,7 +23,6 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data_federation.impl.shapes.DistanceTraveledShapePointIndex;
 import org.onebusaway.transit_data_federation.impl.shapes.PointAndOrientation;
 import org.onebusaway.transit_data_federation.impl.shapes.ShapePointIndex;
-import org.onebusaway.transit_data_federation.impl.time.GenericBinarySearch;
 import org.onebusaway.transit_data_federation.model.ShapePoints;
 import org.onebusaway.transit_data_federation.services.blocks.ScheduledBlockLocation;
 import org.onebusaway.transit_data_federation.services.blocks.ScheduledBlockLocationService;
@@ -64,8 +63,8 @@ public class ScheduledBlockLocationServiceImpl implements
     List<BlockStopTimeEntry> stopTimes = blockConfig.getStopTimes();
     int n = stopTimes.size();
 
-    int stopTimeIndex = GenericBinarySearch.search(blockConfig, n,
-        distanceAlongBlock, IndexAdapters.BLOCK_CONFIG_DISTANCE_INSTANCE);
+    int stopTimeIndex = IndexAdapters.searchDistanceAlongBlock(blockConfig, 0,
+        n, distanceAlongBlock);
 
     return getScheduledBlockLocationFromDistanceAlongBlockAndStopTimeIndex(
         stopTimes, distanceAlongBlock, stopTimeIndex);
@@ -94,9 +93,8 @@ public class ScheduledBlockLocationServiceImpl implements
       indexTo++;
     }
 
-    int stopTimeIndex = GenericBinarySearch.searchRange(blockConfig, indexFrom,
-        indexTo, distanceAlongBlock,
-        IndexAdapters.BLOCK_CONFIG_DISTANCE_INSTANCE);
+    int stopTimeIndex = IndexAdapters.searchDistanceAlongBlock(blockConfig,
+        indexFrom, indexTo, distanceAlongBlock);
 
     return getScheduledBlockLocationFromDistanceAlongBlockAndStopTimeIndex(
         stopTimes, distanceAlongBlock, stopTimeIndex);
@@ -108,8 +106,8 @@ public class ScheduledBlockLocationServiceImpl implements
 
     List<BlockStopTimeEntry> stopTimes = blockConfig.getStopTimes();
     int n = stopTimes.size();
-    int index = GenericBinarySearch.search(blockConfig, n, scheduleTime,
-        IndexAdapters.BLOCK_STOP_TIME_DEPARTURE_INSTANCE);
+    int index = IndexAdapters.searchDepartureTimes(blockConfig, 0, n,
+        scheduleTime);
 
     return getScheduledBlockLocationFromScheduleTimeAndStopTimeIndex(stopTimes,
         scheduleTime, index);
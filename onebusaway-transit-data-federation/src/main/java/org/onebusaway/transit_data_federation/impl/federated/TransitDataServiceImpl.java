@@ -161,6 +161,13 @@ public class TransitDataServiceImpl implements TransitDataService {
     return _transitDataService.getStop(stopId);
   }
 
+  @Override
+  public ListBean<StopBean> getStopsForIds(Collection<String> stopIds)
+      throws ServiceException {
+    blockUntilBundleIsReady();
+    return _transitDataService.getStopsForIds(stopIds);
+  }
+
   @Override
   public StopBean getStopForServiceDate(String stopId, ServiceDate serviceDate) throws ServiceException {
     blockUntilBundleIsReady();
@@ -217,6 +224,13 @@ public class TransitDataServiceImpl implements TransitDataService {
     return _transitDataService.getRouteForId(routeId);
   }
 
+  @Override
+  public ListBean<RouteBean> getRoutesForIds(Collection<String> routeIds)
+      throws ServiceException {
+    blockUntilBundleIsReady();
+    return _transitDataService.getRoutesForIds(routeIds);
+  }
+
   @Override
   public ListBean<String> getRouteIdsForAgencyId(String agencyId) {
     blockUntilBundleIsReady();
@@ -612,6 +626,14 @@ public class TransitDataServiceImpl implements TransitDataService {
 		return result;
   }
 
+  @Override
+  public List<String> getSearchSuggestionsForPrefix(String agencyId,
+      String prefix, int maxCount) {
+    blockUntilBundleIsReady();
+    return _transitDataService.getSearchSuggestionsForPrefix(agencyId, prefix,
+        maxCount);
+  }
+
   @Override
   public Boolean stopHasRevenueServiceOnRoute(String agencyId, String stopId, String routeId, String directionId) {
           return _transitDataService.stopHasRevenueServiceOnRoute(agencyId, stopId, routeId, directionId);
@@ -16,6 +16,7 @@
  */
 package org.onebusaway.transit_data_federation.impl.federated;
 
+import org.onebusaway.exceptions.NoSuchStopServiceException;
 import org.onebusaway.exceptions.NoSuchTripServiceException;
 import org.onebusaway.exceptions.OutOfServiceAreaServiceException;
 import org.onebusaway.exceptions.ServiceException;
@@ -42,6 +43,7 @@ import org.onebusaway.transit_data.model.service_alerts.ServiceAlertRecordBean;
 import org.onebusaway.transit_data.model.service_alerts.SituationQueryBean;
 import org.onebusaway.transit_data.model.trips.*;
 import org.onebusaway.transit_data.services.TransitDataService;
+import org.onebusaway.transit_data_federation.model.SearchResult;
 import org.onebusaway.transit_data_federation.model.bundle.HistoricalRidership;
 import org.onebusaway.transit_data_federation.services.*;
 import org.onebusaway.transit_data_federation.services.beans.*;
@@ -57,6 +59,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.io.IOException;
 import java.util.*;
 
 public class TransitDataServiceTemplateImpl implements TransitDataServiceTemplate {
@@ -135,6 +138,12 @@ public class TransitDataServiceTemplateImpl implements TransitDataServiceTemplat
   @Autowired
   private RidershipService _ridershipService;
 
+  @Autowired
+  private RouteCollectionSearchService _routeCollectionSearchService;
+
+  @Autowired
+  private StopSearchService _stopSearchService;
+
   /****
    * {@link TransitDataService} Interface
    ****/
@@ -231,6 +240,21 @@ public class TransitDataServiceTemplateImpl implements TransitDataServiceTemplat
     return _stopBeanService.getStopForId(id, null);
   }
 
+  //@Override
+  public ListBean<StopBean> getStopsForIds(Collection<String> stopIds)
+      throws ServiceException {
+    List<StopBean> stops = new ArrayList<StopBean>(stopIds.size());
+    for (String stopId : stopIds) {
+      try {
+        stops.add(_stopBeanService.getStopForId(convertAgencyAndId(stopId),
+            null));
+      } catch (NoSuchStopServiceException ex) {
+        _log.info("batch lookup omitting unknown stop id " + stopId);
+      }
+    }
+    return new ListBean<StopBean>(stops, false);
+  }
+
   //@Override
   public StopBean getStopForServiceDate(String stopId, ServiceDate serviceDate) throws ServiceException {
 
@@ -300,6 +324,20 @@ public class TransitDataServiceTemplateImpl implements TransitDataServiceTemplat
     return _routeBeanService.getRouteForId(convertAgencyAndId(routeId));
   }
 
+  //@Override
+  public ListBean<RouteBean> getRoutesForIds(Collection<String> routeIds)
+      throws ServiceException {
+    List<RouteBean> routes = new ArrayList<RouteBean>(routeIds.size());
+    for (String routeId : routeIds) {
+      RouteBean route = _routeBeanService.getRouteForId(convertAgencyAndId(routeId));
+      if (route != null)
+        routes.add(route);
+      else
+        _log.info("batch lookup omitting unknown route id " + routeId);
+    }
+    return new ListBean<RouteBean>(routes, false);
+  }
+
   //@Override
   public ListBean<String> getRouteIdsForAgencyId(String agencyId) {
     
@@ -706,6 +744,54 @@ public class TransitDataServiceTemplateImpl implements TransitDataServiceTemplat
   public List<String> getSearchSuggestions(String agencyId, String input) {
 	  return _scheduleHelperService.getSearchSuggestions(agencyId, input);
   }
+
+  //@Override
+  public List<String> getSearchSuggestionsForPrefix(String agencyId,
+      String prefix, int maxCount) {
+
+    Set<String> suggestions = new LinkedHashSet<String>();
+    if (prefix == null || maxCount <= 0)
+      return new ArrayList<String>(suggestions);
+
+    try {
+      SearchResult<AgencyAndId> routeIds = _routeCollectionSearchService.searchForRoutesByNamePrefix(
+          prefix, maxCount);
+      for (AgencyAndId routeId : routeIds.getResultsByTopScore()) {
+        if (agencyId != null && !agencyId.equals(routeId.getAgencyId()))
+          continue;
+        RouteBean route = _routeBeanService.getRouteForId(routeId);
+        if (route == null)
+          continue;
+        String name = route.getShortName() != null ? route.getShortName()
+            : route.getLongName();
+        if (name != null)
+          suggestions.add(name);
+      }
+
+      SearchResult<AgencyAndId> stopIds = _stopSearchService.searchForStopsByNamePrefix(
+          prefix, maxCount);
+      for (AgencyAndId stopId : stopIds.getResultsByTopScore()) {
+        if (suggestions.size() >= maxCount)
+          break;
+        if (agencyId != null && !agencyId.equals(stopId.getAgencyId()))
+          continue;
+        try {
+          StopBean stop = _stopBeanService.getStopForId(stopId, null);
+          if (stop != null && stop.getName() != null)
+            suggestions.add(stop.getName());
+        } catch (NoSuchStopServiceException ex) {
+          // the index can be ahead of the transit graph; skip the stop
+        }
+      }
+    } catch (IOException ex) {
+      _log.error("prefix search failed for \"" + prefix + "\"", ex);
+    }
+
+    List<String> results = new ArrayList<String>(suggestions);
+    if (results.size() > maxCount)
+      results = new ArrayList<String>(results.subList(0, maxCount));
+    return results;
+  }
   
   public Boolean stopHasRevenueServiceOnRoute(String stopAgencyId, String stopId, String routeId, String directionId) {
       return _scheduleHelperService.stopHasRevenueServiceOnRoute(stopAgencyId, stopId, routeId, directionId);
@@ -30,6 +30,11 @@ public interface BlockLocationRecordDao {
 
   public void saveBlockLocationRecord(BlockLocationRecord record);
 
+  /**
+   * Bulk insert of new records.
+   * 
+   * @param records
+   */
   public void saveBlockLocationRecords(List<BlockLocationRecord> records);
 
   /**
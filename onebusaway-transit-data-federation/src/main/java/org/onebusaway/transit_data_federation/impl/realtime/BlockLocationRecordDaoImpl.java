@@ -15,7 +15,6 @@
  */
 package org.onebusaway.transit_data_federation.impl.realtime;
 
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -25,6 +24,7 @@ import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Property;
+import org.onebusaway.container.ConfigurationParameter;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
@@ -48,14 +48,62 @@ public class BlockLocationRecordDaoImpl implements BlockLocationRecordDao {
 
   private AtomicInteger _savedRecordCount = new AtomicInteger();
 
+  private JdbcBatchInserter _batchInserter = new JdbcBatchInserter();
+
   @Autowired
   public void setSessionFactory(SessionFactory sessionFactory) {
     _sessionFactory = sessionFactory;
   }
 
+  /**
+   * The number of records committed per transaction by
+   * {@link #saveBlockLocationRecords(List)}.
+   * 
+   * @param batchSize
+   */
+  @ConfigurationParameter
+  public void setBatchSize(int batchSize) {
+    _batchInserter.setBatchSize(batchSize);
+  }
+
   @ManagedAttribute
   public int getSavedRecordCount() {
-    return _savedRecordCount.intValue();
+    return (int) (_savedRecordCount.get() + _batchInserter.getInsertedRecordCount());
+  }
+
+  @ManagedAttribute
+  public int getBatchSize() {
+    return _batchInserter.getBatchSize();
+  }
+
+  @ManagedAttribute
+  public long getBatchCount() {
+    return _batchInserter.getBatchCount();
+  }
+
+  @ManagedAttribute
+  public long getBatchFailedRecordCount() {
+    return _batchInserter.getFailedRecordCount();
+  }
+
+  @ManagedAttribute
+  public long getBatchLastDuration() {
+    return _batchInserter.getLastBatchDuration();
+  }
+
+  @ManagedAttribute
+  public long getBatchAverageDuration() {
+    return _batchInserter.getAverageBatchDuration();
+  }
+
+  @ManagedAttribute
+  public long getBatchLastInsertRate() {
+    return _batchInserter.getLastInsertRate();
+  }
+
+  @ManagedAttribute
+  public long getBatchAverageInsertRate() {
+    return _batchInserter.getAverageInsertRate();
   }
 
   /****
@@ -68,13 +116,14 @@ public class BlockLocationRecordDaoImpl implements BlockLocationRecordDao {
     _savedRecordCount.incrementAndGet();
   }
 
+  /**
+   * Records are always new, so they are inserted as JDBC batches through a
+   * {@link JdbcBatchInserter} in transactions of their own rather than
+   * accumulating in the current session.
+   */
   @Override
   public void saveBlockLocationRecords(List<BlockLocationRecord> records) {
-    Session session = getSession();
-    for (Iterator<BlockLocationRecord> it = records.iterator(); it.hasNext();) {
-      session.saveOrUpdate(it.next());
-    }
-    _savedRecordCount.addAndGet(records.size());
+    _batchInserter.insert(_sessionFactory, BlockLocationRecord.class, records);
   }
 
   @SuppressWarnings("unchecked")
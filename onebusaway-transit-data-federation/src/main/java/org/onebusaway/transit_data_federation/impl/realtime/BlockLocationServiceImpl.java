@@ -27,10 +27,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -48,6 +52,7 @@ import org.onebusaway.realtime.api.TimepointPredictionRecord;
 import org.onebusaway.realtime.api.VehicleLocationRecord;
 import org.onebusaway.transit_data_federation.model.TargetTime;
 import org.onebusaway.transit_data_federation.services.blocks.BlockCalendarService;
+import org.onebusaway.transit_data_federation.services.blocks.BlockGeospatialService;
 import org.onebusaway.transit_data_federation.services.blocks.BlockInstance;
 import org.onebusaway.transit_data_federation.services.blocks.BlockVehicleLocationListener;
 import org.onebusaway.transit_data_federation.services.blocks.ScheduledBlockLocation;
@@ -99,6 +104,8 @@ public class BlockLocationServiceImpl implements BlockLocationService,
 
   private ScheduledBlockLocationService _scheduledBlockLocationService;
 
+  private BlockGeospatialService _blockGeospatialService;
+
   private BlockCalendarService _blockCalendarService;
 
   private RealTimeHistoryService _realTimeHistoryService;
@@ -114,6 +121,54 @@ public class BlockLocationServiceImpl implements BlockLocationService,
 
   private int _blockInstanceMatchingWindow = 60 * 60 * 1000;
 
+  /**
+   * The maximum number of {@link BlockLocationRecord} records waiting to be
+   * persisted. See {@link #setDropRecordsWhenPersistenceQueueFull(boolean)} for
+   * what happens when the queue is full.
+   * 
+   * @param persistenceQueueCapacity
+   */
+  @ConfigurationParameter
+  public void setPersistenceQueueCapacity(int persistenceQueueCapacity) {
+    _persistenceQueueCapacity = persistenceQueueCapacity;
+  }
+
+  /**
+   * The maximum number of {@link BlockLocationRecord} records written to the
+   * underlying datastore in a single batch.
+   * 
+   * @param persistenceBatchSize
+   */
+  @ConfigurationParameter
+  public void setPersistenceBatchSize(int persistenceBatchSize) {
+    _persistenceBatchSize = persistenceBatchSize;
+  }
+
+  /**
+   * How often queued {@link BlockLocationRecord} records are flushed to the
+   * underlying datastore.
+   * 
+   * @param persistenceFlushInterval in milliseconds
+   */
+  @ConfigurationParameter
+  public void setPersistenceFlushInterval(int persistenceFlushInterval) {
+    _persistenceFlushInterval = persistenceFlushInterval;
+  }
+
+  /**
+   * When true, records are dropped and counted when the persistence queue is
+   * full. When false (the default), no records are lost: the overflow records
+   * are still queued and the writer is asked to flush immediately instead of
+   * waiting for the next flush interval.
+   * 
+   * @param dropRecordsWhenPersistenceQueueFull
+   */
+  @ConfigurationParameter
+  public void setDropRecordsWhenPersistenceQueueFull(
+      boolean dropRecordsWhenPersistenceQueueFull) {
+    _dropRecordsWhenPersistenceQueueFull = dropRecordsWhenPersistenceQueueFull;
+  }
+
   /**
    * When true, we will interpolate the current location of a transit vehicle
    * based on estimated schedule deviation information. If false, we will use
@@ -143,9 +198,29 @@ public class BlockLocationServiceImpl implements BlockLocationService,
 
   /**
    * We queue up block location records so they can be bulk persisted to the
-   * database
+   * database. The queue is lock-free so that realtime ingest threads don't
+   * contend with each other or with the writer. Its size is tracked
+   * separately in {@link #_recordPersistenceQueueSize}, since
+   * {@link ConcurrentLinkedQueue#size()} is a linear-time operation, and
+   * checked against {@link #_persistenceQueueCapacity}.
    */
-  private List<BlockLocationRecord> _recordPersistenceQueue = new ArrayList<BlockLocationRecord>();
+  private ConcurrentLinkedQueue<BlockLocationRecord> _recordPersistenceQueue = new ConcurrentLinkedQueue<BlockLocationRecord>();
+
+  private AtomicInteger _recordPersistenceQueueSize = new AtomicInteger();
+
+  private int _persistenceQueueCapacity = 100000;
+
+  private int _persistenceBatchSize = 1000;
+
+  private int _persistenceFlushInterval = 1000;
+
+  private boolean _dropRecordsWhenPersistenceQueueFull = false;
+
+  /**
+   * Set while an immediate flush of the persistence queue is pending, so that
+   * a burst of overflowing records schedules a single extra flush
+   */
+  private AtomicBoolean _persistenceFlushRequested = new AtomicBoolean();
 
   /**
    * Used to schedule periodic flushes to the database of the block location
@@ -163,6 +238,27 @@ public class BlockLocationServiceImpl implements BlockLocationService,
    */
   private volatile long _lastInsertCount = 0;
 
+  /**
+   * Block location record persistence stats - cumulative totals
+   */
+  private AtomicLong _totalInsertCount = new AtomicLong();
+
+  private AtomicLong _totalInsertDuration = new AtomicLong();
+
+  private AtomicLong _maxInsertDuration = new AtomicLong();
+
+  /**
+   * Block location record persistence stats - records dropped because the
+   * persistence queue was full
+   */
+  private AtomicLong _persistenceQueueDropCount = new AtomicLong();
+
+  /**
+   * Block location record persistence stats - records queued beyond the
+   * persistence queue capacity
+   */
+  private AtomicLong _persistenceQueueOverflowCount = new AtomicLong();
+
   /**
    * Records the number of times block location record cache requests fall
    * through to the database
@@ -191,6 +287,12 @@ public class BlockLocationServiceImpl implements BlockLocationService,
     _scheduledBlockLocationService = scheduleBlockLocationService;
   }
 
+  @Autowired
+  public void setBlockGeospatialService(
+      BlockGeospatialService blockGeospatialService) {
+    _blockGeospatialService = blockGeospatialService;
+  }
+
   @Autowired
   public void setBlockCalendarService(BlockCalendarService blockCalendarService) {
     _blockCalendarService = blockCalendarService;
@@ -279,6 +381,36 @@ public class BlockLocationServiceImpl implements BlockLocationService,
     return _lastInsertCount;
   }
 
+  @ManagedAttribute
+  public long getTotalInsertCount() {
+    return _totalInsertCount.get();
+  }
+
+  @ManagedAttribute
+  public long getTotalInsertDuration() {
+    return _totalInsertDuration.get();
+  }
+
+  @ManagedAttribute
+  public long getMaxInsertDuration() {
+    return _maxInsertDuration.get();
+  }
+
+  @ManagedAttribute
+  public int getPersistenceQueueDepth() {
+    return _recordPersistenceQueueSize.get();
+  }
+
+  @ManagedAttribute
+  public long getPersistenceQueueDropCount() {
+    return _persistenceQueueDropCount.get();
+  }
+
+  @ManagedAttribute
+  public long getPersistenceQueueOverflowCount() {
+    return _persistenceQueueOverflowCount.get();
+  }
+
   @ManagedAttribute
   public long getBlockLocationRecordPersistentStoreAccessCount() {
     return _blockLocationRecordPersistentStoreAccessCount.get();
@@ -291,8 +423,8 @@ public class BlockLocationServiceImpl implements BlockLocationService,
   @PostConstruct
   public void start() {
     if (_persistBlockLocationRecords)
-      _executor.scheduleAtFixedRate(new PredictionWriter(), 0, 1,
-          TimeUnit.SECONDS);
+      _executor.scheduleAtFixedRate(new PredictionWriter(), 0,
+          _persistenceFlushInterval, TimeUnit.MILLISECONDS);
   }
 
   @PreDestroy
@@ -332,6 +464,8 @@ public class BlockLocationServiceImpl implements BlockLocationService,
   @Override
   public void resetVehicleLocation(AgencyAndId vehicleId) {
     _cache.clearRecordsForVehicleId(vehicleId);
+    if (_blockGeospatialService != null)
+      _blockGeospatialService.resetVehicleLocation(vehicleId);
   }
 
   /****
@@ -1137,18 +1271,79 @@ public class BlockLocationServiceImpl implements BlockLocationService,
     return recordsByKey;
   }
 
-  private void addPredictionToPersistenceQueue(List<BlockLocationRecord> records) {
-    synchronized (_recordPersistenceQueue) {
-      _recordPersistenceQueue.addAll(records);
+  /**
+   * Package-private for testing.
+   */
+  void addPredictionToPersistenceQueue(List<BlockLocationRecord> records) {
+
+    boolean overflow = false;
+
+    for (BlockLocationRecord record : records) {
+      if (_recordPersistenceQueueSize.incrementAndGet() > _persistenceQueueCapacity) {
+        if (_dropRecordsWhenPersistenceQueueFull) {
+          _recordPersistenceQueueSize.decrementAndGet();
+          _persistenceQueueDropCount.incrementAndGet();
+          continue;
+        }
+        _persistenceQueueOverflowCount.incrementAndGet();
+        overflow = true;
+      }
+      _recordPersistenceQueue.add(record);
+    }
+
+    if (overflow && _persistBlockLocationRecords)
+      requestPersistenceFlush();
+  }
+
+  /**
+   * Writes all queued records to the underlying datastore on the calling
+   * thread. Package-private for testing.
+   */
+  void flushPersistenceQueue() {
+    new PredictionWriter().run();
+  }
+
+  /**
+   * Asks the writer thread to flush the persistence queue now. The realtime
+   * ingest thread never writes to the datastore itself, so a slow or failing
+   * datastore can't stall or break ingest.
+   */
+  private void requestPersistenceFlush() {
+    if (!_persistenceFlushRequested.compareAndSet(false, true))
+      return;
+    try {
+      _executor.execute(new PredictionWriter());
+    } catch (RejectedExecutionException ex) {
+      _persistenceFlushRequested.set(false);
+      _log.warn("persistence writer is shut down, leaving records queued");
     }
   }
 
-  private List<BlockLocationRecord> getPredictionPersistenceQueue() {
-    synchronized (_recordPersistenceQueue) {
-      List<BlockLocationRecord> queue = new ArrayList<BlockLocationRecord>(
-          _recordPersistenceQueue);
-      _recordPersistenceQueue.clear();
-      return queue;
+  private List<BlockLocationRecord> getPredictionPersistenceQueue(int maxCount) {
+    List<BlockLocationRecord> queue = new ArrayList<BlockLocationRecord>();
+    while (queue.size() < maxCount) {
+      BlockLocationRecord record = _recordPersistenceQueue.poll();
+      if (record == null)
+        break;
+      queue.add(record);
+    }
+    _recordPersistenceQueueSize.addAndGet(-queue.size());
+    return queue;
+  }
+
+  private void savePredictions(List<BlockLocationRecord> records) {
+    long t1 = SystemTime.currentTimeMillis();
+    _blockLocationRecordDao.saveBlockLocationRecords(records);
+    long t2 = SystemTime.currentTimeMillis();
+    long duration = t2 - t1;
+    _lastInsertDuration = duration;
+    _lastInsertCount = records.size();
+    _totalInsertCount.addAndGet(records.size());
+    _totalInsertDuration.addAndGet(duration);
+    while (true) {
+      long max = _maxInsertDuration.get();
+      if (duration <= max || _maxInsertDuration.compareAndSet(max, duration))
+        break;
     }
   }
 
@@ -1157,17 +1352,24 @@ public class BlockLocationServiceImpl implements BlockLocationService,
     @Override
     public void run() {
 
+      _persistenceFlushRequested.set(false);
+
       try {
-        List<BlockLocationRecord> queue = getPredictionPersistenceQueue();
+        /**
+         * Drain the queue in batches until a partial batch tells us we've
+         * caught up
+         */
+        while (true) {
+          List<BlockLocationRecord> queue = getPredictionPersistenceQueue(_persistenceBatchSize);
 
-        if (queue.isEmpty())
-          return;
+          if (queue.isEmpty())
+            return;
 
-        long t1 = SystemTime.currentTimeMillis();
-        _blockLocationRecordDao.saveBlockLocationRecords(queue);
-        long t2 = SystemTime.currentTimeMillis();
-        _lastInsertDuration = t2 - t1;
-        _lastInsertCount = queue.size();
+          savePredictions(queue);
+
+          if (queue.size() < _persistenceBatchSize)
+            return;
+        }
       } catch (Throwable ex) {
         _log.error("error writing block location records to dao", ex);
       }
@@ -0,0 +1,284 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.PostInsertIdentifierGenerator;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
+
+/**
+ * Bulk, insert-only persistence path for archival records. Each batch of
+ * {@link #setBatchSize(int)} records is sent to the database as one JDBC batch
+ * of INSERT statements and committed in its own transaction.
+ * 
+ * Hibernate itself won't batch inserts of an entity whose id is generated by
+ * the database (e.g. an identity column), since it has to read back each new
+ * key: that is one round trip per row. We never need the keys of archival
+ * records, so such id columns are simply left out of the statement. Other
+ * identifier generators are asked for an id per record as usual.
+ * 
+ * The statement is built from the entity's Hibernate mapping and records are
+ * written straight from their mapped property values, so nothing is kept in a
+ * session, and no cascading, interceptors or second-level cache updates
+ * happen.
+ * 
+ * If a batch fails, it is rolled back and the exception is rethrown. Batches
+ * committed before it stay committed.
+ */
+public class JdbcBatchInserter {
+
+  private int _batchSize = 1000;
+
+  private final AtomicLong _insertedRecordCount = new AtomicLong();
+
+  private final AtomicLong _failedRecordCount = new AtomicLong();
+
+  private final AtomicLong _batchCount = new AtomicLong();
+
+  private final AtomicLong _totalBatchDuration = new AtomicLong();
+
+  private volatile long _lastBatchDuration;
+
+  private volatile long _lastInsertCount;
+
+  private volatile long _lastInsertDuration;
+
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1)
+      throw new IllegalArgumentException("batchSize must be positive: "
+          + batchSize);
+    _batchSize = batchSize;
+  }
+
+  public int getBatchSize() {
+    return _batchSize;
+  }
+
+  public long getInsertedRecordCount() {
+    return _insertedRecordCount.get();
+  }
+
+  public long getFailedRecordCount() {
+    return _failedRecordCount.get();
+  }
+
+  public long getBatchCount() {
+    return _batchCount.get();
+  }
+
+  /**
+   * @return time to insert and commit the last batch, in milliseconds
+   */
+  public long getLastBatchDuration() {
+    return _lastBatchDuration;
+  }
+
+  /**
+   * @return average time to insert and commit a batch, in milliseconds
+   */
+  public long getAverageBatchDuration() {
+    long batches = _batchCount.get();
+    return batches == 0 ? 0 : _totalBatchDuration.get() / batches;
+  }
+
+  /**
+   * @return records per second over the last call to
+   *         {@link #insert(SessionFactory, Class, List)}
+   */
+  public long getLastInsertRate() {
+    return perSecond(_lastInsertCount, _lastInsertDuration);
+  }
+
+  /**
+   * @return records per second over all committed batches
+   */
+  public long getAverageInsertRate() {
+    return perSecond(_insertedRecordCount.get(), _totalBatchDuration.get());
+  }
+
+  /**
+   * Insert each record as a new row. Records must not already exist.
+   * 
+   * @param sessionFactory
+   * @param entityType the mapped entity class of the records
+   * @param records
+   */
+  public void insert(SessionFactory sessionFactory, Class<?> entityType,
+      List<?> records) {
+
+    if (records.isEmpty())
+      return;
+
+    final InsertStatement statement = new InsertStatement(
+        (SessionFactoryImplementor) sessionFactory, entityType);
+
+    long t1 = System.currentTimeMillis();
+    int inserted = 0;
+    int batchSize = _batchSize;
+
+    final Session session = sessionFactory.openSession();
+    try {
+      for (int from = 0; from < records.size(); from += batchSize) {
+        final List<?> batch = records.subList(from,
+            Math.min(from + batchSize, records.size()));
+        long batchStart = System.currentTimeMillis();
+        Transaction tx = session.beginTransaction();
+        try {
+          session.doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+              statement.execute(connection, (SessionImplementor) session, batch);
+            }
+          });
+          tx.commit();
+        } catch (RuntimeException ex) {
+          _failedRecordCount.addAndGet(batch.size());
+          try {
+            tx.rollback();
+          } catch (RuntimeException ignored) {
+            // keep the original failure
+          }
+          throw ex;
+        }
+        long batchDuration = System.currentTimeMillis() - batchStart;
+        _lastBatchDuration = batchDuration;
+        _totalBatchDuration.addAndGet(batchDuration);
+        _batchCount.incrementAndGet();
+        _insertedRecordCount.addAndGet(batch.size());
+        inserted += batch.size();
+      }
+    } finally {
+      session.close();
+      _lastInsertCount = inserted;
+      _lastInsertDuration = System.currentTimeMillis() - t1;
+    }
+  }
+
+  private static long perSecond(long count, long millis) {
+    if (millis <= 0)
+      return 0;
+    return count * 1000 / millis;
+  }
+
+  /**
+   * A parameterized INSERT for all insertable columns of an entity, in mapping
+   * order
+   */
+  static class InsertStatement {
+
+    private final AbstractEntityPersister _persister;
+
+    /**
+     * Null if the id column is left to the database
+     */
+    private final IdentifierGenerator _identifierGenerator;
+
+    private final int[] _properties;
+
+    private final String _sql;
+
+    public InsertStatement(SessionFactoryImplementor sessionFactory,
+        Class<?> entityType) {
+
+      _persister = (AbstractEntityPersister) sessionFactory.getEntityPersister(entityType.getName());
+
+      IdentifierGenerator generator = _persister.getIdentifierGenerator();
+      _identifierGenerator = generator instanceof PostInsertIdentifierGenerator
+          ? null : generator;
+
+      List<String> columns = new ArrayList<String>();
+      if (_identifierGenerator != null) {
+        for (String column : _persister.getIdentifierColumnNames())
+          columns.add(column);
+      }
+
+      boolean[] insertable = _persister.getPropertyInsertability();
+      List<Integer> properties = new ArrayList<Integer>();
+      for (int i = 0; i < insertable.length; i++) {
+        if (!insertable[i])
+          continue;
+        properties.add(i);
+        for (String column : _persister.getPropertyColumnNames(i))
+          columns.add(column);
+      }
+      _properties = new int[properties.size()];
+      for (int i = 0; i < _properties.length; i++)
+        _properties[i] = properties.get(i);
+
+      StringBuilder sql = new StringBuilder();
+      sql.append("insert into ").append(_persister.getTableName()).append(" (");
+      for (int i = 0; i < columns.size(); i++) {
+        if (i > 0)
+          sql.append(", ");
+        sql.append(columns.get(i));
+      }
+      sql.append(") values (");
+      for (int i = 0; i < columns.size(); i++)
+        sql.append(i > 0 ? ", ?" : "?");
+      sql.append(")");
+      _sql = sql.toString();
+    }
+
+    public String getSql() {
+      return _sql;
+    }
+
+    public void execute(Connection connection, SessionImplementor session,
+        List<?> records) throws SQLException {
+
+      Type[] types = _persister.getPropertyTypes();
+      int idColumns = _persister.getIdentifierColumnNames().length;
+
+      PreparedStatement statement = connection.prepareStatement(_sql);
+      try {
+        for (Object record : records) {
+          int index = 1;
+          if (_identifierGenerator != null) {
+            Serializable id = _identifierGenerator.generate(session, record);
+            _persister.getIdentifierType().nullSafeSet(statement, id, index,
+                session);
+            index += idColumns;
+          }
+          Object[] values = _persister.getPropertyValues(record);
+          for (int property : _properties) {
+            types[property].nullSafeSet(statement, values[property], index,
+                session);
+            index += _persister.getPropertyColumnNames(property).length;
+          }
+          statement.addBatch();
+        }
+        statement.executeBatch();
+      } finally {
+        statement.close();
+      }
+    }
+  }
+}
@@ -16,8 +16,11 @@
 package org.onebusaway.transit_data_federation.impl.realtime;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.realtime.api.EVehiclePhase;
@@ -41,6 +44,12 @@ class VehicleStatusServiceImpl implements VehicleLocationListener,
 
   private ConcurrentHashMap<AgencyAndId, VehicleLocationRecord> _vehicleRecordsById = new ConcurrentHashMap<AgencyAndId, VehicleLocationRecord>();
 
+  /**
+   * The same records as {@link #_vehicleRecordsById}, partitioned by agency id
+   * so that per-agency queries don't have to walk the full fleet
+   */
+  private ConcurrentMap<String, AgencyVehicleRecords> _vehicleRecordsByAgencyId = new ConcurrentHashMap<String, AgencyVehicleRecords>();
+
   private TransitGraphDao _transitGraphDao;
 
   private BlockVehicleLocationListener _blockVehicleLocationService;
@@ -76,8 +85,11 @@ class VehicleStatusServiceImpl implements VehicleLocationListener,
     if (record.getTimeOfRecord() == 0)
       throw new IllegalArgumentException("you must specify a record time");
 
-    if( record.getVehicleId() != null)
+    if( record.getVehicleId() != null) {
       _vehicleRecordsById.put(record.getVehicleId(), record);
+      getRecordsForAgency(record.getVehicleId().getAgencyId(), true).put(
+          record);
+    }
 
     AgencyAndId blockId = record.getBlockId();
 
@@ -113,6 +125,10 @@ class VehicleStatusServiceImpl implements VehicleLocationListener,
   @Override
   public void resetVehicleLocation(AgencyAndId vehicleId) {
     _vehicleRecordsById.remove(vehicleId);
+    AgencyVehicleRecords agencyRecords = getRecordsForAgency(
+        vehicleId.getAgencyId(), false);
+    if (agencyRecords != null)
+      agencyRecords.remove(vehicleId);
     _blockVehicleLocationService.resetVehicleLocation(vehicleId);
   }
 
@@ -169,4 +185,85 @@ class VehicleStatusServiceImpl implements VehicleLocationListener,
     }
     return statuses;
   }
+
+  @Override
+  public List<VehicleStatus> getAllVehicleStatusesForAgency(String agencyId) {
+    AgencyVehicleRecords agencyRecords = getRecordsForAgency(agencyId, false);
+    if (agencyRecords == null)
+      return new ArrayList<VehicleStatus>();
+    List<VehicleLocationRecord> records = agencyRecords.getSnapshot();
+    ArrayList<VehicleStatus> statuses = new ArrayList<VehicleStatus>(
+        records.size());
+    for (VehicleLocationRecord record : records) {
+      VehicleStatus status = new VehicleStatus();
+      status.setRecord(record);
+      statuses.add(status);
+    }
+    return statuses;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private AgencyVehicleRecords getRecordsForAgency(String agencyId,
+      boolean create) {
+    AgencyVehicleRecords records = _vehicleRecordsByAgencyId.get(agencyId);
+    if (records == null && create) {
+      AgencyVehicleRecords newRecords = new AgencyVehicleRecords();
+      records = _vehicleRecordsByAgencyId.putIfAbsent(agencyId, newRecords);
+      if (records == null)
+        records = newRecords;
+    }
+    return records;
+  }
+
+  /**
+   * The latest record for each vehicle of an agency. Every update bumps a
+   * version number, and readers share an immutable snapshot of the records
+   * that is only rebuilt when the version has moved on, so frequent polling
+   * between ingest cycles doesn't copy anything and every caller sees a
+   * consistent list.
+   */
+  private static class AgencyVehicleRecords {
+
+    private final ConcurrentHashMap<AgencyAndId, VehicleLocationRecord> _records = new ConcurrentHashMap<AgencyAndId, VehicleLocationRecord>();
+
+    private final AtomicLong _version = new AtomicLong();
+
+    private volatile Snapshot _snapshot = null;
+
+    public void put(VehicleLocationRecord record) {
+      _records.put(record.getVehicleId(), record);
+      _version.incrementAndGet();
+    }
+
+    public void remove(AgencyAndId vehicleId) {
+      if (_records.remove(vehicleId) != null)
+        _version.incrementAndGet();
+    }
+
+    public List<VehicleLocationRecord> getSnapshot() {
+      long version = _version.get();
+      Snapshot snapshot = _snapshot;
+      if (snapshot != null && snapshot.version == version)
+        return snapshot.records;
+      List<VehicleLocationRecord> records = Collections.unmodifiableList(new ArrayList<VehicleLocationRecord>(
+          _records.values()));
+      _snapshot = new Snapshot(version, records);
+      return records;
+    }
+  }
+
+  private static class Snapshot {
+
+    private final long version;
+
+    private final List<VehicleLocationRecord> records;
+
+    public Snapshot(long version, List<VehicleLocationRecord> records) {
+      this.version = version;
+      this.records = records;
+    }
+  }
 }
@@ -22,6 +22,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -29,9 +30,17 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -41,6 +50,7 @@ import org.onebusaway.geospatial.model.CoordinatePoint;
 import org.onebusaway.geospatial.services.SphericalGeometryLibrary;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.realtime.api.VehicleLocationListener;
+import org.onebusaway.realtime.api.TimepointPredictionRecord;
 import org.onebusaway.realtime.api.VehicleLocationRecord;
 import org.onebusaway.transit_data.model.service_alerts.ECause;
 import org.onebusaway.transit_data.model.service_alerts.ESeverity;
@@ -62,11 +72,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.google.common.io.ByteStreams;
 import com.google.protobuf.ExtensionRegistry;
 import com.google.transit.realtime.GtfsRealtime.Alert;
 import com.google.transit.realtime.GtfsRealtime.FeedEntity;
 import com.google.transit.realtime.GtfsRealtime.FeedHeader;
 import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
 import com.google.transit.realtime.GtfsRealtimeConstants;
 import com.google.transit.realtime.GtfsRealtimeOneBusAway;
 import com.jcraft.jsch.Channel;
@@ -136,7 +149,33 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
    * poll the GTFS-realtime feeds. We keep track of the timestamp of last update
    * for each vehicle id.
    */
-  private Map<AgencyAndId, Date> _lastVehicleUpdate = new HashMap<AgencyAndId, Date>();
+  private Map<AgencyAndId, Date> _lastVehicleUpdate = new ConcurrentHashMap<AgencyAndId, Date>();
+
+  /**
+   * We keep track of the trip updates and vehicle position last applied for
+   * each block + vehicle, so that we can skip the expensive conversion to a
+   * {@link VehicleLocationRecord} when they haven't changed since the previous
+   * poll. Updates that were discarded, for example because their block wasn't
+   * active yet, are not tracked and so are retried on the next poll. See
+   * {@link #setIncrementalUpdates(boolean)}.
+   */
+  private Map<BlockDescriptor, ProcessedUpdate> _lastProcessedUpdates = new HashMap<BlockDescriptor, ProcessedUpdate>();
+
+  private boolean _incrementalUpdates = true;
+
+  private volatile int _lastSkippedUpdateCount = 0;
+
+  private volatile long _totalSkippedUpdateCount = 0;
+
+  /**
+   * When greater than one, updates are partitioned by vehicle and processed
+   * concurrently by this many threads. See {@link #setParallelism(int)}.
+   */
+  private int _parallelism = 1;
+
+  private ExecutorService _parallelExecutor;
+
+  private volatile RefreshTimings _lastRefreshTimings = new RefreshTimings();
 
   /**
    * We keep track of alerts, only pushing them to the underlying
@@ -329,9 +368,63 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
     _useLabelAsId = useLabelAsId;
   }
   
+  /**
+   * When true (the default), trip updates and vehicle positions that are
+   * unchanged since the previous poll, and that carry their own timestamps,
+   * are not reprocessed.
+   * 
+   * @param incrementalUpdates
+   */
+  public void setIncrementalUpdates(boolean incrementalUpdates) {
+    _incrementalUpdates = incrementalUpdates;
+  }
+
+  /**
+   * @return the number of combined trip updates + vehicle positions that were
+   *         skipped as unchanged in the most recent refresh
+   */
+  public int getLastSkippedUpdateCount() {
+    return _lastSkippedUpdateCount;
+  }
+
+  /**
+   * @return the total number of combined trip updates + vehicle positions that
+   *         have been skipped as unchanged
+   */
+  public long getTotalSkippedUpdateCount() {
+    return _totalSkippedUpdateCount;
+  }
+
+  /**
+   * When greater than one, the combined trip updates and vehicle positions
+   * from each refresh are partitioned by vehicle id and converted and applied
+   * concurrently by the specified number of threads. Updates for the same
+   * vehicle are always handled by the same thread, in feed order. Defaults to
+   * one, meaning all updates are handled on the refresh thread.
+   * 
+   * @param parallelism
+   */
+  public void setParallelism(int parallelism) {
+    _parallelism = parallelism;
+  }
+
+  /**
+   * @return how long each stage of the most recent refresh took
+   */
+  public RefreshTimings getLastRefreshTimings() {
+    return _lastRefreshTimings;
+  }
+
   public GtfsRealtimeTripLibrary getGtfsRealtimeTripLibrary() {
     return _tripsLibrary;
   }
+
+  /**
+   * Package-private for testing.
+   */
+  void setGtfsRealtimeTripLibrary(GtfsRealtimeTripLibrary tripsLibrary) {
+    _tripsLibrary = tripsLibrary;
+  }
   
   @PostConstruct
   public void start() {
@@ -363,14 +456,21 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
     _alertLibrary = new GtfsRealtimeAlertLibrary();
     _alertLibrary.setEntitySource(_entitySource);
 
+    shutdownParallelExecutor();
+    if (_parallelism > 1) {
+      _parallelExecutor = Executors.newFixedThreadPool(_parallelism,
+          new NamedThreadFactory("gtfs-realtime-" + _agencyIds.get(0) + "-"));
+    }
+
     if (_refreshInterval > 0) {
       _refreshTask = _scheduledExecutorService.scheduleAtFixedRate(
           new RefreshTask(), 0, _refreshInterval, TimeUnit.SECONDS);
     }
   }
   
-  public void reset() {
+  public synchronized void reset() {
     _lastVehicleUpdate.clear();
+    _lastProcessedUpdates.clear();
   }
 
   @PreDestroy
@@ -379,23 +479,34 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
       _refreshTask.cancel(true);
       _refreshTask = null;
     }
+    shutdownParallelExecutor();
+  }
+
+  private void shutdownParallelExecutor() {
+    if (_parallelExecutor != null) {
+      _parallelExecutor.shutdownNow();
+      _parallelExecutor = null;
+    }
   }
 
   public void refresh() throws IOException {
+    RefreshTimings timings = new RefreshTimings();
     FeedMessage tripUpdates = _sftpTripUpdatesUrl != null ?
-        readOrReturnDefault(_sftpTripUpdatesUrl)
-        : readOrReturnDefault(_tripUpdatesUrl);
+        readOrReturnDefault(_sftpTripUpdatesUrl, timings)
+        : readOrReturnDefault(_tripUpdatesUrl, timings);
     FeedMessage vehiclePositions = _sftpVehiclePositionsUrl != null ?
-        readOrReturnDefault(_sftpVehiclePositionsUrl)
-        : readOrReturnDefault(_vehiclePositionsUrl);
+        readOrReturnDefault(_sftpVehiclePositionsUrl, timings)
+        : readOrReturnDefault(_vehiclePositionsUrl, timings);
     FeedMessage alerts = _sftpAlertsUrl != null ?
-        readOrReturnDefault(_sftpAlertsUrl)
-        : readOrReturnDefault(_alertsUrl);
+        readOrReturnDefault(_sftpAlertsUrl, timings)
+        : readOrReturnDefault(_alertsUrl, timings);
     MonitoredResult result = new MonitoredResult();
     result.setAgencyIds(_agencyIds);
-    handeUpdates(result, tripUpdates, vehiclePositions, alerts);
+    handeUpdates(result, tripUpdates, vehiclePositions, alerts, timings);
     // update reference in a thread safe manner
     _monitoredResult = result;
+    _lastRefreshTimings = timings;
+    _log.debug("refresh timings for agency " + _agencyIds.get(0) + ": " + timings);
   }
 
   /****
@@ -409,15 +520,17 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
    * @param alerts
    */
   private synchronized void handeUpdates(MonitoredResult result, FeedMessage tripUpdates,
-      FeedMessage vehiclePositions, FeedMessage alerts) {
+      FeedMessage vehiclePositions, FeedMessage alerts, RefreshTimings timings) {
 	  
 	long time = tripUpdates.getHeader().getTimestamp() * 1000;
 	_tripsLibrary.setCurrentTime(time);
 	
+    long t = System.nanoTime();
     List<CombinedTripUpdatesAndVehiclePosition> combinedUpdates = _tripsLibrary.groupTripUpdatesAndVehiclePositions(result,
         tripUpdates, vehiclePositions);
+    timings.group.addAndGet(System.nanoTime() - t);
     result.setRecordsTotal(combinedUpdates.size());
-    handleCombinedUpdates(result, combinedUpdates);
+    handleCombinedUpdates(result, combinedUpdates, timings);
     cacheVehicleLocations(vehiclePositions);
     handleAlerts(alerts);
   }
@@ -438,40 +551,26 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
   }
 
   private void handleCombinedUpdates(MonitoredResult result,
-      List<CombinedTripUpdatesAndVehiclePosition> updates) {
+      List<CombinedTripUpdatesAndVehiclePosition> updates,
+      RefreshTimings timings) {
+
+    List<UpdateBatch> batches;
+    if (_parallelExecutor == null || updates.size() < 2) {
+      UpdateBatch batch = new UpdateBatch(result, updates, timings);
+      batch.run();
+      batches = Collections.singletonList(batch);
+    } else {
+      batches = handleCombinedUpdatesInParallel(result, updates, timings);
+    }
 
     Set<AgencyAndId> seenVehicles = new HashSet<AgencyAndId>();
+    Map<BlockDescriptor, ProcessedUpdate> processedUpdates = new HashMap<BlockDescriptor, ProcessedUpdate>();
+    int skippedUpdates = 0;
 
-    for (CombinedTripUpdatesAndVehiclePosition update : updates) {
-      VehicleLocationRecord record = _tripsLibrary.createVehicleLocationRecordForUpdate(result, update);
-      if (record != null) {
-        if (record.getTripId() != null) {
-          // tripId will be null if block was matched
-          result.addUnmatchedTripId(record.getTripId().toString());
-        }
-        AgencyAndId vehicleId = record.getVehicleId();
-        // here we try to get a more accurate count of updates
-        // some providers re-send old data or future data cluttering the feed
-        // the TDS will discard these
-        if (blockNotActive(record)) {
-          _log.debug("discarding v: " + vehicleId + " as block not active");
-          continue;
-        }
-        if (!isValidLocation(record, update)) {
-          _log.debug("discarding v: " + vehicleId + " as location is bad");
-          continue;
-        }
-        seenVehicles.add(vehicleId);
-        Date timestamp = new Date(record.getTimeOfRecord());
-        Date prev = _lastVehicleUpdate.get(vehicleId);
-        if (prev == null || prev.before(timestamp)) {
-          _log.debug("matched vehicle " + vehicleId + " on block=" + record.getBlockId() + " with scheduleDeviation=" + record.getScheduleDeviation());
-          _vehicleLocationListener.handleVehicleLocationRecord(record);
-          _lastVehicleUpdate.put(vehicleId, timestamp);
-        } else {
-          _log.debug("discarding: update for vehicle " + vehicleId + " as timestamp in past");
-        }
-      }
+    for (UpdateBatch batch : batches) {
+      seenVehicles.addAll(batch.seenVehicles);
+      processedUpdates.putAll(batch.processedUpdates);
+      skippedUpdates += batch.skippedUpdates;
     }
 
     Calendar c = Calendar.getInstance();
@@ -494,8 +593,87 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
     }
     // NOTE: this implies receiving stale updates is equivalent to not being updated at all
     result.setLastUpdate(newestUpdate);
+
+    _lastProcessedUpdates = processedUpdates;
+    _lastSkippedUpdateCount = skippedUpdates;
+    _totalSkippedUpdateCount += skippedUpdates;
+
     _log.info("Agency " + this.getAgencyIds().get(0) + " has active vehicles=" + seenVehicles.size()
-        + " for updates=" + updates.size() + " with most recent timestamp " + new Date(newestUpdate));
+        + " for updates=" + updates.size() + " (unchanged=" + skippedUpdates
+        + ") with most recent timestamp " + new Date(newestUpdate));
+  }
+
+  /**
+   * Partitions the updates by vehicle and processes each partition on the
+   * parallel executor, waiting for all of them to complete. Each partition
+   * collects its own {@link MonitoredResult}, which are merged into the
+   * refresh's result at the end.
+   */
+  private List<UpdateBatch> handleCombinedUpdatesInParallel(
+      MonitoredResult result,
+      List<CombinedTripUpdatesAndVehiclePosition> updates,
+      RefreshTimings timings) {
+
+    List<List<CombinedTripUpdatesAndVehiclePosition>> partitions = new ArrayList<List<CombinedTripUpdatesAndVehiclePosition>>();
+    for (int i = 0; i < _parallelism; i++)
+      partitions.add(new ArrayList<CombinedTripUpdatesAndVehiclePosition>());
+    for (CombinedTripUpdatesAndVehiclePosition update : updates)
+      partitions.get(getPartition(update)).add(update);
+
+    List<UpdateBatch> batches = new ArrayList<UpdateBatch>();
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (List<CombinedTripUpdatesAndVehiclePosition> partition : partitions) {
+      if (partition.isEmpty())
+        continue;
+      MonitoredResult partitionResult = new MonitoredResult();
+      partitionResult.setAgencyIds(_agencyIds);
+      UpdateBatch batch = new UpdateBatch(partitionResult, partition, timings);
+      batches.add(batch);
+      futures.add(_parallelExecutor.submit(batch));
+    }
+
+    try {
+      for (Future<?> future : futures)
+        future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(
+          "interrupted waiting for GTFS-realtime updates to be processed", ex);
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException(
+          "error processing GTFS-realtime updates", ex.getCause());
+    }
+
+    for (UpdateBatch batch : batches)
+      result.addAll(batch.result);
+
+    return batches;
+  }
+
+  private int getPartition(CombinedTripUpdatesAndVehiclePosition update) {
+    if (update.block == null)
+      return 0;
+    Object key = update.block.getVehicleId();
+    if (key == null)
+      key = update.block.getBlockInstance().getBlock().getBlock().getId();
+    return (key.hashCode() & Integer.MAX_VALUE) % _parallelism;
+  }
+
+  /**
+   * @return the previously processed update for the same block + vehicle if
+   *         its trip updates and vehicle position are unchanged, or null if the
+   *         update needs to be processed
+   */
+  private ProcessedUpdate getUnchangedUpdate(
+      CombinedTripUpdatesAndVehiclePosition update) {
+    if (!_incrementalUpdates || update.block == null)
+      return null;
+    ProcessedUpdate previous = _lastProcessedUpdates.get(update.block);
+    if (previous == null || !previous.isTimestampedByFeedEntities())
+      return null;
+    if (!previous.hasSameContent(update))
+      return null;
+    return previous;
   }
 
   private boolean isValidLocation(VehicleLocationRecord record, CombinedTripUpdatesAndVehiclePosition update) {
@@ -528,6 +706,9 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
   }
 
   private void handleAlerts(FeedMessage alerts) {
+    List<ServiceAlertRecord> serviceAlertsToUpdate = new ArrayList<ServiceAlertRecord>();
+    List<AgencyAndId> serviceAlertIdsToRemove = new ArrayList<AgencyAndId>();
+
     for (FeedEntity entity : alerts.getEntityList()) {
       Alert alert = entity.getAlert();
       if (alert == null) {
@@ -539,7 +720,7 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
 
       if (entity.getIsDeleted()) {
         _alertsById.remove(id);
-        _serviceAlertService.removeServiceAlert(id);
+        serviceAlertIdsToRemove.add(id);
       } else {
         ServiceAlert.Builder serviceAlertBuilder = _alertLibrary.getAlertAsServiceAlert(
             id, alert, _alertAgencyIdMap);
@@ -628,10 +809,15 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
             }
           }
 
-          _serviceAlertService.createOrUpdateServiceAlert(serviceAlertRecord);
+          serviceAlertsToUpdate.add(serviceAlertRecord);
         }
       }
     }
+
+    // Apply the whole feed as one update
+    if (!serviceAlertsToUpdate.isEmpty() || !serviceAlertIdsToRemove.isEmpty())
+      _serviceAlertService.updateServiceAlerts(serviceAlertsToUpdate,
+          serviceAlertIdsToRemove);
   }
 
   private ESeverity getESeverity(ServiceAlert.Severity severity){
@@ -704,15 +890,33 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
    *         url is null
    * @throws IOException
    */
-  private FeedMessage readOrReturnDefault(URL url) throws IOException {
+  private FeedMessage readOrReturnDefault(URL url, RefreshTimings timings)
+      throws IOException {
     if (url == null) {
       return getDefaultFeedMessage();
     }
-    return readFeedFromUrl(url);
+    return readFeedFromUrl(url, timings);
   }
 
-  private FeedMessage readOrReturnDefault(String url) throws IOException {
-    return readFeedFromUrl(url);
+  private FeedMessage readOrReturnDefault(String url, RefreshTimings timings)
+      throws IOException {
+    return readFeedFromUrl(url, timings);
+  }
+
+  /**
+   * Reads the feed content fully before parsing it, so that fetch and parse
+   * times can be measured separately.
+   */
+  private FeedMessage readAndParseFeed(InputStream in, RefreshTimings timings)
+      throws IOException {
+    long t1 = System.nanoTime();
+    byte[] content = ByteStreams.toByteArray(in);
+    long t2 = System.nanoTime();
+    FeedMessage message = FeedMessage.parseFrom(content, _registry);
+    long t3 = System.nanoTime();
+    timings.fetch.addAndGet(t2 - t1);
+    timings.parse.addAndGet(t3 - t2);
+    return message;
   }
 
   private FeedMessage getDefaultFeedMessage() {
@@ -726,11 +930,14 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
   /**
    * 
    * @param url the {@link URL} to read from
+   * @param timings
    * @return a {@link FeedMessage} constructed from the protocol buffer content
    *         of the specified url
    * @throws IOException
    */
-  private FeedMessage readFeedFromUrl(URL url) throws IOException {
+  private FeedMessage readFeedFromUrl(URL url, RefreshTimings timings)
+      throws IOException {
+   long t = System.nanoTime();
    URLConnection urlConnection = url.openConnection();
    if (System.getProperty(GTFS_CONNECT_TIMEOUT) != null) {
      urlConnection.setConnectTimeout(Integer.parseInt(System.getProperty(GTFS_CONNECT_TIMEOUT)));
@@ -742,7 +949,8 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
    InputStream in = null;
    try {
      in = urlConnection.getInputStream();
-     return FeedMessage.parseFrom(in, _registry);
+     timings.fetch.addAndGet(System.nanoTime() - t);
+     return readAndParseFeed(in, timings);
    } catch (IOException ex) {
      _log.error("connection issue with url " + url + ", ex=" + ex);
      return getDefaultFeedMessage();
@@ -760,11 +968,14 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
    * class does not yet support the SFTP protocol.
    *
    * @param url of the SFTP feed to read
+   * @param timings
    * @return a {@link FeedMessage} constructed from the protocol buffer content
    *         of the specified url
    * @throws IOException
    */
-  private FeedMessage readFeedFromUrl(String url) throws IOException {
+  private FeedMessage readFeedFromUrl(String url, RefreshTimings timings)
+      throws IOException {
+   long t = System.nanoTime();
    Session session = null;
    Channel channel = null;
    ChannelSftp downloadChannelSftp = null;
@@ -802,8 +1013,9 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
      downloadChannelSftp.cd(downloadChannelSftp.getHome() + "/" + rdir);
      File downloadFile = new File(downloadChannelSftp.getHome() + "/" + rfile);
      in = downloadChannelSftp.get(downloadFile.getName());
+     timings.fetch.addAndGet(System.nanoTime() - t);
 
-     return FeedMessage.parseFrom(in, _registry);
+     return readAndParseFeed(in, timings);
    } catch (JSchException ex) {
      _log.error("connection issue with sftp url " + url);
      return getDefaultFeedMessage();
@@ -851,4 +1063,236 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
       }
     }
   }
+
+  /**
+   * Converts a list of combined trip updates + vehicle positions into
+   * {@link VehicleLocationRecord} records and passes them on to the
+   * {@link VehicleLocationListener}, in order. Each batch collects the vehicles
+   * it saw and the updates it processed so that they can be combined once all
+   * batches for a refresh are done.
+   */
+  private class UpdateBatch implements Runnable {
+
+    private final MonitoredResult result;
+
+    private final List<CombinedTripUpdatesAndVehiclePosition> updates;
+
+    private final RefreshTimings timings;
+
+    private final Set<AgencyAndId> seenVehicles = new HashSet<AgencyAndId>();
+
+    private final Map<BlockDescriptor, ProcessedUpdate> processedUpdates = new HashMap<BlockDescriptor, ProcessedUpdate>();
+
+    private int skippedUpdates = 0;
+
+    public UpdateBatch(MonitoredResult result,
+        List<CombinedTripUpdatesAndVehiclePosition> updates,
+        RefreshTimings timings) {
+      this.result = result;
+      this.updates = updates;
+      this.timings = timings;
+    }
+
+    @Override
+    public void run() {
+      long matchTime = 0;
+      long applyTime = 0;
+      for (CombinedTripUpdatesAndVehiclePosition update : updates) {
+        long t1 = System.nanoTime();
+        VehicleLocationRecord record = match(update);
+        long t2 = System.nanoTime();
+        matchTime += t2 - t1;
+        if (record != null) {
+          apply(record);
+          if (_incrementalUpdates && update.block != null) {
+            processedUpdates.put(update.block, new ProcessedUpdate(update,
+                record, _tripsLibrary.getCurrentTime()));
+          }
+          applyTime += System.nanoTime() - t2;
+        }
+      }
+      timings.match.addAndGet(matchTime);
+      timings.apply.addAndGet(applyTime);
+    }
+
+    /**
+     * @return the record to pass to the listener, or null if the update should
+     *         be discarded
+     */
+    private VehicleLocationRecord match(
+        CombinedTripUpdatesAndVehiclePosition update) {
+
+      ProcessedUpdate previous = getUnchangedUpdate(update);
+      if (previous != null) {
+        /**
+         * Reprocessing would produce a record with the same timestamp as the
+         * one we already sent, which would be discarded in apply() anyway
+         */
+        skippedUpdates++;
+        processedUpdates.put(update.block, previous);
+        previous.addToMonitoredResult(result);
+        seenVehicles.add(previous.record.getVehicleId());
+        return null;
+      }
+
+      VehicleLocationRecord record = _tripsLibrary.createVehicleLocationRecordForUpdate(result, update);
+      if (record == null)
+        return null;
+
+      if (record.getTripId() != null) {
+        // tripId will be null if block was matched
+        result.addUnmatchedTripId(record.getTripId().toString());
+      }
+      AgencyAndId vehicleId = record.getVehicleId();
+      // here we try to get a more accurate count of updates
+      // some providers re-send old data or future data cluttering the feed
+      // the TDS will discard these
+      if (blockNotActive(record)) {
+        _log.debug("discarding v: " + vehicleId + " as block not active");
+        return null;
+      }
+      if (!isValidLocation(record, update)) {
+        _log.debug("discarding v: " + vehicleId + " as location is bad");
+        return null;
+      }
+      seenVehicles.add(vehicleId);
+      return record;
+    }
+
+    private void apply(VehicleLocationRecord record) {
+      AgencyAndId vehicleId = record.getVehicleId();
+      Date timestamp = new Date(record.getTimeOfRecord());
+      Date prev = _lastVehicleUpdate.get(vehicleId);
+      if (prev == null || prev.before(timestamp)) {
+        _log.debug("matched vehicle " + vehicleId + " on block=" + record.getBlockId() + " with scheduleDeviation=" + record.getScheduleDeviation());
+        _vehicleLocationListener.handleVehicleLocationRecord(record);
+        _lastVehicleUpdate.put(vehicleId, timestamp);
+      } else {
+        _log.debug("discarding: update for vehicle " + vehicleId + " as timestamp in past");
+      }
+    }
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+
+    private final String _prefix;
+
+    private final AtomicInteger _count = new AtomicInteger();
+
+    public NamedThreadFactory(String prefix) {
+      _prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, _prefix + _count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  /**
+   * How long each stage of a refresh took. Match and apply times are summed
+   * across threads when updates are processed in parallel.
+   */
+  public static class RefreshTimings {
+
+    private final AtomicLong fetch = new AtomicLong();
+
+    private final AtomicLong parse = new AtomicLong();
+
+    private final AtomicLong group = new AtomicLong();
+
+    private final AtomicLong match = new AtomicLong();
+
+    private final AtomicLong apply = new AtomicLong();
+
+    public long getFetchTime() {
+      return TimeUnit.NANOSECONDS.toMillis(fetch.get());
+    }
+
+    public long getParseTime() {
+      return TimeUnit.NANOSECONDS.toMillis(parse.get());
+    }
+
+    public long getGroupTime() {
+      return TimeUnit.NANOSECONDS.toMillis(group.get());
+    }
+
+    public long getMatchTime() {
+      return TimeUnit.NANOSECONDS.toMillis(match.get());
+    }
+
+    public long getApplyTime() {
+      return TimeUnit.NANOSECONDS.toMillis(apply.get());
+    }
+
+    @Override
+    public String toString() {
+      return "fetch=" + getFetchTime() + "ms parse=" + getParseTime()
+          + "ms group=" + getGroupTime() + "ms match=" + getMatchTime()
+          + "ms apply=" + getApplyTime() + "ms";
+    }
+  }
+
+  /**
+   * A combined trip update + vehicle position that was applied in a previous
+   * refresh, along with the resulting {@link VehicleLocationRecord}.
+   */
+  private static class ProcessedUpdate {
+
+    private final List<TripUpdate> tripUpdates;
+
+    private final VehiclePosition vehiclePosition;
+
+    private final VehicleLocationRecord record;
+
+    private final long currentTime;
+
+    public ProcessedUpdate(CombinedTripUpdatesAndVehiclePosition update,
+        VehicleLocationRecord record, long currentTime) {
+      this.tripUpdates = update.tripUpdates;
+      this.vehiclePosition = update.vehiclePosition;
+      this.record = record;
+      this.currentTime = currentTime;
+    }
+
+    /**
+     * If the record's timestamp came from the trip updates themselves rather
+     * than defaulting to the feed header time, reprocessing identical trip
+     * updates will produce the same timestamp.
+     */
+    public boolean isTimestampedByFeedEntities() {
+      return currentTime != 0 && record.getTimeOfRecord() != currentTime;
+    }
+
+    public boolean hasSameContent(CombinedTripUpdatesAndVehiclePosition update) {
+      if (vehiclePosition == null ? update.vehiclePosition != null
+          : !vehiclePosition.equals(update.vehiclePosition))
+        return false;
+      return tripUpdates == null ? update.tripUpdates == null
+          : tripUpdates.equals(update.tripUpdates);
+    }
+
+    /**
+     * Replays the bookkeeping that processing the update would have added to
+     * the {@link MonitoredResult}.
+     */
+    public void addToMonitoredResult(MonitoredResult result) {
+      if (record.getTripId() != null) {
+        result.addMatchedTripId(record.getTripId().toString());
+        result.addUnmatchedTripId(record.getTripId().toString());
+      } else if (record.getBlockId() != null) {
+        result.addMatchedTripId(record.getBlockId().toString());
+      }
+      if (record.getTimepointPredictions() != null) {
+        for (TimepointPredictionRecord tpr : record.getTimepointPredictions())
+          result.addMatchedStopId(tpr.getTimepointId().getId());
+      }
+      if (vehiclePosition != null) {
+        result.addLatLon(vehiclePosition.getPosition().getLatitude(),
+            vehiclePosition.getPosition().getLongitude());
+      }
+    }
+  }
 }
@@ -426,7 +426,7 @@ public class GtfsRealtimeTripLibrary {
     applyTripUpdatesToRecord(result, blockDescriptor, update.tripUpdates, record, vehicleId, update.bestTrip);
 
     if (update.vehiclePosition != null) {
-      applyVehiclePositionToRecord(result, blockDescriptor, update.vehiclePosition, record);
+      applyVehiclePositionToRecord(result, blockDescriptor, update.vehiclePosition, record, update.bestTrip);
     }
 
     /**
@@ -914,7 +914,7 @@ public class GtfsRealtimeTripLibrary {
   private void applyVehiclePositionToRecord(MonitoredResult result,
       BlockDescriptor blockDescriptor,
       VehiclePosition vehiclePosition,
-      VehicleLocationRecord record) {
+      VehicleLocationRecord record, String bestTrip) {
     Position position = vehiclePosition.getPosition();
     if (vehiclePosition.hasTimestamp()) {
       record.setTimeOfLocationUpdate(TimeUnit.SECONDS.toMillis(vehiclePosition.getTimestamp())); //vehicle timestamp is in seconds
@@ -926,10 +926,26 @@ public class GtfsRealtimeTripLibrary {
     }
     if (_scheduleAdherenceFromLocation) {
       CoordinatePoint location = new CoordinatePoint(position.getLatitude(), position.getLongitude());
-      double totalDistance = blockDescriptor.getBlockInstance().getBlock().getTotalBlockDistance();
       long timestamp = vehiclePosition.hasTimestamp() ? record.getTimeOfLocationUpdate() : record.getTimeOfRecord();
-      ScheduledBlockLocation loc = _blockGeospatialService.getBestScheduledBlockLocationForLocation(
-          blockDescriptor.getBlockInstance(), location, timestamp, 0, totalDistance);
+      ScheduledBlockLocation loc;
+      if (blockDescriptor.getVehicleId() != null) {
+        /**
+         * Consecutive positions for the same vehicle only search a window of
+         * the block around where it was last matched
+         */
+        String agencyId = record.getBlockId().getAgencyId();
+        AgencyAndId vehicleId = new AgencyAndId(agencyId,
+            blockDescriptor.getVehicleId());
+        AgencyAndId tripId = bestTrip == null ? null : new AgencyAndId(
+            agencyId, bestTrip);
+        loc = _blockGeospatialService.getBestScheduledBlockLocationForVehicleLocation(
+            vehicleId, tripId, blockDescriptor.getBlockInstance(), location,
+            timestamp);
+      } else {
+        double totalDistance = blockDescriptor.getBlockInstance().getBlock().getTotalBlockDistance();
+        loc = _blockGeospatialService.getBestScheduledBlockLocationForLocation(
+            blockDescriptor.getBlockInstance(), location, timestamp, 0, totalDistance);
+      }
       
       long serviceDateTime = record.getServiceDate();
       long effectiveScheduleTime = loc.getScheduledTime() + (serviceDateTime/1000);
@@ -126,4 +126,17 @@ public class MonitoredResult {
     CoordinatePoint cp = new CoordinatePoint(latitude, longitude);
     _allCoordinates.add(cp);
   }
+
+  /**
+   * Adds the matched and unmatched ids and coordinates of another result to
+   * this one.
+   */
+  void addAll(MonitoredResult other) {
+    _unmatchedTripIds.addAll(other._unmatchedTripIds);
+    _matchedTripIds.addAll(other._matchedTripIds);
+    _unmatchedStopIds.addAll(other._unmatchedStopIds);
+    _matchedStopIds.addAll(other._matchedStopIds);
+    _unmatchedBlockIds.addAll(other._unmatchedBlockIds);
+    _allCoordinates.addAll(other._allCoordinates);
+  }
 }
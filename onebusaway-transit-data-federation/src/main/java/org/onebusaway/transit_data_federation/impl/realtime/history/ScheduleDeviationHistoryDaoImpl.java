@@ -15,23 +15,47 @@
  */
 package org.onebusaway.transit_data_federation.impl.realtime.history;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.hibernate.Criteria;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Property;
+import org.onebusaway.container.ConfigurationParameter;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data_federation.services.realtime.ScheduleDeviationHistoryDao;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 @Component
+@ManagedResource("org.onebusaway.transit_data_federation.impl.realtime.history:name=ScheduleDeviationHistoryDaoImpl")
 public class ScheduleDeviationHistoryDaoImpl implements
     ScheduleDeviationHistoryDao {
 
   private SessionFactory _sessionFactory;
 
+  private int _batchSize = 100;
+
+  private final AtomicLong _insertedRecordCount = new AtomicLong();
+
+  private final AtomicLong _updatedRecordCount = new AtomicLong();
+
+  private final AtomicLong _batchCount = new AtomicLong();
+
+  private final AtomicLong _totalBatchDuration = new AtomicLong();
+
+  private volatile long _lastBatchDuration;
+
   /**
    * Note we are requesting the "mutable" {@link SessionFactory}, aka the one we
    * can write to
@@ -43,19 +67,108 @@ public class ScheduleDeviationHistoryDaoImpl implements
     _sessionFactory = sessionFactory;
   }
 
+  /**
+   * The number of records written per flush by
+   * {@link #saveScheduleDeviationHistory(List)}.
+   * 
+   * @param batchSize
+   */
+  @ConfigurationParameter
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1)
+      throw new IllegalArgumentException("batchSize must be positive: "
+          + batchSize);
+    _batchSize = batchSize;
+  }
+
+  @ManagedAttribute
+  public int getBatchSize() {
+    return _batchSize;
+  }
+
+  @ManagedAttribute
+  public long getInsertedRecordCount() {
+    return _insertedRecordCount.get();
+  }
+
+  @ManagedAttribute
+  public long getUpdatedRecordCount() {
+    return _updatedRecordCount.get();
+  }
+
+  @ManagedAttribute
+  public long getBatchCount() {
+    return _batchCount.get();
+  }
+
+  @ManagedAttribute
+  public long getBatchLastDuration() {
+    return _lastBatchDuration;
+  }
+
+  @ManagedAttribute
+  public long getBatchAverageDuration() {
+    long batches = _batchCount.get();
+    return batches == 0 ? 0 : _totalBatchDuration.get() / batches;
+  }
+
+  @ManagedAttribute
+  public long getBatchAverageSaveRate() {
+    long duration = _totalBatchDuration.get();
+    if (duration <= 0)
+      return 0;
+    return (_insertedRecordCount.get() + _updatedRecordCount.get()) * 1000
+        / duration;
+  }
+
   @Override
   @Transactional
   public void saveScheduleDeviationHistory(ScheduleDeviationHistory record) {
     getSession().save(record);
   }
 
+  /**
+   * Existing histories are updated and new ones inserted, as with
+   * saveOrUpdate. Rather than a select per record to tell the two apart, each
+   * batch of {@link #setBatchSize(int)} records is checked with one query per
+   * agency. The session is flushed and cleared after each batch, so the
+   * inserts and updates go out as JDBC batches and records don't pile up in
+   * the session.
+   */
   @Override
   @Transactional
   public void saveScheduleDeviationHistory(
       List<ScheduleDeviationHistory> records) {
+
     Session session = getSession();
-    for (Iterator<ScheduleDeviationHistory> it = records.iterator(); it.hasNext();) {
-      session.saveOrUpdate(it.next());
+    int batchSize = _batchSize;
+
+    for (int from = 0; from < records.size(); from += batchSize) {
+      List<ScheduleDeviationHistory> batch = records.subList(from,
+          Math.min(from + batchSize, records.size()));
+      long t1 = System.currentTimeMillis();
+
+      Set<AgencyAndId> existing = getExistingTripIds(session, batch);
+      int inserted = 0;
+      int updated = 0;
+      for (ScheduleDeviationHistory record : batch) {
+        if (existing.contains(record.getTripId())) {
+          session.update(record);
+          updated++;
+        } else {
+          session.save(record);
+          inserted++;
+        }
+      }
+      session.flush();
+      session.clear();
+
+      long duration = System.currentTimeMillis() - t1;
+      _lastBatchDuration = duration;
+      _totalBatchDuration.addAndGet(duration);
+      _batchCount.incrementAndGet();
+      _insertedRecordCount.addAndGet(inserted);
+      _updatedRecordCount.addAndGet(updated);
     }
   }
 
@@ -66,6 +179,36 @@ public class ScheduleDeviationHistoryDaoImpl implements
     return (ScheduleDeviationHistory) getSession().get(ScheduleDeviationHistory.class, tripId);
   }
 
+  /****
+   * Private Methods
+   ****/
+
+  @SuppressWarnings("unchecked")
+  private Set<AgencyAndId> getExistingTripIds(Session session,
+      List<ScheduleDeviationHistory> records) {
+
+    Map<String, List<String>> idsByAgency = new LinkedHashMap<String, List<String>>();
+    for (ScheduleDeviationHistory record : records) {
+      AgencyAndId tripId = record.getTripId();
+      List<String> ids = idsByAgency.get(tripId.getAgencyId());
+      if (ids == null) {
+        ids = new ArrayList<String>();
+        idsByAgency.put(tripId.getAgencyId(), ids);
+      }
+      ids.add(tripId.getId());
+    }
+
+    Set<AgencyAndId> existing = new HashSet<AgencyAndId>();
+    for (Map.Entry<String, List<String>> entry : idsByAgency.entrySet()) {
+      Criteria c = session.createCriteria(ScheduleDeviationHistory.class);
+      c.add(Property.forName("tripId.agencyId").eq(entry.getKey()));
+      c.add(Property.forName("tripId.id").in(entry.getValue()));
+      c.setProjection(Projections.id());
+      existing.addAll(c.list());
+    }
+    return existing;
+  }
+
   private Session getSession(){
     return _sessionFactory.getCurrentSession();
   }
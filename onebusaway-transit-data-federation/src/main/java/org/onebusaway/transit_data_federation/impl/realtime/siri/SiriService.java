@@ -275,12 +275,11 @@ public class SiriService {
     if (!CollectionsLibrary.isEmpty(endpointDetails.getDefaultAgencyIds()))
       defaultAgencyId = endpointDetails.getDefaultAgencyIds().get(0);
 
-    for (ServiceAlertRecord serviceAlert : serviceAlertsToUpdate){
+    for (ServiceAlertRecord serviceAlert : serviceAlertsToUpdate)
       serviceAlert.setAgencyId(defaultAgencyId);
-      _serviceAlertsService.createOrUpdateServiceAlert(serviceAlert);
-    }
 
-    _serviceAlertsService.removeServiceAlerts(serviceAlertIdsToRemove);
+    _serviceAlertsService.updateServiceAlerts(serviceAlertsToUpdate,
+        serviceAlertIdsToRemove);
   }
 
   private ServiceAlertRecord getPtSituationAsServiceAlert(
@@ -0,0 +1,421 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.service_alerts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+
+/**
+ * Caches which service alerts apply to an agency, a route / direction, a
+ * route / direction / stop or a trip, with the alerts' publication windows
+ * flattened into a timeline. Looking up the active alerts for a key at a given
+ * time is then a binary search rather than a walk over every candidate alert's
+ * windows.
+ * 
+ * Each published alert snapshot in {@link ServiceAlertsServiceImpl} has its own
+ * index. Entries are computed on demand from that snapshot, and the index for
+ * the next snapshot starts from a copy of the current one with the entries
+ * affected by the update invalidated.
+ * 
+ * Only keys that some alert applies to are stored, so the index is bounded by
+ * the alerts rather than by the keys that have been queried. Entries are also
+ * indexed by the agency, route and trip in their key and by the alerts in their
+ * timeline, so invalidation only touches the entries it drops.
+ */
+class ServiceAlertsApplicabilityIndex {
+
+  private final ConcurrentMap<Key, Timeline> _timelines;
+
+  private final ConcurrentMap<String, Set<Key>> _keysByAgencyId = new ConcurrentHashMap<String, Set<Key>>();
+
+  private final ConcurrentMap<AgencyAndId, Set<Key>> _keysByRouteId = new ConcurrentHashMap<AgencyAndId, Set<Key>>();
+
+  private final ConcurrentMap<AgencyAndId, Set<Key>> _keysByTripId = new ConcurrentHashMap<AgencyAndId, Set<Key>>();
+
+  private final ConcurrentMap<AgencyAndId, Set<Key>> _keysByServiceAlertId = new ConcurrentHashMap<AgencyAndId, Set<Key>>();
+
+  public ServiceAlertsApplicabilityIndex() {
+    _timelines = new ConcurrentHashMap<Key, Timeline>();
+  }
+
+  /**
+   * The reverse indices are rebuilt from the copied entries, rather than copied
+   * themselves, as entries may be added to the source index concurrently
+   */
+  public ServiceAlertsApplicabilityIndex(ServiceAlertsApplicabilityIndex index) {
+    _timelines = new ConcurrentHashMap<Key, Timeline>(index._timelines);
+    for (Map.Entry<Key, Timeline> entry : _timelines.entrySet())
+      addReferences(entry.getKey(), entry.getValue());
+  }
+
+  public static Key forAgency(String agencyId) {
+    return new Key(agencyId, null, null, null, null);
+  }
+
+  public static Key forRoute(AgencyAndId routeId, String directionId) {
+    return new Key(null, routeId, directionId, null, null);
+  }
+
+  public static Key forRouteStop(AgencyAndId routeId, String directionId,
+      AgencyAndId stopId) {
+    return new Key(null, routeId, directionId, stopId, null);
+  }
+
+  public static Key forTrip(AgencyAndId tripId) {
+    return new Key(null, null, null, null, tripId);
+  }
+
+  public Timeline get(Key key) {
+    return _timelines.get(key);
+  }
+
+  /**
+   * @param key
+   * @param serviceAlerts all alerts that apply to the key, regardless of time
+   * @return the timeline for the alerts, which is only stored if there are any
+   */
+  public Timeline put(Key key, Collection<ServiceAlertRecord> serviceAlerts) {
+    Timeline timeline = Timeline.create(serviceAlerts);
+    if (timeline.isEmpty())
+      return timeline;
+    addReferences(key, timeline);
+    Timeline existing = _timelines.put(key, timeline);
+    if (existing != null)
+      removeReferences(key, existing);
+    return timeline;
+  }
+
+  /**
+   * Drop every entry that currently includes the specified alert, along with
+   * every entry the alert's (possibly new) affects clauses could apply to.
+   * 
+   * @param serviceAlertId
+   * @param serviceAlert the new version of the alert, or null if it was removed
+   */
+  public void invalidate(AgencyAndId serviceAlertId,
+      ServiceAlertRecord serviceAlert) {
+
+    Set<Key> keys = new HashSet<Key>();
+    addKeys(_keysByServiceAlertId, serviceAlertId, keys);
+
+    if (serviceAlert != null && serviceAlert.getAllAffects() != null) {
+      for (ServiceAlertsSituationAffectsClause affects : serviceAlert.getAllAffects()) {
+        if (affects.getAgencyId() != null)
+          addKeys(_keysByAgencyId, affects.getAgencyId(), keys);
+        if (affects.getRouteId() != null)
+          addKeys(_keysByRouteId, ServiceAlertLibrary.agencyAndIdAndId(
+              serviceAlert.getAgencyId(), affects.getRouteId()), keys);
+        if (affects.getTripId() != null)
+          addKeys(_keysByTripId, ServiceAlertLibrary.agencyAndIdAndId(
+              serviceAlert.getAgencyId(), affects.getTripId()), keys);
+      }
+    }
+
+    for (Key key : keys) {
+      Timeline timeline = _timelines.remove(key);
+      if (timeline != null)
+        removeReferences(key, timeline);
+    }
+  }
+
+  public void clear() {
+    _timelines.clear();
+    _keysByAgencyId.clear();
+    _keysByRouteId.clear();
+    _keysByTripId.clear();
+    _keysByServiceAlertId.clear();
+  }
+
+  public int size() {
+    return _timelines.size();
+  }
+
+  private void addReferences(Key key, Timeline timeline) {
+    if (key.getAgencyId() != null)
+      addReference(_keysByAgencyId, key.getAgencyId(), key);
+    if (key.getRouteId() != null)
+      addReference(_keysByRouteId, key.getRouteId(), key);
+    if (key.getTripId() != null)
+      addReference(_keysByTripId, key.getTripId(), key);
+    for (AgencyAndId serviceAlertId : timeline.getServiceAlertIds())
+      addReference(_keysByServiceAlertId, serviceAlertId, key);
+  }
+
+  private void removeReferences(Key key, Timeline timeline) {
+    if (key.getAgencyId() != null)
+      removeReference(_keysByAgencyId, key.getAgencyId(), key);
+    if (key.getRouteId() != null)
+      removeReference(_keysByRouteId, key.getRouteId(), key);
+    if (key.getTripId() != null)
+      removeReference(_keysByTripId, key.getTripId(), key);
+    for (AgencyAndId serviceAlertId : timeline.getServiceAlertIds())
+      removeReference(_keysByServiceAlertId, serviceAlertId, key);
+  }
+
+  private static <T> void addReference(ConcurrentMap<T, Set<Key>> keysById,
+      T id, Key key) {
+    Set<Key> keys = keysById.get(id);
+    if (keys == null) {
+      keys = Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>());
+      Set<Key> existing = keysById.putIfAbsent(id, keys);
+      if (existing != null)
+        keys = existing;
+    }
+    keys.add(key);
+  }
+
+  private static <T> void removeReference(Map<T, Set<Key>> keysById, T id,
+      Key key) {
+    Set<Key> keys = keysById.get(id);
+    if (keys == null)
+      return;
+    keys.remove(key);
+    if (keys.isEmpty())
+      keysById.remove(id);
+  }
+
+  private static <T> void addKeys(Map<T, Set<Key>> keysById, T id,
+      Set<Key> keys) {
+    Set<Key> existing = keysById.get(id);
+    if (existing != null)
+      keys.addAll(existing);
+  }
+
+  /**
+   * The alerts that apply to a key, bucketed by the intervals between the
+   * start and end points of their publication windows
+   */
+  public static final class Timeline {
+
+    /**
+     * Past this many bucket entries, a timeline is not bucketed and active
+     * alerts are filtered at query time instead, to bound the memory used by
+     * keys with many alerts that each have their own windows
+     */
+    private static final int MAX_BUCKET_ENTRIES = 1 << 18;
+
+    private static final Timeline EMPTY = new Timeline(
+        Collections.<AgencyAndId> emptySet(),
+        Collections.<ServiceAlertRecord> emptyList(), new long[0],
+        Collections.singletonList(Collections.<ServiceAlertRecord> emptyList()));
+
+    private final Set<AgencyAndId> _serviceAlertIds;
+
+    private final List<ServiceAlertRecord> _allServiceAlerts;
+
+    /**
+     * Sorted times at which the set of active alerts changes. Bucket i + 1
+     * covers [boundaries[i], boundaries[i + 1]) and bucket 0 covers everything
+     * before the first boundary.
+     */
+    private final long[] _boundaries;
+
+    private final List<List<ServiceAlertRecord>> _buckets;
+
+    private Timeline(Set<AgencyAndId> serviceAlertIds,
+        List<ServiceAlertRecord> allServiceAlerts, long[] boundaries,
+        List<List<ServiceAlertRecord>> buckets) {
+      _serviceAlertIds = serviceAlertIds;
+      _allServiceAlerts = allServiceAlerts;
+      _boundaries = boundaries;
+      _buckets = buckets;
+    }
+
+    public static Timeline create(Collection<ServiceAlertRecord> serviceAlerts) {
+
+      if (serviceAlerts.isEmpty())
+        return EMPTY;
+
+      Set<AgencyAndId> ids = new HashSet<AgencyAndId>();
+      TreeSet<Long> boundarySet = new TreeSet<Long>();
+
+      for (ServiceAlertRecord serviceAlert : serviceAlerts) {
+        ids.add(ServiceAlertLibrary.agencyAndId(serviceAlert.getAgencyId(),
+            serviceAlert.getServiceAlertId()));
+        Set<ServiceAlertTimeRange> windows = serviceAlert.getPublicationWindows();
+        if (windows == null)
+          continue;
+        for (ServiceAlertTimeRange window : windows) {
+          if (window.getFromValue() != null)
+            boundarySet.add(window.getFromValue());
+          // Windows are inclusive of their end time
+          if (window.getToValue() != null
+              && window.getToValue() < Long.MAX_VALUE)
+            boundarySet.add(window.getToValue() + 1);
+        }
+      }
+
+      List<ServiceAlertRecord> allServiceAlerts = Collections.unmodifiableList(new ArrayList<ServiceAlertRecord>(
+          serviceAlerts));
+
+      if ((long) (boundarySet.size() + 1) * serviceAlerts.size() > MAX_BUCKET_ENTRIES)
+        return new Timeline(ids, allServiceAlerts, null, null);
+
+      long[] boundaries = new long[boundarySet.size()];
+      int index = 0;
+      for (Long boundary : boundarySet)
+        boundaries[index++] = boundary;
+
+      List<List<ServiceAlertRecord>> buckets = new ArrayList<List<ServiceAlertRecord>>(
+          boundaries.length + 1);
+      for (int i = 0; i <= boundaries.length; i++) {
+        long t = i == 0 ? Long.MIN_VALUE : boundaries[i - 1];
+        List<ServiceAlertRecord> bucket = new ArrayList<ServiceAlertRecord>();
+        for (ServiceAlertRecord serviceAlert : serviceAlerts) {
+          if (isActive(serviceAlert, t))
+            bucket.add(serviceAlert);
+        }
+        buckets.add(Collections.unmodifiableList(bucket));
+      }
+
+      return new Timeline(ids, allServiceAlerts, boundaries, buckets);
+    }
+
+    /**
+     * @param time the query time, or -1 for all alerts regardless of their
+     *          publication windows
+     * @return the active alerts, which should not be modified
+     */
+    public List<ServiceAlertRecord> getActiveServiceAlerts(long time) {
+      if (time == -1)
+        return _allServiceAlerts;
+      if (_boundaries == null) {
+        List<ServiceAlertRecord> active = new ArrayList<ServiceAlertRecord>();
+        for (ServiceAlertRecord serviceAlert : _allServiceAlerts) {
+          if (isActive(serviceAlert, time))
+            active.add(serviceAlert);
+        }
+        return active;
+      }
+      int index = Arrays.binarySearch(_boundaries, time);
+      if (index < 0)
+        index = -(index + 1);
+      else
+        index++;
+      return _buckets.get(index);
+    }
+
+    Set<AgencyAndId> getServiceAlertIds() {
+      return _serviceAlertIds;
+    }
+
+    public boolean isEmpty() {
+      return _allServiceAlerts.isEmpty();
+    }
+
+    static boolean isActive(ServiceAlertRecord serviceAlert, long time) {
+      Set<ServiceAlertTimeRange> windows = serviceAlert.getPublicationWindows();
+      if (windows == null || windows.isEmpty())
+        return true;
+      for (ServiceAlertTimeRange window : windows) {
+        if ((window.getFromValue() == null || window.getFromValue() <= time)
+            && (window.getToValue() == null || window.getToValue() >= time))
+          return true;
+      }
+      return false;
+    }
+  }
+
+  public static final class Key {
+
+    private final String _agencyId;
+
+    private final AgencyAndId _routeId;
+
+    private final String _directionId;
+
+    private final AgencyAndId _stopId;
+
+    private final AgencyAndId _tripId;
+
+    private Key(String agencyId, AgencyAndId routeId, String directionId,
+        AgencyAndId stopId, AgencyAndId tripId) {
+      _agencyId = agencyId;
+      _routeId = routeId;
+      _directionId = directionId;
+      _stopId = stopId;
+      _tripId = tripId;
+    }
+
+    public String getAgencyId() {
+      return _agencyId;
+    }
+
+    public AgencyAndId getRouteId() {
+      return _routeId;
+    }
+
+    public String getDirectionId() {
+      return _directionId;
+    }
+
+    public AgencyAndId getStopId() {
+      return _stopId;
+    }
+
+    public AgencyAndId getTripId() {
+      return _tripId;
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + ((_agencyId == null) ? 0 : _agencyId.hashCode());
+      result = prime * result
+          + ((_directionId == null) ? 0 : _directionId.hashCode());
+      result = prime * result + ((_routeId == null) ? 0 : _routeId.hashCode());
+      result = prime * result + ((_stopId == null) ? 0 : _stopId.hashCode());
+      result = prime * result + ((_tripId == null) ? 0 : _tripId.hashCode());
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null || getClass() != obj.getClass())
+        return false;
+      Key other = (Key) obj;
+      return equal(_agencyId, other._agencyId)
+          && equal(_routeId, other._routeId)
+          && equal(_directionId, other._directionId)
+          && equal(_stopId, other._stopId) && equal(_tripId, other._tripId);
+    }
+
+    @Override
+    public String toString() {
+      return "(agencyId=" + _agencyId + " routeId=" + _routeId
+          + " directionId=" + _directionId + " stopId=" + _stopId + " tripId="
+          + _tripId + ")";
+    }
+
+    private static boolean equal(Object a, Object b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+}
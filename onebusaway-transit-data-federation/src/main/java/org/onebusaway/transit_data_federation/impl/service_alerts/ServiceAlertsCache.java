@@ -22,7 +22,14 @@ import java.util.Map;
 import java.util.Set;
 
 public interface ServiceAlertsCache {
-  
+
+  /**
+   * @return a copy of this cache that can be modified without affecting it.
+   *         The id sets are shared with this cache, so they must be replaced
+   *         rather than modified in place.
+   */
+  ServiceAlertsCache copy();
+
   void clear();
 
   Map<AgencyAndId, ServiceAlertRecord> getServiceAlerts();
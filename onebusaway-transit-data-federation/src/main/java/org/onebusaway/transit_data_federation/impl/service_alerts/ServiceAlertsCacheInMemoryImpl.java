@@ -19,218 +19,151 @@ package org.onebusaway.transit_data_federation.impl.service_alerts;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Semaphore;
 
+/**
+ * Not thread safe: {@link ServiceAlertsServiceImpl} only modifies a cache
+ * before publishing it, and copies it for each subsequent update, so the maps
+ * and id sets of a published cache are never modified.
+ */
 @Component
 public class ServiceAlertsCacheInMemoryImpl implements ServiceAlertsCache {
 
-  private final Semaphore _available = new Semaphore(1, true);
-  
-  private ConcurrentMap<AgencyAndId, ServiceAlertRecord> _serviceAlerts = new ConcurrentHashMap<AgencyAndId, ServiceAlertRecord>();
+  private final Map<AgencyAndId, ServiceAlertRecord> _serviceAlerts;
+
+  private final Map<String, Set<AgencyAndId>> _serviceAlertIdsByServiceAlertAgencyId;
+
+  private final Map<String, Set<AgencyAndId>> _serviceAlertIdsByAgencyId;
 
-  private ConcurrentMap<String, Set<AgencyAndId>> _serviceAlertIdsByServiceAlertAgencyId = new ConcurrentHashMap<String, Set<AgencyAndId>>();
+  private final Map<AgencyAndId, Set<AgencyAndId>> _serviceAlertIdsByStopId;
 
-  private ConcurrentMap<String, Set<AgencyAndId>> _serviceAlertIdsByAgencyId = new ConcurrentHashMap<String, Set<AgencyAndId>>();
+  private final Map<AgencyAndId, Set<AgencyAndId>> _serviceAlertIdsByRouteId;
 
-  private ConcurrentMap<AgencyAndId, Set<AgencyAndId>> _serviceAlertIdsByStopId = new ConcurrentHashMap<AgencyAndId, Set<AgencyAndId>>();
+  private final Map<RouteAndDirectionRef, Set<AgencyAndId>> _serviceAlertIdsByRouteAndDirectionId;
 
-  private ConcurrentMap<AgencyAndId, Set<AgencyAndId>> _serviceAlertIdsByRouteId = new ConcurrentHashMap<AgencyAndId, Set<AgencyAndId>>();
+  private final Map<RouteAndStopCallRef, Set<AgencyAndId>> _serviceAlertIdsByRouteAndStop;
 
-  private ConcurrentMap<RouteAndDirectionRef, Set<AgencyAndId>> _serviceAlertIdsByRouteAndDirectionId = new ConcurrentHashMap<RouteAndDirectionRef, Set<AgencyAndId>>();
+  private final Map<RouteDirectionAndStopCallRef, Set<AgencyAndId>> _serviceAlertIdsByRouteDirectionAndStopCall;
 
-  private ConcurrentMap<RouteAndStopCallRef, Set<AgencyAndId>> _serviceAlertIdsByRouteAndStop = new ConcurrentHashMap<RouteAndStopCallRef, Set<AgencyAndId>>();
+  private final Map<AgencyAndId, Set<AgencyAndId>> _serviceAlertIdsByTripId;
 
-  private ConcurrentMap<RouteDirectionAndStopCallRef, Set<AgencyAndId>> _serviceAlertIdsByRouteDirectionAndStopCall = new ConcurrentHashMap<RouteDirectionAndStopCallRef, Set<AgencyAndId>>();
+  private final Map<TripAndStopCallRef, Set<AgencyAndId>> _serviceAlertIdsByTripAndStopId;
 
-  private ConcurrentMap<AgencyAndId, Set<AgencyAndId>> _serviceAlertIdsByTripId = new ConcurrentHashMap<AgencyAndId, Set<AgencyAndId>>();
+  public ServiceAlertsCacheInMemoryImpl() {
+    _serviceAlerts = new HashMap<AgencyAndId, ServiceAlertRecord>();
+    _serviceAlertIdsByServiceAlertAgencyId = new HashMap<String, Set<AgencyAndId>>();
+    _serviceAlertIdsByAgencyId = new HashMap<String, Set<AgencyAndId>>();
+    _serviceAlertIdsByStopId = new HashMap<AgencyAndId, Set<AgencyAndId>>();
+    _serviceAlertIdsByRouteId = new HashMap<AgencyAndId, Set<AgencyAndId>>();
+    _serviceAlertIdsByRouteAndDirectionId = new HashMap<RouteAndDirectionRef, Set<AgencyAndId>>();
+    _serviceAlertIdsByRouteAndStop = new HashMap<RouteAndStopCallRef, Set<AgencyAndId>>();
+    _serviceAlertIdsByRouteDirectionAndStopCall = new HashMap<RouteDirectionAndStopCallRef, Set<AgencyAndId>>();
+    _serviceAlertIdsByTripId = new HashMap<AgencyAndId, Set<AgencyAndId>>();
+    _serviceAlertIdsByTripAndStopId = new HashMap<TripAndStopCallRef, Set<AgencyAndId>>();
+  }
 
-  private ConcurrentMap<TripAndStopCallRef, Set<AgencyAndId>> _serviceAlertIdsByTripAndStopId = new ConcurrentHashMap<TripAndStopCallRef, Set<AgencyAndId>>();
+  private ServiceAlertsCacheInMemoryImpl(ServiceAlertsCacheInMemoryImpl cache) {
+    _serviceAlerts = new HashMap<AgencyAndId, ServiceAlertRecord>(
+        cache._serviceAlerts);
+    _serviceAlertIdsByServiceAlertAgencyId = new HashMap<String, Set<AgencyAndId>>(
+        cache._serviceAlertIdsByServiceAlertAgencyId);
+    _serviceAlertIdsByAgencyId = new HashMap<String, Set<AgencyAndId>>(
+        cache._serviceAlertIdsByAgencyId);
+    _serviceAlertIdsByStopId = new HashMap<AgencyAndId, Set<AgencyAndId>>(
+        cache._serviceAlertIdsByStopId);
+    _serviceAlertIdsByRouteId = new HashMap<AgencyAndId, Set<AgencyAndId>>(
+        cache._serviceAlertIdsByRouteId);
+    _serviceAlertIdsByRouteAndDirectionId = new HashMap<RouteAndDirectionRef, Set<AgencyAndId>>(
+        cache._serviceAlertIdsByRouteAndDirectionId);
+    _serviceAlertIdsByRouteAndStop = new HashMap<RouteAndStopCallRef, Set<AgencyAndId>>(
+        cache._serviceAlertIdsByRouteAndStop);
+    _serviceAlertIdsByRouteDirectionAndStopCall = new HashMap<RouteDirectionAndStopCallRef, Set<AgencyAndId>>(
+        cache._serviceAlertIdsByRouteDirectionAndStopCall);
+    _serviceAlertIdsByTripId = new HashMap<AgencyAndId, Set<AgencyAndId>>(
+        cache._serviceAlertIdsByTripId);
+    _serviceAlertIdsByTripAndStopId = new HashMap<TripAndStopCallRef, Set<AgencyAndId>>(
+        cache._serviceAlertIdsByTripAndStopId);
+  }
+
+  @Override
+  public ServiceAlertsCache copy() {
+    return new ServiceAlertsCacheInMemoryImpl(this);
+  }
 
   @Override
   public void clear() {
-    try {
-      _available.acquire();
-      _serviceAlerts.clear();
-      _serviceAlertIdsByServiceAlertAgencyId.clear();
-      _serviceAlertIdsByAgencyId.clear();
-      _serviceAlertIdsByStopId.clear();
-      _serviceAlertIdsByRouteId.clear();
-      _serviceAlertIdsByRouteAndDirectionId.clear();
-      _serviceAlertIdsByRouteAndStop.clear();
-      _serviceAlertIdsByRouteDirectionAndStopCall.clear();
-      _serviceAlertIdsByTripId.clear();
-      _serviceAlertIdsByTripAndStopId.clear();
-    } catch (InterruptedException e) {
-      // bury
-    } finally {
-      _available.release();
-    }
-
-    }
-  
+    _serviceAlerts.clear();
+    _serviceAlertIdsByServiceAlertAgencyId.clear();
+    _serviceAlertIdsByAgencyId.clear();
+    _serviceAlertIdsByStopId.clear();
+    _serviceAlertIdsByRouteId.clear();
+    _serviceAlertIdsByRouteAndDirectionId.clear();
+    _serviceAlertIdsByRouteAndStop.clear();
+    _serviceAlertIdsByRouteDirectionAndStopCall.clear();
+    _serviceAlertIdsByTripId.clear();
+    _serviceAlertIdsByTripAndStopId.clear();
+  }
+
   @Override
   public Map<AgencyAndId, ServiceAlertRecord> getServiceAlerts() {
-    try {
-      _available.acquire();
-      return _serviceAlerts;
-    } catch (InterruptedException e) {
-      // bury
-    } finally {
-      _available.release();
-    }
-    return null;
-  }
-  
+    return _serviceAlerts;
+  }
+
   @Override
   public ServiceAlertRecord removeServiceAlert(AgencyAndId serviceAlertId) {
-    try {
-      _available.acquire();
-      return _serviceAlerts.remove(serviceAlertId);
-    } catch (InterruptedException e) {
-      // bury
-    } finally {
-      _available.release();
-    }
-    return null;
+    return _serviceAlerts.remove(serviceAlertId);
   }
 
   @Override
   public ServiceAlertRecord putServiceAlert(AgencyAndId id, ServiceAlertRecord serviceAlert) {
-    try {
-      _available.acquire();
-      ServiceAlertRecord existing = _serviceAlerts.get(id);
-      _serviceAlerts.put(id, serviceAlert);
-      return existing;
-    } catch (InterruptedException e) {
-      // bury
-    } finally {
-      _available.release();
-    }
-    return null;
+    return _serviceAlerts.put(id, serviceAlert);
   }
 
-
   @Override
   public Map<String, Set<AgencyAndId>> getServiceAlertIdsByServiceAlertAgencyId() {
-    try {
-      _available.acquire();
-      return _serviceAlertIdsByServiceAlertAgencyId;
-    } catch (InterruptedException e) {
-      e.printStackTrace();
-    } finally {
-      _available.release();
-    }
-    return null;
+    return _serviceAlertIdsByServiceAlertAgencyId;
   }
 
   @Override
   public Map<String, Set<AgencyAndId>> getServiceAlertIdsByAgencyId() {
-    try {
-      _available.acquire();
-      return _serviceAlertIdsByAgencyId;
-    } catch (InterruptedException e) {
-      // bury
-    } finally {
-      _available.release();
-    }
-    return null;
+    return _serviceAlertIdsByAgencyId;
   }
 
   @Override
   public Map<AgencyAndId, Set<AgencyAndId>> getServiceAlertIdsByStopId() {
-    try {
-      _available.acquire();
-      return _serviceAlertIdsByStopId;
-    } catch (InterruptedException e) {
-      // bury
-    } finally {
-      _available.release();
-    }
-    return null;
+    return _serviceAlertIdsByStopId;
   }
 
   @Override
   public Map<AgencyAndId, Set<AgencyAndId>> getServiceAlertIdsByRouteId() {
-    try {
-      _available.acquire();
-      return _serviceAlertIdsByRouteId;
-    } catch (InterruptedException e) {
-      // bury
-    } finally {
-      _available.release();
-    }
-    return null;
+    return _serviceAlertIdsByRouteId;
   }
 
   @Override
   public Map<RouteAndDirectionRef, Set<AgencyAndId>> getServiceAlertIdsByRouteAndDirectionId() {
-    try {
-      _available.acquire();
-      return _serviceAlertIdsByRouteAndDirectionId;
-    } catch (InterruptedException e) {
-      // bury
-    } finally {
-      _available.release();
-    }
-    return null;
+    return _serviceAlertIdsByRouteAndDirectionId;
   }
 
   @Override
   public Map<RouteAndStopCallRef, Set<AgencyAndId>> getServiceAlertIdsByRouteAndStop() {
-    try {
-      _available.acquire();
-      return _serviceAlertIdsByRouteAndStop;
-    } catch (InterruptedException e) {
-      // bury
-    } finally {
-      _available.release();
-    }
-    return null;
+    return _serviceAlertIdsByRouteAndStop;
   }
 
   @Override
   public Map<RouteDirectionAndStopCallRef, Set<AgencyAndId>> getServiceAlertIdsByRouteDirectionAndStopCall() {
-    try {
-      _available.acquire();
-      return _serviceAlertIdsByRouteDirectionAndStopCall;
-    } catch (InterruptedException e) {
-      // bury
-    } finally {
-      _available.release();
-    }
-    return null;
+    return _serviceAlertIdsByRouteDirectionAndStopCall;
   }
 
   @Override
   public Map<AgencyAndId, Set<AgencyAndId>> getServiceAlertIdsByTripId() {
-    try {
-      _available.acquire();
-      return _serviceAlertIdsByTripId;
-    } catch (InterruptedException e) {
-      // bury
-    } finally {
-      _available.release();
-    }
-    return null;
+    return _serviceAlertIdsByTripId;
   }
 
   @Override
   public Map<TripAndStopCallRef, Set<AgencyAndId>> getServiceAlertIdsByTripAndStopId() {
-    try {
-      _available.acquire();
-      return _serviceAlertIdsByTripAndStopId;
-    } catch (InterruptedException e) {
-      // bury
-    } finally {
-      _available.release();
-    }
-    return null;
+    return _serviceAlertIdsByTripAndStopId;
   }
 
-
-  
 }
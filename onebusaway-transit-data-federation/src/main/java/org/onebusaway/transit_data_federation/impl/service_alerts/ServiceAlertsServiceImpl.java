@@ -27,14 +27,25 @@ import org.onebusaway.util.SystemTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Alerts are held in an immutable snapshot that readers pick up without
+ * locking. Updates and reloads build a new snapshot off to the side, one at a
+ * time, and publish it atomically once it is complete, so readers never see a
+ * partially applied update or a partially loaded alert set.
+ */
 @Component
+@ManagedResource("org.onebusaway.transit_data_federation.impl.service_alerts:name=ServiceAlertsServiceImpl")
 class ServiceAlertsServiceImpl implements ServiceAlertsService {
 
   private static Logger _log = LoggerFactory.getLogger(ServiceAlertsServiceImpl.class);
@@ -50,17 +61,36 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 		AGENCY, ROUTE, ROUTE_DIRECTION, ROUTE_STOP, ROUTE_DIRECTION_STOP, TRIP, TRIP_STOP, STOP, UNSUPPORTED
 	}
 
-	private ServiceAlertsCache _cache;
+	private volatile ServiceAlertsSnapshot _snapshot;
 	
 	private ServiceAlertsPersistence _persister;
 
+	/**
+	 * Serializes updates and reloads. Readers never wait on it.
+	 */
+	private final ReentrantLock _updateLock = new ReentrantLock();
+
+	/**
+	 * Set when the persister has reported changes that have not been reloaded
+	 * yet, as {@link ServiceAlertsPersistence#cachedNeedsSync()} only reports
+	 * them once
+	 */
+	private volatile boolean _reloadPending = false;
+
+	private final AtomicLong _snapshotCount = new AtomicLong();
+
+	private final AtomicLong _lastSnapshotBuildTime = new AtomicLong();
+
+	private final AtomicLong _totalSnapshotBuildTime = new AtomicLong();
+
 	@Autowired
 	public void setServiceAlertsCache(ServiceAlertsCache cache) {
-	  _cache = cache;
+	  _snapshot = new ServiceAlertsSnapshot(cache,
+	      new ServiceAlertsApplicabilityIndex());
 	}
 	
 	public ServiceAlertsCache getServiceAlertsCache() {
-		return _cache;
+		return _snapshot.getCache();
 	}
 
 	@Autowired
@@ -72,6 +102,41 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 	  return _persister;
 	}
 
+	/**
+	 * @return the number of snapshots published since startup
+	 */
+	@ManagedAttribute
+	public long getSnapshotCount() {
+	  return _snapshotCount.get();
+	}
+
+	/**
+	 * @return the time in ms to build the most recently published snapshot
+	 */
+	@ManagedAttribute
+	public long getLastSnapshotBuildTime() {
+	  return _lastSnapshotBuildTime.get();
+	}
+
+	@ManagedAttribute
+	public long getTotalSnapshotBuildTime() {
+	  return _totalSnapshotBuildTime.get();
+	}
+
+	@ManagedAttribute
+	public int getSnapshotServiceAlertCount() {
+	  return _snapshot.getCache().getServiceAlerts().size();
+	}
+
+	/**
+	 * @return the number of non-empty applicability timelines computed for the
+	 *         current snapshot so far
+	 */
+	@ManagedAttribute
+	public int getSnapshotApplicabilityIndexSize() {
+	  return _snapshot.getApplicabilityIndex().size();
+	}
+
 	@PostConstruct
 	public void start() {
 	  try {
@@ -91,119 +156,126 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 	 ****/
 
 	@Override
-	public synchronized ServiceAlertRecord createOrUpdateServiceAlert(
+	public ServiceAlertRecord createOrUpdateServiceAlert(
       ServiceAlertRecord serviceAlertRecord) {
 
-	  if (_persister.needsSync()) this.loadServiceAlerts();
-	  
-		if (serviceAlertRecord.getServiceAlertId() == null) {
-			UUID uuid = UUID.randomUUID();
-			serviceAlertRecord.setServiceAlertId(uuid.toString());
-		}
-
-		long lastModified = SystemTime.currentTimeMillis();
-		if (serviceAlertRecord.getCreationTime() < 1l)
-        serviceAlertRecord.setCreationTime(lastModified);
-
-		updateReferences(serviceAlertRecord);
-		saveDBServiceAlerts(serviceAlertRecord, lastModified);
+		updateServiceAlerts(Arrays.asList(serviceAlertRecord),
+				Collections.<AgencyAndId> emptyList());
 		return serviceAlertRecord;
 	}
 	
 	@Override
-	public synchronized ServiceAlertRecord copyServiceAlert(ServiceAlertRecord serviceAlertRecord) {
+	public ServiceAlertRecord copyServiceAlert(ServiceAlertRecord serviceAlertRecord) {
 		
-		if (_persister.needsSync()) this.loadServiceAlerts();
-		UUID uuid = UUID.randomUUID();
-		serviceAlertRecord.setServiceAlertId(uuid.toString());
+		_updateLock.lock();
+		try {
+			if (_persister.needsSync()) this.loadServiceAlerts();
+			UUID uuid = UUID.randomUUID();
+			serviceAlertRecord.setServiceAlertId(uuid.toString());
 
-		long lastModified = SystemTime.currentTimeMillis();
-        serviceAlertRecord.setCreationTime(lastModified);
-        serviceAlertRecord.setCopy(Boolean.TRUE);
-		
-		updateReferences(serviceAlertRecord);
-		saveDBServiceAlerts(serviceAlertRecord, lastModified);
-		return serviceAlertRecord;
+			serviceAlertRecord.setCreationTime(SystemTime.currentTimeMillis());
+			serviceAlertRecord.setCopy(Boolean.TRUE);
+
+			applyUpdate(Arrays.asList(serviceAlertRecord),
+					Collections.<AgencyAndId> emptyList());
+			return serviceAlertRecord;
+		} finally {
+			_updateLock.unlock();
+		}
 	}	
 
 	@Override
-	public synchronized void removeServiceAlert(AgencyAndId serviceAlertId) {
+	public void removeServiceAlert(AgencyAndId serviceAlertId) {
 		removeServiceAlerts(Arrays.asList(serviceAlertId));
 	}
 
 	@Override
-	public synchronized void removeServiceAlerts(List<AgencyAndId> serviceAlertIds) {
-	  if (_persister.needsSync()) this.loadServiceAlerts();
-		for (AgencyAndId serviceAlertId : serviceAlertIds) {
-      ServiceAlertRecord existingServiceAlert = _cache.removeServiceAlert(serviceAlertId);
+	public void removeServiceAlerts(List<AgencyAndId> serviceAlertIds) {
+		updateServiceAlerts(Collections.<ServiceAlertRecord> emptyList(),
+				serviceAlertIds);
+	}
 
-			if (existingServiceAlert != null) {
-				updateReferences(existingServiceAlert, null);
-			}
-			
-			//Now remove from the DataBase.
-			ServiceAlertRecord existingServiceAlertRecord = getServiceAlertRecordByAlertId(serviceAlertId.getAgencyId(), serviceAlertId.getId());
-			_log.info("deleting service alert " + serviceAlertId.getId());
-			if (existingServiceAlertRecord != null) {
-			  _persister.delete(existingServiceAlertRecord);
-				
+	@Override
+	public void updateServiceAlerts(List<ServiceAlertRecord> serviceAlertRecords,
+			List<AgencyAndId> serviceAlertIdsToRemove) {
+		_updateLock.lock();
+		try {
+			if (_persister.needsSync()) this.loadServiceAlerts();
+
+			long creationTime = SystemTime.currentTimeMillis();
+			for (ServiceAlertRecord serviceAlertRecord : serviceAlertRecords) {
+				if (serviceAlertRecord.getServiceAlertId() == null) {
+					UUID uuid = UUID.randomUUID();
+					serviceAlertRecord.setServiceAlertId(uuid.toString());
+				}
+				if (serviceAlertRecord.getCreationTime() < 1l)
+					serviceAlertRecord.setCreationTime(creationTime);
 			}
-		}    
+
+			applyUpdate(serviceAlertRecords, serviceAlertIdsToRemove);
+		} finally {
+			_updateLock.unlock();
+		}
 	}
 
 	@Override
-	public synchronized void removeAllServiceAlertsForFederatedAgencyId(
+	public void removeAllServiceAlertsForFederatedAgencyId(
 			String agencyId) {
-		Set<AgencyAndId> ids = _cache.getServiceAlertIdsByServiceAlertAgencyId().get(agencyId);
-		if (ids != null)
-			removeServiceAlerts(new ArrayList<AgencyAndId>(ids));
+		_updateLock.lock();
+		try {
+			Set<AgencyAndId> ids = _snapshot.getCache().getServiceAlertIdsByServiceAlertAgencyId().get(agencyId);
+			if (ids != null)
+				removeServiceAlerts(new ArrayList<AgencyAndId>(ids));
+		} finally {
+			_updateLock.unlock();
+		}
 	}
 
 	@Override
 	public ServiceAlertRecord getServiceAlertForId(AgencyAndId serviceAlertId) {
-	  if (_persister.cachedNeedsSync()) this.loadServiceAlerts();
-		return _cache.getServiceAlerts().get(serviceAlertId);
+		ServiceAlertsCache cache = getSnapshot().getCache();
+		return cache.getServiceAlerts().get(serviceAlertId);
 	}
 
 	@Override
 	public List<ServiceAlertRecord> getAllServiceAlerts() {
-	  if (_persister.cachedNeedsSync()) this.loadServiceAlerts();
-		return new ArrayList<ServiceAlertRecord>(_cache.getServiceAlerts().values());
+		ServiceAlertsCache cache = getSnapshot().getCache();
+		return new ArrayList<ServiceAlertRecord>(cache.getServiceAlerts().values());
 	}
 
 	@Override
 	public List<ServiceAlertRecord> getServiceAlertsForFederatedAgencyId(String agencyId) {
-	  if (_persister.cachedNeedsSync()) this.loadServiceAlerts();
-		Set<AgencyAndId> serviceAlertIds = _cache.getServiceAlertIdsByServiceAlertAgencyId().get(agencyId);
-		return getServiceAlertIdsAsObjects(serviceAlertIds);
+		ServiceAlertsCache cache = getSnapshot().getCache();
+		Set<AgencyAndId> serviceAlertIds = cache.getServiceAlertIdsByServiceAlertAgencyId().get(agencyId);
+		return getServiceAlertIdsAsObjects(cache, serviceAlertIds);
 	}
 
 	@Override
 	public List<ServiceAlertRecord> getServiceAlertsForAgencyId(long time,
 			String agencyId) {
-	  if (_persister.cachedNeedsSync()) this.loadServiceAlerts();
+		ServiceAlertsCache cache = getSnapshot().getCache();
 		Set<AgencyAndId> serviceAlertIds = new HashSet<AgencyAndId>();
-		getServiceAlertIdsForKey(_cache.getServiceAlertIdsByAgencyId(), agencyId,
+		getServiceAlertIdsForKey(cache.getServiceAlertIdsByAgencyId(), agencyId,
 				serviceAlertIds);
-		return getServiceAlertIdsAsObjects(serviceAlertIds, time);
+		return getServiceAlertIdsAsObjects(cache, serviceAlertIds, time);
 	}
 
 	@Override
 	public List<ServiceAlertRecord> getServiceAlertsForStopId(long time,
 			AgencyAndId stopId) {
-	  if (_persister.cachedNeedsSync()) this.loadServiceAlerts();
+		ServiceAlertsCache cache = getSnapshot().getCache();
 		Set<AgencyAndId> serviceAlertIds = new HashSet<AgencyAndId>();
-		getServiceAlertIdsForKey(_cache.getServiceAlertIdsByAgencyId(), stopId.getAgencyId(),
+		getServiceAlertIdsForKey(cache.getServiceAlertIdsByAgencyId(), stopId.getAgencyId(),
 				serviceAlertIds);
-		getServiceAlertIdsForKey(_cache.getServiceAlertIdsByStopId(), stopId, serviceAlertIds);
-		return getServiceAlertIdsAsObjects(serviceAlertIds, time);
+		getServiceAlertIdsForKey(cache.getServiceAlertIdsByStopId(), stopId, serviceAlertIds);
+		return getServiceAlertIdsAsObjects(cache, serviceAlertIds, time);
 	}
 
 	@Override
 	public List<ServiceAlertRecord> getServiceAlertsForStopCall(long time,
 			BlockInstance blockInstance, BlockStopTimeEntry blockStopTime,
 			AgencyAndId vehicleId) {
-	  if (_persister.cachedNeedsSync()) this.loadServiceAlerts();
+		ServiceAlertsSnapshot snapshot = getSnapshot();
 		BlockTripEntry blockTrip = blockStopTime.getTrip();
 		TripEntry trip = blockTrip.getTrip();
 		AgencyAndId tripId = trip.getId();
@@ -213,7 +285,6 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 		StopEntry stop = stopTime.getStop();
 		AgencyAndId stopId = stop.getId();
 
-		Set<AgencyAndId> serviceAlertIds = new HashSet<AgencyAndId>();
 		/*
 		 * TODO: Temporarily disable
 		 */
@@ -221,62 +292,60 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 		  * getServiceAlertIdsForKey(_serviceAlertsIdsByAgencyId,
 		  * lineId.getAgencyId(), serviceAlertIds);
 		  */
-		getServiceAlertIdsForKey(_cache.getServiceAlertIdsByRouteId(), lineId, serviceAlertIds);
-		RouteAndStopCallRef routeAndStopCallRef = new RouteAndStopCallRef(lineId,
-				stopId);
-		getServiceAlertIdsForKey(_cache.getServiceAlertIdsByRouteAndStop(),
-				routeAndStopCallRef, serviceAlertIds);
+		List<ServiceAlertRecord> serviceAlerts = new ArrayList<ServiceAlertRecord>();
+		addActiveServiceAlerts(snapshot,
+				ServiceAlertsApplicabilityIndex.forRoute(lineId, directionId), time,
+				serviceAlerts);
+		addActiveServiceAlerts(snapshot,
+				ServiceAlertsApplicabilityIndex.forRouteStop(lineId, directionId,
+						stopId), time, serviceAlerts);
+		addActiveServiceAlerts(snapshot,
+				ServiceAlertsApplicabilityIndex.forTrip(tripId), time, serviceAlerts);
 
 		/**
-		 * Remember that direction is optional
+		 * Trip and stop alerts are rare and there are far too many trip and stop
+		 * combinations to index, so we look them up directly
 		 */
-		if (directionId != null) {
-			RouteAndDirectionRef lineAndDirectionRef = new RouteAndDirectionRef(
-					lineId, directionId);
-			RouteDirectionAndStopCallRef lineDirectionAndStopCallRef = new RouteDirectionAndStopCallRef(
-					lineId, directionId, stopId);
-
-			getServiceAlertIdsForKey(_cache.getServiceAlertIdsByRouteAndDirectionId(),
-					lineAndDirectionRef, serviceAlertIds);
-			getServiceAlertIdsForKey(_cache.getServiceAlertIdsByRouteDirectionAndStopCall(),
-					lineDirectionAndStopCallRef, serviceAlertIds);
-		}
-
-		getServiceAlertIdsForKey(_cache.getServiceAlertIdsByTripId(), trip.getId(),
-				serviceAlertIds);
+		ServiceAlertsCache cache = snapshot.getCache();
+		Set<AgencyAndId> serviceAlertIds = new HashSet<AgencyAndId>();
 		TripAndStopCallRef tripAndStopCallRef = new TripAndStopCallRef(tripId,
 				stopId);
-		getServiceAlertIdsForKey(_cache.getServiceAlertIdsByTripAndStopId(),
+		getServiceAlertIdsForKey(cache.getServiceAlertIdsByTripAndStopId(),
 				tripAndStopCallRef, serviceAlertIds);
+		for (ServiceAlertRecord serviceAlert : getServiceAlertIdsAsObjects(cache,
+				serviceAlertIds, time)) {
+			if (!serviceAlerts.contains(serviceAlert))
+				serviceAlerts.add(serviceAlert);
+		}
 
-		return getServiceAlertIdsAsObjects(serviceAlertIds, time);
+		return serviceAlerts;
 	}
 
 	@Override
 	public List<ServiceAlertRecord> getServiceAlertsForVehicleJourney(long time,
 			BlockTripInstance blockTripInstance, AgencyAndId vehicleId) {
-	  if (_persister.cachedNeedsSync()) this.loadServiceAlerts();
+		ServiceAlertsSnapshot snapshot = getSnapshot();
 		BlockTripEntry blockTrip = blockTripInstance.getBlockTrip();
 		TripEntry trip = blockTrip.getTrip();
 		AgencyAndId lineId = trip.getRouteCollection().getId();
-		RouteAndDirectionRef lineAndDirectionRef = new RouteAndDirectionRef(lineId,
-				trip.getDirectionId());
 
-		Set<AgencyAndId> serviceAlertIds = new HashSet<AgencyAndId>();
-		getServiceAlertIdsForKey(_cache.getServiceAlertIdsByAgencyId(), lineId.getAgencyId(),
-				serviceAlertIds);
-		getServiceAlertIdsForKey(_cache.getServiceAlertIdsByRouteId(), lineId, serviceAlertIds);
-		getServiceAlertIdsForKey(_cache.getServiceAlertIdsByRouteAndDirectionId(),
-				lineAndDirectionRef, serviceAlertIds);
-		getServiceAlertIdsForKey(_cache.getServiceAlertIdsByTripId(), trip.getId(),
-				serviceAlertIds);
-		return getServiceAlertIdsAsObjects(serviceAlertIds, time);
+		List<ServiceAlertRecord> serviceAlerts = new ArrayList<ServiceAlertRecord>();
+		addActiveServiceAlerts(snapshot,
+				ServiceAlertsApplicabilityIndex.forAgency(lineId.getAgencyId()), time,
+				serviceAlerts);
+		addActiveServiceAlerts(snapshot,
+				ServiceAlertsApplicabilityIndex.forRoute(lineId, trip.getDirectionId()),
+				time, serviceAlerts);
+		addActiveServiceAlerts(snapshot,
+				ServiceAlertsApplicabilityIndex.forTrip(trip.getId()), time,
+				serviceAlerts);
+		return serviceAlerts;
 	}
 
 	@Override
 	public List<ServiceAlertRecord> getServiceAlerts(SituationQueryBean query) {
 		Set<AgencyAndId> serviceAlertIds = new HashSet<AgencyAndId>();
-		if (_persister.cachedNeedsSync()) this.loadServiceAlerts();
+		ServiceAlertsCache cache = getSnapshot().getCache();
 		for (SituationQueryBean.AffectsBean affects : query.getAffects()) {
 
 			AgencyAndId routeId = AgencyAndId.convertFromString(affects.getRouteId());
@@ -292,50 +361,50 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 				 * Note we are treating the query's agency ID as that of what the
 				 * service alert affects, not the alert's federated agency ID.
 				 */
-				getServiceAlertIdsForKey(_cache.getServiceAlertIdsByAgencyId(),
+				getServiceAlertIdsForKey(cache.getServiceAlertIdsByAgencyId(),
 						affects.getAgencyId(), serviceAlertIds);
 				break;
 			}
 			case ROUTE: {
 
-				getServiceAlertIdsForKey(_cache.getServiceAlertIdsByRouteId(), routeId,
+				getServiceAlertIdsForKey(cache.getServiceAlertIdsByRouteId(), routeId,
 						serviceAlertIds);
 				break;
 			}
 			case TRIP: {
-				getServiceAlertIdsForKey(_cache.getServiceAlertIdsByTripId(), tripId,
+				getServiceAlertIdsForKey(cache.getServiceAlertIdsByTripId(), tripId,
 						serviceAlertIds);
 				break;
 			}
 			case STOP: {
-				getServiceAlertIdsForKey(_cache.getServiceAlertIdsByStopId(), stopId,
+				getServiceAlertIdsForKey(cache.getServiceAlertIdsByStopId(), stopId,
 						serviceAlertIds);
 				break;
 			}
 			case ROUTE_DIRECTION: {
 				RouteAndDirectionRef routeAndDirectionRef = new RouteAndDirectionRef(
 						routeId, affects.getDirectionId());
-				getServiceAlertIdsForKey(_cache.getServiceAlertIdsByRouteAndDirectionId(),
+				getServiceAlertIdsForKey(cache.getServiceAlertIdsByRouteAndDirectionId(),
 						routeAndDirectionRef, serviceAlertIds);
 				break;
 			}
 			case ROUTE_DIRECTION_STOP: {
 				RouteDirectionAndStopCallRef ref = new RouteDirectionAndStopCallRef(
 						routeId, affects.getDirectionId(), stopId);
-				getServiceAlertIdsForKey(_cache.getServiceAlertIdsByRouteDirectionAndStopCall(),
+				getServiceAlertIdsForKey(cache.getServiceAlertIdsByRouteDirectionAndStopCall(),
 						ref, serviceAlertIds);
 				break;
 			}
 			case ROUTE_STOP: {
 				RouteAndStopCallRef routeAndStopRef = new RouteAndStopCallRef(
 						routeId, stopId);
-				getServiceAlertIdsForKey(_cache.getServiceAlertIdsByRouteAndStop(),
+				getServiceAlertIdsForKey(cache.getServiceAlertIdsByRouteAndStop(),
 						routeAndStopRef, serviceAlertIds);
 				break;
 			}
 			case TRIP_STOP: {
 				TripAndStopCallRef ref = new TripAndStopCallRef(tripId, stopId);
-				getServiceAlertIdsForKey(_cache.getServiceAlertIdsByTripAndStopId(), ref,
+				getServiceAlertIdsForKey(cache.getServiceAlertIdsByTripAndStopId(), ref,
 						serviceAlertIds);
 				break;
 			}
@@ -345,7 +414,7 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 			}
 		}
 
-		List<ServiceAlertRecord> alerts = getServiceAlertIdsAsObjects(serviceAlertIds);
+		List<ServiceAlertRecord> alerts = getServiceAlertIdsAsObjects(cache, serviceAlertIds);
 
 		// SituationQueryBean no longer supports filtering by time, but it might return, so leaving this code here
 		// for future reference.
@@ -390,44 +459,114 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 	//    }
 	//  }
 	//
-	private void updateReferences(ServiceAlertRecord serviceAlert) {
+	/**
+	 * Publishes a single copy of the current snapshot with the specified alerts
+	 * added or replaced and then the specified alerts removed, and persists the
+	 * changes. Must be called while holding {@link #_updateLock}.
+	 */
+	private void applyUpdate(List<ServiceAlertRecord> serviceAlerts,
+			List<AgencyAndId> serviceAlertIdsToRemove) {
+
+		long buildStart = System.nanoTime();
+		ServiceAlertsSnapshot snapshot = _snapshot.copy();
+		for (ServiceAlertRecord serviceAlert : serviceAlerts)
+			updateReferences(snapshot, serviceAlert);
+		for (AgencyAndId serviceAlertId : serviceAlertIdsToRemove) {
+			ServiceAlertRecord existingServiceAlert = snapshot.getCache().removeServiceAlert(serviceAlertId);
+
+			if (existingServiceAlert != null) {
+				updateReferences(snapshot, existingServiceAlert, null);
+			}
+		}
+		publish(snapshot, buildStart);
+
+		long lastModified = SystemTime.currentTimeMillis();
+		for (ServiceAlertRecord serviceAlert : serviceAlerts)
+			saveDBServiceAlerts(serviceAlert, lastModified);
+
+		//Now remove from the DataBase.
+		for (AgencyAndId serviceAlertId : serviceAlertIdsToRemove) {
+			ServiceAlertRecord existingServiceAlertRecord = getServiceAlertRecordByAlertId(serviceAlertId.getAgencyId(), serviceAlertId.getId());
+			_log.info("deleting service alert " + serviceAlertId.getId());
+			if (existingServiceAlertRecord != null) {
+				_persister.delete(existingServiceAlertRecord);
+			}
+		}
+	}
+
+	private void publish(ServiceAlertsSnapshot snapshot, long buildStart) {
+		_snapshot = snapshot;
+		long buildTime = (System.nanoTime() - buildStart) / 1000000;
+		_snapshotCount.incrementAndGet();
+		_lastSnapshotBuildTime.set(buildTime);
+		_totalSnapshotBuildTime.addAndGet(buildTime);
+	}
+
+	/**
+	 * The current snapshot, reloading it first if the persister reports changes.
+	 * If an update or reload is already in progress in another thread, the
+	 * current snapshot is returned as is and the reload is left to a later call.
+	 */
+	private ServiceAlertsSnapshot getSnapshot() {
+		if (_persister.cachedNeedsSync())
+			_reloadPending = true;
+		if (_reloadPending && _updateLock.tryLock()) {
+			try {
+				if (_reloadPending)
+					loadServiceAlerts();
+			} finally {
+				_updateLock.unlock();
+			}
+		}
+		return _snapshot;
+	}
+
+	private void updateReferences(ServiceAlertsSnapshot snapshot,
+			ServiceAlertRecord serviceAlert) {
 		AgencyAndId id = ServiceAlertLibrary.agencyAndId(serviceAlert.getAgencyId(), serviceAlert.getServiceAlertId());
-    ServiceAlertRecord existingServiceAlert = _cache.putServiceAlert(id, serviceAlert);
-		updateReferences(existingServiceAlert, serviceAlert);
+		ServiceAlertRecord existingServiceAlert = snapshot.getCache().putServiceAlert(id, serviceAlert);
+		updateReferences(snapshot, existingServiceAlert, serviceAlert);
 	}
 
-	private void updateReferences(ServiceAlertRecord existingServiceAlert,
-      ServiceAlertRecord serviceAlert) {
+	private void updateReferences(ServiceAlertsSnapshot snapshot,
+			ServiceAlertRecord existingServiceAlert, ServiceAlertRecord serviceAlert) {
+
+		ServiceAlertsCache cache = snapshot.getCache();
 
 		updateReferences(existingServiceAlert, serviceAlert,
-				_cache.getServiceAlertIdsByServiceAlertAgencyId(),
+				cache.getServiceAlertIdsByServiceAlertAgencyId(),
 				AffectsServiceAlertAgencyKeyFactory.INSTANCE);
 
 		updateReferences(existingServiceAlert, serviceAlert,
-				_cache.getServiceAlertIdsByAgencyId(), AffectsAgencyKeyFactory.INSTANCE);
+				cache.getServiceAlertIdsByAgencyId(), AffectsAgencyKeyFactory.INSTANCE);
 
 		updateReferences(existingServiceAlert, serviceAlert,
-				_cache.getServiceAlertIdsByStopId(), AffectsStopKeyFactory.INSTANCE);
+				cache.getServiceAlertIdsByStopId(), AffectsStopKeyFactory.INSTANCE);
 
 		updateReferences(existingServiceAlert, serviceAlert,
-				_cache.getServiceAlertIdsByRouteId(), AffectsRouteKeyFactory.INSTANCE);
+				cache.getServiceAlertIdsByRouteId(), AffectsRouteKeyFactory.INSTANCE);
 
 		updateReferences(existingServiceAlert, serviceAlert,
-				_cache.getServiceAlertIdsByRouteAndDirectionId(),
+				cache.getServiceAlertIdsByRouteAndDirectionId(),
 				AffectsRouteAndDirectionKeyFactory.INSTANCE);
 
 		updateReferences(existingServiceAlert, serviceAlert,
-				_cache.getServiceAlertIdsByRouteAndStop(), AffectsRouteAndStopKeyFactory.INSTANCE);
+				cache.getServiceAlertIdsByRouteAndStop(), AffectsRouteAndStopKeyFactory.INSTANCE);
 
 		updateReferences(existingServiceAlert, serviceAlert,
-				_cache.getServiceAlertIdsByRouteDirectionAndStopCall(),
+				cache.getServiceAlertIdsByRouteDirectionAndStopCall(),
 				AffectsRouteDirectionAndStopCallKeyFactory.INSTANCE);
 
 		updateReferences(existingServiceAlert, serviceAlert,
-				_cache.getServiceAlertIdsByTripId(), AffectsTripKeyFactory.INSTANCE);
+				cache.getServiceAlertIdsByTripId(), AffectsTripKeyFactory.INSTANCE);
 		updateReferences(existingServiceAlert, serviceAlert,
-				_cache.getServiceAlertIdsByTripAndStopId(), AffectsTripAndStopKeyFactory.INSTANCE);
+				cache.getServiceAlertIdsByTripAndStopId(), AffectsTripAndStopKeyFactory.INSTANCE);
 
+		ServiceAlertRecord record = serviceAlert != null ? serviceAlert : existingServiceAlert;
+		if (record != null) {
+			snapshot.getApplicabilityIndex().invalidate(ServiceAlertLibrary.agencyAndId(
+					record.getAgencyId(), record.getServiceAlertId()), serviceAlert);
+		}
 	}
 
 	private <T> void updateReferences(ServiceAlertRecord existingServiceAlert,
@@ -448,22 +587,89 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 			if (newEffects.contains(existingEffect))
 				continue;
 			AgencyAndId id = ServiceAlertLibrary.agencyAndId(existingServiceAlert.getAgencyId(), existingServiceAlert.getServiceAlertId());
-			Set<AgencyAndId> ids = map.get(existingEffect);
+			// The set may be shared with a published snapshot, so replace it
+			Set<AgencyAndId> ids = new HashSet<AgencyAndId>(map.get(existingEffect));
 			ids.remove(id);
 			if (ids.isEmpty())
 				map.remove(existingEffect);
+			else
+				map.put(existingEffect, ids);
 			}
 
 		for (T newEffect : newEffects) {
 			if (existingEffects.contains(newEffect))
 				continue;
       		AgencyAndId id = ServiceAlertLibrary.agencyAndId(serviceAlert.getAgencyId(), serviceAlert.getServiceAlertId());
-			Set<AgencyAndId> ids = map.get(newEffect);
-			if (ids == null) {
-				ids = new HashSet<AgencyAndId>();
-				map.put(newEffect, ids);
-			}
-				ids.add(id);
+			Set<AgencyAndId> existingIds = map.get(newEffect);
+			Set<AgencyAndId> ids = existingIds == null ? new HashSet<AgencyAndId>()
+					: new HashSet<AgencyAndId>(existingIds);
+			ids.add(id);
+			map.put(newEffect, ids);
+		}
+	}
+
+	/**
+	 * Adds the alerts that apply to the specified key and are active at the
+	 * specified time, skipping any that have already been added
+	 */
+	private void addActiveServiceAlerts(ServiceAlertsSnapshot snapshot,
+			ServiceAlertsApplicabilityIndex.Key key, long time,
+			List<ServiceAlertRecord> serviceAlerts) {
+		ServiceAlertsApplicabilityIndex.Timeline timeline = getApplicabilityTimeline(
+				snapshot, key);
+		if (timeline.isEmpty())
+			return;
+		boolean checkForDuplicates = !serviceAlerts.isEmpty();
+		for (ServiceAlertRecord serviceAlert : timeline.getActiveServiceAlerts(time)) {
+			if (!checkForDuplicates || !serviceAlerts.contains(serviceAlert))
+				serviceAlerts.add(serviceAlert);
+		}
+	}
+
+	private ServiceAlertsApplicabilityIndex.Timeline getApplicabilityTimeline(
+			ServiceAlertsSnapshot snapshot, ServiceAlertsApplicabilityIndex.Key key) {
+		ServiceAlertsApplicabilityIndex index = snapshot.getApplicabilityIndex();
+		ServiceAlertsApplicabilityIndex.Timeline timeline = index.get(key);
+		if (timeline != null)
+			return timeline;
+		ServiceAlertsCache cache = snapshot.getCache();
+		Set<AgencyAndId> serviceAlertIds = new HashSet<AgencyAndId>();
+		getApplicableServiceAlertIds(cache, key, serviceAlertIds);
+		return index.put(key, getServiceAlertIdsAsObjects(cache, serviceAlertIds));
+	}
+
+	/**
+	 * The alert ids, regardless of time, that apply to an applicability key. This
+	 * is where the affects combinations used by
+	 * {@link #getServiceAlertsForStopCall} and
+	 * {@link #getServiceAlertsForVehicleJourney} are defined.
+	 */
+	private void getApplicableServiceAlertIds(ServiceAlertsCache cache,
+			ServiceAlertsApplicabilityIndex.Key key,
+			Set<AgencyAndId> serviceAlertIds) {
+		AgencyAndId routeId = key.getRouteId();
+		String directionId = key.getDirectionId();
+		if (key.getAgencyId() != null) {
+			getServiceAlertIdsForKey(cache.getServiceAlertIdsByAgencyId(),
+					key.getAgencyId(), serviceAlertIds);
+		} else if (key.getTripId() != null) {
+			getServiceAlertIdsForKey(cache.getServiceAlertIdsByTripId(),
+					key.getTripId(), serviceAlertIds);
+		} else if (key.getStopId() != null) {
+			AgencyAndId stopId = key.getStopId();
+			getServiceAlertIdsForKey(cache.getServiceAlertIdsByRouteAndStop(),
+					new RouteAndStopCallRef(routeId, stopId), serviceAlertIds);
+			if (directionId != null)
+				getServiceAlertIdsForKey(
+						cache.getServiceAlertIdsByRouteDirectionAndStopCall(),
+						new RouteDirectionAndStopCallRef(routeId, directionId, stopId),
+						serviceAlertIds);
+		} else if (routeId != null) {
+			getServiceAlertIdsForKey(cache.getServiceAlertIdsByRouteId(), routeId,
+					serviceAlertIds);
+			if (directionId != null)
+				getServiceAlertIdsForKey(cache.getServiceAlertIdsByRouteAndDirectionId(),
+						new RouteAndDirectionRef(routeId, directionId), serviceAlertIds);
 		}
 	}
 
@@ -476,18 +682,19 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 	}
 
 	private List<ServiceAlertRecord> getServiceAlertIdsAsObjects(
-			Collection<AgencyAndId> serviceAlertIds) {
-		return getServiceAlertIdsAsObjects(serviceAlertIds, -1);
+			ServiceAlertsCache cache, Collection<AgencyAndId> serviceAlertIds) {
+		return getServiceAlertIdsAsObjects(cache, serviceAlertIds, -1);
 	}
 
 	private List<ServiceAlertRecord> getServiceAlertIdsAsObjects(
-			Collection<AgencyAndId> serviceAlertIds, long time) {
+			ServiceAlertsCache cache, Collection<AgencyAndId> serviceAlertIds,
+			long time) {
 		if (serviceAlertIds == null || serviceAlertIds.isEmpty())
 			return Collections.emptyList();
 		List<ServiceAlertRecord> serviceAlerts = new ArrayList<ServiceAlertRecord>(
 				serviceAlertIds.size());
 		for (AgencyAndId serviceAlertId : serviceAlertIds) {
-			ServiceAlertRecord serviceAlert = _cache.getServiceAlerts().get(serviceAlertId);
+			ServiceAlertRecord serviceAlert = cache.getServiceAlerts().get(serviceAlertId);
 			if (serviceAlert != null && filterByTime(serviceAlert, time))
 				serviceAlerts.add(serviceAlert);
 		}
@@ -569,23 +776,35 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 	 ****/
 
 	@Override
-	public synchronized void loadServiceAlerts() {
-
-	  _cache.clear(); //we need to clear the cache in case records were deleted
-		List<ServiceAlertRecord> alerts = _persister.getAlerts();
-		_log.debug("Loaded " + alerts.size() + " service alerts from DB");
-		try {			
-			for (ServiceAlertRecord serviceAlert : alerts)
-				updateReferences(serviceAlert);
-
-		} catch (Exception ex) {
-			_log.error("error loading service alerts from DB ", ex);
+	public void loadServiceAlerts() {
+
+		_updateLock.lock();
+		try {
+			_reloadPending = false;
+			List<ServiceAlertRecord> alerts = _persister.getAlerts();
+			_log.debug("Loaded " + alerts.size() + " service alerts from DB");
+
+			// start from an empty cache in case records were deleted
+			long buildStart = System.nanoTime();
+			ServiceAlertsCache cache = _snapshot.getCache().copy();
+			cache.clear();
+			ServiceAlertsSnapshot snapshot = new ServiceAlertsSnapshot(cache,
+					new ServiceAlertsApplicabilityIndex());
+			try {
+				for (ServiceAlertRecord serviceAlert : alerts)
+					updateReferences(snapshot, serviceAlert);
+				publish(snapshot, buildStart);
+			} catch (Exception ex) {
+				_log.error("error loading service alerts from DB ", ex);
+			}
+		} finally {
+			_updateLock.unlock();
 		}
 	}
 
 	// this is admittedly slow performing, but it is only called on an update
 	// of a single service alert
-	private synchronized void saveDBServiceAlerts(ServiceAlertRecord alert, Long lastModified) {
+	private void saveDBServiceAlerts(ServiceAlertRecord alert, Long lastModified) {
           if (lastModified == null) lastModified = SystemTime.currentTimeMillis();
           alert.setModifiedTime(lastModified); // we need to assume its changed, as we don't track the affects clause
           ServiceAlertRecord persistedServiceAlertRecord = _persister.getServiceAlertRecordByAlertId(alert.getAgencyId(), alert.getServiceAlertId());
@@ -603,4 +822,37 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 	  return _persister.getServiceAlertRecordByAlertId(agencyId, serviceAlertId);
 	}
 
+	/**
+	 * The alerts and their indices as of one update. Never modified once
+	 * published, other than to fill in applicability timelines on demand.
+	 */
+	private static final class ServiceAlertsSnapshot {
+
+		private final ServiceAlertsCache _cache;
+
+		private final ServiceAlertsApplicabilityIndex _applicabilityIndex;
+
+		public ServiceAlertsSnapshot(ServiceAlertsCache cache,
+				ServiceAlertsApplicabilityIndex applicabilityIndex) {
+			_cache = cache;
+			_applicabilityIndex = applicabilityIndex;
+		}
+
+		/**
+		 * @return a copy to apply the next update to
+		 */
+		public ServiceAlertsSnapshot copy() {
+			return new ServiceAlertsSnapshot(_cache.copy(),
+					new ServiceAlertsApplicabilityIndex(_applicabilityIndex));
+		}
+
+		public ServiceAlertsCache getCache() {
+			return _cache;
+		}
+
+		public ServiceAlertsApplicabilityIndex getApplicabilityIndex() {
+			return _applicabilityIndex;
+		}
+	}
+
 }
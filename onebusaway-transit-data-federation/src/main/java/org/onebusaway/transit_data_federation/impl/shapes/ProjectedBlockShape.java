@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.shapes;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.onebusaway.geospatial.model.XYPoint;
+
+/**
+ * A block's shape projected into a single UTM zone, stored as parallel
+ * primitive arrays so map matching can walk it without touching a list of
+ * point objects.
+ */
+public final class ProjectedBlockShape {
+
+  private final int _utmZoneId;
+
+  private final double[] _xs;
+
+  private final double[] _ys;
+
+  private final double[] _distances;
+
+  public ProjectedBlockShape(int utmZoneId, double[] xs, double[] ys,
+      double[] distances) {
+    if (xs.length != ys.length || xs.length != distances.length)
+      throw new IllegalArgumentException("array lengths differ");
+    _utmZoneId = utmZoneId;
+    _xs = xs;
+    _ys = ys;
+    _distances = distances;
+  }
+
+  public static ProjectedBlockShape create(int utmZoneId,
+      List<XYPoint> points, double[] distances) {
+    int n = points.size();
+    double[] xs = new double[n];
+    double[] ys = new double[n];
+    for (int i = 0; i < n; i++) {
+      XYPoint point = points.get(i);
+      xs[i] = point.getX();
+      ys[i] = point.getY();
+    }
+    return new ProjectedBlockShape(utmZoneId, xs, ys, distances);
+  }
+
+  public int getUtmZoneId() {
+    return _utmZoneId;
+  }
+
+  public int size() {
+    return _xs.length;
+  }
+
+  public double[] getXs() {
+    return _xs;
+  }
+
+  public double[] getYs() {
+    return _ys;
+  }
+
+  public double[] getDistances() {
+    return _distances;
+  }
+
+  /**
+   * @param distanceAlongShape
+   * @return the index of the last shape point at or before the specified
+   *         distance, such that a search starting there covers the distance
+   */
+  public int getFromIndexForDistance(double distanceAlongShape) {
+    if (distanceAlongShape <= 0)
+      return 0;
+    int index = Arrays.binarySearch(_distances, distanceAlongShape);
+    if (index < 0) {
+      index = -(index + 1);
+      // Include the previous point if we didn't get an exact match
+      if (index > 0)
+        index--;
+    }
+    return index;
+  }
+
+  /**
+   * @param distanceAlongShape
+   * @return the exclusive end index of a search covering the specified
+   *         distance
+   */
+  public int getToIndexForDistance(double distanceAlongShape) {
+    int n = _distances.length;
+    if (n == 0 || distanceAlongShape >= _distances[n - 1])
+      return n;
+    int index = Arrays.binarySearch(_distances, distanceAlongShape);
+    if (index < 0) {
+      index = -(index + 1);
+      // Include the next point if we didn't get an exact match
+      if (index < n)
+        index++;
+    }
+    return index;
+  }
+}
@@ -175,4 +175,109 @@ public class ShapePointsLibrary {
 
     return localMins;
   }
+
+  /**
+   * Equivalent to
+   * {@link #computePotentialAssignments(List, double[], XYPoint, int, int)},
+   * but walks the primitive arrays of a {@link ProjectedBlockShape} and only
+   * allocates a {@link PointAndIndex} for segments that can still contribute
+   * to the result.
+   *
+   * @param shape
+   * @param targetPoint
+   * @param fromIndex
+   * @param toIndex
+   * @return
+   */
+  public List<PointAndIndex> computePotentialAssignments(
+      ProjectedBlockShape shape, XYPoint targetPoint, int fromIndex,
+      int toIndex) {
+
+    double[] xs = shape.getXs();
+    double[] ys = shape.getYs();
+    double[] shapePointDistance = shape.getDistances();
+
+    double tx = targetPoint.getX();
+    double ty = targetPoint.getY();
+
+    Min<PointAndIndex> min = new Min<PointAndIndex>();
+    Min<PointAndIndex> localMin = new Min<PointAndIndex>();
+    List<PointAndIndex> localMins = new ArrayList<PointAndIndex>();
+
+    boolean previousEndpointDistanceGreaterThanSnappedDistance = false;
+    double previousEndpointDistance = Double.POSITIVE_INFINITY;
+
+    for (int i = fromIndex; i < toIndex - 1; i++) {
+
+      double ax = xs[i];
+      double ay = ys[i];
+      double bx = xs[i + 1];
+      double by = ys[i + 1];
+
+      /**
+       * Project the target onto the segment, clamping to the nearest endpoint
+       * when the projection falls outside of it
+       */
+      double dx = bx - ax;
+      double dy = by - ay;
+      double lengthSquared = dx * dx + dy * dy;
+      double px = ax;
+      double py = ay;
+      if (lengthSquared > 0) {
+        double r = ((tx - ax) * dx + (ty - ay) * dy) / lengthSquared;
+        if (r >= 1) {
+          px = bx;
+          py = by;
+        } else if (r > 0) {
+          px = ax + r * dx;
+          py = ay + r * dy;
+        }
+      }
+
+      double d = distance(px, py, tx, ty);
+      boolean withinThreshold = d <= _localMinimumThreshold;
+
+      if (withinThreshold || min.isEmpty() || d <= min.getMinValue()) {
+        double distanceAlongShape = shapePointDistance[i]
+            + distance(px, py, ax, ay);
+        PointAndIndex pindex = new PointAndIndex(new XYPoint(px, py), i, d,
+            distanceAlongShape);
+        min.add(d, pindex);
+
+        if (withinThreshold) {
+          if (previousEndpointDistanceGreaterThanSnappedDistance
+              && d < previousEndpointDistance && !localMin.isEmpty()) {
+            localMins.add(localMin.getMinElement());
+            localMin = new Min<PointAndIndex>();
+          }
+          localMin.add(d, pindex);
+        }
+      }
+
+      if (!withinThreshold && !localMin.isEmpty()) {
+        localMins.add(localMin.getMinElement());
+        localMin = new Min<PointAndIndex>();
+      }
+
+      previousEndpointDistance = distance(bx, by, tx, ty);
+      previousEndpointDistanceGreaterThanSnappedDistance = previousEndpointDistance > d;
+    }
+
+    if (min.isEmpty())
+      return Collections.emptyList();
+
+    if (!localMin.isEmpty())
+      localMins.add(localMin.getMinElement());
+
+    if (localMins.isEmpty())
+      localMins.addAll(min.getMinElements());
+
+    return localMins;
+  }
+
+  private static double distance(double x1, double y1, double x2, double y2) {
+    double dx = x1 - x2;
+    double dy = y1 - y2;
+    return Math.sqrt(dx * dx + dy * dy);
+  }
 }
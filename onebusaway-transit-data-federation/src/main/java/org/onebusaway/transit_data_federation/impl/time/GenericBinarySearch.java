@@ -82,6 +82,58 @@ public class GenericBinarySearch {
     return search(elements, targetValue, valueAdapter, indexFrom, indexTo);
   }
 
+  /**
+   * Primitive variant of {@link #searchRange(Object, int, int, double, IndexAdapter)}
+   * that searches a sorted int array directly, avoiding the per-probe adapter
+   * call.
+   * 
+   * @param values values sorted in ascending order
+   * @param indexFrom starting index range
+   * @param indexTo ending index range
+   * @param targetValue target value to search for
+   * @return
+   */
+  public static int searchRange(int[] values, int indexFrom, int indexTo,
+      double targetValue) {
+    while (indexFrom < indexTo) {
+      int midIndex = (indexFrom + indexTo) / 2;
+      int v = values[midIndex];
+      if (targetValue < v)
+        indexTo = midIndex;
+      else if (targetValue > v)
+        indexFrom = midIndex + 1;
+      else
+        return midIndex;
+    }
+    return indexFrom;
+  }
+
+  /**
+   * Primitive variant of {@link #searchRange(Object, int, int, double, IndexAdapter)}
+   * that searches a sorted double array directly, avoiding the per-probe
+   * adapter call.
+   * 
+   * @param values values sorted in ascending order
+   * @param indexFrom starting index range
+   * @param indexTo ending index range
+   * @param targetValue target value to search for
+   * @return
+   */
+  public static int searchRange(double[] values, int indexFrom, int indexTo,
+      double targetValue) {
+    while (indexFrom < indexTo) {
+      int midIndex = (indexFrom + indexTo) / 2;
+      double v = values[midIndex];
+      if (targetValue < v)
+        indexTo = midIndex;
+      else if (targetValue > v)
+        indexFrom = midIndex + 1;
+      else
+        return midIndex;
+    }
+    return indexFrom;
+  }
+
   public interface ValueAdapter<T> {
     public double getValue(T value);
   }
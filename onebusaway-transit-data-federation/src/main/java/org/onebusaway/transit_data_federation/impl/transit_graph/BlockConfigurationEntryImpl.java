@@ -50,6 +50,14 @@ public class BlockConfigurationEntryImpl implements BlockConfigurationEntry,
 
   private final int[] accumulatedStopTimeIndices;
 
+  /**
+   * Packed copies of the per-stop-time values used by the schedule binary
+   * searches, so that lookups by block stop time index don't have to walk
+   * block trip -> trip -> stop time. These are derived data, so we don't
+   * serialize them and instead rebuild them on first use after a bundle load.
+   */
+  private transient PackedStopTimes packedStopTimes;
+
   /**
    * We make this one field non-final because it makes it easier to add
    * Frequency information after the fact.
@@ -64,6 +72,7 @@ public class BlockConfigurationEntryImpl implements BlockConfigurationEntry,
     this.totalBlockDistance = builder.computeTotalBlockDistance();
     this.tripIndices = builder.computeTripIndices();
     this.accumulatedStopTimeIndices = builder.computeAccumulatedStopTimeIndices();
+    this.packedStopTimes = packStopTimes();
   }
 
   public static Builder builder() {
@@ -110,29 +119,17 @@ public class BlockConfigurationEntryImpl implements BlockConfigurationEntry,
 
   @Override
   public int getArrivalTimeForIndex(int index) {
-    StopTimeEntry stopTime = getStopTimeForIndex(index);
-    return stopTime.getArrivalTime();
+    return getArrivalTimes()[index];
   }
 
   @Override
   public int getDepartureTimeForIndex(int index) {
-    StopTimeEntry stopTime = getStopTimeForIndex(index);
-    return stopTime.getDepartureTime();
+    return getDepartureTimes()[index];
   }
 
   @Override
   public double getDistanceAlongBlockForIndex(int index) {
-
-    int tripIndex = tripIndices[index];
-
-    BlockTripEntry blockTrip = trips.get(tripIndex);
-    TripEntry trip = blockTrip.getTrip();
-
-    List<StopTimeEntry> stopTimes = trip.getStopTimes();
-    int stopTimeIndex = index - accumulatedStopTimeIndices[tripIndex];
-    StopTimeEntry stopTime = stopTimes.get(stopTimeIndex);
-
-    return blockTrip.getDistanceAlongBlock() + stopTime.getShapeDistTraveled();
+    return getDistancesAlongBlock()[index];
   }
 
   @Override
@@ -141,6 +138,30 @@ public class BlockConfigurationEntryImpl implements BlockConfigurationEntry,
     return stopTime.getHistoricalOccupancy();
   }
 
+  /**
+   * @return arrival times for each block stop time, indexed by block sequence.
+   *         The returned array is shared and must not be modified.
+   */
+  public int[] getArrivalTimes() {
+    return getPackedStopTimes().arrivalTimes;
+  }
+
+  /**
+   * @return departure times for each block stop time, indexed by block
+   *         sequence. The returned array is shared and must not be modified.
+   */
+  public int[] getDepartureTimes() {
+    return getPackedStopTimes().departureTimes;
+  }
+
+  /**
+   * @return distance along the block for each block stop time, indexed by block
+   *         sequence. The returned array is shared and must not be modified.
+   */
+  public double[] getDistancesAlongBlock() {
+    return getPackedStopTimes().distancesAlongBlock;
+  }
+
   @Override
   public String toString() {
     return "BlockConfiguration [block=" + block.getId() + " serviceIds="
@@ -336,6 +357,42 @@ public class BlockConfigurationEntryImpl implements BlockConfigurationEntry,
    * Private Methods
    ****/
 
+  /**
+   * The packed arrays are held in an immutable holder, so a holder published
+   * without synchronization is always seen fully populated. Concurrent callers
+   * after a bundle load at worst build it twice.
+   */
+  private PackedStopTimes getPackedStopTimes() {
+    PackedStopTimes packed = packedStopTimes;
+    if (packed == null) {
+      packed = packStopTimes();
+      packedStopTimes = packed;
+    }
+    return packed;
+  }
+
+  private PackedStopTimes packStopTimes() {
+
+    int n = tripIndices.length;
+    int[] arrivals = new int[n];
+    int[] departures = new int[n];
+    double[] distances = new double[n];
+
+    int index = 0;
+    for (BlockTripEntry blockTrip : trips) {
+      double tripDistanceAlongBlock = blockTrip.getDistanceAlongBlock();
+      for (StopTimeEntry stopTime : blockTrip.getTrip().getStopTimes()) {
+        arrivals[index] = stopTime.getArrivalTime();
+        departures[index] = stopTime.getDepartureTime();
+        distances[index] = tripDistanceAlongBlock
+            + stopTime.getShapeDistTraveled();
+        index++;
+      }
+    }
+
+    return new PackedStopTimes(arrivals, departures, distances);
+  }
+
   private StopTimeEntry getStopTimeForIndex(int index) {
     int tripIndex = tripIndices[index];
 
@@ -348,6 +405,22 @@ public class BlockConfigurationEntryImpl implements BlockConfigurationEntry,
     return stopTime;
   }
 
+  private static final class PackedStopTimes {
+
+    private final int[] arrivalTimes;
+
+    private final int[] departureTimes;
+
+    private final double[] distancesAlongBlock;
+
+    public PackedStopTimes(int[] arrivalTimes, int[] departureTimes,
+        double[] distancesAlongBlock) {
+      this.arrivalTimes = arrivalTimes;
+      this.departureTimes = departureTimes;
+      this.distancesAlongBlock = distancesAlongBlock;
+    }
+  }
+
   private class BlockStopTimeList extends AbstractList<BlockStopTimeEntry>
       implements Serializable {
 
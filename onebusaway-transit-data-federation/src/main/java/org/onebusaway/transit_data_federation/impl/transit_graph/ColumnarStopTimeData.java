@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.transit_graph;
+
+import java.nio.ByteBuffer;
+
+import org.onebusaway.realtime.api.OccupancyStatus;
+
+/**
+ * Primitive, column-oriented view of every stop time in a transit graph,
+ * backed by a (typically memory-mapped) {@link ByteBuffer}. Each column is a
+ * contiguous run of fixed-width values, so looking up a field for a stop time
+ * is a single absolute read with no object dereference.
+ * 
+ * @see ColumnarTransitGraphLibrary
+ * @see ColumnarStopTimeEntry
+ */
+public class ColumnarStopTimeData {
+
+  static final int COLUMN_ID = 0;
+  static final int COLUMN_STOP_INDEX = 1;
+  static final int COLUMN_ARRIVAL_TIME = 2;
+  static final int COLUMN_DEPARTURE_TIME = 3;
+  static final int COLUMN_SEQUENCE = 4;
+  static final int COLUMN_GTFS_SEQUENCE = 5;
+  static final int COLUMN_DROP_OFF_TYPE = 6;
+  static final int COLUMN_PICKUP_TYPE = 7;
+  static final int COLUMN_SHAPE_POINT_INDEX = 8;
+  static final int COLUMN_ACCUMULATED_SLACK_TIME = 9;
+  static final int COLUMN_TOTAL_STOPS_IN_TRIP = 10;
+  static final int COLUMN_HISTORICAL_OCCUPANCY = 11;
+
+  /**
+   * The number of int-valued columns. The single double-valued column (shape
+   * dist traveled) follows them.
+   */
+  static final int INT_COLUMN_COUNT = 12;
+
+  private static final OccupancyStatus[] OCCUPANCY_VALUES = OccupancyStatus.values();
+
+  private final ByteBuffer _buffer;
+
+  private final int _size;
+
+  private final int[] _intColumnOffsets = new int[INT_COLUMN_COUNT];
+
+  private final int _shapeDistTraveledOffset;
+
+  /**
+   * 
+   * @param buffer the backing buffer
+   * @param offset absolute position of the first column in the buffer
+   * @param size the number of stop times
+   */
+  public ColumnarStopTimeData(ByteBuffer buffer, int offset, int size) {
+    _buffer = buffer;
+    _size = size;
+    for (int i = 0; i < INT_COLUMN_COUNT; i++)
+      _intColumnOffsets[i] = offset + i * size * 4;
+    _shapeDistTraveledOffset = offset + INT_COLUMN_COUNT * size * 4;
+  }
+
+  /**
+   * @param size the number of stop times
+   * @return the number of bytes occupied by the stop time columns
+   */
+  public static long getByteLength(int size) {
+    return (long) size * (INT_COLUMN_COUNT * 4 + 8);
+  }
+
+  public int size() {
+    return _size;
+  }
+
+  public int getId(int index) {
+    return getInt(COLUMN_ID, index);
+  }
+
+  public int getStopIndex(int index) {
+    return getInt(COLUMN_STOP_INDEX, index);
+  }
+
+  public int getArrivalTime(int index) {
+    return getInt(COLUMN_ARRIVAL_TIME, index);
+  }
+
+  public int getDepartureTime(int index) {
+    return getInt(COLUMN_DEPARTURE_TIME, index);
+  }
+
+  public int getSequence(int index) {
+    return getInt(COLUMN_SEQUENCE, index);
+  }
+
+  public int getGtfsSequence(int index) {
+    return getInt(COLUMN_GTFS_SEQUENCE, index);
+  }
+
+  public int getDropOffType(int index) {
+    return getInt(COLUMN_DROP_OFF_TYPE, index);
+  }
+
+  public int getPickupType(int index) {
+    return getInt(COLUMN_PICKUP_TYPE, index);
+  }
+
+  public int getShapePointIndex(int index) {
+    return getInt(COLUMN_SHAPE_POINT_INDEX, index);
+  }
+
+  public int getAccumulatedSlackTime(int index) {
+    return getInt(COLUMN_ACCUMULATED_SLACK_TIME, index);
+  }
+
+  public int getTotalStopsInTrip(int index) {
+    return getInt(COLUMN_TOTAL_STOPS_IN_TRIP, index);
+  }
+
+  public OccupancyStatus getHistoricalOccupancy(int index) {
+    int ordinal = getInt(COLUMN_HISTORICAL_OCCUPANCY, index);
+    if (ordinal < 0)
+      return null;
+    return OCCUPANCY_VALUES[ordinal];
+  }
+
+  public double getShapeDistTraveled(int index) {
+    return _buffer.getDouble(_shapeDistTraveledOffset + index * 8);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private int getInt(int column, int index) {
+    return _buffer.getInt(_intColumnOffsets[column] + index * 4);
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.transit_graph;
+
+import org.onebusaway.realtime.api.OccupancyStatus;
+import org.onebusaway.transit_data_federation.services.transit_graph.StopTimeEntry;
+
+/**
+ * Flyweight {@link StopTimeEntry} that reads its fields from a
+ * {@link ColumnarStopTimeData} on demand. Instances are cheap and short-lived:
+ * two entries pointing at the same stop time row are equal.
+ */
+public class ColumnarStopTimeEntry implements StopTimeEntry {
+
+  private final ColumnarStopTimeData _data;
+
+  private final int _index;
+
+  private final TripEntryImpl _trip;
+
+  private final StopEntryImpl[] _stops;
+
+  public ColumnarStopTimeEntry(ColumnarStopTimeData data, int index,
+      TripEntryImpl trip, StopEntryImpl[] stops) {
+    _data = data;
+    _index = index;
+    _trip = trip;
+    _stops = stops;
+  }
+
+  /****
+   * {@link StopTimeEntry} Interface
+   ****/
+
+  @Override
+  public int getId() {
+    return _data.getId(_index);
+  }
+
+  @Override
+  public TripEntryImpl getTrip() {
+    return _trip;
+  }
+
+  @Override
+  public int getSequence() {
+    return _data.getSequence(_index);
+  }
+
+  @Override
+  public int getGtfsSequence() {
+    return _data.getGtfsSequence(_index);
+  }
+
+  @Override
+  public StopEntryImpl getStop() {
+    return _stops[_data.getStopIndex(_index)];
+  }
+
+  @Override
+  public int getArrivalTime() {
+    return _data.getArrivalTime(_index);
+  }
+
+  @Override
+  public int getDepartureTime() {
+    return _data.getDepartureTime(_index);
+  }
+
+  @Override
+  public OccupancyStatus getHistoricalOccupancy() {
+    return _data.getHistoricalOccupancy(_index);
+  }
+
+  @Override
+  public int getPickupType() {
+    return _data.getPickupType(_index);
+  }
+
+  @Override
+  public int getDropOffType() {
+    return _data.getDropOffType(_index);
+  }
+
+  @Override
+  public int getShapePointIndex() {
+    return _data.getShapePointIndex(_index);
+  }
+
+  @Override
+  public double getShapeDistTraveled() {
+    return _data.getShapeDistTraveled(_index);
+  }
+
+  @Override
+  public int getSlackTime() {
+    return _data.getDepartureTime(_index) - _data.getArrivalTime(_index);
+  }
+
+  @Override
+  public int getAccumulatedSlackTime() {
+    return _data.getAccumulatedSlackTime(_index);
+  }
+
+  @Override
+  public int getTotalStopsInTrip() {
+    return _data.getTotalStopsInTrip(_index);
+  }
+
+  /****
+   * {@link Object} Interface
+   ****/
+
+  @Override
+  public int hashCode() {
+    return 31 * System.identityHashCode(_data) + _index;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null || getClass() != obj.getClass())
+      return false;
+    ColumnarStopTimeEntry other = (ColumnarStopTimeEntry) obj;
+    return _data == other._data && _index == other._index;
+  }
+
+  @Override
+  public String toString() {
+    return "ColumnarStopTimeEntry(stop=" + getStop().getId() + " trip="
+        + _trip + " arrival=" + getArrivalTime() + " departure="
+        + getDepartureTime() + ")";
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.transit_graph;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import org.onebusaway.transit_data_federation.services.transit_graph.StopTimeEntry;
+
+/**
+ * The stop times of a single trip, as a contiguous range of rows in a
+ * {@link ColumnarStopTimeData}. Entries are materialized as
+ * {@link ColumnarStopTimeEntry} flyweights on access.
+ */
+public class ColumnarStopTimeList extends AbstractList<StopTimeEntry>
+    implements RandomAccess {
+
+  private final ColumnarStopTimeData _data;
+
+  private final int _offset;
+
+  private final int _size;
+
+  private final TripEntryImpl _trip;
+
+  private final StopEntryImpl[] _stops;
+
+  public ColumnarStopTimeList(ColumnarStopTimeData data, int offset, int size,
+      TripEntryImpl trip, StopEntryImpl[] stops) {
+    _data = data;
+    _offset = offset;
+    _size = size;
+    _trip = trip;
+    _stops = stops;
+  }
+
+  @Override
+  public int size() {
+    return _size;
+  }
+
+  @Override
+  public StopTimeEntry get(int index) {
+    if (index < 0 || index >= _size)
+      throw new IndexOutOfBoundsException("index=" + index + " size=" + _size);
+    return new ColumnarStopTimeEntry(_data, _offset + index, _trip, _stops);
+  }
+}
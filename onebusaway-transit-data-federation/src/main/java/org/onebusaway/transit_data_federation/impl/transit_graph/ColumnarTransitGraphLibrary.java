@@ -0,0 +1,862 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.transit_graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.calendar.LocalizedServiceId;
+import org.onebusaway.transit_data.model.EAccessibility;
+import org.onebusaway.transit_data_federation.services.transit_graph.AgencyEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockTripEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.FrequencyEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.RouteCollectionEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.RouteEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.ServiceIdActivation;
+import org.onebusaway.transit_data_federation.services.transit_graph.StopEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.StopTimeEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.TripEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads and writes a {@link TransitGraphImpl} in a compact, column-oriented
+ * binary format that can be memory-mapped at load time, as an alternative to
+ * Java serialization of the full object graph.
+ * 
+ * Entities are stored as flat tables of primitives that reference each other
+ * by index and reference strings through a shared string table. Stop times,
+ * by far the largest table, are never materialized as objects on load: each
+ * trip is given a {@link ColumnarStopTimeList} view over its rows of the
+ * mapped {@link ColumnarStopTimeData}.
+ * 
+ * @see TransitGraphDaoImpl
+ */
+public class ColumnarTransitGraphLibrary {
+
+  private static Logger _log = LoggerFactory.getLogger(ColumnarTransitGraphLibrary.class);
+
+  private static final int MAGIC = 0x4f424147;
+
+  private static final int VERSION = 1;
+
+  private static final int NULL_INDEX = -1;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final EAccessibility[] ACCESSIBILITY_VALUES = EAccessibility.values();
+
+  public static void writeGraph(File path, TransitGraphImpl graph)
+      throws IOException {
+    GraphWriter writer = new GraphWriter(graph);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(path), 1 << 16));
+    try {
+      writer.write(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Memory-map the specified columnar graph file and build a
+   * {@link TransitGraphImpl} over it. The returned graph has already been
+   * initialized.
+   */
+  public static TransitGraphImpl readGraph(File path) throws IOException {
+
+    long t0 = System.currentTimeMillis();
+
+    MappedByteBuffer buffer;
+    RandomAccessFile file = new RandomAccessFile(path, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE)
+        throw new IllegalStateException(
+            "columnar transit graph exceeds the maximum mappable size: path="
+                + path + " size=" + size);
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } finally {
+      file.close();
+    }
+
+    TransitGraphImpl graph = new GraphReader(buffer).read();
+    graph.initialize();
+
+    _log.info("loaded columnar transit graph in "
+        + (System.currentTimeMillis() - t0) + " ms: path=" + path);
+
+    return graph;
+  }
+
+  /****
+   * Writing
+   ****/
+
+  private static class GraphWriter {
+
+    private final Map<String, Integer> _strings = new LinkedHashMap<String, Integer>();
+
+    private final Map<Object, Integer> _indices = new IdentityHashMap<Object, Integer>();
+
+    private final Map<LocalizedServiceId, Integer> _serviceIds = new LinkedHashMap<LocalizedServiceId, Integer>();
+
+    private final Map<FrequencyEntry, Integer> _frequencies = new IdentityHashMap<FrequencyEntry, Integer>();
+
+    private final List<FrequencyEntry> _frequencyList = new ArrayList<FrequencyEntry>();
+
+    private final List<AgencyEntry> _agencies;
+
+    private final List<RouteCollectionEntry> _routeCollections;
+
+    private final List<StopEntryImpl> _stops;
+
+    private final List<RouteEntryImpl> _routes;
+
+    private final List<TripEntryImpl> _trips;
+
+    private final List<BlockEntryImpl> _blocks;
+
+    public GraphWriter(TransitGraphImpl graph) {
+      _agencies = graph.getAllAgencies();
+      _routeCollections = graph.getAllRouteCollections();
+      _stops = graph.getStops();
+      _routes = graph.getRoutes();
+      _trips = graph.getTrips();
+      _blocks = graph.getBlocks();
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+
+      index(_agencies);
+      index(_routeCollections);
+      index(_stops);
+      index(_routes);
+      index(_trips);
+      index(_blocks);
+      collectStringsAndLookups();
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+
+      writeStrings(out);
+      writeAgencies(out);
+      writeStops(out);
+      writeRouteCollections(out);
+      writeRoutes(out);
+      writeServiceIds(out);
+      writeFrequencies(out);
+      writeTrips(out);
+      writeStopTimes(out);
+      writeBlocks(out);
+      writeRelations(out);
+    }
+
+    private void index(List<?> entries) {
+      for (int i = 0; i < entries.size(); i++)
+        _indices.put(entries.get(i), i);
+    }
+
+    private void collectStringsAndLookups() {
+      for (AgencyEntry agency : _agencies)
+        addString(agency.getId());
+      for (RouteCollectionEntry routeCollection : _routeCollections)
+        addId(routeCollection.getId());
+      for (StopEntryImpl stop : _stops)
+        addId(stop.getId());
+      for (RouteEntryImpl route : _routes)
+        addId(route.getId());
+      for (TripEntryImpl trip : _trips) {
+        addId(trip.getId());
+        addString(trip.getDirectionId());
+        addId(trip.getShapeId());
+        addServiceId(trip.getServiceId());
+        addFrequency(trip.getFrequencyLabel());
+      }
+      for (BlockEntryImpl block : _blocks) {
+        addId(block.getId());
+        for (BlockConfigurationEntry configuration : block.getConfigurations()) {
+          ServiceIdActivation serviceIds = configuration.getServiceIds();
+          for (LocalizedServiceId serviceId : serviceIds.getActiveServiceIds())
+            addServiceId(serviceId);
+          for (LocalizedServiceId serviceId : serviceIds.getInactiveServiceIds())
+            addServiceId(serviceId);
+          List<FrequencyEntry> frequencies = configuration.getFrequencies();
+          if (frequencies != null) {
+            for (FrequencyEntry frequency : frequencies)
+              addFrequency(frequency);
+          }
+        }
+      }
+    }
+
+    private void addString(String value) {
+      if (value != null && !_strings.containsKey(value))
+        _strings.put(value, _strings.size());
+    }
+
+    private void addId(AgencyAndId id) {
+      if (id != null) {
+        addString(id.getAgencyId());
+        addString(id.getId());
+      }
+    }
+
+    private void addServiceId(LocalizedServiceId serviceId) {
+      if (serviceId != null && !_serviceIds.containsKey(serviceId)) {
+        _serviceIds.put(serviceId, _serviceIds.size());
+        addId(serviceId.getId());
+        addString(serviceId.getTimeZone().getID());
+      }
+    }
+
+    private void addFrequency(FrequencyEntry frequency) {
+      if (frequency != null && !_frequencies.containsKey(frequency)) {
+        _frequencies.put(frequency, _frequencyList.size());
+        _frequencyList.add(frequency);
+      }
+    }
+
+    /**
+     * The lookup methods below are only called once the lookup tables have
+     * been written, so a missing value indicates a bug in
+     * {@link #collectStringsAndLookups()}.
+     */
+    private int string(String value) {
+      return lookup(_strings, value);
+    }
+
+    private int serviceId(LocalizedServiceId serviceId) {
+      return lookup(_serviceIds, serviceId);
+    }
+
+    private int frequency(FrequencyEntry frequency) {
+      return lookup(_frequencies, frequency);
+    }
+
+    private <T> int lookup(Map<T, Integer> indices, T value) {
+      if (value == null)
+        return NULL_INDEX;
+      Integer index = indices.get(value);
+      if (index == null)
+        throw new IllegalStateException("value was not collected: " + value);
+      return index;
+    }
+
+    private int indexOf(Object entry) {
+      if (entry == null)
+        return NULL_INDEX;
+      Integer index = _indices.get(entry);
+      if (index == null)
+        throw new IllegalStateException(
+            "entry referenced but not present in transit graph: " + entry);
+      return index;
+    }
+
+    private void writeId(DataOutputStream out, AgencyAndId id)
+        throws IOException {
+      if (id == null) {
+        out.writeInt(NULL_INDEX);
+        out.writeInt(NULL_INDEX);
+      } else {
+        out.writeInt(string(id.getAgencyId()));
+        out.writeInt(string(id.getId()));
+      }
+    }
+
+    private void writeStrings(DataOutputStream out) throws IOException {
+      out.writeInt(_strings.size());
+      for (String value : _strings.keySet()) {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+
+    private void writeAgencies(DataOutputStream out) throws IOException {
+      out.writeInt(_agencies.size());
+      for (AgencyEntry agency : _agencies)
+        out.writeInt(string(agency.getId()));
+    }
+
+    private void writeStops(DataOutputStream out) throws IOException {
+      out.writeInt(_stops.size());
+      for (StopEntryImpl stop : _stops)
+        out.writeInt(string(stop.getId().getAgencyId()));
+      for (StopEntryImpl stop : _stops)
+        out.writeInt(string(stop.getId().getId()));
+      for (StopEntryImpl stop : _stops)
+        out.writeDouble(stop.getStopLat());
+      for (StopEntryImpl stop : _stops)
+        out.writeDouble(stop.getStopLon());
+      for (StopEntryImpl stop : _stops) {
+        EAccessibility wheelchairBoarding = stop.getWheelchairBoarding();
+        out.writeInt(wheelchairBoarding == null ? NULL_INDEX
+            : wheelchairBoarding.ordinal());
+      }
+    }
+
+    private void writeRouteCollections(DataOutputStream out)
+        throws IOException {
+      out.writeInt(_routeCollections.size());
+      for (RouteCollectionEntry routeCollection : _routeCollections)
+        writeId(out, routeCollection.getId());
+    }
+
+    private void writeRoutes(DataOutputStream out) throws IOException {
+      out.writeInt(_routes.size());
+      for (RouteEntryImpl route : _routes) {
+        writeId(out, route.getId());
+        out.writeInt(indexOf(route.getParent()));
+        out.writeInt(route.getType());
+      }
+    }
+
+    private void writeServiceIds(DataOutputStream out) throws IOException {
+      out.writeInt(_serviceIds.size());
+      for (LocalizedServiceId serviceId : _serviceIds.keySet()) {
+        writeId(out, serviceId.getId());
+        out.writeInt(string(serviceId.getTimeZone().getID()));
+      }
+    }
+
+    private void writeFrequencies(DataOutputStream out) throws IOException {
+      out.writeInt(_frequencyList.size());
+      for (FrequencyEntry frequency : _frequencyList) {
+        out.writeInt(frequency.getStartTime());
+        out.writeInt(frequency.getEndTime());
+        out.writeInt(frequency.getHeadwaySecs());
+        out.writeInt(frequency.getExactTimes());
+      }
+    }
+
+    private void writeTrips(DataOutputStream out) throws IOException {
+      out.writeInt(_trips.size());
+      int stopTimeOffset = 0;
+      for (TripEntryImpl trip : _trips) {
+        writeId(out, trip.getId());
+        out.writeInt(indexOf(trip.getRoute()));
+        out.writeInt(string(trip.getDirectionId()));
+        out.writeInt(indexOf(trip.getBlock()));
+        out.writeInt(serviceId(trip.getServiceId()));
+        writeId(out, trip.getShapeId());
+        out.writeInt(frequency(trip.getFrequencyLabel()));
+        out.writeDouble(trip.getTotalTripDistance());
+        int stopTimeCount = trip.getStopTimes().size();
+        out.writeInt(stopTimeOffset);
+        out.writeInt(stopTimeCount);
+        stopTimeOffset += stopTimeCount;
+      }
+    }
+
+    private void writeStopTimes(DataOutputStream out) throws IOException {
+
+      int n = 0;
+      for (TripEntryImpl trip : _trips)
+        n += trip.getStopTimes().size();
+      out.writeInt(n);
+
+      for (int column = 0; column < ColumnarStopTimeData.INT_COLUMN_COUNT; column++) {
+        for (TripEntryImpl trip : _trips) {
+          for (StopTimeEntry stopTime : trip.getStopTimes())
+            out.writeInt(getIntColumnValue(stopTime, column));
+        }
+      }
+
+      for (TripEntryImpl trip : _trips) {
+        for (StopTimeEntry stopTime : trip.getStopTimes())
+          out.writeDouble(stopTime.getShapeDistTraveled());
+      }
+    }
+
+    private int getIntColumnValue(StopTimeEntry stopTime, int column) {
+      switch (column) {
+        case ColumnarStopTimeData.COLUMN_ID:
+          return stopTime.getId();
+        case ColumnarStopTimeData.COLUMN_STOP_INDEX:
+          return indexOf(stopTime.getStop());
+        case ColumnarStopTimeData.COLUMN_ARRIVAL_TIME:
+          return stopTime.getArrivalTime();
+        case ColumnarStopTimeData.COLUMN_DEPARTURE_TIME:
+          return stopTime.getDepartureTime();
+        case ColumnarStopTimeData.COLUMN_SEQUENCE:
+          return stopTime.getSequence();
+        case ColumnarStopTimeData.COLUMN_GTFS_SEQUENCE:
+          return stopTime.getGtfsSequence();
+        case ColumnarStopTimeData.COLUMN_DROP_OFF_TYPE:
+          return stopTime.getDropOffType();
+        case ColumnarStopTimeData.COLUMN_PICKUP_TYPE:
+          return stopTime.getPickupType();
+        case ColumnarStopTimeData.COLUMN_SHAPE_POINT_INDEX:
+          return stopTime.getShapePointIndex();
+        case ColumnarStopTimeData.COLUMN_ACCUMULATED_SLACK_TIME:
+          return stopTime.getAccumulatedSlackTime();
+        case ColumnarStopTimeData.COLUMN_TOTAL_STOPS_IN_TRIP:
+          return stopTime.getTotalStopsInTrip();
+        case ColumnarStopTimeData.COLUMN_HISTORICAL_OCCUPANCY:
+          return stopTime.getHistoricalOccupancy() == null ? NULL_INDEX
+              : stopTime.getHistoricalOccupancy().ordinal();
+        default:
+          throw new IllegalStateException("unknown stop time column: " + column);
+      }
+    }
+
+    private void writeBlocks(DataOutputStream out) throws IOException {
+      out.writeInt(_blocks.size());
+      for (BlockEntryImpl block : _blocks) {
+        writeId(out, block.getId());
+        List<BlockConfigurationEntry> configurations = block.getConfigurations();
+        out.writeInt(configurations.size());
+        for (BlockConfigurationEntry configuration : configurations)
+          writeBlockConfiguration(out, configuration);
+      }
+    }
+
+    private void writeBlockConfiguration(DataOutputStream out,
+        BlockConfigurationEntry configuration) throws IOException {
+
+      ServiceIdActivation serviceIds = configuration.getServiceIds();
+      writeServiceIdList(out, serviceIds.getActiveServiceIds());
+      writeServiceIdList(out, serviceIds.getInactiveServiceIds());
+
+      /**
+       * We store the gap between consecutive trips rather than the accumulated
+       * distance along the block, since the gaps are what the
+       * BlockConfigurationEntryImpl builder consumes.
+       */
+      List<BlockTripEntry> blockTrips = configuration.getTrips();
+      out.writeInt(blockTrips.size());
+      for (int i = 0; i < blockTrips.size(); i++) {
+        BlockTripEntry blockTrip = blockTrips.get(i);
+        TripEntry trip = blockTrip.getTrip();
+        double nextDistanceAlongBlock = i + 1 < blockTrips.size()
+            ? blockTrips.get(i + 1).getDistanceAlongBlock()
+            : configuration.getTotalBlockDistance();
+        double gap = nextDistanceAlongBlock
+            - (blockTrip.getDistanceAlongBlock() + trip.getTotalTripDistance());
+        out.writeInt(indexOf(trip));
+        out.writeDouble(gap);
+      }
+
+      List<FrequencyEntry> frequencies = configuration.getFrequencies();
+      if (frequencies == null) {
+        out.writeInt(NULL_INDEX);
+      } else {
+        out.writeInt(frequencies.size());
+        for (FrequencyEntry frequency : frequencies)
+          out.writeInt(frequency(frequency));
+      }
+    }
+
+    private void writeServiceIdList(DataOutputStream out,
+        List<LocalizedServiceId> serviceIds) throws IOException {
+      out.writeInt(serviceIds.size());
+      for (LocalizedServiceId serviceId : serviceIds)
+        out.writeInt(serviceId(serviceId));
+    }
+
+    private void writeRelations(DataOutputStream out) throws IOException {
+      for (AgencyEntry agency : _agencies) {
+        writeIndexList(out, agency.getStops());
+        writeIndexList(out, agency.getRouteCollections());
+      }
+      for (RouteCollectionEntry routeCollection : _routeCollections)
+        writeIndexList(out, routeCollection.getChildren());
+      for (RouteEntryImpl route : _routes)
+        writeIndexList(out, route.getTrips());
+    }
+
+    private void writeIndexList(DataOutputStream out, List<?> entries)
+        throws IOException {
+      if (entries == null) {
+        out.writeInt(NULL_INDEX);
+        return;
+      }
+      out.writeInt(entries.size());
+      for (Object entry : entries)
+        out.writeInt(indexOf(entry));
+    }
+  }
+
+  /****
+   * Reading
+   ****/
+
+  private static class GraphReader {
+
+    private final ByteBuffer _data;
+
+    private final ByteBuffer _in;
+
+    private String[] _strings;
+
+    private AgencyEntryImpl[] _agencies;
+
+    private StopEntryImpl[] _stops;
+
+    private RouteCollectionEntryImpl[] _routeCollections;
+
+    private RouteEntryImpl[] _routes;
+
+    private LocalizedServiceId[] _serviceIds;
+
+    private FrequencyEntryImpl[] _frequencies;
+
+    private TripEntryImpl[] _trips;
+
+    private int[] _tripStopTimeOffsets;
+
+    private int[] _tripStopTimeCounts;
+
+    private int[] _tripBlockIndices;
+
+    private BlockEntryImpl[] _blocks;
+
+    private Map<ServiceIdActivation, ServiceIdActivation> _serviceIdActivations = new HashMap<ServiceIdActivation, ServiceIdActivation>();
+
+    public GraphReader(ByteBuffer data) {
+      _data = data;
+      _in = data.duplicate();
+    }
+
+    public TransitGraphImpl read() {
+
+      int magic = _in.getInt();
+      if (magic != MAGIC)
+        throw new IllegalStateException("not a columnar transit graph file");
+      int version = _in.getInt();
+      if (version != VERSION)
+        throw new IllegalStateException(
+            "unsupported columnar transit graph version: expected=" + VERSION
+                + " actual=" + version);
+
+      readStrings();
+      readAgencies();
+      readStops();
+      readRouteCollections();
+      readRoutes();
+      readServiceIds();
+      readFrequencies();
+      readTrips();
+      readStopTimes();
+      readBlocks();
+      readRelations();
+
+      TransitGraphImpl graph = new TransitGraphImpl();
+      for (AgencyEntryImpl agency : _agencies)
+        graph.putAgencyEntry(agency);
+      for (StopEntryImpl stop : _stops)
+        graph.putStopEntry(stop);
+      for (RouteCollectionEntryImpl routeCollection : _routeCollections)
+        graph.putRouteCollectionEntry(routeCollection);
+      for (RouteEntryImpl route : _routes)
+        graph.putRouteEntry(route);
+      for (TripEntryImpl trip : _trips)
+        graph.putTripEntry(trip);
+      for (BlockEntryImpl block : _blocks)
+        graph.putBlockEntry(block);
+      return graph;
+    }
+
+    private void readStrings() {
+      int n = _in.getInt();
+      _strings = new String[n];
+      for (int i = 0; i < n; i++) {
+        byte[] bytes = new byte[_in.getInt()];
+        _in.get(bytes);
+        _strings[i] = new String(bytes, UTF8);
+      }
+    }
+
+    private String string() {
+      int index = _in.getInt();
+      return index == NULL_INDEX ? null : _strings[index];
+    }
+
+    private AgencyAndId id() {
+      String agencyId = string();
+      String id = string();
+      if (agencyId == null && id == null)
+        return null;
+      return new AgencyAndId(agencyId, id);
+    }
+
+    private void readAgencies() {
+      int n = _in.getInt();
+      _agencies = new AgencyEntryImpl[n];
+      for (int i = 0; i < n; i++) {
+        AgencyEntryImpl agency = new AgencyEntryImpl();
+        agency.setId(string());
+        _agencies[i] = agency;
+      }
+    }
+
+    private void readStops() {
+      int n = _in.getInt();
+      String[] agencyIds = new String[n];
+      String[] ids = new String[n];
+      double[] lats = new double[n];
+      double[] lons = new double[n];
+      for (int i = 0; i < n; i++)
+        agencyIds[i] = string();
+      for (int i = 0; i < n; i++)
+        ids[i] = string();
+      for (int i = 0; i < n; i++)
+        lats[i] = _in.getDouble();
+      for (int i = 0; i < n; i++)
+        lons[i] = _in.getDouble();
+      _stops = new StopEntryImpl[n];
+      for (int i = 0; i < n; i++) {
+        StopEntryImpl stop = new StopEntryImpl(new AgencyAndId(agencyIds[i],
+            ids[i]), lats[i], lons[i]);
+        int wheelchairBoarding = _in.getInt();
+        if (wheelchairBoarding != NULL_INDEX)
+          stop.setWheelchairBoarding(ACCESSIBILITY_VALUES[wheelchairBoarding]);
+        _stops[i] = stop;
+      }
+    }
+
+    private void readRouteCollections() {
+      int n = _in.getInt();
+      _routeCollections = new RouteCollectionEntryImpl[n];
+      for (int i = 0; i < n; i++) {
+        RouteCollectionEntryImpl routeCollection = new RouteCollectionEntryImpl();
+        routeCollection.setId(id());
+        _routeCollections[i] = routeCollection;
+      }
+    }
+
+    private void readRoutes() {
+      int n = _in.getInt();
+      _routes = new RouteEntryImpl[n];
+      for (int i = 0; i < n; i++) {
+        RouteEntryImpl route = new RouteEntryImpl();
+        route.setId(id());
+        int parentIndex = _in.getInt();
+        if (parentIndex != NULL_INDEX)
+          route.setParent(_routeCollections[parentIndex]);
+        route.setType(_in.getInt());
+        _routes[i] = route;
+      }
+    }
+
+    private void readServiceIds() {
+      int n = _in.getInt();
+      _serviceIds = new LocalizedServiceId[n];
+      for (int i = 0; i < n; i++) {
+        AgencyAndId id = id();
+        TimeZone timeZone = TimeZone.getTimeZone(string());
+        _serviceIds[i] = new LocalizedServiceId(id, timeZone);
+      }
+    }
+
+    private void readFrequencies() {
+      int n = _in.getInt();
+      _frequencies = new FrequencyEntryImpl[n];
+      for (int i = 0; i < n; i++) {
+        int startTime = _in.getInt();
+        int endTime = _in.getInt();
+        int headwaySecs = _in.getInt();
+        int exactTimes = _in.getInt();
+        _frequencies[i] = new FrequencyEntryImpl(startTime, endTime,
+            headwaySecs, exactTimes);
+      }
+    }
+
+    private void readTrips() {
+
+      int n = _in.getInt();
+      _trips = new TripEntryImpl[n];
+      _tripStopTimeOffsets = new int[n];
+      _tripStopTimeCounts = new int[n];
+
+      /**
+       * Blocks are read after trips, so we record the block index for each
+       * trip and resolve it once the blocks are available.
+       */
+      int[] blockIndices = new int[n];
+
+      for (int i = 0; i < n; i++) {
+        TripEntryImpl trip = new TripEntryImpl();
+        trip.setId(id());
+        int routeIndex = _in.getInt();
+        if (routeIndex != NULL_INDEX)
+          trip.setRoute(_routes[routeIndex]);
+        trip.setDirectionId(string());
+        blockIndices[i] = _in.getInt();
+        int serviceIdIndex = _in.getInt();
+        if (serviceIdIndex != NULL_INDEX)
+          trip.setServiceId(_serviceIds[serviceIdIndex]);
+        trip.setShapeId(id());
+        int frequencyIndex = _in.getInt();
+        if (frequencyIndex != NULL_INDEX)
+          trip.setFrequencyLabel(_frequencies[frequencyIndex]);
+        trip.setTotalTripDistance(_in.getDouble());
+        _tripStopTimeOffsets[i] = _in.getInt();
+        _tripStopTimeCounts[i] = _in.getInt();
+        _trips[i] = trip;
+      }
+
+      _tripBlockIndices = blockIndices;
+    }
+
+    private void readStopTimes() {
+      int n = _in.getInt();
+      int offset = _in.position();
+      ColumnarStopTimeData data = new ColumnarStopTimeData(_data, offset, n);
+      _in.position((int) (offset + ColumnarStopTimeData.getByteLength(n)));
+
+      for (int i = 0; i < _trips.length; i++) {
+        TripEntryImpl trip = _trips[i];
+        trip.setStopTimes(new ColumnarStopTimeList(data,
+            _tripStopTimeOffsets[i], _tripStopTimeCounts[i], trip, _stops));
+      }
+    }
+
+    private void readBlocks() {
+
+      int n = _in.getInt();
+      _blocks = new BlockEntryImpl[n];
+
+      for (int i = 0; i < n; i++) {
+        BlockEntryImpl block = new BlockEntryImpl();
+        block.setId(id());
+        _blocks[i] = block;
+      }
+
+      for (int i = 0; i < _trips.length; i++) {
+        int blockIndex = _tripBlockIndices[i];
+        if (blockIndex != NULL_INDEX)
+          _trips[i].setBlock(_blocks[blockIndex]);
+      }
+      _tripBlockIndices = null;
+
+      /**
+       * Block configurations compute derived values from the trips' stop times
+       * and block assignment, so we build them only once every trip is wired
+       * up.
+       */
+      for (BlockEntryImpl block : _blocks) {
+        int configurationCount = _in.getInt();
+        ArrayList<BlockConfigurationEntry> configurations = new ArrayList<BlockConfigurationEntry>(
+            configurationCount);
+        for (int j = 0; j < configurationCount; j++)
+          configurations.add(readBlockConfiguration(block));
+        block.setConfigurations(configurations);
+      }
+    }
+
+    private BlockConfigurationEntry readBlockConfiguration(BlockEntryImpl block) {
+
+      List<LocalizedServiceId> activeServiceIds = readServiceIdList();
+      List<LocalizedServiceId> inactiveServiceIds = readServiceIdList();
+
+      int tripCount = _in.getInt();
+      List<TripEntry> trips = new ArrayList<TripEntry>(tripCount);
+      double[] tripGapDistances = new double[tripCount];
+      for (int i = 0; i < tripCount; i++) {
+        trips.add(_trips[_in.getInt()]);
+        tripGapDistances[i] = _in.getDouble();
+      }
+
+      List<FrequencyEntry> frequencies = null;
+      int frequencyCount = _in.getInt();
+      if (frequencyCount != NULL_INDEX) {
+        frequencies = new ArrayList<FrequencyEntry>(frequencyCount);
+        for (int i = 0; i < frequencyCount; i++)
+          frequencies.add(_frequencies[_in.getInt()]);
+      }
+
+      BlockConfigurationEntryImpl.Builder builder = BlockConfigurationEntryImpl.builder();
+      builder.setBlock(block);
+      builder.setServiceIds(getServiceIdActivation(activeServiceIds,
+          inactiveServiceIds));
+      builder.setTrips(trips);
+      builder.setTripGapDistances(tripGapDistances);
+      builder.setFrequencies(frequencies);
+      return builder.create();
+    }
+
+    private List<LocalizedServiceId> readServiceIdList() {
+      int n = _in.getInt();
+      List<LocalizedServiceId> serviceIds = new ArrayList<LocalizedServiceId>(n);
+      for (int i = 0; i < n; i++)
+        serviceIds.add(_serviceIds[_in.getInt()]);
+      return serviceIds;
+    }
+
+    private ServiceIdActivation getServiceIdActivation(
+        List<LocalizedServiceId> activeServiceIds,
+        List<LocalizedServiceId> inactiveServiceIds) {
+      ServiceIdActivation serviceIds = new ServiceIdActivation(
+          activeServiceIds, inactiveServiceIds);
+      ServiceIdActivation existing = _serviceIdActivations.get(serviceIds);
+      if (existing != null)
+        return existing;
+      _serviceIdActivations.put(serviceIds, serviceIds);
+      return serviceIds;
+    }
+
+    private void readRelations() {
+      for (AgencyEntryImpl agency : _agencies) {
+        List<StopEntry> stops = new ArrayList<StopEntry>();
+        readIndexList(_stops, stops);
+        agency.setStops(stops);
+        List<RouteCollectionEntry> routeCollections = new ArrayList<RouteCollectionEntry>();
+        readIndexList(_routeCollections, routeCollections);
+        agency.setRouteCollections(routeCollections);
+      }
+      for (RouteCollectionEntryImpl routeCollection : _routeCollections) {
+        List<RouteEntry> children = new ArrayList<RouteEntry>();
+        if (readIndexList(_routes, children))
+          routeCollection.setChildren(children);
+      }
+      for (RouteEntryImpl route : _routes) {
+        List<TripEntry> trips = new ArrayList<TripEntry>();
+        if (readIndexList(_trips, trips))
+          route.setTrips(trips);
+      }
+    }
+
+    private <T, E extends T> boolean readIndexList(E[] entries,
+        List<T> results) {
+      int n = _in.getInt();
+      if (n == NULL_INDEX)
+        return false;
+      for (int i = 0; i < n; i++)
+        results.add(entries[_in.getInt()]);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,372 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.transit_graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.onebusaway.geospatial.model.CoordinateBounds;
+import org.onebusaway.geospatial.services.SphericalGeometryLibrary;
+import org.onebusaway.transit_data_federation.services.transit_graph.StopEntry;
+
+/**
+ * Immutable spatial index over the stops of a transit graph, supporting
+ * bounding box queries as well as k-nearest-neighbour and radius-limited
+ * queries ordered by distance.
+ * 
+ * Stops are projected into meters with an equirectangular projection centered
+ * on the stops' latitude range. Because x depends only on longitude and y only
+ * on latitude, a lat-lon bounding box is an exact box in the projection.
+ * Distances are planar distances in the projection, which are within a fraction
+ * of a percent of great-circle distance across a metropolitan region.
+ * 
+ * The index is a static kd-tree laid out implicitly in primitive arrays: each
+ * range of the arrays is split at its median, alternating between x and y, and
+ * small ranges are scanned linearly.
+ */
+public final class StopSpatialIndex {
+
+  private static final int LEAF_SIZE = 8;
+
+  private final double _cosCenterLat;
+
+  private final double[] _xs;
+
+  private final double[] _ys;
+
+  private final StopEntry[] _stops;
+
+  private StopSpatialIndex(double cosCenterLat, double[] xs, double[] ys,
+      StopEntry[] stops) {
+    _cosCenterLat = cosCenterLat;
+    _xs = xs;
+    _ys = ys;
+    _stops = stops;
+  }
+
+  public static StopSpatialIndex create(List<? extends StopEntry> stops) {
+
+    int n = stops.size();
+
+    double minLat = Double.POSITIVE_INFINITY;
+    double maxLat = Double.NEGATIVE_INFINITY;
+    for (StopEntry stop : stops) {
+      minLat = Math.min(minLat, stop.getStopLat());
+      maxLat = Math.max(maxLat, stop.getStopLat());
+    }
+    double cosCenterLat = n == 0 ? 1.0
+        : Math.cos(Math.toRadians((minLat + maxLat) / 2));
+
+    double[] xs = new double[n];
+    double[] ys = new double[n];
+    StopEntry[] entries = new StopEntry[n];
+    for (int i = 0; i < n; i++) {
+      StopEntry stop = stops.get(i);
+      xs[i] = projectX(stop.getStopLon(), cosCenterLat);
+      ys[i] = projectY(stop.getStopLat());
+      entries[i] = stop;
+    }
+
+    build(xs, ys, entries, 0, n, 0);
+
+    return new StopSpatialIndex(cosCenterLat, xs, ys, entries);
+  }
+
+  public int size() {
+    return _stops.length;
+  }
+
+  /**
+   * @param bounds
+   * @return the stops within the bounds, in no particular order
+   */
+  public List<StopEntry> getStopsByBounds(CoordinateBounds bounds) {
+    List<StopEntry> results = new ArrayList<StopEntry>();
+    if (_stops.length == 0)
+      return results;
+    double minX = projectX(bounds.getMinLon(), _cosCenterLat);
+    double maxX = projectX(bounds.getMaxLon(), _cosCenterLat);
+    double minY = projectY(bounds.getMinLat());
+    double maxY = projectY(bounds.getMaxLat());
+    range(0, _stops.length, 0, minX, minY, maxX, maxY, results);
+    return results;
+  }
+
+  /**
+   * @param lat
+   * @param lon
+   * @param maxCount the maximum number of stops to return
+   * @param maxDistance in meters, or {@link Double#POSITIVE_INFINITY} for no
+   *          limit
+   * @return up to maxCount stops within maxDistance of the point, nearest first
+   */
+  public List<StopEntry> getNearestStops(double lat, double lon,
+      int maxCount, double maxDistance) {
+
+    if (_stops.length == 0 || maxCount <= 0)
+      return Collections.emptyList();
+
+    NearestQueue queue = new NearestQueue(Math.min(maxCount, _stops.length),
+        maxDistance * maxDistance);
+    nearest(0, _stops.length, 0, projectX(lon, _cosCenterLat), projectY(lat),
+        queue);
+
+    int[] indices = queue.drainNearestFirst();
+    List<StopEntry> results = new ArrayList<StopEntry>(indices.length);
+    for (int index : indices)
+      results.add(_stops[index]);
+    return results;
+  }
+
+  /**
+   * @param lat
+   * @param lon
+   * @param radius in meters
+   * @return all stops within the radius of the point, nearest first
+   */
+  public List<StopEntry> getStopsWithinRadius(double lat, double lon,
+      double radius) {
+    return getNearestStops(lat, lon, Integer.MAX_VALUE, radius);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private static double projectX(double lon, double cosCenterLat) {
+    return SphericalGeometryLibrary.RADIUS_OF_EARTH_IN_KM * 1000
+        * Math.toRadians(lon) * cosCenterLat;
+  }
+
+  private static double projectY(double lat) {
+    return SphericalGeometryLibrary.RADIUS_OF_EARTH_IN_KM * 1000
+        * Math.toRadians(lat);
+  }
+
+  private void range(int from, int to, int axis, double minX, double minY,
+      double maxX, double maxY, List<StopEntry> results) {
+
+    if (to - from <= LEAF_SIZE) {
+      for (int i = from; i < to; i++) {
+        if (minX <= _xs[i] && _xs[i] <= maxX && minY <= _ys[i]
+            && _ys[i] <= maxY)
+          results.add(_stops[i]);
+      }
+      return;
+    }
+
+    int mid = (from + to) >>> 1;
+    double x = _xs[mid];
+    double y = _ys[mid];
+    if (minX <= x && x <= maxX && minY <= y && y <= maxY)
+      results.add(_stops[mid]);
+
+    double split = axis == 0 ? x : y;
+    double min = axis == 0 ? minX : minY;
+    double max = axis == 0 ? maxX : maxY;
+    if (min <= split)
+      range(from, mid, axis ^ 1, minX, minY, maxX, maxY, results);
+    if (max >= split)
+      range(mid + 1, to, axis ^ 1, minX, minY, maxX, maxY, results);
+  }
+
+  private void nearest(int from, int to, int axis, double x, double y,
+      NearestQueue queue) {
+
+    if (to - from <= LEAF_SIZE) {
+      for (int i = from; i < to; i++)
+        queue.offer(i, distanceSquared(i, x, y));
+      return;
+    }
+
+    int mid = (from + to) >>> 1;
+    queue.offer(mid, distanceSquared(mid, x, y));
+
+    double delta = axis == 0 ? x - _xs[mid] : y - _ys[mid];
+    if (delta < 0) {
+      nearest(from, mid, axis ^ 1, x, y, queue);
+      if (delta * delta <= queue.getBound())
+        nearest(mid + 1, to, axis ^ 1, x, y, queue);
+    } else {
+      nearest(mid + 1, to, axis ^ 1, x, y, queue);
+      if (delta * delta <= queue.getBound())
+        nearest(from, mid, axis ^ 1, x, y, queue);
+    }
+  }
+
+  private double distanceSquared(int i, double x, double y) {
+    double dx = _xs[i] - x;
+    double dy = _ys[i] - y;
+    return dx * dx + dy * dy;
+  }
+
+  /**
+   * Arrange [from,to) so that the median on the given axis sits at the middle
+   * with nothing greater before it and nothing smaller after it, then recurse
+   * into each half on the other axis.
+   */
+  private static void build(double[] xs, double[] ys, StopEntry[] stops,
+      int from, int to, int axis) {
+    if (to - from <= LEAF_SIZE)
+      return;
+    int mid = (from + to) >>> 1;
+    select(xs, ys, stops, from, to - 1, mid, axis);
+    build(xs, ys, stops, from, mid, axis ^ 1);
+    build(xs, ys, stops, mid + 1, to, axis ^ 1);
+  }
+
+  private static void select(double[] xs, double[] ys, StopEntry[] stops,
+      int left, int right, int k, int axis) {
+    double[] keys = axis == 0 ? xs : ys;
+    while (left < right) {
+      double pivot = keys[(left + right) >>> 1];
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (keys[i] < pivot)
+          i++;
+        while (keys[j] > pivot)
+          j--;
+        if (i <= j) {
+          swap(xs, ys, stops, i, j);
+          i++;
+          j--;
+        }
+      }
+      if (k <= j)
+        right = j;
+      else if (k >= i)
+        left = i;
+      else
+        return;
+    }
+  }
+
+  private static void swap(double[] xs, double[] ys, StopEntry[] stops, int i,
+      int j) {
+    double x = xs[i];
+    xs[i] = xs[j];
+    xs[j] = x;
+    double y = ys[i];
+    ys[i] = ys[j];
+    ys[j] = y;
+    StopEntry stop = stops[i];
+    stops[i] = stops[j];
+    stops[j] = stop;
+  }
+
+  /**
+   * Bounded max-heap of the nearest candidates seen so far, keyed by squared
+   * distance.
+   */
+  private static class NearestQueue {
+
+    private final int _capacity;
+
+    private final double _maxDistanceSquared;
+
+    private double[] _distances;
+
+    private int[] _indices;
+
+    private int _size = 0;
+
+    public NearestQueue(int capacity, double maxDistanceSquared) {
+      _capacity = capacity;
+      _maxDistanceSquared = maxDistanceSquared;
+      int initial = Math.min(capacity, 16);
+      _distances = new double[initial];
+      _indices = new int[initial];
+    }
+
+    /**
+     * @return the squared distance a candidate must not exceed to be accepted
+     */
+    public double getBound() {
+      if (_size < _capacity)
+        return _maxDistanceSquared;
+      return _distances[0];
+    }
+
+    public void offer(int index, double distanceSquared) {
+      if (distanceSquared > _maxDistanceSquared)
+        return;
+      if (_size < _capacity) {
+        if (_size == _distances.length) {
+          int length = (int) Math.min((long) _capacity, _size * 2L);
+          _distances = Arrays.copyOf(_distances, length);
+          _indices = Arrays.copyOf(_indices, length);
+        }
+        _distances[_size] = distanceSquared;
+        _indices[_size] = index;
+        siftUp(_size++);
+      } else if (distanceSquared < _distances[0]) {
+        _distances[0] = distanceSquared;
+        _indices[0] = index;
+        siftDown(0);
+      }
+    }
+
+    public int[] drainNearestFirst() {
+      int[] results = new int[_size];
+      while (_size > 0) {
+        results[_size - 1] = _indices[0];
+        _size--;
+        _distances[0] = _distances[_size];
+        _indices[0] = _indices[_size];
+        siftDown(0);
+      }
+      return results;
+    }
+
+    private void siftUp(int i) {
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (_distances[parent] >= _distances[i])
+          break;
+        swap(i, parent);
+        i = parent;
+      }
+    }
+
+    private void siftDown(int i) {
+      while (true) {
+        int left = 2 * i + 1;
+        if (left >= _size)
+          break;
+        int largest = left;
+        int right = left + 1;
+        if (right < _size && _distances[right] > _distances[left])
+          largest = right;
+        if (_distances[i] >= _distances[largest])
+          break;
+        swap(i, largest);
+        i = largest;
+      }
+    }
+
+    private void swap(int i, int j) {
+      double d = _distances[i];
+      _distances[i] = _distances[j];
+      _distances[j] = d;
+      int index = _indices[i];
+      _indices[i] = _indices[j];
+      _indices[j] = index;
+    }
+  }
+}
@@ -22,6 +22,7 @@ import java.util.List;
 
 import javax.annotation.PostConstruct;
 
+import org.onebusaway.container.ConfigurationParameter;
 import org.onebusaway.container.refresh.Refreshable;
 import org.onebusaway.exceptions.NoSuchStopServiceException;
 import org.onebusaway.geospatial.model.CoordinateBounds;
@@ -48,6 +49,8 @@ public class TransitGraphDaoImpl implements TransitGraphDao {
 
   private TransitGraph _graph;
 
+  private boolean _useColumnarTransitGraph = false;
+
   @Autowired
   public void setBundle(FederatedTransitDataBundle bundle) {
     _bundle = bundle;
@@ -57,10 +60,25 @@ public class TransitGraphDaoImpl implements TransitGraphDao {
     _graph = graph;
   }
 
+  /**
+   * When true, and the bundle contains a columnar transit graph artifact, the
+   * graph is memory-mapped from that artifact instead of being deserialized
+   * from the Java-serialized graph. Stop times are then served as flyweights
+   * over the mapping rather than held on the heap.
+   * 
+   * @param useColumnarTransitGraph
+   * @see ColumnarTransitGraphLibrary
+   */
+  @ConfigurationParameter
+  public void setUseColumnarTransitGraph(boolean useColumnarTransitGraph) {
+    _useColumnarTransitGraph = useColumnarTransitGraph;
+  }
+
   @PostConstruct
   @Refreshable(dependsOn = RefreshableResources.TRANSIT_GRAPH)
   public void setup() throws IOException, ClassNotFoundException {
     File path = _bundle.getTransitGraphPath();
+    File columnsPath = _bundle.getTransitGraphColumnsPath();
 
     if(_graph != null) {
       TransitGraphImpl graph = (TransitGraphImpl)_graph;
@@ -68,7 +86,9 @@ public class TransitGraphDaoImpl implements TransitGraphDao {
       _graph = null;
     }
     
-    if (path.exists()) {
+    if (_useColumnarTransitGraph && columnsPath.exists()) {
+      _graph = ColumnarTransitGraphLibrary.readGraph(columnsPath);
+    } else if (path.exists()) {
       TransitGraphImpl graph = ObjectSerializationLibrary.readObject(path);
       graph.initialize();
       _graph = graph;
@@ -77,6 +97,12 @@ public class TransitGraphDaoImpl implements TransitGraphDao {
     }
   }
 
+  @Refreshable(dependsOn = RefreshableResources.STOP_GEOSPATIAL_INDEX)
+  public void refreshStopLocationIndex() {
+    if (_graph instanceof TransitGraphImpl)
+      ((TransitGraphImpl) _graph).refreshStopLocationIndex();
+  }
+
   /****
    * {@link TransitGraphDao} Interface
    ****/
@@ -116,6 +142,12 @@ public class TransitGraphDaoImpl implements TransitGraphDao {
     return _graph.getStopsByLocation(bounds);
   }
 
+  @Override
+  public List<StopEntry> getNearestStops(double lat, double lon, int maxCount,
+      double maxDistance) {
+    return _graph.getNearestStops(lat, lon, maxCount, maxDistance);
+  }
+
   @Override
   public List<BlockEntry> getAllBlocks() {
     return _graph.getAllBlocks();
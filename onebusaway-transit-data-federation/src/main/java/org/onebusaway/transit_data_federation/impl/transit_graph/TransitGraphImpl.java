@@ -42,10 +42,6 @@ import org.onebusaway.transit_data_federation.model.transit_graph.TransitGraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.index.ItemVisitor;
-import com.vividsolutions.jts.index.strtree.STRtree;
-
 public class TransitGraphImpl implements Serializable, TransitGraph {
 
   private static final long serialVersionUID = 2L;
@@ -78,7 +74,7 @@ public class TransitGraphImpl implements Serializable, TransitGraph {
 
   private List<RouteEntryImpl> _routes = new ArrayList<RouteEntryImpl>();
 
-  private transient STRtree _stopLocationTree = null;
+  private transient StopSpatialIndex _stopLocationIndex = null;
 
   private transient Map<String, AgencyEntryImpl> _agencyEntriesById = new HashMap<String, AgencyEntryImpl>();
 
@@ -111,11 +107,11 @@ public class TransitGraphImpl implements Serializable, TransitGraph {
     _routes.clear();
     _agencies.clear();
 
-    _stopLocationTree = null;        
+    _stopLocationIndex = null;        
   }
   
   public void initialize() {
-    if (_stopLocationTree == null) {
+    if (_stopLocationIndex == null) {
       System.out.println("initializing transit graph...");
 
       if (_stops.size() == 0) {
@@ -124,17 +120,7 @@ public class TransitGraphImpl implements Serializable, TransitGraph {
 
       } else {
 
-        _stopLocationTree = new STRtree(_stops.size());
-
-        for (int i = 0; i < _stops.size(); i++) {
-          StopEntry stop = _stops.get(i);
-          double x = stop.getStopLon();
-          double y = stop.getStopLat();
-          Envelope r = new Envelope(x, x, y, y);
-          _stopLocationTree.insert(r, stop);
-        }
-
-        _stopLocationTree.build();
+        _stopLocationIndex = StopSpatialIndex.create(_stops);
       }
 
       System.out.println("  stops=" + _stops.size());
@@ -169,6 +155,15 @@ public class TransitGraphImpl implements Serializable, TransitGraph {
       stop.setIndex(i++);
   }
 
+  /**
+   * Rebuild the {@link StopSpatialIndex} from the current stops, e.g. when stop
+   * locations have been modified in place.
+   */
+  public void refreshStopLocationIndex() {
+    _stopLocationIndex = _stops.isEmpty() ? null
+        : StopSpatialIndex.create(_stops);
+  }
+
   public void initializeFromExistinGraph(TransitGraphImpl graph) {
     _agencies.addAll(graph._agencies);
     _stops.addAll(graph._stops);
@@ -323,27 +318,17 @@ public class TransitGraphImpl implements Serializable, TransitGraph {
 
   @Override
   public List<StopEntry> getStopsByLocation(CoordinateBounds bounds) {
-    if (_stopLocationTree == null)
+    if (_stopLocationIndex == null)
       return Collections.emptyList();
-    Envelope r = new Envelope(bounds.getMinLon(), bounds.getMaxLon(),
-        bounds.getMinLat(), bounds.getMaxLat());
-    StopRTreeVisitor go = new StopRTreeVisitor();
-    _stopLocationTree.query(r, go);
-    return go.getStops();
+    return _stopLocationIndex.getStopsByBounds(bounds);
   }
 
-  private class StopRTreeVisitor implements ItemVisitor {
-
-    private List<StopEntry> _nearbyStops = new ArrayList<StopEntry>();
-
-    public List<StopEntry> getStops() {
-      return _nearbyStops;
-    }
-
-    @Override
-    public void visitItem(Object obj) {
-      _nearbyStops.add((StopEntry) obj);
-    }
+  @Override
+  public List<StopEntry> getNearestStops(double lat, double lon,
+      int maxCount, double maxDistance) {
+    if (_stopLocationIndex == null)
+      return Collections.emptyList();
+    return _stopLocationIndex.getNearestStops(lat, lon, maxCount, maxDistance);
   }
 
   /*****************************************************************************
@@ -38,6 +38,16 @@ public interface ExtendedCalendarService {
       ServiceIdActivation serviceIds, ServiceInterval interval, Date from,
       Date to);
 
+  /**
+   * Equivalent to
+   * {@link #getServiceDatesWithinRange(ServiceIdActivation, ServiceInterval, Date, Date)}
+   * , but without allocating a {@link Date} for each service date.
+   * 
+   * @return the matching service dates (ms), in ascending order
+   */
+  public long[] getServiceDateTimesWithinRange(ServiceIdActivation serviceIds,
+      ServiceInterval interval, long from, long to);
+
   public boolean areServiceIdsActiveOnServiceDate(
       ServiceIdActivation serviceIds, Date serviceDate);
   
@@ -60,6 +60,10 @@ public class FederatedTransitDataBundle {
     return new File(_path, "TransitGraph.obj");
   }
 
+  public File getTransitGraphColumnsPath() {
+    return new File(_path, "TransitGraph.columns");
+  }
+
   public File getNarrativeProviderPath() {
     return new File(_path, "NarrativeProvider.obj");
   }
@@ -45,4 +45,18 @@ public interface RouteCollectionSearchService {
   public SearchResult<AgencyAndId> searchForRoutesByName(String nameQuery,
       int maxResultCount, double minScoreToKeep) throws IOException,
           ParseException;
+
+  /**
+   * Typeahead search against route short and long names, for completing a
+   * query as it is typed. Each word of the prefix must start a word of one of
+   * the names.
+   * 
+   * @param prefix the text typed so far
+   * @param maxResultCount maximum number of results to keep
+   * @return a search result for {@link RouteCollectionEntry} ids whose names
+   *         complete the prefix
+   * @throws IOException
+   */
+  public SearchResult<AgencyAndId> searchForRoutesByNamePrefix(String prefix,
+      int maxResultCount) throws IOException;
 }
@@ -62,4 +62,17 @@ public interface StopSearchService {
   public SearchResult<AgencyAndId> searchForStopsByName(String name,
       int maxResultCount, double minScoreToKeep) throws IOException,
       ParseException;
+
+  /**
+   * Typeahead search for stop ids by stop name, for completing a query as it
+   * is typed. Each word of the prefix must start a word of the stop name, so
+   * "pi st" matches "Pine St".
+   * 
+   * @param prefix the text typed so far
+   * @param maxResultCount maximum number of results to return
+   * @return a search result for matching stop ids
+   * @throws IOException
+   */
+  public SearchResult<AgencyAndId> searchForStopsByNamePrefix(String prefix,
+      int maxResultCount) throws IOException;
 }
@@ -28,4 +28,15 @@ import java.util.List;
 public interface GeospatialBeanService {
   
   public List<AgencyAndId> getStopsByBounds(CoordinateBounds bounds);
+
+  /**
+   * @param lat
+   * @param lon
+   * @param maxCount the maximum number of stops to return
+   * @param radius in meters
+   * @return up to maxCount stop ids within the radius of the point, nearest
+   *         first
+   */
+  public List<AgencyAndId> getNearestStops(double lat, double lon,
+      int maxCount, double radius);
 }
@@ -31,7 +31,7 @@ public interface NearbyStopsBeanService {
    * @param stopBean the target stop to search for nearby stops
    * @param radius the search radius in meters around the stop location
    * @return ids of stops within the radius of the target stop (but excludes the
-   *         target stop id itself)
+   *         target stop id itself), nearest first
    */
   public List<AgencyAndId> getNearbyStops(StopBean stopBean, double radius);
 }
@@ -20,6 +20,7 @@ import java.util.Set;
 
 import org.onebusaway.geospatial.model.CoordinateBounds;
 import org.onebusaway.geospatial.model.CoordinatePoint;
+import org.onebusaway.gtfs.model.AgencyAndId;
 
 public interface BlockGeospatialService {
 
@@ -44,4 +45,38 @@ public interface BlockGeospatialService {
   public ScheduledBlockLocation getBestScheduledBlockLocationForLocation(
       BlockInstance blockInstance, CoordinatePoint location, long timestamp,
       double blockDistanceFrom, double blockDistanceTo);
+
+  /**
+   * Like {@link #getBestScheduledBlockLocationForLocation}, but remembers where
+   * the vehicle was last matched so that consecutive positions only search a
+   * window of the block's shape just behind and ahead of that point. The full
+   * block is searched for the first position of a vehicle, when its block
+   * instance or trip changes, when it jumps a large distance, when its last
+   * match has expired or when nothing in the window is close to the new
+   * position.
+   * 
+   * Note that this is not always the same answer as a full search: where a
+   * block passes the same spot more than once (a loop, or an out-and-back on
+   * the same street), the windowed search keeps the vehicle on the pass it is
+   * currently making, while a full search picks whichever pass best matches
+   * the schedule.
+   * 
+   * @param vehicleId the vehicle whose match state should be used
+   * @param tripId the trip the vehicle reports, or null if unknown
+   * @param blockInstance
+   * @param location
+   * @param timestamp
+   * @return the best scheduled block location, or null if none could be found
+   */
+  public ScheduledBlockLocation getBestScheduledBlockLocationForVehicleLocation(
+      AgencyAndId vehicleId, AgencyAndId tripId, BlockInstance blockInstance,
+      CoordinatePoint location, long timestamp);
+
+  /**
+   * Forget the last match for the specified vehicle, such that its next
+   * position is matched against the full block.
+   * 
+   * @param vehicleId
+   */
+  public void resetVehicleLocation(AgencyAndId vehicleId);
 }
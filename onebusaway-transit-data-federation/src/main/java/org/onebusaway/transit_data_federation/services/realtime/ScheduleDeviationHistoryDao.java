@@ -24,6 +24,11 @@ public interface ScheduleDeviationHistoryDao {
 
   public void saveScheduleDeviationHistory(ScheduleDeviationHistory record);
 
+  /**
+   * Save each history, replacing any existing history for the same trip.
+   * 
+   * @param records
+   */
   public void saveScheduleDeviationHistory(
       List<ScheduleDeviationHistory> records);
 
@@ -26,5 +26,13 @@ public interface VehicleStatusService {
   
   public List<VehicleStatus> getAllVehicleStatuses();
 
+  /**
+   * 
+   * @param agencyId
+   * @return the status of each vehicle of the specified agency, as of the most
+   *         recent update
+   */
+  public List<VehicleStatus> getAllVehicleStatusesForAgency(String agencyId);
+
   public VehicleLocationRecord getRawPosition(AgencyAndId vehicle);
 }
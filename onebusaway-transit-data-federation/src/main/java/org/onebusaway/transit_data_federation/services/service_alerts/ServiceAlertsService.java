@@ -54,6 +54,17 @@ public interface ServiceAlertsService {
 
   public void removeServiceAlerts(List<AgencyAndId> serviceAlertIds);
 
+  /**
+   * Create or update, then remove, a batch of service alerts, such as all the
+   * changes from one refresh of a real-time alerts feed, as a single update.
+   * Readers see either none or all of the changes.
+   * 
+   * @param serviceAlertRecords the service alerts to create or update
+   * @param serviceAlertIdsToRemove the ids of the service alerts to remove
+   */
+  public void updateServiceAlerts(List<ServiceAlertRecord> serviceAlertRecords,
+      List<AgencyAndId> serviceAlertIdsToRemove);
+
   /**
    * Remove all service alerts with the specified agency id. This would remove
    * all the service alerts returned by a call to
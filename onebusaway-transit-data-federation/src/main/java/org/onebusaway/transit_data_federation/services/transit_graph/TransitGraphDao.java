@@ -61,6 +61,18 @@ public interface TransitGraphDao {
    */
   public List<StopEntry> getStopsByLocation(CoordinateBounds bounds);
 
+  /**
+   * @param lat query point latitude
+   * @param lon query point longitude
+   * @param maxCount the maximum number of stops to return
+   * @param maxDistance in meters, or {@link Double#POSITIVE_INFINITY} for no
+   *          limit
+   * @return up to maxCount stop entries within maxDistance of the query point,
+   *         nearest first
+   */
+  public List<StopEntry> getNearestStops(double lat, double lon, int maxCount,
+      double maxDistance);
+
   /**
    * @return the list of all block entries in the transit graph
    */
@@ -16,6 +16,8 @@
 package org.onebusaway.transit_data_federation.siri;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.text.FieldPosition;
 import java.text.SimpleDateFormat;
@@ -135,15 +137,19 @@ public class SiriJsonSerializerV2 {
     }
   }
 
-  public String getJson(Siri siri) throws Exception {    
-    return getJson(siri, null);
-  }
+  /**
+   * Configured once; Jackson mappers are thread safe once configured, and the
+   * date format is cloned for each serialization.
+   */
+  private final ObjectMapper _mapper;
 
-  public String getJson(Siri siri, String callback) throws Exception {    
+  public SiriJsonSerializerV2() {
     ObjectMapper mapper = new ObjectMapper();    
     mapper.setSerializationInclusion(Inclusion.NON_NULL);
     mapper.configure(SerializationConfig.Feature.INDENT_OUTPUT, false);
     mapper.configure(SerializationConfig.Feature.WRAP_ROOT_VALUE, true);   
+    // the caller owns the output, e.g. the servlet response writer
+    mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
     
     mapper.setDateFormat(new RFC822SimpleDateFormat());
 
@@ -152,18 +158,34 @@ public class SiriJsonSerializerV2 {
     mapper.setSerializationConfig(config);
 
     mapper.registerModule(new JacksonModule());
+    _mapper = mapper;
+  }
+
+  public String getJson(Siri siri) throws Exception {    
+    return getJson(siri, null);
+  }
 
-    String output = "";
+  public String getJson(Siri siri, String callback) throws Exception {    
+    Writer output = new StringWriter();
+    writeJson(siri, callback, output);
+    return output.toString();
+  }
 
+  /**
+   * Write the JSON (or JSONP, if a callback is specified) for the specified
+   * {@link Siri} directly to the output. The writer is flushed but not closed.
+   */
+  public void writeJson(Siri siri, String callback, Writer output)
+      throws Exception {
     if(callback != null)
-      output = callback + "(";
+      output.write(callback + "(");
 
-    output += mapper.writeValueAsString(siri);
+    _mapper.writeValue(output, siri);
 
     if(callback != null)
-      output += ")";
+      output.write(")");
 
-    return output;
-  }  
+    output.flush();
+  }
 
 }
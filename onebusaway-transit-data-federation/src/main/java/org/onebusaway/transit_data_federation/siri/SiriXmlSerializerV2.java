@@ -17,14 +17,25 @@ package org.onebusaway.transit_data_federation.siri;
 
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.ValidationEvent;
 import javax.xml.bind.ValidationEventHandler;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
-import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,14 +45,47 @@ import uk.org.siri.siri_2.Siri;
  * Serializer for XSD-generated SIRI classes, creating XML in the format suitable
  * for Bus Time front-ends and third-party apps.
  * 
+ * The {@link JAXBContext} is built once and each thread keeps its own
+ * pre-configured {@link Marshaller}, so a single instance can be shared by all
+ * request threads. The extension wrapper elements are dropped as the document
+ * is written rather than by rewriting the finished text.
+ * 
  * @author jmaki
  *
  */
 public class SiriXmlSerializerV2 {
 
-  private JAXBContext context = null;
+  /**
+   * Callers of {@link #writeXml(Siri, Writer)} must encode the output as UTF-8,
+   * e.g. by setting the character encoding of the servlet response
+   */
+  private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+
+  /**
+   * Elements that only exist to carry our extensions through JAXB. Their
+   * children are written in their place.
+   */
+  private static final Set<String> WRAPPER_ELEMENTS = Collections.unmodifiableSet(new HashSet<String>(
+      Arrays.asList("siriExtensionWrapper", "siriUpcomingServiceExtension",
+          "siriPolyLinesExtension")));
+
+  private static final XMLOutputFactory _outputFactory = XMLOutputFactory.newInstance();
+
   private static Logger _log = LoggerFactory.getLogger(SiriXmlSerializerV2.class);
 
+  private JAXBContext context = null;
+
+  private final ThreadLocal<Marshaller> _marshaller = new ThreadLocal<Marshaller>() {
+    @Override
+    protected Marshaller initialValue() {
+      try {
+        return createMarshaller();
+      } catch (JAXBException ex) {
+        throw new IllegalStateException("error creating siri marshaller", ex);
+      }
+    }
+  };
+
   public SiriXmlSerializerV2() {
     try {
       context = JAXBContext.newInstance(
@@ -56,8 +100,32 @@ public class SiriXmlSerializerV2 {
   }
 
   public String getXml(Siri siri) throws Exception {    
+    Writer output = new StringWriter();
+    writeXml(siri, output);
+    return output.toString();
+  }
+
+  /**
+   * Write the XML document for the specified {@link Siri} directly to the
+   * output. The writer is flushed but not closed.
+   */
+  public void writeXml(Siri siri, Writer output) throws Exception {
+    output.write(XML_HEADER);
+    XMLStreamWriter xmlWriter = _outputFactory.createXMLStreamWriter(output);
+    try {
+      _marshaller.get().marshal(siri, new WrapperStrippingXMLStreamWriter(
+          xmlWriter));
+      xmlWriter.flush();
+    } finally {
+      xmlWriter.close();
+    }
+  }
+
+  private Marshaller createMarshaller() throws JAXBException {
     Marshaller marshaller = context.createMarshaller();
     marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, false);
+    // We write the XML declaration ourselves, the stream writer's would differ
+    marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
     marshaller.setEventHandler(
         new ValidationEventHandler() {
             public boolean handleEvent(ValidationEvent event ) {
@@ -66,36 +134,9 @@ public class SiriXmlSerializerV2 {
             }
         }
     );
-    
-    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-    dbf.setNamespaceAware(true);
-
-    Writer output = new StringWriter();
-    marshaller.marshal(siri, output);
-
-    // FIXME: strip off ns6 namespaces on siri root namespace. super hack, please fix me!
-    String outputAsString = output.toString();   
-
-    /*outputAsString = outputAsString.replaceAll("<ns6:", "<");
-    outputAsString = outputAsString.replaceAll("</ns6:", "</");
-    outputAsString = outputAsString.replaceAll("xmlns:ns6", "xmlns");
-*/
-
-    String[] searchList = {
-      "<siriExtensionWrapper>", 
-      "</siriExtensionWrapper>",
-      "<siriUpcomingServiceExtension>",
-      "</siriUpcomingServiceExtension>",
-      "<siriPolyLinesExtension>",
-      "</siriPolyLinesExtension>"
-  };
-    
-    String[] replacementList = {"","","","","",""};
-    
-    outputAsString = StringUtils.replaceEach(outputAsString, searchList, replacementList);
-
-    return outputAsString;
+    return marshaller;
   }
+
   /*
   public Siri fromXml(String xml) throws JAXBException {
     Unmarshaller u = context.createUnmarshaller();
@@ -104,4 +145,248 @@ public class SiriXmlSerializerV2 {
     return siri;
   }
   */
+
+  /**
+   * Passes everything through to the underlying writer except the start and
+   * end tags of {@link #WRAPPER_ELEMENTS}. Namespaces that JAXB declares on a
+   * dropped wrapper are re-declared on each of its children so they stay in
+   * scope.
+   */
+  private static class WrapperStrippingXMLStreamWriter implements
+      XMLStreamWriter {
+
+    private final XMLStreamWriter _writer;
+
+    /**
+     * One entry per open element: the namespace declarations to push down to
+     * the children of a dropped wrapper, or null for an element that was
+     * written.
+     */
+    private final Deque<List<String[]>> _open = new ArrayDeque<List<String[]>>();
+
+    private static final List<String[]> WRITTEN = new ArrayList<String[]>();
+
+    public WrapperStrippingXMLStreamWriter(XMLStreamWriter writer) {
+      _writer = writer;
+    }
+
+    private boolean isDropped() {
+      return !_open.isEmpty() && _open.peek() != WRITTEN;
+    }
+
+    private boolean drop(String localName) {
+      if (!WRAPPER_ELEMENTS.contains(localName))
+        return false;
+      List<String[]> namespaces = new ArrayList<String[]>();
+      if (isDropped())
+        namespaces.addAll(_open.peek());
+      _open.push(namespaces);
+      return true;
+    }
+
+    private void written() throws XMLStreamException {
+      List<String[]> inherited = isDropped() ? _open.peek() : null;
+      _open.push(WRITTEN);
+      if (inherited != null) {
+        for (String[] namespace : inherited)
+          writeNamespace(namespace[0], namespace[1]);
+      }
+    }
+
+    @Override
+    public void writeStartElement(String localName) throws XMLStreamException {
+      if (drop(localName))
+        return;
+      _writer.writeStartElement(localName);
+      written();
+    }
+
+    @Override
+    public void writeStartElement(String namespaceURI, String localName)
+        throws XMLStreamException {
+      if (drop(localName))
+        return;
+      _writer.writeStartElement(namespaceURI, localName);
+      written();
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String localName,
+        String namespaceURI) throws XMLStreamException {
+      if (drop(localName))
+        return;
+      _writer.writeStartElement(prefix, localName, namespaceURI);
+      written();
+    }
+
+    @Override
+    public void writeEmptyElement(String namespaceURI, String localName)
+        throws XMLStreamException {
+      if (!WRAPPER_ELEMENTS.contains(localName))
+        _writer.writeEmptyElement(namespaceURI, localName);
+    }
+
+    @Override
+    public void writeEmptyElement(String prefix, String localName,
+        String namespaceURI) throws XMLStreamException {
+      if (!WRAPPER_ELEMENTS.contains(localName))
+        _writer.writeEmptyElement(prefix, localName, namespaceURI);
+    }
+
+    @Override
+    public void writeEmptyElement(String localName) throws XMLStreamException {
+      if (!WRAPPER_ELEMENTS.contains(localName))
+        _writer.writeEmptyElement(localName);
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+      if (_open.pop() == WRITTEN)
+        _writer.writeEndElement();
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+      _writer.writeEndDocument();
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+      _writer.close();
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+      _writer.flush();
+    }
+
+    @Override
+    public void writeAttribute(String localName, String value)
+        throws XMLStreamException {
+      if (!isDropped())
+        _writer.writeAttribute(localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String prefix, String namespaceURI,
+        String localName, String value) throws XMLStreamException {
+      if (!isDropped())
+        _writer.writeAttribute(prefix, namespaceURI, localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String namespaceURI, String localName,
+        String value) throws XMLStreamException {
+      if (!isDropped())
+        _writer.writeAttribute(namespaceURI, localName, value);
+    }
+
+    @Override
+    public void writeNamespace(String prefix, String namespaceURI)
+        throws XMLStreamException {
+      if (isDropped())
+        _open.peek().add(new String[] {prefix, namespaceURI});
+      else if (prefix == null || prefix.length() == 0
+          || "xmlns".equals(prefix))
+        _writer.writeDefaultNamespace(namespaceURI);
+      else
+        _writer.writeNamespace(prefix, namespaceURI);
+    }
+
+    @Override
+    public void writeDefaultNamespace(String namespaceURI)
+        throws XMLStreamException {
+      writeNamespace("", namespaceURI);
+    }
+
+    @Override
+    public void writeComment(String data) throws XMLStreamException {
+      _writer.writeComment(data);
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target)
+        throws XMLStreamException {
+      _writer.writeProcessingInstruction(target);
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target, String data)
+        throws XMLStreamException {
+      _writer.writeProcessingInstruction(target, data);
+    }
+
+    @Override
+    public void writeCData(String data) throws XMLStreamException {
+      _writer.writeCData(data);
+    }
+
+    @Override
+    public void writeDTD(String dtd) throws XMLStreamException {
+      _writer.writeDTD(dtd);
+    }
+
+    @Override
+    public void writeEntityRef(String name) throws XMLStreamException {
+      _writer.writeEntityRef(name);
+    }
+
+    @Override
+    public void writeStartDocument() throws XMLStreamException {
+      _writer.writeStartDocument();
+    }
+
+    @Override
+    public void writeStartDocument(String version) throws XMLStreamException {
+      _writer.writeStartDocument(version);
+    }
+
+    @Override
+    public void writeStartDocument(String encoding, String version)
+        throws XMLStreamException {
+      _writer.writeStartDocument(encoding, version);
+    }
+
+    @Override
+    public void writeCharacters(String text) throws XMLStreamException {
+      _writer.writeCharacters(text);
+    }
+
+    @Override
+    public void writeCharacters(char[] text, int start, int len)
+        throws XMLStreamException {
+      _writer.writeCharacters(text, start, len);
+    }
+
+    @Override
+    public String getPrefix(String uri) throws XMLStreamException {
+      return _writer.getPrefix(uri);
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) throws XMLStreamException {
+      _writer.setPrefix(prefix, uri);
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) throws XMLStreamException {
+      _writer.setDefaultNamespace(uri);
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context)
+        throws XMLStreamException {
+      _writer.setNamespaceContext(context);
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+      return _writer.getNamespaceContext();
+    }
+
+    @Override
+    public Object getProperty(String name) throws IllegalArgumentException {
+      return _writer.getProperty(name);
+    }
+  }
 }
@@ -16,6 +16,7 @@
 package org.onebusaway.transit_data_federation.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.addServiceDates;
 import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.block;
@@ -211,6 +212,51 @@ public class ExtendedCalendarServiceImplTest {
     assertEquals(0, dates.size());
   }
 
+  @Test
+  public void testGetServiceDatesWithinRange05() {
+
+    ServiceIdActivation serviceIds = serviceIds(lsids("sA", "sB"), lsids());
+
+    Date from = UnitTestingSupport.date("2010-09-10 09:30");
+    Date to = UnitTestingSupport.date("2010-09-12 10:30");
+
+    Collection<Date> dates = _service.getServiceDatesWithinRange(serviceIds,
+        interval, from, to);
+
+    assertEquals(1, dates.size());
+    assertTrue(dates.contains(new ServiceDate(2010, 9, 11).getAsDate(timeZone())));
+
+    long[] times = _service.getServiceDateTimesWithinRange(serviceIds,
+        interval, from.getTime(), to.getTime());
+    assertEquals(1, times.length);
+    assertEquals(new ServiceDate(2010, 9, 11).getAsDate(timeZone()).getTime(),
+        times[0]);
+  }
+
+  @Test
+  public void testGetServiceDatesForServiceIds05() {
+
+    ServiceIdActivation serviceIds = serviceIds(lsids("sB"), lsids("sC"));
+
+    Set<ServiceDate> dates = _service.getServiceDatesForServiceIds(serviceIds);
+
+    assertEquals(1, dates.size());
+    assertTrue(dates.contains(new ServiceDate(2010, 9, 11)));
+  }
+
+  @Test
+  public void testAreServiceIdsActiveOnServiceDate() {
+
+    ServiceIdActivation serviceIds = serviceIds(lsids("sA", "sB"), lsids());
+
+    assertTrue(_service.areServiceIdsActiveOnServiceDate(serviceIds,
+        new ServiceDate(2010, 9, 11).getAsDate(timeZone())));
+    assertFalse(_service.areServiceIdsActiveOnServiceDate(serviceIds,
+        new ServiceDate(2010, 9, 10).getAsDate(timeZone())));
+    assertFalse(_service.areServiceIdsActiveOnServiceDate(serviceIds,
+        new ServiceDate(2010, 9, 12).getAsDate(timeZone())));
+  }
+
   @Test
   public void testGetNextServiceDatesForDepartureInterval() {
 
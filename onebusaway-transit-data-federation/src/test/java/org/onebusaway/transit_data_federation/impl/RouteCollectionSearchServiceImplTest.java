@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.transit_data_federation.model.SearchResult;
+import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
+import org.onebusaway.transit_data_federation.services.RouteCollectionSearchIndexConstants;
+
+public class RouteCollectionSearchServiceImplTest {
+
+  private static final String[][] ROUTES = {
+      {"10", "Capitol Hill"}, {"11", "Madison Park"},
+      {"E", "Aurora Rapid Ride"}, {"101", "Renton"}};
+
+  @Test
+  public void testSearchForRoutesByNamePrefix() throws IOException {
+    for (boolean loadIntoMemory : new boolean[] {false, true}) {
+
+      RouteCollectionSearchServiceImpl service = createService(loadIntoMemory);
+
+      assertEquals(ids("0", "1", "3"),
+          new HashSet<AgencyAndId>(service.searchForRoutesByNamePrefix("1", 10).getResults()));
+      assertEquals(ids("0", "3"),
+          new HashSet<AgencyAndId>(service.searchForRoutesByNamePrefix("10", 10).getResults()));
+      // long names are completed too
+      assertEquals(ids("1"),
+          new HashSet<AgencyAndId>(service.searchForRoutesByNamePrefix("mad", 10).getResults()));
+      assertEquals(ids("2"),
+          new HashSet<AgencyAndId>(service.searchForRoutesByNamePrefix("Rapid r", 10).getResults()));
+      assertEquals(0, service.searchForRoutesByNamePrefix("xyz", 10).size());
+      assertEquals(0, service.searchForRoutesByNamePrefix(" ", 10).size());
+      assertEquals(2, service.searchForRoutesByNamePrefix("1", 2).size());
+    }
+  }
+
+  @Test
+  public void testSearchForRoutesByName() throws Exception {
+    RouteCollectionSearchServiceImpl service = createService(true);
+    SearchResult<AgencyAndId> result = service.searchForRoutesByName("11",
+        10, 0.0);
+    assertEquals(Arrays.asList(aid("1")), result.getResults());
+  }
+
+  @Test
+  public void testMissingIndex() throws Exception {
+    RouteCollectionSearchServiceImpl service = new RouteCollectionSearchServiceImpl();
+    service.setBundle(new FederatedTransitDataBundle(new File(
+        "/does/not/exist")));
+    service.initialize();
+    assertEquals(0, service.searchForRoutesByNamePrefix("1", 10).size());
+    assertEquals(0, service.searchForRoutesByName("11", 10, 0.0).size());
+  }
+
+  private RouteCollectionSearchServiceImpl createService(
+      boolean loadIntoMemory) throws IOException {
+
+    File bundlePath = File.createTempFile("RouteCollectionSearchServiceImplTest-", "");
+    bundlePath.delete();
+    bundlePath.mkdirs();
+    bundlePath.deleteOnExit();
+    FederatedTransitDataBundle bundle = new FederatedTransitDataBundle(
+        bundlePath);
+
+    File indexPath = bundle.getRouteSearchIndexPath();
+    IndexWriter writer = new IndexWriter(
+        FSDirectory.open(indexPath.toPath()), new IndexWriterConfig(
+            new StandardAnalyzer()));
+    for (int i = 0; i < ROUTES.length; i++) {
+      String id = Integer.toString(i);
+      Document document = new Document();
+      document.add(new StringField(
+          RouteCollectionSearchIndexConstants.FIELD_ROUTE_COLLECTION_AGENCY_ID,
+          "1", Field.Store.YES));
+      document.add(new StringField(
+          RouteCollectionSearchIndexConstants.FIELD_ROUTE_COLLECTION_ID, id,
+          Field.Store.YES));
+      document.add(new SortedDocValuesField(
+          RouteCollectionSearchIndexConstants.FIELD_ROUTE_COLLECTION_AGENCY_ID,
+          new BytesRef("1")));
+      document.add(new SortedDocValuesField(
+          RouteCollectionSearchIndexConstants.FIELD_ROUTE_COLLECTION_ID,
+          new BytesRef(id)));
+      document.add(new TextField(
+          RouteCollectionSearchIndexConstants.FIELD_ROUTE_SHORT_NAME,
+          ROUTES[i][0], Field.Store.YES));
+      document.add(new TextField(
+          RouteCollectionSearchIndexConstants.FIELD_ROUTE_LONG_NAME,
+          ROUTES[i][1], Field.Store.NO));
+      writer.addDocument(document);
+    }
+    writer.close();
+    for (File file : indexPath.listFiles())
+      file.deleteOnExit();
+    indexPath.deleteOnExit();
+
+    RouteCollectionSearchServiceImpl service = new RouteCollectionSearchServiceImpl();
+    service.setBundle(bundle);
+    service.setLoadIndexIntoMemory(loadIntoMemory);
+    service.initialize();
+    return service;
+  }
+
+  private HashSet<AgencyAndId> ids(String... ids) {
+    HashSet<AgencyAndId> result = new HashSet<AgencyAndId>();
+    for (String id : ids)
+      result.add(aid(id));
+    return result;
+  }
+
+  private AgencyAndId aid(String id) {
+    return new AgencyAndId("1", id);
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ServiceDayBitSetTest {
+
+  @Test
+  public void testForDays() {
+    ServiceDayBitSet bits = ServiceDayBitSet.forDays(new int[] {
+        14900, 14863, 14864, 15000});
+    assertEquals(4, bits.cardinality());
+    assertTrue(bits.get(14863));
+    assertTrue(bits.get(15000));
+    assertFalse(bits.get(14865));
+    assertFalse(bits.get(0));
+    assertFalse(bits.get(20000));
+    assertArrayEquals(new int[] {14863, 14864, 14900, 15000}, bits.toDays());
+  }
+
+  @Test
+  public void testAnd() {
+    ServiceDayBitSet a = ServiceDayBitSet.forDays(new int[] {
+        10, 70, 130, 200});
+    ServiceDayBitSet b = ServiceDayBitSet.forDays(new int[] {70, 130, 500});
+    assertArrayEquals(new int[] {70, 130}, a.and(b).toDays());
+    assertArrayEquals(new int[] {70, 130}, b.and(a).toDays());
+
+    ServiceDayBitSet c = ServiceDayBitSet.forDays(new int[] {1000});
+    assertTrue(a.and(c).isEmpty());
+  }
+
+  @Test
+  public void testAndNot() {
+    ServiceDayBitSet a = ServiceDayBitSet.forDays(new int[] {
+        10, 70, 130, 200});
+    ServiceDayBitSet b = ServiceDayBitSet.forDays(new int[] {70, 200, 500});
+    assertArrayEquals(new int[] {10, 130}, a.andNot(b).toDays());
+    assertArrayEquals(new int[] {500}, b.andNot(a).toDays());
+  }
+
+  @Test
+  public void testNegativeDays() {
+    ServiceDayBitSet bits = ServiceDayBitSet.forDays(new int[] {-65, -1, 3});
+    assertTrue(bits.get(-65));
+    assertTrue(bits.get(-1));
+    assertFalse(bits.get(-64));
+    assertArrayEquals(new int[] {-65, -1, 3}, bits.toDays());
+  }
+}
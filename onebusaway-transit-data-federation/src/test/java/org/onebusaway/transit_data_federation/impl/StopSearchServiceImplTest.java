@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.transit_data_federation.model.SearchResult;
+import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
+import org.onebusaway.transit_data_federation.services.StopSearchIndexConstants;
+
+public class StopSearchServiceImplTest {
+
+  private static final String[] WORDS = {
+      "Pine", "Pike", "Pioneer", "Main", "Market", "Madison", "Marion",
+      "Union", "University", "Seneca", "Spring", "Stewart", "Olive", "Howell",
+      "Denny", "Broadway", "Boren", "Bell", "Battery", "Wall", "Vine",
+      "Cedar", "Clay", "Cherry", "Columbia", "Yesler", "Jackson", "King",
+      "Weller", "Lane"};
+
+  private static final String[] SUFFIXES = {"St", "Ave", "Way", "Pl", "Blvd"};
+
+  @Test
+  public void testSearchForStopsByNamePrefix() throws IOException {
+
+    StopSearchServiceImpl service = createService(true, false, "Pine St & 3rd Ave",
+        "Pike St", "Pioneer Sq", "Main St", "Pike Pl & Pine St");
+
+    assertEquals(ids("0", "1", "2", "4"),
+        new HashSet<AgencyAndId>(service.searchForStopsByNamePrefix("pi", 10).getResults()));
+    assertEquals(ids("0", "1", "4"),
+        new HashSet<AgencyAndId>(service.searchForStopsByNamePrefix("Pi st", 10).getResults()));
+    assertEquals(ids("0"),
+        new HashSet<AgencyAndId>(service.searchForStopsByNamePrefix("pine 3", 10).getResults()));
+    assertEquals(0, service.searchForStopsByNamePrefix("xyz", 10).size());
+    assertEquals(0, service.searchForStopsByNamePrefix(" ", 10).size());
+    assertEquals(2, service.searchForStopsByNamePrefix("pi", 2).size());
+
+    // A whole word match ranks ahead of a prefix match
+    SearchResult<AgencyAndId> result = service.searchForStopsByNamePrefix(
+        "pike", 10);
+    assertEquals(2, result.size());
+    result = service.searchForStopsByNamePrefix("pike pin", 10);
+    assertEquals(Arrays.asList(aid("4")), result.getResults());
+    result = service.searchForStopsByNamePrefix("pine", 10);
+    assertEquals(2, result.size());
+    result = service.searchForStopsByNamePrefix("pin", 10);
+    assertEquals(2, result.size());
+    result = service.searchForStopsByNamePrefix("pi", 10);
+    assertEquals(0.5, result.getScore(0), 0.0);
+  }
+
+  @Test
+  public void testSearchForStopsByName() throws Exception {
+    for (boolean loadIntoMemory : new boolean[] {false, true}) {
+      for (boolean docValues : new boolean[] {false, true}) {
+        StopSearchServiceImpl service = createService(loadIntoMemory,
+            docValues, "Pine St & 3rd Ave", "Pike St", "Main St");
+        SearchResult<AgencyAndId> result = service.searchForStopsByName(
+            "pike", 10, 0.0);
+        assertEquals(Arrays.asList(aid("1")), result.getResults());
+        result = service.searchForStopsByCode("2", 10, 0.0);
+        assertEquals(Arrays.asList(aid("2")), result.getResults());
+        result = service.searchForStopsByNamePrefix("ma", 10);
+        assertEquals(Arrays.asList(aid("2")), result.getResults());
+      }
+    }
+  }
+
+  @Test
+  public void testMissingIndex() throws Exception {
+    StopSearchServiceImpl service = new StopSearchServiceImpl();
+    service.setBundle(new FederatedTransitDataBundle(new File(
+        "/does/not/exist")));
+    service.initialize();
+    assertEquals(0, service.searchForStopsByNamePrefix("pi", 10).size());
+    assertEquals(0, service.searchForStopsByName("pike", 10, 0.0).size());
+  }
+
+  /**
+   * Prefix completion over 10000 stop names for 1 to 4 character prefixes:
+   * every suggested stop has a name token starting with the prefix
+   */
+  @Test
+  public void testSuggestPrefixes() throws Exception {
+
+    Random random = new Random(42);
+    String[] names = new String[10000];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = WORDS[random.nextInt(WORDS.length)] + " "
+          + SUFFIXES[random.nextInt(SUFFIXES.length)] + " & "
+          + WORDS[random.nextInt(WORDS.length)] + " "
+          + SUFFIXES[random.nextInt(SUFFIXES.length)];
+    }
+    StopSearchServiceImpl service = createService(true, true, names);
+
+    for (int length = 1; length <= 4; length++) {
+      for (int i = 0; i < 200; i++) {
+        String word = WORDS[random.nextInt(WORDS.length)].toLowerCase();
+        String prefix = word.substring(0, Math.min(length, word.length()));
+        SearchResult<AgencyAndId> result = service.searchForStopsByNamePrefix(
+            prefix, 10);
+        assertTrue(result.size() > 0);
+        for (AgencyAndId id : result.getResults()) {
+          String name = names[Integer.parseInt(id.getId())];
+          assertTrue(name + " for " + prefix, hasTokenWithPrefix(name, prefix));
+        }
+      }
+    }
+  }
+
+  private StopSearchServiceImpl createService(boolean loadIntoMemory,
+      boolean docValues, String... names) throws IOException {
+
+    File bundlePath = File.createTempFile("StopSearchServiceImplTest-", "");
+    bundlePath.delete();
+    bundlePath.mkdirs();
+    bundlePath.deleteOnExit();
+    FederatedTransitDataBundle bundle = new FederatedTransitDataBundle(
+        bundlePath);
+
+    File indexPath = bundle.getStopSearchIndexPath();
+    IndexWriter writer = new IndexWriter(
+        FSDirectory.open(indexPath.toPath()), new IndexWriterConfig(
+            new StandardAnalyzer()));
+    for (int i = 0; i < names.length; i++) {
+      String id = Integer.toString(i);
+      Document document = new Document();
+      document.add(new StringField(StopSearchIndexConstants.FIELD_AGENCY_ID,
+          "1", Field.Store.YES));
+      document.add(new TextField(StopSearchIndexConstants.FIELD_STOP_ID, id,
+          Field.Store.YES));
+      if (docValues) {
+        document.add(new SortedDocValuesField(
+            StopSearchIndexConstants.FIELD_AGENCY_ID, new BytesRef("1")));
+        document.add(new SortedDocValuesField(
+            StopSearchIndexConstants.FIELD_STOP_ID, new BytesRef(id)));
+      }
+      document.add(new TextField(StopSearchIndexConstants.FIELD_STOP_CODE,
+          id, Field.Store.NO));
+      document.add(new TextField(StopSearchIndexConstants.FIELD_STOP_NAME,
+          names[i], Field.Store.YES));
+      writer.addDocument(document);
+    }
+    writer.close();
+    for (File file : indexPath.listFiles())
+      file.deleteOnExit();
+    indexPath.deleteOnExit();
+
+    StopSearchServiceImpl service = new StopSearchServiceImpl();
+    service.setBundle(bundle);
+    service.setLoadIndexIntoMemory(loadIntoMemory);
+    service.initialize();
+    return service;
+  }
+
+  private HashSet<AgencyAndId> ids(String... ids) {
+    HashSet<AgencyAndId> result = new HashSet<AgencyAndId>();
+    for (String id : ids)
+      result.add(aid(id));
+    return result;
+  }
+
+  private AgencyAndId aid(String id) {
+    return new AgencyAndId("1", id);
+  }
+
+  private boolean hasTokenWithPrefix(String name, String prefix) {
+    for (String token : name.toLowerCase().split("[^a-z0-9]+")) {
+      if (token.startsWith(prefix))
+        return true;
+    }
+    return false;
+  }
+}
@@ -450,6 +450,38 @@ public class StopTimeServiceImplTest {
 
   }
 
+  @Test
+  public void testIndicesAddedAfterQuery() {
+
+    Date from = date("2009-09-01 10:00");
+    Date to = date("2009-09-03 10:30");
+
+    StopTimeEntryImpl stA = stopTime(0, _stop, trip("A", "sA"), time(10, 10), 0);
+    StopTimeEntryImpl stB = stopTime(1, _stop, trip("B", "sB"), time(10, 20), 0);
+
+    BlockConfigurationEntry bA = linkBlockTrips("bA", stA.getTrip());
+    BlockConfigurationEntry bB = linkBlockTrips("bB", stB.getTrip());
+
+    addFirstStopToBlockIndex(bA);
+
+    List<StopTimeInstance> results = _service.getStopTimeInstancesInTimeRange(
+        _stopId, from, to);
+    assertEquals(2, results.size());
+
+    addFirstStopToBlockIndex(bB);
+
+    results = _service.getStopTimeInstancesInTimeRange(_stopId, from, to);
+    sort(results);
+
+    assertEquals(3, results.size());
+    assertEquals(date("2009-09-01 10:10").getTime(),
+        results.get(0).getArrivalTime());
+    assertEquals(date("2009-09-02 10:10").getTime(),
+        results.get(1).getArrivalTime());
+    assertEquals(date("2009-09-03 10:20").getTime(),
+        results.get(2).getArrivalTime());
+  }
+
   /****
    * Private Methods
    ****/
@@ -25,8 +25,11 @@ import java.util.List;
 
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.onebusaway.geospatial.model.CoordinateBounds;
 import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.transit_data_federation.impl.transit_graph.StopSpatialIndex;
 import org.onebusaway.transit_data_federation.services.transit_graph.StopEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.TransitGraphDao;
 
@@ -45,9 +48,26 @@ public class WhereGeospatialServiceImplTest {
     StopEntry stopD = stop("d", 0.5, 0.5);
     List<StopEntry> allStops = Arrays.asList(stopA, stopB, stopC, stopD);
 
-    Mockito.when(dao.getAllStops()).thenReturn(allStops);
-
-    service.initialize();
+    final StopSpatialIndex index = StopSpatialIndex.create(allStops);
+    Mockito.when(dao.getStopsByLocation(Mockito.any(CoordinateBounds.class))).thenAnswer(
+        new Answer<List<StopEntry>>() {
+          @Override
+          public List<StopEntry> answer(InvocationOnMock invocation) {
+            CoordinateBounds bounds = (CoordinateBounds) invocation.getArguments()[0];
+            return index.getStopsByBounds(bounds);
+          }
+        });
+    Mockito.when(
+        dao.getNearestStops(Mockito.anyDouble(), Mockito.anyDouble(),
+            Mockito.anyInt(), Mockito.anyDouble())).thenAnswer(
+        new Answer<List<StopEntry>>() {
+          @Override
+          public List<StopEntry> answer(InvocationOnMock invocation) {
+            Object[] args = invocation.getArguments();
+            return index.getNearestStops((Double) args[0], (Double) args[1],
+                (Integer) args[2], (Double) args[3]);
+          }
+        });
 
     List<AgencyAndId> stops = service.getStopsByBounds(new CoordinateBounds(-1,
         -1, 0, 0));
@@ -72,5 +92,11 @@ public class WhereGeospatialServiceImplTest {
 
     stops = service.getStopsByBounds(new CoordinateBounds(0.8, 0.8, 1, 1));
     assertEquals(0, stops.size());
+
+    stops = service.getNearestStops(0.4, 0.3, 2, Double.POSITIVE_INFINITY);
+    assertEquals(Arrays.asList(stopD.getId(), stopC.getId()), stops);
+
+    stops = service.getNearestStops(0.4, 0.3, 10, 50000);
+    assertEquals(Arrays.asList(stopD.getId()), stops);
   }
 }
@@ -24,8 +24,6 @@ import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
-import org.onebusaway.geospatial.model.CoordinateBounds;
-import org.onebusaway.geospatial.services.SphericalGeometryLibrary;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data.model.StopBean;
 import org.onebusaway.transit_data_federation.services.AgencyAndIdLibrary;
@@ -60,9 +58,9 @@ public class NearbyStopsBeanServiceImplTest {
     stopIds.add(stopIdA);
     stopIds.add(stopIdB);
 
-    CoordinateBounds bounds = SphericalGeometryLibrary.bounds(stop.getLat(),
-        stop.getLon(), 400);
-    Mockito.when(_geoBeanService.getStopsByBounds(bounds)).thenReturn(stopIds);
+    Mockito.when(
+        _geoBeanService.getNearestStops(47.0, -122.0, Integer.MAX_VALUE, 400)).thenReturn(
+        stopIds);
 
     List<AgencyAndId> nearby = _service.getNearbyStops(stop, 400);
     assertEquals(1, nearby.size());
@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.blocks;
+
+import static org.junit.Assert.assertEquals;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.aid;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.dateAsLong;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.linkBlockTrips;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stop;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stopTime;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.time;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.trip;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.onebusaway.collections.tuple.T2;
+import org.onebusaway.collections.tuple.Tuples;
+import org.onebusaway.geospatial.model.CoordinatePoint;
+import org.onebusaway.geospatial.model.XYPoint;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.transit_data_federation.impl.ProjectedPointFactory;
+import org.onebusaway.transit_data_federation.impl.shapes.ShapePointsLibrary;
+import org.onebusaway.transit_data_federation.impl.transit_graph.StopEntryImpl;
+import org.onebusaway.transit_data_federation.impl.transit_graph.TripEntryImpl;
+import org.onebusaway.transit_data_federation.model.ProjectedPoint;
+import org.onebusaway.transit_data_federation.services.blocks.BlockInstance;
+import org.onebusaway.transit_data_federation.services.blocks.ScheduledBlockLocation;
+import org.onebusaway.transit_data_federation.services.blocks.ScheduledBlockLocationService;
+import org.onebusaway.transit_data_federation.services.shapes.ProjectedShapePointService;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
+
+public class BlockGeospatialServiceImplTest {
+
+  /**
+   * Shape points are roughly this far apart, in meters
+   */
+  private static final double STEP = 10.0;
+
+  /**
+   * The block runs east for this many points, then back west on a parallel
+   * street
+   */
+  private static final int POINTS_PER_LEG = 1000;
+
+  /**
+   * Scheduled speed in meters per second
+   */
+  private static final double SPEED = 10.0;
+
+  private BlockGeospatialServiceImpl _service;
+
+  private List<CoordinatePoint> _shape = new ArrayList<CoordinatePoint>();
+
+  private double[] _distances;
+
+  private BlockInstance _blockInstance;
+
+  private long _serviceDate;
+
+  @Before
+  public void before() {
+
+    double lat = 47.6;
+    double lon = -122.3;
+    double dLat = STEP / 111320.0;
+    double dLon = STEP / (111320.0 * Math.cos(Math.toRadians(lat)));
+
+    for (int i = 0; i < POINTS_PER_LEG; i++)
+      _shape.add(new CoordinatePoint(lat, lon + i * dLon));
+    for (int i = POINTS_PER_LEG - 1; i >= 0; i--)
+      _shape.add(new CoordinatePoint(lat + 3 * dLat, lon + i * dLon));
+
+    ProjectedPoint origin = ProjectedPointFactory.forward(_shape.get(0));
+    int zone = origin.getSrid();
+
+    final List<XYPoint> points = new ArrayList<XYPoint>();
+    _distances = new double[_shape.size()];
+    for (int i = 0; i < _shape.size(); i++) {
+      ProjectedPoint p = ProjectedPointFactory.forward(_shape.get(i), zone);
+      XYPoint point = new XYPoint(p.getX(), p.getY());
+      if (i > 0)
+        _distances[i] = _distances[i - 1]
+            + point.getDistance(points.get(i - 1));
+      points.add(point);
+    }
+
+    double totalDistance = _distances[_distances.length - 1];
+
+    TripEntryImpl tripA = trip("tripA", "serviceId", totalDistance);
+    tripA.setShapeId(aid("shapeA"));
+    StopEntryImpl stopA = stop("stopA", lat, lon);
+    StopEntryImpl stopB = stop("stopB", lat + 3 * dLat, lon);
+    stopTime(0, stopA, tripA, time(10, 0), time(10, 0), 0);
+    stopTime(1, stopB, tripA, time(10, 0) + (int) (totalDistance / SPEED),
+        time(10, 0) + (int) (totalDistance / SPEED), totalDistance);
+
+    BlockConfigurationEntry blockConfig = linkBlockTrips("blockA", tripA);
+    _serviceDate = dateAsLong("2010-09-10 00:00");
+    _blockInstance = new BlockInstance(blockConfig, _serviceDate);
+
+    ProjectedShapePointService projectedShapePointService = Mockito.mock(ProjectedShapePointService.class);
+    T2<List<XYPoint>, double[]> tuple = Tuples.tuple(points, _distances);
+    Mockito.when(
+        projectedShapePointService.getProjectedShapePoints(
+            Mockito.anyListOf(AgencyAndId.class), Mockito.anyInt())).thenReturn(
+        tuple);
+
+    ScheduledBlockLocationService scheduledBlockLocationService = Mockito.mock(ScheduledBlockLocationService.class);
+    Mockito.when(
+        scheduledBlockLocationService.getScheduledBlockLocationFromDistanceAlongBlock(
+            Mockito.any(BlockConfigurationEntry.class), Mockito.anyDouble())).thenAnswer(
+        new Answer<ScheduledBlockLocation>() {
+          @Override
+          public ScheduledBlockLocation answer(InvocationOnMock invocation) {
+            double distance = (Double) invocation.getArguments()[1];
+            ScheduledBlockLocation location = new ScheduledBlockLocation();
+            location.setDistanceAlongBlock(distance);
+            location.setScheduledTime(time(10, 0) + (int) (distance / SPEED));
+            return location;
+          }
+        });
+
+    _service = new BlockGeospatialServiceImpl();
+    _service.setProjected(projectedShapePointService);
+    _service.setShapePointsLibrary(new ShapePointsLibrary());
+    _service.setScheduledBlockLocationService(scheduledBlockLocationService);
+  }
+
+  @Test
+  public void testIncrementalMatchesFullSearch() {
+
+    AgencyAndId vehicleId = aid("vehicleA");
+    AgencyAndId tripId = aid("tripA");
+    double totalDistance = _distances[_distances.length - 1];
+
+    int updates = 0;
+    for (int i = 0; i < _shape.size(); i += 30) {
+      CoordinatePoint location = getLocation(i);
+      long timestamp = getTimestamp(i);
+
+      ScheduledBlockLocation expected = _service.getBestScheduledBlockLocationForLocation(
+          _blockInstance, location, timestamp, 0, totalDistance);
+      ScheduledBlockLocation actual = _service.getBestScheduledBlockLocationForVehicleLocation(
+          vehicleId, tripId, _blockInstance, location, timestamp);
+
+      assertEquals(expected.getDistanceAlongBlock(),
+          actual.getDistanceAlongBlock(), 1e-6);
+      assertEquals(expected.getScheduledTime(), actual.getScheduledTime());
+      updates++;
+    }
+
+    // Only the first update should have needed a search of the full block
+    assertEquals(1, _service.getFullMatchCount());
+    assertEquals(updates - 1, _service.getIncrementalMatchCount());
+  }
+
+  @Test
+  public void testFullSearchOnJumpTripChangeAndReset() {
+
+    AgencyAndId vehicleId = aid("vehicleA");
+    AgencyAndId tripId = aid("tripA");
+
+    _service.getBestScheduledBlockLocationForVehicleLocation(vehicleId, tripId,
+        _blockInstance, getLocation(100), getTimestamp(100));
+    _service.getBestScheduledBlockLocationForVehicleLocation(vehicleId, tripId,
+        _blockInstance, getLocation(130), getTimestamp(130));
+    assertEquals(1, _service.getFullMatchCount());
+    assertEquals(1, _service.getIncrementalMatchCount());
+
+    // A jump of several kilometers
+    ScheduledBlockLocation location = _service.getBestScheduledBlockLocationForVehicleLocation(
+        vehicleId, tripId, _blockInstance, getLocation(1500),
+        getTimestamp(1500));
+    assertEquals(2, _service.getFullMatchCount());
+    assertEquals(_distances[1500], location.getDistanceAlongBlock(), 5.0);
+
+    // A new trip
+    _service.getBestScheduledBlockLocationForVehicleLocation(vehicleId,
+        aid("tripB"), _blockInstance, getLocation(1510), getTimestamp(1510));
+    assertEquals(3, _service.getFullMatchCount());
+
+    _service.resetVehicleLocation(vehicleId);
+    _service.getBestScheduledBlockLocationForVehicleLocation(vehicleId,
+        aid("tripB"), _blockInstance, getLocation(1520), getTimestamp(1520));
+    assertEquals(4, _service.getFullMatchCount());
+    assertEquals(1, _service.getIncrementalMatchCount());
+  }
+
+  @Test
+  public void testVehiclesAreTrackedIndependently() {
+
+    List<AgencyAndId> vehicleIds = new ArrayList<AgencyAndId>();
+    for (int v = 0; v < 50; v++)
+      vehicleIds.add(aid("vehicle" + v));
+
+    AgencyAndId tripId = aid("tripA");
+    double totalDistance = _distances[_distances.length - 1];
+
+    int updates = 0;
+    for (int i = 0; i < _shape.size(); i += 30) {
+      CoordinatePoint location = getLocation(i);
+      long timestamp = getTimestamp(i);
+      ScheduledBlockLocation expected = _service.getBestScheduledBlockLocationForLocation(
+          _blockInstance, location, timestamp, 0, totalDistance);
+      for (AgencyAndId vehicleId : vehicleIds) {
+        ScheduledBlockLocation actual = _service.getBestScheduledBlockLocationForVehicleLocation(
+            vehicleId, tripId, _blockInstance, location, timestamp);
+        assertEquals(expected.getDistanceAlongBlock(),
+            actual.getDistanceAlongBlock(), 1e-6);
+      }
+      updates++;
+    }
+
+    assertEquals(vehicleIds.size(), _service.getFullMatchCount());
+    assertEquals(vehicleIds.size() * (updates - 1),
+        _service.getIncrementalMatchCount());
+    assertEquals(vehicleIds.size(), _service.getVehicleMatchStateCount());
+  }
+
+  /**
+   * The block passes each point of the outbound leg again on its way back, 30
+   * meters away. A vehicle that reports from the outbound leg at the time the
+   * return pass is scheduled there is kept on the outbound pass it was already
+   * making, where a full search picks the return pass that fits the schedule.
+   */
+  @Test
+  public void testLoopingBlockStaysOnCurrentPass() {
+
+    AgencyAndId vehicleId = aid("vehicleA");
+    AgencyAndId tripId = aid("tripA");
+    double totalDistance = _distances[_distances.length - 1];
+    int returnPass = 2 * POINTS_PER_LEG - 1 - 300;
+
+    _service.setVehicleMatchStateMaxAge(60 * 60 * 1000);
+
+    _service.getBestScheduledBlockLocationForVehicleLocation(vehicleId, tripId,
+        _blockInstance, getLocation(270), getTimestamp(270));
+
+    CoordinatePoint location = getLocation(300);
+    long timestamp = getTimestamp(returnPass);
+
+    ScheduledBlockLocation full = _service.getBestScheduledBlockLocationForLocation(
+        _blockInstance, location, timestamp, 0, totalDistance);
+    assertEquals(_distances[returnPass], full.getDistanceAlongBlock(), 5.0);
+
+    ScheduledBlockLocation incremental = _service.getBestScheduledBlockLocationForVehicleLocation(
+        vehicleId, tripId, _blockInstance, location, timestamp);
+    assertEquals(_distances[300], incremental.getDistanceAlongBlock(), 5.0);
+    assertEquals(1, _service.getIncrementalMatchCount());
+  }
+
+  @Test
+  public void testExpiredMatchStates() {
+
+    AgencyAndId vehicleA = aid("vehicleA");
+    AgencyAndId vehicleB = aid("vehicleB");
+    AgencyAndId tripId = aid("tripA");
+    long maxAge = 10 * 60 * 1000;
+
+    _service.setVehicleMatchStateMaxAge(maxAge);
+
+    _service.getBestScheduledBlockLocationForVehicleLocation(vehicleA, tripId,
+        _blockInstance, getLocation(100), getTimestamp(100));
+
+    // vehicleA reports again after a long silence
+    _service.getBestScheduledBlockLocationForVehicleLocation(vehicleA, tripId,
+        _blockInstance, getLocation(130), getTimestamp(130) + maxAge);
+    assertEquals(2, _service.getFullMatchCount());
+    assertEquals(0, _service.getIncrementalMatchCount());
+
+    // vehicleA goes quiet, and is purged once vehicleB reports much later
+    _service.getBestScheduledBlockLocationForVehicleLocation(vehicleB, tripId,
+        _blockInstance, getLocation(130), getTimestamp(130) + 3 * maxAge);
+    assertEquals(1, _service.getVehicleMatchStateCount());
+  }
+
+  /**
+   * The vehicle location near the specified shape point, offset a few meters
+   * from the shape as GPS noise would
+   */
+  private CoordinatePoint getLocation(int index) {
+    CoordinatePoint p = _shape.get(index);
+    return new CoordinatePoint(p.getLat() + 4 / 111320.0, p.getLon());
+  }
+
+  private long getTimestamp(int index) {
+    return _serviceDate
+        + (time(10, 0) + (long) (_distances[index] / SPEED)) * 1000;
+  }
+}
@@ -25,8 +25,12 @@ import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.
 import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stopTime;
 import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.trip;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.onebusaway.geospatial.model.CoordinatePoint;
 import org.onebusaway.transit_data_federation.impl.transit_graph.BlockEntryImpl;
@@ -148,6 +152,92 @@ public class BlockLocationServiceImplTest {
     assertEquals("fewSeatsAvailable", blockConfig.getStopTimes().get(0).getStopTime().getHistoricalOccupancy().toString());
   }
 
+  @Test
+  public void testPersistenceQueueDropsWhenFull() {
+
+    BlockLocationRecordDao dao = Mockito.mock(BlockLocationRecordDao.class);
+    _service.setBlockLocationRecordDao(dao);
+    _service.setPersistenceQueueCapacity(2);
+    _service.setDropRecordsWhenPersistenceQueueFull(true);
+
+    _service.addPredictionToPersistenceQueue(records(3));
+
+    assertEquals(2, _service.getPersistenceQueueDepth());
+    assertEquals(1, _service.getPersistenceQueueDropCount());
+    assertEquals(0, _service.getPersistenceQueueOverflowCount());
+    Mockito.verifyZeroInteractions(dao);
+
+    _service.flushPersistenceQueue();
+
+    assertEquals(0, _service.getPersistenceQueueDepth());
+    assertEquals(2, _service.getTotalInsertCount());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testPersistenceQueueOverflowIsLossless() {
+
+    BlockLocationRecordDao dao = Mockito.mock(BlockLocationRecordDao.class);
+    Mockito.doThrow(new IllegalStateException("database down")).when(dao).saveBlockLocationRecords(
+        Mockito.anyList());
+    _service.setBlockLocationRecordDao(dao);
+    _service.setPersistenceQueueCapacity(2);
+    _service.setPersistBlockLocationRecords(true);
+
+    try {
+      /**
+       * The overflow is handed to the writer thread, so the failing dao must
+       * not surface on the ingest thread
+       */
+      _service.addPredictionToPersistenceQueue(records(3));
+
+      assertEquals(0, _service.getPersistenceQueueDropCount());
+      assertEquals(1, _service.getPersistenceQueueOverflowCount());
+
+      Mockito.verify(dao, Mockito.timeout(5000)).saveBlockLocationRecords(
+          Mockito.anyList());
+    } finally {
+      _service.stop();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testPersistenceWriterBatches() {
+
+    BlockLocationRecordDao dao = Mockito.mock(BlockLocationRecordDao.class);
+    _service.setBlockLocationRecordDao(dao);
+    _service.setPersistenceBatchSize(2);
+
+    _service.addPredictionToPersistenceQueue(records(5));
+    assertEquals(5, _service.getPersistenceQueueDepth());
+
+    _service.flushPersistenceQueue();
+
+    ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+    Mockito.verify(dao, Mockito.times(3)).saveBlockLocationRecords(
+        captor.capture());
+    List<List> batches = captor.getAllValues();
+    assertEquals(2, batches.get(0).size());
+    assertEquals(2, batches.get(1).size());
+    assertEquals(1, batches.get(2).size());
+
+    assertEquals(0, _service.getPersistenceQueueDepth());
+    assertEquals(5, _service.getTotalInsertCount());
+    assertEquals(1, _service.getLastInsertCount());
+    assertTrue(_service.getMaxInsertDuration() >= 0);
+  }
+
+  private List<BlockLocationRecord> records(int count) {
+    List<BlockLocationRecord> records = new ArrayList<BlockLocationRecord>();
+    for (int i = 0; i < count; i++) {
+      BlockLocationRecord.Builder builder = BlockLocationRecord.builder();
+      builder.setTime(i * 1000L);
+      records.add(builder.create());
+    }
+    return records;
+  }
+
   private long t(long serviceDate, int hours, double minutes) {
     return (long) (serviceDate + (((hours * 60) + minutes) * 60) * 1000);
   }
@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.JDBCException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.PostInsertIdentifierGenerator;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class JdbcBatchInserterTest {
+
+  private SessionFactoryImplementor _sessionFactory;
+
+  private AbstractEntityPersister _persister;
+
+  private Type _nameType;
+
+  private Type _locationType;
+
+  private Session _session;
+
+  private Transaction _tx;
+
+  private Connection _connection;
+
+  private PreparedStatement _statement;
+
+  private JdbcBatchInserter _inserter;
+
+  @Before
+  public void setup() throws SQLException {
+    _sessionFactory = Mockito.mock(SessionFactoryImplementor.class);
+
+    _persister = Mockito.mock(AbstractEntityPersister.class);
+    Mockito.when(_sessionFactory.getEntityPersister(Record.class.getName())).thenReturn(
+        _persister);
+    Mockito.when(_persister.getTableName()).thenReturn("records");
+    Mockito.when(_persister.getIdentifierColumnNames()).thenReturn(
+        new String[] {"id"});
+    Mockito.when(_persister.getIdentifierGenerator()).thenReturn(
+        Mockito.mock(PostInsertIdentifierGenerator.class));
+    Mockito.when(_persister.getPropertyInsertability()).thenReturn(
+        new boolean[] {true, false, true});
+    Mockito.when(_persister.getPropertyColumnNames(0)).thenReturn(
+        new String[] {"name"});
+    Mockito.when(_persister.getPropertyColumnNames(1)).thenReturn(
+        new String[] {"computed"});
+    Mockito.when(_persister.getPropertyColumnNames(2)).thenReturn(
+        new String[] {"lat", "lon"});
+    _nameType = Mockito.mock(Type.class);
+    _locationType = Mockito.mock(Type.class);
+    Mockito.when(_persister.getPropertyTypes()).thenReturn(
+        new Type[] {_nameType, Mockito.mock(Type.class), _locationType});
+    Mockito.when(_persister.getPropertyValues(Mockito.any())).thenAnswer(
+        new Answer<Object[]>() {
+          @Override
+          public Object[] answer(InvocationOnMock invocation) {
+            Record record = (Record) invocation.getArguments()[0];
+            return new Object[] {record.name, null, record.location};
+          }
+        });
+
+    _session = Mockito.mock(Session.class,
+        Mockito.withSettings().extraInterfaces(SessionImplementor.class));
+    _tx = Mockito.mock(Transaction.class);
+    _connection = Mockito.mock(Connection.class);
+    _statement = Mockito.mock(PreparedStatement.class);
+    Mockito.when(_sessionFactory.openSession()).thenReturn(_session);
+    Mockito.when(_session.beginTransaction()).thenReturn(_tx);
+    Mockito.when(_connection.prepareStatement(Mockito.anyString())).thenReturn(
+        _statement);
+    Mockito.doAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        try {
+          ((Work) invocation.getArguments()[0]).execute(_connection);
+        } catch (SQLException ex) {
+          throw new JDBCException("batch failed", ex);
+        }
+        return null;
+      }
+    }).when(_session).doWork(Mockito.any(Work.class));
+
+    _inserter = new JdbcBatchInserter();
+    _inserter.setBatchSize(2);
+  }
+
+  @Test
+  public void testInsertStatement() {
+    JdbcBatchInserter.InsertStatement statement = new JdbcBatchInserter.InsertStatement(
+        _sessionFactory, Record.class);
+    assertEquals("insert into records (name, lat, lon) values (?, ?, ?)",
+        statement.getSql());
+  }
+
+  @Test
+  public void testAssignedIdentifier() throws SQLException {
+    IdentifierGenerator generator = Mockito.mock(IdentifierGenerator.class);
+    Mockito.when(_persister.getIdentifierGenerator()).thenReturn(generator);
+    Type idType = Mockito.mock(Type.class);
+    Mockito.when(_persister.getIdentifierType()).thenReturn(idType);
+
+    JdbcBatchInserter.InsertStatement statement = new JdbcBatchInserter.InsertStatement(
+        _sessionFactory, Record.class);
+    assertEquals(
+        "insert into records (id, name, lat, lon) values (?, ?, ?, ?)",
+        statement.getSql());
+
+    List<Record> records = records(1);
+    Mockito.when(
+        generator.generate((SessionImplementor) _session, records.get(0))).thenReturn(
+        "id0");
+    _inserter.insert(_sessionFactory, Record.class, records);
+
+    SessionImplementor session = (SessionImplementor) _session;
+    Mockito.verify(idType).nullSafeSet(_statement, "id0", 1, session);
+    Mockito.verify(_nameType).nullSafeSet(_statement, "name0", 2, session);
+    Mockito.verify(_locationType).nullSafeSet(_statement, "location0", 3,
+        session);
+  }
+
+  @Test
+  public void testInsertInBatches() throws SQLException {
+    List<Record> records = records(5);
+    _inserter.insert(_sessionFactory, Record.class, records);
+
+    SessionImplementor session = (SessionImplementor) _session;
+    InOrder inOrder = Mockito.inOrder(_session, _tx, _statement, _nameType,
+        _locationType);
+    for (int from = 0; from < 5; from += 2) {
+      inOrder.verify(_session).beginTransaction();
+      for (int i = from; i < Math.min(from + 2, 5); i++) {
+        inOrder.verify(_nameType).nullSafeSet(_statement, "name" + i, 1,
+            session);
+        inOrder.verify(_locationType).nullSafeSet(_statement, "location" + i,
+            2, session);
+        inOrder.verify(_statement).addBatch();
+      }
+      inOrder.verify(_statement).executeBatch();
+      inOrder.verify(_tx).commit();
+    }
+    inOrder.verify(_session).close();
+
+    Mockito.verify(_sessionFactory, Mockito.times(1)).openSession();
+    Mockito.verify(_statement, Mockito.times(3)).close();
+    Mockito.verify(_tx, Mockito.never()).rollback();
+    assertEquals(5, _inserter.getInsertedRecordCount());
+    assertEquals(3, _inserter.getBatchCount());
+    assertEquals(0, _inserter.getFailedRecordCount());
+  }
+
+  @Test
+  public void testEmpty() {
+    _inserter.insert(_sessionFactory, Record.class, records(0));
+    Mockito.verifyZeroInteractions(_sessionFactory);
+  }
+
+  @Test
+  public void testFailedBatchIsRolledBack() throws SQLException {
+    List<Record> records = records(5);
+    Mockito.when(_statement.executeBatch()).thenReturn(new int[] {1, 1}).thenThrow(
+        new BatchUpdateException());
+
+    try {
+      _inserter.insert(_sessionFactory, Record.class, records);
+      fail();
+    } catch (JDBCException ex) {
+      assertSame(BatchUpdateException.class, ex.getSQLException().getClass());
+    }
+
+    Mockito.verify(_tx, Mockito.times(1)).commit();
+    Mockito.verify(_tx, Mockito.times(1)).rollback();
+    Mockito.verify(_nameType, Mockito.never()).nullSafeSet(_statement,
+        "name4", 1, (SessionImplementor) _session);
+    Mockito.verify(_session).close();
+
+    assertEquals(2, _inserter.getInsertedRecordCount());
+    assertEquals(1, _inserter.getBatchCount());
+    assertEquals(2, _inserter.getFailedRecordCount());
+  }
+
+  private List<Record> records(int count) {
+    List<Record> records = new ArrayList<Record>();
+    for (int i = 0; i < count; i++)
+      records.add(new Record("name" + i, "location" + i));
+    return records;
+  }
+
+  private static class Record {
+
+    private final String name;
+
+    private final String location;
+
+    public Record(String name, String location) {
+      this.name = name;
+      this.location = location;
+    }
+  }
+}
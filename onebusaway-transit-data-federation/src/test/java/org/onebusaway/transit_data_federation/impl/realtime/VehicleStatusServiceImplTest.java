@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.realtime.api.VehicleLocationRecord;
+import org.onebusaway.transit_data_federation.services.blocks.BlockVehicleLocationListener;
+import org.onebusaway.transit_data_federation.services.realtime.VehicleStatus;
+
+public class VehicleStatusServiceImplTest {
+
+  private VehicleStatusServiceImpl _service;
+
+  @Before
+  public void before() {
+    _service = new VehicleStatusServiceImpl();
+    _service.setBlockVehicleLocationService(Mockito.mock(BlockVehicleLocationListener.class));
+  }
+
+  @Test
+  public void testGetAllVehicleStatusesForAgency() {
+
+    _service.handleVehicleLocationRecord(record("1", "v1", 1000));
+    _service.handleVehicleLocationRecord(record("1", "v2", 1000));
+    _service.handleVehicleLocationRecord(record("2", "v1", 1000));
+
+    assertEquals(3, _service.getAllVehicleStatuses().size());
+    assertEquals(2, _service.getAllVehicleStatusesForAgency("1").size());
+    assertEquals(1, _service.getAllVehicleStatusesForAgency("2").size());
+    assertEquals(0, _service.getAllVehicleStatusesForAgency("3").size());
+
+    _service.handleVehicleLocationRecord(record("1", "v1", 2000));
+
+    List<VehicleStatus> statuses = _service.getAllVehicleStatusesForAgency("1");
+    assertEquals(2, statuses.size());
+    for (VehicleStatus status : statuses) {
+      if (status.getVehicleId().getId().equals("v1"))
+        assertEquals(2000, status.getRecord().getTimeOfRecord());
+    }
+
+    _service.resetVehicleLocation(new AgencyAndId("1", "v1"));
+    statuses = _service.getAllVehicleStatusesForAgency("1");
+    assertEquals(1, statuses.size());
+    assertEquals("v2", statuses.get(0).getVehicleId().getId());
+  }
+
+  @Test
+  public void testSnapshotReflectsUpdates() {
+
+    _service.handleVehicleLocationRecord(record("1", "v1", 1000));
+
+    VehicleLocationRecord a = _service.getAllVehicleStatusesForAgency("1").get(0).getRecord();
+    VehicleLocationRecord b = _service.getAllVehicleStatusesForAgency("1").get(0).getRecord();
+    assertSame(a, b);
+
+    VehicleLocationRecord updated = record("1", "v1", 2000);
+    _service.handleVehicleLocationRecord(updated);
+
+    VehicleLocationRecord c = _service.getAllVehicleStatusesForAgency("1").get(0).getRecord();
+    assertNotSame(a, c);
+    assertSame(updated, c);
+  }
+
+  private static VehicleLocationRecord record(String agencyId,
+      String vehicleId, long time) {
+    VehicleLocationRecord record = new VehicleLocationRecord();
+    record.setVehicleId(new AgencyAndId(agencyId, vehicleId));
+    record.setTimeOfRecord(time);
+    return record;
+  }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime.gtfs_realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.realtime.api.VehicleLocationListener;
+import org.onebusaway.realtime.api.VehicleLocationRecord;
+import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAlertsService;
+
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+
+public class GtfsRealtimeSourceTest {
+
+  private GtfsRealtimeSource _source;
+
+  private GtfsRealtimeTripLibrary _tripsLibrary;
+
+  private VehicleLocationListener _listener;
+
+  @Before
+  public void before() {
+    _source = new GtfsRealtimeSource();
+    _source.setAgencyId("1");
+    _source.setRefreshInterval(0);
+    _source.setServiceAlertService(Mockito.mock(ServiceAlertsService.class));
+
+    _listener = Mockito.mock(VehicleLocationListener.class);
+    _source.setVehicleLocationListener(_listener);
+  }
+
+  @After
+  public void after() {
+    _source.stop();
+  }
+
+  @Test
+  public void testUnchangedUpdateIsSkipped() throws Exception {
+
+    start();
+
+    CombinedTripUpdatesAndVehiclePosition update = update("v1", "t1");
+    setUpdates(update);
+    Mockito.when(
+        _tripsLibrary.createVehicleLocationRecordForUpdate(
+            Mockito.any(MonitoredResult.class), Mockito.eq(update))).thenReturn(
+        record("v1", 0));
+
+    _source.refresh();
+    _source.refresh();
+
+    Mockito.verify(_tripsLibrary, Mockito.times(1)).createVehicleLocationRecordForUpdate(
+        Mockito.any(MonitoredResult.class), Mockito.eq(update));
+    Mockito.verify(_listener, Mockito.times(1)).handleVehicleLocationRecord(
+        Mockito.any(VehicleLocationRecord.class));
+    assertEquals(1, _source.getLastSkippedUpdateCount());
+    assertEquals(1, _source.getTotalSkippedUpdateCount());
+  }
+
+  @Test
+  public void testDiscardedUpdateIsRetried() throws Exception {
+
+    start();
+
+    CombinedTripUpdatesAndVehiclePosition update = update("v1", "t1");
+    setUpdates(update);
+
+    /**
+     * The first time around the block isn't active yet, so the update is
+     * discarded, but the same content is applied once it is
+     */
+    Mockito.when(
+        _tripsLibrary.createVehicleLocationRecordForUpdate(
+            Mockito.any(MonitoredResult.class), Mockito.eq(update))).thenReturn(
+        record("v1", 2 * 60 * 60), record("v1", 0));
+
+    _source.refresh();
+
+    Mockito.verify(_listener, Mockito.never()).handleVehicleLocationRecord(
+        Mockito.any(VehicleLocationRecord.class));
+
+    _source.refresh();
+
+    Mockito.verify(_tripsLibrary, Mockito.times(2)).createVehicleLocationRecordForUpdate(
+        Mockito.any(MonitoredResult.class), Mockito.eq(update));
+    Mockito.verify(_listener, Mockito.times(1)).handleVehicleLocationRecord(
+        Mockito.any(VehicleLocationRecord.class));
+    assertEquals(0, _source.getLastSkippedUpdateCount());
+  }
+
+  @Test
+  public void testParallelUpdates() throws Exception {
+
+    _source.setParallelism(2);
+    start();
+
+    List<CombinedTripUpdatesAndVehiclePosition> updates = new ArrayList<CombinedTripUpdatesAndVehiclePosition>();
+    for (int i = 0; i < 8; i++) {
+      CombinedTripUpdatesAndVehiclePosition update = update("v" + i, "t" + i);
+      updates.add(update);
+      Mockito.when(
+          _tripsLibrary.createVehicleLocationRecordForUpdate(
+              Mockito.any(MonitoredResult.class), Mockito.eq(update))).thenReturn(
+          record("v" + i, 0));
+    }
+    setUpdates(updates.toArray(new CombinedTripUpdatesAndVehiclePosition[updates.size()]));
+
+    final Set<AgencyAndId> vehicleIds = Collections.synchronizedSet(new HashSet<AgencyAndId>());
+    final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        VehicleLocationRecord record = (VehicleLocationRecord) invocation.getArguments()[0];
+        vehicleIds.add(record.getVehicleId());
+        threads.add(Thread.currentThread());
+        return null;
+      }
+    }).when(_listener).handleVehicleLocationRecord(
+        Mockito.any(VehicleLocationRecord.class));
+
+    _source.refresh();
+
+    assertEquals(8, vehicleIds.size());
+    for (Thread thread : threads) {
+      assertTrue(thread.getName().startsWith("gtfs-realtime-1-"));
+      assertTrue(thread.isDaemon());
+    }
+    /**
+     * The results collected by each partition are merged
+     */
+    assertEquals(8, _source.getMonitoredResult().getUnmatchedTripIds().size());
+  }
+
+  private void start() {
+    _source.start();
+    _tripsLibrary = Mockito.mock(GtfsRealtimeTripLibrary.class);
+    Mockito.when(_tripsLibrary.getCurrentTime()).thenReturn(10000L);
+    _source.setGtfsRealtimeTripLibrary(_tripsLibrary);
+  }
+
+  private void setUpdates(CombinedTripUpdatesAndVehiclePosition... updates) {
+    Mockito.when(
+        _tripsLibrary.groupTripUpdatesAndVehiclePositions(
+            Mockito.any(MonitoredResult.class),
+            Mockito.any(FeedMessage.class), Mockito.any(FeedMessage.class))).thenReturn(
+        new ArrayList<CombinedTripUpdatesAndVehiclePosition>(
+            Arrays.asList(updates)));
+  }
+
+  private CombinedTripUpdatesAndVehiclePosition update(String vehicleId,
+      String tripId) {
+    BlockDescriptor block = new BlockDescriptor();
+    block.setVehicleId(vehicleId);
+    TripUpdate.Builder tripUpdate = TripUpdate.newBuilder();
+    tripUpdate.setTrip(TripDescriptor.newBuilder().setTripId(tripId));
+    CombinedTripUpdatesAndVehiclePosition update = new CombinedTripUpdatesAndVehiclePosition();
+    update.block = block;
+    update.tripUpdates = new ArrayList<TripUpdate>();
+    update.tripUpdates.add(tripUpdate.build());
+    return update;
+  }
+
+  private VehicleLocationRecord record(String vehicleId,
+      double scheduleDeviation) {
+    VehicleLocationRecord record = new VehicleLocationRecord();
+    record.setVehicleId(new AgencyAndId("1", vehicleId));
+    record.setTripId(new AgencyAndId("1", "trip-" + vehicleId));
+    record.setTimeOfRecord(5000L);
+    record.setScheduleDeviation(scheduleDeviation);
+    return record;
+  }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.service_alerts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.transit_data_federation.impl.service_alerts.ServiceAlertsApplicabilityIndex.Key;
+import org.onebusaway.transit_data_federation.impl.service_alerts.ServiceAlertsApplicabilityIndex.Timeline;
+
+public class ServiceAlertsApplicabilityIndexTest {
+
+  @Test
+  public void testTimeline() {
+
+    ServiceAlertRecord always = alert("always");
+    ServiceAlertRecord morning = alert("morning", window(1000L, 2000L));
+    ServiceAlertRecord openEnded = alert("openEnded", window(1500L, null));
+    ServiceAlertRecord twice = alert("twice", window(null, 500L),
+        window(3000L, 4000L));
+
+    Timeline timeline = Timeline.create(Arrays.asList(always, morning,
+        openEnded, twice));
+
+    assertEquals(Arrays.asList(always, twice),
+        timeline.getActiveServiceAlerts(0));
+    assertEquals(Arrays.asList(always, twice),
+        timeline.getActiveServiceAlerts(500));
+    assertEquals(Arrays.asList(always), timeline.getActiveServiceAlerts(501));
+    assertEquals(Arrays.asList(always, morning),
+        timeline.getActiveServiceAlerts(1000));
+    assertEquals(Arrays.asList(always, morning, openEnded),
+        timeline.getActiveServiceAlerts(2000));
+    assertEquals(Arrays.asList(always, openEnded),
+        timeline.getActiveServiceAlerts(2001));
+    assertEquals(Arrays.asList(always, openEnded, twice),
+        timeline.getActiveServiceAlerts(4000));
+    assertEquals(Arrays.asList(always, openEnded),
+        timeline.getActiveServiceAlerts(Long.MAX_VALUE));
+    assertEquals(4, timeline.getActiveServiceAlerts(-1).size());
+  }
+
+  @Test
+  public void testTimelineMatchesPublicationWindows() {
+    Random random = new Random(17);
+    List<ServiceAlertRecord> alerts = randomAlerts(random, 50, 100000);
+    Timeline timeline = Timeline.create(alerts);
+    for (int i = 0; i < 10000; i++) {
+      long time = random.nextInt(120000);
+      assertEquals(filterByTime(alerts, time),
+          timeline.getActiveServiceAlerts(time));
+    }
+  }
+
+  @Test
+  public void testInvalidate() {
+
+    ServiceAlertsApplicabilityIndex index = new ServiceAlertsApplicabilityIndex();
+
+    ServiceAlertRecord routeAlert = alert("A");
+    routeAlert.getAllAffects().add(affects("1", "routeX", null));
+
+    Key routeKey = ServiceAlertsApplicabilityIndex.forRoute(aid("routeX"), "0");
+    Key routeStopKey = ServiceAlertsApplicabilityIndex.forRouteStop(
+        aid("routeX"), "0", aid("stopA"));
+    Key otherRouteKey = ServiceAlertsApplicabilityIndex.forRoute(
+        aid("routeY"), "0");
+    Key tripKey = ServiceAlertsApplicabilityIndex.forTrip(aid("tripA"));
+    Key emptyKey = ServiceAlertsApplicabilityIndex.forTrip(aid("tripB"));
+
+    index.put(routeKey, Arrays.asList(routeAlert));
+    index.put(routeStopKey, Arrays.asList(alert("C")));
+    index.put(otherRouteKey, Arrays.asList(alert("D")));
+    index.put(tripKey, Arrays.asList(alert("E")));
+
+    // Keys no alert applies to are not stored
+    assertTrue(index.put(emptyKey, new ArrayList<ServiceAlertRecord>()).isEmpty());
+    assertNull(index.get(emptyKey));
+    assertEquals(4, index.size());
+
+    // Invalidating a copy leaves the original untouched
+    ServiceAlertsApplicabilityIndex original = index;
+    index = new ServiceAlertsApplicabilityIndex(original);
+
+    // A new alert for the trip only drops the trip entry
+    ServiceAlertRecord tripAlert = alert("B");
+    tripAlert.getAllAffects().add(affects("1", null, "tripA"));
+    index.invalidate(aid("B"), tripAlert);
+    assertNull(index.get(tripKey));
+    assertNotNull(index.get(routeKey));
+    assertNotNull(index.get(routeStopKey));
+    assertNotNull(index.get(otherRouteKey));
+
+    // Moving the route alert to another route drops both routes' entries, but
+    // not the stop entry that never included it
+    routeAlert.setAllAffects(new HashSet<ServiceAlertsSituationAffectsClause>());
+    routeAlert.getAllAffects().add(affects("1", "routeY", null));
+    index.invalidate(aid("A"), routeAlert);
+    assertNull(index.get(routeKey));
+    assertNotNull(index.get(routeStopKey));
+    assertNull(index.get(otherRouteKey));
+
+    // Removing an alert drops the entries that included it
+    index.invalidate(aid("C"), null);
+    assertNull(index.get(routeStopKey));
+    assertEquals(0, index.size());
+
+    assertEquals(4, original.size());
+    assertNotNull(original.get(tripKey));
+    assertNotNull(original.get(routeKey));
+
+    original.clear();
+    assertEquals(0, original.size());
+  }
+
+  /**
+   * Arrival lookups against 600 active-or-scheduled alerts: 20 agency-wide and
+   * the rest spread over 50 routes. Each lookup must return exactly what the
+   * service did before: merge the id sets for each key, resolve each id and
+   * check its publication windows.
+   */
+  @Test
+  public void testMatchesWindowScan() {
+
+    Random random = new Random(42);
+    int horizon = 86400000;
+
+    Map<Object, Set<AgencyAndId>> idsByKey = new HashMap<Object, Set<AgencyAndId>>();
+    Map<AgencyAndId, ServiceAlertRecord> alertsById = new HashMap<AgencyAndId, ServiceAlertRecord>();
+    List<ServiceAlertRecord> alerts = randomAlerts(random, 600, horizon);
+    for (int i = 0; i < alerts.size(); i++) {
+      ServiceAlertRecord alert = alerts.get(i);
+      AgencyAndId id = aid(alert.getServiceAlertId());
+      alertsById.put(id, alert);
+      Object key = i < 20 ? "agency" : aid("route" + (i % 50));
+      Set<AgencyAndId> ids = idsByKey.get(key);
+      if (ids == null) {
+        ids = new HashSet<AgencyAndId>();
+        idsByKey.put(key, ids);
+      }
+      ids.add(id);
+    }
+
+    ServiceAlertsApplicabilityIndex index = new ServiceAlertsApplicabilityIndex();
+    Key agencyKey = ServiceAlertsApplicabilityIndex.forAgency("1");
+    index.put(agencyKey, resolve(idsByKey.get("agency"), alertsById));
+    for (int r = 0; r < 50; r++) {
+      index.put(ServiceAlertsApplicabilityIndex.forRoute(aid("route" + r), "0"),
+          resolve(idsByKey.get(aid("route" + r)), alertsById));
+    }
+
+    for (int i = 0; i < 2000; i++) {
+      long time = random.nextInt(horizon);
+      int route = random.nextInt(50);
+
+      Set<ServiceAlertRecord> expected = new HashSet<ServiceAlertRecord>();
+      Set<AgencyAndId> ids = new HashSet<AgencyAndId>();
+      ids.addAll(idsByKey.get("agency"));
+      ids.addAll(idsByKey.get(aid("route" + route)));
+      for (AgencyAndId id : ids) {
+        ServiceAlertRecord alert = alertsById.get(id);
+        if (Timeline.isActive(alert, time))
+          expected.add(alert);
+      }
+
+      Key routeKey = ServiceAlertsApplicabilityIndex.forRoute(aid("route"
+          + route), "0");
+      Set<ServiceAlertRecord> actual = new HashSet<ServiceAlertRecord>();
+      actual.addAll(index.get(agencyKey).getActiveServiceAlerts(time));
+      actual.addAll(index.get(routeKey).getActiveServiceAlerts(time));
+
+      assertEquals(expected, actual);
+    }
+  }
+
+  private List<ServiceAlertRecord> resolve(Set<AgencyAndId> ids,
+      Map<AgencyAndId, ServiceAlertRecord> alertsById) {
+    List<ServiceAlertRecord> alerts = new ArrayList<ServiceAlertRecord>();
+    for (AgencyAndId id : ids)
+      alerts.add(alertsById.get(id));
+    return alerts;
+  }
+
+  private List<ServiceAlertRecord> randomAlerts(Random random, int count,
+      int horizon) {
+    List<ServiceAlertRecord> alerts = new ArrayList<ServiceAlertRecord>();
+    for (int i = 0; i < count; i++) {
+      ServiceAlertRecord alert = alert("alert" + i);
+      int windows = random.nextInt(3);
+      for (int j = 0; j < windows; j++) {
+        Long from = random.nextInt(10) == 0 ? null
+            : (long) random.nextInt(horizon);
+        Long to = random.nextInt(10) == 0 ? null : (from == null ? 0 : from)
+            + random.nextInt(horizon / 4);
+        alert.getPublicationWindows().add(window(from, to));
+      }
+      alerts.add(alert);
+    }
+    return alerts;
+  }
+
+  private List<ServiceAlertRecord> filterByTime(List<ServiceAlertRecord> alerts,
+      long time) {
+    List<ServiceAlertRecord> active = new ArrayList<ServiceAlertRecord>();
+    for (ServiceAlertRecord alert : alerts) {
+      if (Timeline.isActive(alert, time))
+        active.add(alert);
+    }
+    return active;
+  }
+
+  private ServiceAlertRecord alert(String id, ServiceAlertTimeRange... windows) {
+    ServiceAlertRecord alert = new ServiceAlertRecord();
+    alert.setAgencyId("1");
+    alert.setServiceAlertId(id);
+    alert.setPublicationWindows(new HashSet<ServiceAlertTimeRange>(
+        Arrays.asList(windows)));
+    alert.setAllAffects(new HashSet<ServiceAlertsSituationAffectsClause>());
+    return alert;
+  }
+
+  private ServiceAlertTimeRange window(Long from, Long to) {
+    ServiceAlertTimeRange window = new ServiceAlertTimeRange();
+    window.setFromValue(from);
+    window.setToValue(to);
+    return window;
+  }
+
+  private ServiceAlertsSituationAffectsClause affects(String agencyId,
+      String routeId, String tripId) {
+    ServiceAlertsSituationAffectsClause affects = new ServiceAlertsSituationAffectsClause();
+    affects.setAgencyId(agencyId);
+    affects.setRouteId(routeId);
+    affects.setTripId(tripId);
+    return affects;
+  }
+
+  private AgencyAndId aid(String id) {
+    return new AgencyAndId("1", id);
+  }
+}
@@ -32,14 +32,19 @@ import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.
 import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.trip;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.hibernate.SessionFactory;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mockito;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data_federation.impl.transit_graph.BlockEntryImpl;
 import org.onebusaway.transit_data_federation.impl.transit_graph.RouteEntryImpl;
@@ -780,4 +785,93 @@ public class ServiceAlertsServiceImplTest extends AbstractTransactionalJUnit4Spr
         assertTrue(alerts.contains(alert1));
 
     }
+
+    @Test
+    public void testReadersDuringReload() throws InterruptedException {
+        final List<ServiceAlertRecord> records = new ArrayList<ServiceAlertRecord>();
+        for (int i = 0; i < 500; i++) {
+            ServiceAlertRecord alert = new ServiceAlertRecord();
+            alert.setAgencyId("1");
+            alert.setServiceAlertId("A" + i);
+            ServiceAlertsSituationAffectsClause affectsClause = new ServiceAlertsSituationAffectsClause();
+            affectsClause.setAgencyId("1");
+            alert.getAllAffects().add(affectsClause);
+            records.add(alert);
+        }
+
+        ServiceAlertsPersistence persister = Mockito.mock(ServiceAlertsPersistence.class);
+        Mockito.when(persister.getAlerts()).thenReturn(records);
+
+        final ServiceAlertsServiceImpl service = new ServiceAlertsServiceImpl();
+        service.setServiceAlertsCache(new ServiceAlertsCacheInMemoryImpl());
+        service.setServiceAlertsPersistence(persister);
+        service.loadServiceAlerts();
+
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread reloader = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 50; i++)
+                    service.loadServiceAlerts();
+                done.set(true);
+            }
+        };
+        reloader.start();
+
+        // readers only ever see a complete snapshot
+        long now = System.currentTimeMillis();
+        while (!done.get()) {
+            assertEquals(records.size(), service.getAllServiceAlerts().size());
+            assertEquals(records.size(),
+                    service.getServiceAlertsForAgencyId(now, "1").size());
+        }
+        reloader.join();
+
+        assertEquals(51, service.getSnapshotCount());
+        assertEquals(records.size(), service.getSnapshotServiceAlertCount());
+    }
+
+    @Test
+    public void testUpdateServiceAlertsPublishesOneSnapshot() {
+        ServiceAlertsPersistence persister = Mockito.mock(ServiceAlertsPersistence.class);
+        Mockito.when(persister.getAlerts()).thenReturn(
+                new ArrayList<ServiceAlertRecord>());
+
+        ServiceAlertsServiceImpl service = new ServiceAlertsServiceImpl();
+        service.setServiceAlertsCache(new ServiceAlertsCacheInMemoryImpl());
+        service.setServiceAlertsPersistence(persister);
+
+        List<ServiceAlertRecord> records = new ArrayList<ServiceAlertRecord>();
+        for (int i = 0; i < 10; i++) {
+            ServiceAlertRecord alert = new ServiceAlertRecord();
+            alert.setAgencyId("1");
+            alert.setServiceAlertId("A" + i);
+            ServiceAlertsSituationAffectsClause affectsClause = new ServiceAlertsSituationAffectsClause();
+            affectsClause.setAgencyId("1");
+            alert.getAllAffects().add(affectsClause);
+            records.add(alert);
+        }
+        service.updateServiceAlerts(records,
+                Collections.<AgencyAndId> emptyList());
+
+        assertEquals(1, service.getSnapshotCount());
+        assertEquals(10, service.getAllServiceAlerts().size());
+        assertEquals(10, service.getServiceAlertsForAgencyId(
+                System.currentTimeMillis(), "1").size());
+        Mockito.verify(persister, Mockito.times(10)).saveOrUpdate(
+                Mockito.any(ServiceAlertRecord.class));
+
+        // update one alert and remove two others in the same refresh
+        ServiceAlertRecord updated = new ServiceAlertRecord();
+        updated.setAgencyId("1");
+        updated.setServiceAlertId("A0");
+        service.updateServiceAlerts(Arrays.asList(updated), Arrays.asList(
+                AgencyAndIdLibrary.convertFromString("1_A1"),
+                AgencyAndIdLibrary.convertFromString("1_A2")));
+
+        assertEquals(2, service.getSnapshotCount());
+        assertEquals(8, service.getAllServiceAlerts().size());
+        assertEquals(7, service.getServiceAlertsForAgencyId(
+                System.currentTimeMillis(), "1").size());
+    }
 }
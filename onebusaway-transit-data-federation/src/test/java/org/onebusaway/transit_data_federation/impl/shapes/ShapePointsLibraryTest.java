@@ -20,6 +20,7 @@ import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 import org.onebusaway.geospatial.model.CoordinatePoint;
@@ -164,6 +165,79 @@ public class ShapePointsLibraryTest {
     assertEquals(6.2, assignment.distanceFromTarget, 0.1);
   }
 
+  @Test
+  public void testProjectedBlockShapeMatchesPointList() {
+
+    ShapePointsLibrary spl = new ShapePointsLibrary();
+    spl.setLocalMinimumThreshold(20);
+
+    /**
+     * A wandering shape that doubles back on itself, so that targets pick up
+     * multiple local mins
+     */
+    Random random = new Random(42);
+    List<XYPoint> points = new ArrayList<XYPoint>();
+    double x = 0;
+    double y = 0;
+    for (int i = 0; i < 500; i++) {
+      points.add(p(x, y));
+      double heading = (i / 100) % 2 == 0 ? 0 : Math.PI;
+      heading += (random.nextDouble() - 0.5);
+      x += 25 * Math.cos(heading);
+      y += 25 * Math.sin(heading) + 0.5;
+    }
+    // Include a degenerate segment
+    points.add(points.get(points.size() - 1));
+
+    double[] shapePointDistances = shapePointDistances(points);
+    ProjectedBlockShape shape = ProjectedBlockShape.create(0, points,
+        shapePointDistances);
+
+    List<XYPoint> targets = new ArrayList<XYPoint>();
+    for (int i = 0; i < 200; i++) {
+      XYPoint point = points.get(random.nextInt(points.size()));
+      targets.add(p(point.getX() + random.nextGaussian() * 15, point.getY()
+          + random.nextGaussian() * 15));
+    }
+
+    for (XYPoint target : targets) {
+      int fromIndex = random.nextInt(points.size() / 2);
+      int toIndex = fromIndex + random.nextInt(points.size() - fromIndex) + 1;
+
+      List<PointAndIndex> expected = spl.computePotentialAssignments(points,
+          shapePointDistances, target, fromIndex, toIndex);
+      List<PointAndIndex> actual = spl.computePotentialAssignments(shape,
+          target, fromIndex, toIndex);
+
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        PointAndIndex a = expected.get(i);
+        PointAndIndex b = actual.get(i);
+        assertEquals(a.index, b.index);
+        assertEquals(a.point.getX(), b.point.getX(), 1e-6);
+        assertEquals(a.point.getY(), b.point.getY(), 1e-6);
+        assertEquals(a.distanceFromTarget, b.distanceFromTarget, 1e-6);
+        assertEquals(a.distanceAlongShape, b.distanceAlongShape, 1e-6);
+      }
+    }
+  }
+
+  @Test
+  public void testProjectedBlockShapeIndexForDistance() {
+    ProjectedBlockShape shape = new ProjectedBlockShape(0, new double[] {
+        0, 1, 2, 3}, new double[] {0, 0, 0, 0}, new double[] {0, 10, 20, 30});
+
+    assertEquals(0, shape.getFromIndexForDistance(0));
+    assertEquals(0, shape.getFromIndexForDistance(5));
+    assertEquals(1, shape.getFromIndexForDistance(10));
+    assertEquals(2, shape.getFromIndexForDistance(25));
+
+    assertEquals(4, shape.getToIndexForDistance(30));
+    assertEquals(4, shape.getToIndexForDistance(25));
+    assertEquals(2, shape.getToIndexForDistance(20));
+    assertEquals(3, shape.getToIndexForDistance(15));
+  }
+
   private XYPoint p(double x, double y) {
     return new XYPoint(x, y);
   }
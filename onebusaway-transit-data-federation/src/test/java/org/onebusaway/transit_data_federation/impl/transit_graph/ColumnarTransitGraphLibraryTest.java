@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.transit_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.agency;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.aid;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.block;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.linkBlockTrips;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.route;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.routeCollection;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stop;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stopTime;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.trip;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.onebusaway.realtime.api.OccupancyStatus;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.RouteEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.StopEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.StopTimeEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.TripEntry;
+
+public class ColumnarTransitGraphLibraryTest {
+
+  @Test
+  public void testRoundTrip() throws IOException {
+
+    AgencyEntryImpl agency = agency("1");
+    StopEntryImpl stopA = stop("a", 47.0, -122.0);
+    StopEntryImpl stopB = stop("b", 47.1, -122.1);
+    agency.setStops(Arrays.asList((StopEntry) stopA, stopB));
+
+    RouteEntryImpl route = route("r");
+    RouteCollectionEntryImpl routeCollection = routeCollection("rc", route);
+
+    TripEntryImpl tripA = trip("tA", "s1", 1000.0);
+    TripEntryImpl tripB = trip("tB", "s1", 800.0);
+    tripA.setRoute(route);
+    tripA.setDirectionId("0");
+    tripA.setShapeId(aid("shape"));
+    tripB.setRoute(route);
+    route.setTrips(Arrays.asList((TripEntry) tripA, tripB));
+
+    StopTimeEntryImpl stA1 = stopTime(1, stopA, tripA, 100, 110, 0.0);
+    stopTime(2, stopB, tripA, 200, 200, 1000.0);
+    stopTime(3, stopB, tripB, 300, 300, 0.0);
+    stopTime(4, stopA, tripB, 400, 420, 800.0);
+    stA1.setHistoricalOccupancy(OccupancyStatus.FEW_SEATS_AVAILABLE);
+
+    BlockEntryImpl block = block("b");
+    linkBlockTrips(block, tripA, tripB);
+
+    TransitGraphImpl graph = new TransitGraphImpl();
+    graph.putAgencyEntry(agency);
+    graph.putStopEntry(stopA);
+    graph.putStopEntry(stopB);
+    graph.putRouteEntry(route);
+    graph.putRouteCollectionEntry(routeCollection);
+    graph.putTripEntry(tripA);
+    graph.putTripEntry(tripB);
+    graph.putBlockEntry(block);
+    graph.initialize();
+
+    File path = File.createTempFile("TransitGraph-", ".columns");
+    path.deleteOnExit();
+
+    ColumnarTransitGraphLibrary.writeGraph(path, graph);
+    TransitGraphImpl read = ColumnarTransitGraphLibrary.readGraph(path);
+
+    assertEquals(1, read.getAllAgencies().size());
+    assertEquals(2, read.getAgencyForId("1").getStops().size());
+
+    StopEntry readStopB = read.getStopEntryForId(aid("b"));
+    assertEquals(47.1, readStopB.getStopLat(), 0.0);
+    assertEquals(-122.1, readStopB.getStopLon(), 0.0);
+    assertEquals(1, readStopB.getIndex());
+
+    RouteEntry readRoute = read.getRouteForId(aid("r"));
+    assertSame(read.getRouteCollectionForId(aid("rc")), readRoute.getParent());
+    assertEquals(2, readRoute.getTrips().size());
+
+    TripEntry readTripA = read.getTripEntryForId(aid("tA"));
+    assertEquals("0", readTripA.getDirectionId());
+    assertEquals(aid("shape"), readTripA.getShapeId());
+    assertEquals(aid("s1"), readTripA.getServiceId().getId());
+    assertEquals(1000.0, readTripA.getTotalTripDistance(), 0.0);
+    assertSame(readRoute, readTripA.getRoute());
+
+    List<StopTimeEntry> stopTimes = readTripA.getStopTimes();
+    assertEquals(2, stopTimes.size());
+    StopTimeEntry readSt = stopTimes.get(0);
+    assertEquals(1, readSt.getId());
+    assertEquals(100, readSt.getArrivalTime());
+    assertEquals(110, readSt.getDepartureTime());
+    assertEquals(OccupancyStatus.FEW_SEATS_AVAILABLE,
+        readSt.getHistoricalOccupancy());
+    assertSame(read.getStopEntryForId(aid("a")), readSt.getStop());
+    assertSame(readTripA, readSt.getTrip());
+    assertEquals(stopTimes.get(0), readSt);
+    assertNull(stopTimes.get(1).getHistoricalOccupancy());
+    assertEquals(1000.0, stopTimes.get(1).getShapeDistTraveled(), 0.0);
+
+    BlockEntry readBlock = read.getBlockEntryForId(aid("b"));
+    assertSame(readBlock, readTripA.getBlock());
+    assertEquals(1, readBlock.getConfigurations().size());
+    BlockConfigurationEntry blockConfig = readBlock.getConfigurations().get(0);
+    assertEquals(1800.0, blockConfig.getTotalBlockDistance(), 0.0);
+    assertEquals(4, blockConfig.getStopTimes().size());
+    assertEquals(300, blockConfig.getArrivalTimeForIndex(2));
+    assertEquals(1800.0, blockConfig.getDistanceAlongBlockForIndex(3), 0.0);
+  }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.transit_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stop;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.onebusaway.geospatial.model.CoordinateBounds;
+import org.onebusaway.geospatial.services.SphericalGeometryLibrary;
+import org.onebusaway.transit_data_federation.services.transit_graph.StopEntry;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+public class StopSpatialIndexTest {
+
+  @Test
+  public void testEmpty() {
+    StopSpatialIndex index = StopSpatialIndex.create(new ArrayList<StopEntry>());
+    assertEquals(0, index.size());
+    assertTrue(index.getStopsByBounds(new CoordinateBounds(-1, -1, 1, 1)).isEmpty());
+    assertTrue(index.getNearestStops(0, 0, 10, Double.POSITIVE_INFINITY).isEmpty());
+  }
+
+  @Test
+  public void testNearestStops() {
+    StopEntry stopA = stop("a", 47.600, -122.300);
+    StopEntry stopB = stop("b", 47.601, -122.300);
+    StopEntry stopC = stop("c", 47.610, -122.300);
+    List<StopEntry> stops = new ArrayList<StopEntry>();
+    stops.add(stopC);
+    stops.add(stopA);
+    stops.add(stopB);
+    StopSpatialIndex index = StopSpatialIndex.create(stops);
+
+    List<StopEntry> nearest = index.getNearestStops(47.6001, -122.300, 2,
+        Double.POSITIVE_INFINITY);
+    assertEquals(2, nearest.size());
+    assertEquals(stopA, nearest.get(0));
+    assertEquals(stopB, nearest.get(1));
+
+    nearest = index.getStopsWithinRadius(47.6001, -122.300, 500);
+    assertEquals(2, nearest.size());
+
+    nearest = index.getNearestStops(47.6001, -122.300, 0, 500);
+    assertEquals(0, nearest.size());
+  }
+
+  @Test
+  public void testMatchesBruteForce() {
+
+    Random random = new Random(42);
+    List<StopEntry> stops = randomStops(random, 5000);
+    StopSpatialIndex index = StopSpatialIndex.create(stops);
+    assertEquals(stops.size(), index.size());
+    double cosCenterLat = cosCenterLat(stops);
+
+    for (int i = 0; i < 500; i++) {
+      double lat = 47.6 + (random.nextDouble() - 0.5) * 0.3;
+      double lon = -122.3 + (random.nextDouble() - 0.5) * 0.3;
+
+      CoordinateBounds bounds = SphericalGeometryLibrary.bounds(lat, lon,
+          random.nextInt(2000));
+      List<StopEntry> expected = new ArrayList<StopEntry>();
+      for (StopEntry stop : stops) {
+        if (bounds.contains(stop.getStopLat(), stop.getStopLon()))
+          expected.add(stop);
+      }
+      assertEquals(new HashSet<StopEntry>(expected), new HashSet<StopEntry>(
+          index.getStopsByBounds(bounds)));
+
+      /**
+       * Compare distances rather than stops, since equidistant stops may come
+       * back in either order
+       */
+      int maxCount = 1 + random.nextInt(20);
+      double maxDistance = random.nextBoolean() ? Double.POSITIVE_INFINITY
+          : random.nextInt(1000);
+      List<Double> expectedDistances = new ArrayList<Double>();
+      for (StopEntry stop : stops) {
+        double d = distance(cosCenterLat, stop, lat, lon);
+        if (d <= maxDistance)
+          expectedDistances.add(d);
+      }
+      Collections.sort(expectedDistances);
+      if (expectedDistances.size() > maxCount)
+        expectedDistances = expectedDistances.subList(0, maxCount);
+
+      List<StopEntry> nearest = index.getNearestStops(lat, lon, maxCount,
+          maxDistance);
+      assertEquals(expectedDistances.size(), nearest.size());
+      for (int j = 0; j < nearest.size(); j++)
+        assertEquals(expectedDistances.get(j),
+            distance(cosCenterLat, nearest.get(j), lat, lon), 1e-6);
+    }
+  }
+
+  /**
+   * The previous approach: query an STRtree for the bounding box of the search
+   * radius, then sort the candidates by distance. The kd-tree should find the
+   * same nearest stops directly.
+   */
+  @Test
+  public void testMatchesBoundingBoxSearch() {
+
+    Random random = new Random(42);
+    List<StopEntry> stops = randomStops(random, 10000);
+
+    STRtree tree = new STRtree(stops.size());
+    for (StopEntry stop : stops) {
+      tree.insert(new Envelope(stop.getStopLon(), stop.getStopLon(),
+          stop.getStopLat(), stop.getStopLat()), stop);
+    }
+    tree.build();
+    StopSpatialIndex index = StopSpatialIndex.create(stops);
+
+    int queries = 2000;
+    double[] lats = new double[queries];
+    double[] lons = new double[queries];
+    for (int i = 0; i < queries; i++) {
+      lats[i] = 47.6 + (random.nextDouble() - 0.5) * 0.3;
+      lons[i] = -122.3 + (random.nextDouble() - 0.5) * 0.3;
+    }
+    double radius = 800;
+    int maxCount = 10;
+
+    long found = 0;
+    for (int i = 0; i < queries; i++) {
+      final double lat = lats[i];
+      final double lon = lons[i];
+      CoordinateBounds b = SphericalGeometryLibrary.bounds(lat, lon, radius);
+      @SuppressWarnings("unchecked")
+      List<StopEntry> candidates = tree.query(new Envelope(b.getMinLon(),
+          b.getMaxLon(), b.getMinLat(), b.getMaxLat()));
+      List<StopEntry> matches = new ArrayList<StopEntry>();
+      for (StopEntry stop : candidates) {
+        if (SphericalGeometryLibrary.distance(lat, lon, stop.getStopLat(),
+            stop.getStopLon()) <= radius)
+          matches.add(stop);
+      }
+      Collections.sort(matches, new Comparator<StopEntry>() {
+        @Override
+        public int compare(StopEntry a, StopEntry b) {
+          return Double.compare(
+              SphericalGeometryLibrary.distance(lat, lon, a.getStopLat(),
+                  a.getStopLon()),
+              SphericalGeometryLibrary.distance(lat, lon, b.getStopLat(),
+                  b.getStopLon()));
+        }
+      });
+      found += Math.min(matches.size(), maxCount);
+    }
+    for (int i = 0; i < queries; i++)
+      found -= index.getNearestStops(lats[i], lons[i], maxCount, radius).size();
+
+    /**
+     * The two measure distance slightly differently, so only check that they
+     * found roughly the same number of stops
+     */
+    assertTrue(Math.abs(found) < queries / 100);
+  }
+
+  private List<StopEntry> randomStops(Random random, int count) {
+    List<StopEntry> stops = new ArrayList<StopEntry>();
+    for (int i = 0; i < count; i++) {
+      double lat = 47.6 + (random.nextDouble() - 0.5) * 0.3;
+      double lon = -122.3 + (random.nextDouble() - 0.5) * 0.3;
+      stops.add(stop(Integer.toString(i), lat, lon));
+    }
+    // Include some duplicate locations
+    for (int i = 0; i < count / 100; i++) {
+      StopEntry stop = stops.get(random.nextInt(stops.size()));
+      stops.add(stop("dup" + i, stop.getStopLat(), stop.getStopLon()));
+    }
+    return stops;
+  }
+
+  private double cosCenterLat(List<StopEntry> stops) {
+    double minLat = Double.POSITIVE_INFINITY;
+    double maxLat = Double.NEGATIVE_INFINITY;
+    for (StopEntry stop : stops) {
+      minLat = Math.min(minLat, stop.getStopLat());
+      maxLat = Math.max(maxLat, stop.getStopLat());
+    }
+    return Math.cos(Math.toRadians((minLat + maxLat) / 2));
+  }
+
+  /**
+   * The projected distance the index orders by: equirectangular, centered on
+   * the middle latitude of the stops
+   */
+  private double distance(double cosCenterLat, StopEntry stop, double lat,
+      double lon) {
+    double r = SphericalGeometryLibrary.RADIUS_OF_EARTH_IN_KM * 1000;
+    double dx = r * Math.toRadians(stop.getStopLon() - lon) * cosCenterLat;
+    double dy = r * Math.toRadians(stop.getStopLat() - lat);
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.siri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import uk.org.siri.siri_2.DirectionRefStructure;
+import uk.org.siri.siri_2.ExtensionsStructure;
+import uk.org.siri.siri_2.LineRefStructure;
+import uk.org.siri.siri_2.LocationStructure;
+import uk.org.siri.siri_2.MonitoredCallStructure;
+import uk.org.siri.siri_2.MonitoredStopVisitStructure;
+import uk.org.siri.siri_2.MonitoredVehicleJourneyStructure;
+import uk.org.siri.siri_2.NaturalLanguageStringStructure;
+import uk.org.siri.siri_2.ServiceDelivery;
+import uk.org.siri.siri_2.Siri;
+import uk.org.siri.siri_2.StopMonitoringDeliveryStructure;
+import uk.org.siri.siri_2.StopPointRefStructure;
+import uk.org.siri.siri_2.VehicleActivityStructure;
+import uk.org.siri.siri_2.VehicleActivityStructure.MonitoredVehicleJourney;
+import uk.org.siri.siri_2.VehicleMonitoringDeliveryStructure;
+import uk.org.siri.siri_2.VehicleRefStructure;
+
+public class SiriSerializerV2Test {
+
+  private final SiriXmlSerializerV2 _xmlSerializer = new SiriXmlSerializerV2();
+
+  private final SiriJsonSerializerV2 _jsonSerializer = new SiriJsonSerializerV2();
+
+  @Test
+  public void testXmlDropsExtensionWrappers() throws Exception {
+    String xml = _xmlSerializer.getXml(vehicleMonitoring(3));
+
+    assertTrue(xml.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"));
+    assertFalse(xml.contains("siriExtensionWrapper"));
+    assertEquals(3, StringUtils.countMatches(xml, "<Distances"));
+    assertEquals(3, StringUtils.countMatches(xml, "</Distances>"));
+    assertEquals(3, StringUtils.countMatches(xml, "<CallDistanceAlongRoute>"));
+    assertTrue(xml.contains("VehicleActivity"));
+
+    StringWriter output = new StringWriter();
+    _xmlSerializer.writeXml(vehicleMonitoring(3), output);
+    assertEquals(xml, output.toString());
+  }
+
+  @Test
+  public void testJson() throws Exception {
+    Siri siri = stopMonitoring(3);
+    String json = _jsonSerializer.getJson(siri);
+    assertEquals(new SiriJsonSerializerV2().getJson(siri), json);
+    assertTrue(json.startsWith("{\"Siri\":"));
+
+    StringWriter output = new StringWriter();
+    _jsonSerializer.writeJson(siri, "callback", output);
+    assertEquals("callback(" + json + ")", output.toString());
+  }
+
+  @Test
+  public void testConcurrentSerialization() throws Exception {
+    final Siri siri = vehicleMonitoring(20);
+    final String xml = _xmlSerializer.getXml(siri);
+    final String json = _jsonSerializer.getJson(siri);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < 200; i++) {
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            return xml.equals(_xmlSerializer.getXml(siri))
+                && json.equals(_jsonSerializer.getJson(siri));
+          }
+        }));
+      }
+      for (Future<Boolean> result : results)
+        assertTrue(result.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * VM and SM responses of typical sizes stream as well-formed XML with one
+   * distance extension per journey and no wrapper elements, and the shared
+   * JSON mapper writes the same document as a fresh one.
+   */
+  @Test
+  public void testResponseSizes() throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    DocumentBuilder builder = factory.newDocumentBuilder();
+
+    for (int size : new int[] {1, 25, 500}) {
+      for (Siri siri : Arrays.asList(vehicleMonitoring(size),
+          stopMonitoring(size))) {
+        StringWriter xml = new StringWriter();
+        _xmlSerializer.writeXml(siri, xml);
+        String document = xml.toString();
+        builder.parse(new InputSource(new StringReader(document)));
+        assertFalse(document.contains("siriExtensionWrapper"));
+        assertEquals(size, StringUtils.countMatches(document,
+            "<CallDistanceAlongRoute>"));
+
+        StringWriter json = new StringWriter();
+        _jsonSerializer.writeJson(siri, null, json);
+        assertEquals(new SiriJsonSerializerV2().getJson(siri), json.toString());
+      }
+    }
+  }
+
+  private Siri vehicleMonitoring(int vehicles) throws Exception {
+    VehicleMonitoringDeliveryStructure delivery = new VehicleMonitoringDeliveryStructure();
+    delivery.setResponseTimestamp(time(0));
+    for (int i = 0; i < vehicles; i++) {
+      VehicleActivityStructure activity = new VehicleActivityStructure();
+      activity.setRecordedAtTime(time(i));
+      MonitoredVehicleJourney journey = new MonitoredVehicleJourney();
+      fillJourney(journey, i);
+      activity.setMonitoredVehicleJourney(journey);
+      delivery.getVehicleActivity().add(activity);
+    }
+    ServiceDelivery serviceDelivery = new ServiceDelivery();
+    serviceDelivery.setResponseTimestamp(time(0));
+    serviceDelivery.getVehicleMonitoringDelivery().add(delivery);
+    Siri siri = new Siri();
+    siri.setServiceDelivery(serviceDelivery);
+    return siri;
+  }
+
+  private Siri stopMonitoring(int visits) throws Exception {
+    StopMonitoringDeliveryStructure delivery = new StopMonitoringDeliveryStructure();
+    delivery.setResponseTimestamp(time(0));
+    for (int i = 0; i < visits; i++) {
+      MonitoredStopVisitStructure visit = new MonitoredStopVisitStructure();
+      visit.setRecordedAtTime(time(i));
+      MonitoredVehicleJourneyStructure journey = new MonitoredVehicleJourneyStructure();
+      fillJourney(journey, i);
+      visit.setMonitoredVehicleJourney(journey);
+      delivery.getMonitoredStopVisit().add(visit);
+    }
+    ServiceDelivery serviceDelivery = new ServiceDelivery();
+    serviceDelivery.setResponseTimestamp(time(0));
+    serviceDelivery.getStopMonitoringDelivery().add(delivery);
+    Siri siri = new Siri();
+    siri.setServiceDelivery(serviceDelivery);
+    return siri;
+  }
+
+  private void fillJourney(MonitoredVehicleJourneyStructure journey, int i)
+      throws Exception {
+    LineRefStructure lineRef = new LineRefStructure();
+    lineRef.setValue("1_route" + (i % 10));
+    journey.setLineRef(lineRef);
+
+    DirectionRefStructure directionRef = new DirectionRefStructure();
+    directionRef.setValue(String.valueOf(i % 2));
+    journey.setDirectionRef(directionRef);
+
+    NaturalLanguageStringStructure lineName = new NaturalLanguageStringStructure();
+    lineName.setValue("Route " + (i % 10));
+    journey.getPublishedLineName().add(lineName);
+
+    VehicleRefStructure vehicleRef = new VehicleRefStructure();
+    vehicleRef.setValue("1_vehicle" + i);
+    journey.setVehicleRef(vehicleRef);
+
+    LocationStructure location = new LocationStructure();
+    location.setLatitude(new BigDecimal("47.653" + i));
+    location.setLongitude(new BigDecimal("-122.307" + i));
+    journey.setVehicleLocation(location);
+    journey.setBearing(90.0f);
+
+    MonitoredCallStructure call = new MonitoredCallStructure();
+    StopPointRefStructure stopPointRef = new StopPointRefStructure();
+    stopPointRef.setValue("1_stop" + i);
+    call.setStopPointRef(stopPointRef);
+    call.setExpectedArrivalTime(time(i + 60));
+    call.setDistanceFromStop(BigInteger.valueOf(250 + i));
+    call.setNumberOfStopsAway(BigInteger.valueOf(i % 5));
+
+    SiriDistanceExtension distances = new SiriDistanceExtension();
+    distances.setCallDistanceAlongRoute(1000.5 + i);
+    distances.setPresentableDistance((i % 5) + " stops away");
+    SiriExtensionWrapper wrapper = new SiriExtensionWrapper();
+    wrapper.setDistances(distances);
+    ExtensionsStructure extensions = new ExtensionsStructure();
+    extensions.setAny(wrapper);
+    call.setExtensions(extensions);
+    journey.setMonitoredCall(call);
+  }
+
+  private XMLGregorianCalendar time(int seconds) throws Exception {
+    GregorianCalendar calendar = new GregorianCalendar();
+    calendar.setTimeInMillis(1500000000000L + seconds * 1000L);
+    return DatatypeFactory.newInstance().newXMLGregorianCalendar(calendar);
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data.model;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.exceptions.NoSuchAgencyServiceException;
+import org.onebusaway.exceptions.ServiceException;
+import org.onebusaway.federations.FederatedService;
+import org.onebusaway.federations.FederatedServiceCollection;
+import org.onebusaway.federations.annotations.AgencyIdSupport;
+import org.onebusaway.federations.annotations.FederatedByEntityIdsMethod;
+import org.onebusaway.federations.annotations.FederatedServiceMethodInvocationHandler;
+import org.onebusaway.transit_data.services.TransitDataService;
+
+/**
+ * A custom {@link FederatedServiceMethodInvocationHandler} for batch lookups
+ * that take a single collection of entity ids and return a {@link ListBean} of
+ * {@link StopBean} or {@link RouteBean}, such as
+ * {@link TransitDataService#getStopsForIds(Collection)}.
+ * 
+ * Unlike {@link FederatedByEntityIdsMethod}, the ids may belong to agencies
+ * served by different federated services. The ids are split by service, each
+ * service is asked for its own ids, and the results are merged back into
+ * request order. Ids whose agency isn't served by any service can't be
+ * resolved and, like any other unresolved id, are omitted from the result.
+ * 
+ * @see TransitDataService#getStopsForIds(Collection)
+ * @see TransitDataService#getRoutesForIds(Collection)
+ */
+public class EntityIdsListBeanFederatedServiceMethodInvocationHandler
+    implements FederatedServiceMethodInvocationHandler {
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public Object invoke(FederatedServiceCollection collection, Method method,
+      Object[] args) throws ServiceException, IllegalArgumentException,
+      IllegalAccessException, InvocationTargetException {
+    if (args.length != 1) {
+      throw new ServiceException("unexpected number of arguments");
+    }
+
+    Collection<String> ids = (Collection<String>) args[0];
+
+    Map<FederatedService, List<String>> idsByService = new LinkedHashMap<FederatedService, List<String>>();
+    for (String id : ids) {
+      String agencyId = AgencyIdSupport.getAgencyIdFromEntityId(id);
+      FederatedService service;
+      try {
+        service = collection.getServiceForAgencyId(agencyId);
+      } catch (NoSuchAgencyServiceException ex) {
+        continue;
+      }
+      List<String> serviceIds = idsByService.get(service);
+      if (serviceIds == null) {
+        serviceIds = new ArrayList<String>();
+        idsByService.put(service, serviceIds);
+      }
+      serviceIds.add(id);
+    }
+
+    if (idsByService.size() == 1) {
+      Map.Entry<FederatedService, List<String>> entry = idsByService.entrySet().iterator().next();
+      return method.invoke(entry.getKey(), entry.getValue());
+    }
+
+    Map<String, Object> beansById = new HashMap<String, Object>();
+    boolean limitExceeded = false;
+    for (Map.Entry<FederatedService, List<String>> entry : idsByService.entrySet()) {
+      ListBean<Object> result = (ListBean<Object>) method.invoke(
+          entry.getKey(), entry.getValue());
+      if (result == null)
+        continue;
+      limitExceeded |= result.isLimitExceeded();
+      for (Object bean : result.getList())
+        beansById.put(getId(bean), bean);
+    }
+
+    List<Object> beans = new ArrayList<Object>(beansById.size());
+    for (String id : ids) {
+      Object bean = beansById.get(id);
+      if (bean != null)
+        beans.add(bean);
+    }
+    return new ListBean<Object>(beans, limitExceeded);
+  }
+
+  private static String getId(Object bean) {
+    if (bean instanceof StopBean)
+      return ((StopBean) bean).getId();
+    if (bean instanceof RouteBean)
+      return ((RouteBean) bean).getId();
+    throw new IllegalStateException("unexpected batch result type: "
+        + bean.getClass().getName());
+  }
+}
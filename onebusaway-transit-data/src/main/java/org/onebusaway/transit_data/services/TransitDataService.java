@@ -129,6 +129,23 @@ public interface TransitDataService extends FederatedService {
   @FederatedByEntityIdMethod
   public RouteBean getRouteForId(String routeId) throws ServiceException;
 
+  /**
+   * Batch variant of {@link #getRouteForId(String)}, letting remote clients
+   * resolve many routes in a single round trip.
+   * 
+   * The ids may span agencies served by different federated services; see
+   * {@link EntityIdsListBeanFederatedServiceMethodInvocationHandler}.
+   * 
+   * @param routeIds
+   * @return the routes with the specified ids, in request order; ids that
+   *         could not be resolved, including ids for agencies that no service
+   *         covers, are omitted and logged by the serving instance
+   * @throws ServiceException
+   */
+  @FederatedByCustomMethod(handler = EntityIdsListBeanFederatedServiceMethodInvocationHandler.class)
+  public ListBean<RouteBean> getRoutesForIds(Collection<String> routeIds)
+      throws ServiceException;
+
   /**
    * @param agencyId
    * @return the list of all route ids for the specified agency id
@@ -348,6 +365,23 @@ public interface TransitDataService extends FederatedService {
   @FederatedByEntityIdMethod
   public StopBean getStop(String stopId) throws ServiceException;
 
+  /**
+   * Batch variant of {@link #getStop(String)}, letting remote clients resolve
+   * many stops in a single round trip.
+   * 
+   * The ids may span agencies served by different federated services; see
+   * {@link EntityIdsListBeanFederatedServiceMethodInvocationHandler}.
+   * 
+   * @param stopIds
+   * @return the stops with the specified ids, in request order; ids that could
+   *         not be resolved, including ids for agencies that no service
+   *         covers, are omitted and logged by the serving instance
+   * @throws ServiceException
+   */
+  @FederatedByCustomMethod(handler = EntityIdsListBeanFederatedServiceMethodInvocationHandler.class)
+  public ListBean<StopBean> getStopsForIds(Collection<String> stopIds)
+      throws ServiceException;
+
   /**
    * @param stopId
    * @param serviceDate
@@ -559,6 +593,22 @@ public interface TransitDataService extends FederatedService {
   @FederatedByAgencyIdMethod
   public List<String> getSearchSuggestions(String agencyId, String input);
 
+  /**
+   * Typeahead completion of a partially typed query against route and stop
+   * names, backed by the in-memory prefix index of the bundle's search
+   * indices. Each word of the prefix must start a word of the name.
+   * 
+   * @param agencyId if not null, only routes and stops of this agency are
+   *          suggested
+   * @param prefix the text typed so far
+   * @param maxCount maximum number of suggestions to return
+   * @return route short names and stop names completing the prefix, best
+   *         matches first
+   */
+  @FederatedByAgencyIdMethod
+  public List<String> getSearchSuggestionsForPrefix(String agencyId,
+      String prefix, int maxCount);
+
   /**
    * Given a stop, route, and direction, test if that stop has revenue service
    * on the given route in the given direction.
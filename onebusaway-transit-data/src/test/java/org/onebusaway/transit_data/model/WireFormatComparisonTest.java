@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2019 Cambridge Systematics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.onebusaway.container.spring.BinaryBeanCodec;
+import org.onebusaway.transit_data.model.service_alerts.ServiceAlertBean;
+import org.onebusaway.transit_data.model.trips.TripBean;
+import org.onebusaway.transit_data.model.trips.TripDetailsBean;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+
+/**
+ * Compares the {@link BinaryBeanCodec} format of the binary transit data
+ * service endpoint against Hessian, both uncompressed, for representative large
+ * response beans: the content must survive both, and the codec payload must
+ * be smaller.
+ */
+public class WireFormatComparisonTest {
+
+  @Test
+  public void testStopsWithArrivalsAndDepartures() throws Exception {
+    List<StopBean> stops = new ArrayList<StopBean>();
+    List<ArrivalAndDepartureBean> arrivals = new ArrayList<ArrivalAndDepartureBean>();
+    for (int i = 0; i < 10; i++)
+      stops.add(stop(i));
+    for (int i = 0; i < 200; i++) {
+      ArrivalAndDepartureBean bean = new ArrivalAndDepartureBean();
+      bean.setTrip(trip(i % 25));
+      bean.setStop(stops.get(i % stops.size()));
+      bean.setServiceDate(1546318800000L);
+      bean.setStopSequence(i);
+      bean.setScheduledArrivalTime(1546340400000L + i * 60000L);
+      bean.setScheduledDepartureTime(1546340400000L + i * 60000L);
+      bean.setPredictedArrivalTime(1546340460000L + i * 60000L);
+      bean.setPredictedDepartureTime(1546340460000L + i * 60000L);
+      bean.setVehicleId("1_" + (4000 + i % 25));
+      bean.setStatus("default");
+      bean.setRouteShortName("R" + (i % 5));
+      bean.setTripHeadsign("Downtown");
+      arrivals.add(bean);
+    }
+    StopsWithArrivalsAndDeparturesBean bean = new StopsWithArrivalsAndDeparturesBean(
+        stops, arrivals, new ArrayList<StopBean>(stops),
+        Collections.<ServiceAlertBean> emptyList());
+
+    for (StopsWithArrivalsAndDeparturesBean copy : compare(bean)) {
+      assertEquals(200, copy.getArrivalsAndDepartures().size());
+      ArrivalAndDepartureBean arrival = copy.getArrivalsAndDepartures().get(7);
+      assertEquals("1_4007", arrival.getVehicleId());
+      assertEquals(1546340820000L, arrival.getScheduledArrivalTime());
+      assertEquals("1_stop7", arrival.getStop().getId());
+      assertEquals("1_route2", arrival.getTrip().getRoute().getId());
+    }
+  }
+
+  @Test
+  public void testTripDetails() throws Exception {
+    List<TripStopTimeBean> stopTimes = new ArrayList<TripStopTimeBean>();
+    for (int i = 0; i < 80; i++) {
+      TripStopTimeBean stopTime = new TripStopTimeBean();
+      stopTime.setStop(stop(i));
+      stopTime.setArrivalTime(6 * 3600 + i * 90);
+      stopTime.setDepartureTime(6 * 3600 + i * 90 + 30);
+      stopTime.setDistanceAlongTrip(i * 350.5);
+      stopTimes.add(stopTime);
+    }
+    TripStopTimesBean schedule = new TripStopTimesBean();
+    schedule.setStopTimes(stopTimes);
+    schedule.setTimeZone("America/Los_Angeles");
+
+    TripDetailsBean bean = new TripDetailsBean();
+    bean.setTripId("1_trip0");
+    bean.setTrip(trip(0));
+    bean.setServiceDate(1546318800000L);
+    bean.setSchedule(schedule);
+
+    for (TripDetailsBean copy : compare(bean)) {
+      assertEquals("1_trip0", copy.getTripId());
+      assertEquals(80, copy.getSchedule().getStopTimes().size());
+      TripStopTimeBean stopTime = copy.getSchedule().getStopTimes().get(42);
+      assertEquals("1_stop42", stopTime.getStop().getId());
+      assertEquals(6 * 3600 + 42 * 90 + 30, stopTime.getDepartureTime());
+      assertEquals(42 * 350.5, stopTime.getDistanceAlongTrip(), 0.0);
+    }
+  }
+
+  /**
+   * Round-trips the bean through both formats, checks that the codec payload
+   * is the smaller one and returns both copies so the caller can check the
+   * content survived.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> List<T> compare(T bean) throws IOException,
+      ClassNotFoundException {
+
+    byte[] hessian = writeHessian(bean);
+    byte[] binary = writeBinary(bean);
+
+    assertTrue("binary payload of " + binary.length
+        + " bytes is not smaller than hessian payload of " + hessian.length
+        + " bytes", binary.length < hessian.length);
+
+    T binaryCopy = (T) BinaryBeanCodec.read(new ByteArrayInputStream(binary),
+        getClass().getClassLoader());
+    assertEquals(bean.getClass(), binaryCopy.getClass());
+
+    return Arrays.asList((T) readHessian(hessian), binaryCopy);
+  }
+
+  private static byte[] writeHessian(Object bean) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bytes);
+    out.writeObject(bean);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static Object readHessian(byte[] data) throws IOException {
+    Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data));
+    Object bean = in.readObject();
+    in.close();
+    return bean;
+  }
+
+  private static byte[] writeBinary(Object bean) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryBeanCodec.write(bean, bytes);
+    return bytes.toByteArray();
+  }
+
+  private static StopBean stop(int index) {
+    StopBean stop = new StopBean();
+    stop.setId("1_stop" + index);
+    stop.setName("Stop " + index);
+    stop.setCode(Integer.toString(index));
+    stop.setLat(47.6 + index * 0.001);
+    stop.setLon(-122.3 - index * 0.001);
+    stop.setDirection("N");
+    return stop;
+  }
+
+  private static TripBean trip(int index) {
+    RouteBean.Builder route = RouteBean.builder();
+    route.setId("1_route" + (index % 5));
+    route.setShortName("R" + (index % 5));
+    route.setType(3);
+    TripBean trip = new TripBean();
+    trip.setId("1_trip" + index);
+    trip.setRoute(route.create());
+    trip.setTripHeadsign("Downtown");
+    trip.setServiceId("1_weekday");
+    trip.setShapeId("1_shape" + (index % 5));
+    trip.setBlockId("1_block" + index);
+    return trip;
+  }
+}